@@ -0,0 +1,123 @@
+package com.coinblesk.customserialization;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+
+/**
+ * This class splits encoded {@link SerializableObject}s into frames which fit
+ * into the data field of an APDU, so that messages can be transferred over
+ * NFC (ISO-DEP) regardless of their length. The frames are reassembled by the
+ * {@link ApduReassembler}.
+ * 
+ * <pre>
+ * header (FINAL_FLAG if this is the last frame | sequence number modulo 128)
+ * (+ length of the message (varint), in the first frame only)
+ * + the next part of the message
+ * </pre>
+ * 
+ * Since the first frame contains the length of the message, the receiver
+ * allocates the message only once and copies every frame only once.
+ */
+public class ApduFragmenter {
+	
+	/**
+	 * The maximum length of the data field of a short APDU.
+	 */
+	public static final int SHORT_APDU_MAX_DATA_LENGTH = 255;
+	
+	static final int FINAL_FLAG = 0x80;
+	static final int SEQUENCE_NUMBER_MASK = 0x7F;
+	
+	// the header, the length of the message (up to 5 bytes) and at least 1 byte of the message
+	private static final int MIN_FRAME_LENGTH = 1+5+1;
+	
+	private final int maxFrameLength;
+	
+	/**
+	 * This constructor instantiates a new object which creates frames of at
+	 * most {@link #SHORT_APDU_MAX_DATA_LENGTH} bytes.
+	 */
+	public ApduFragmenter() {
+		this.maxFrameLength = SHORT_APDU_MAX_DATA_LENGTH;
+	}
+	
+	/**
+	 * This constructor instantiates a new object.
+	 * 
+	 * @param maxFrameLength
+	 *            the maximum length of a frame, i.e., the maximum length of
+	 *            the data field of the APDUs (e.g., the maximum length
+	 *            negotiated for extended APDUs)
+	 * @throws IllegalArgumentException
+	 *             if the maximum length is smaller than 7 bytes
+	 */
+	public ApduFragmenter(int maxFrameLength) throws IllegalArgumentException {
+		if (maxFrameLength < MIN_FRAME_LENGTH)
+			throw new IllegalArgumentException("The maximum frame length must be at least "+MIN_FRAME_LENGTH+" bytes.");
+		
+		this.maxFrameLength = maxFrameLength;
+	}
+	
+	/**
+	 * Returns the maximum length of the frames created by this object.
+	 */
+	public int getMaxFrameLength() {
+		return maxFrameLength;
+	}
+	
+	/**
+	 * Encodes the given object and splits it into frames.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the object is null
+	 * @throws NotSignedException
+	 *             if the object has not been signed
+	 * @see #fragment(byte[])
+	 */
+	public List<byte[]> fragment(SerializableObject object) throws IllegalArgumentException, NotSignedException {
+		if (object == null)
+			throw new IllegalArgumentException("The object cannot be null.");
+		
+		return fragment(object.encode());
+	}
+	
+	/**
+	 * Splits the given message into frames, which have to be sent in the
+	 * order of the list. Every frame except the last one has the maximum
+	 * length.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the message is null or empty
+	 */
+	public List<byte[]> fragment(byte[] message) throws IllegalArgumentException {
+		if (message == null || message.length == 0)
+			throw new IllegalArgumentException("The message cannot be null or empty.");
+		
+		byte[] lengthBytes = PrimitiveTypeSerializer.getLongAsVarint(message.length);
+		int firstCapacity = maxFrameLength - 1 - lengthBytes.length;
+		int capacity = maxFrameLength - 1;
+		int nofFrames = 1;
+		if (message.length > firstCapacity)
+			nofFrames += (message.length - firstCapacity + capacity - 1) / capacity;
+		
+		List<byte[]> frames = new ArrayList<byte[]>(nofFrames);
+		int offset = 0;
+		for (int i=0; i<nofFrames; i++) {
+			int headerLength = i == 0 ? 1 + lengthBytes.length : 1;
+			int partLength = Math.min(maxFrameLength - headerLength, message.length - offset);
+			byte[] frame = new byte[headerLength + partLength];
+			frame[0] = (byte) ((i & SEQUENCE_NUMBER_MASK) | (i == nofFrames - 1 ? FINAL_FLAG : 0));
+			if (i == 0)
+				System.arraycopy(lengthBytes, 0, frame, 1, lengthBytes.length);
+			
+			System.arraycopy(message, offset, frame, headerLength, partLength);
+			offset += partLength;
+			frames.add(frame);
+		}
+		return frames;
+	}
+
+}
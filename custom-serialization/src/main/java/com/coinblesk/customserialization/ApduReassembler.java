@@ -0,0 +1,180 @@
+package com.coinblesk.customserialization;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.SerializationException;
+
+/**
+ * This class reassembles a message from the frames created by the
+ * {@link ApduFragmenter} as they arrive. The message is allocated once its
+ * length is known from the first frame, and every frame is copied directly
+ * into it, so that the complete message can be decoded as soon as the final
+ * frame has arrived.
+ * 
+ * An object reassembles one message at a time and can be reused by calling
+ * {@link #reset()}. It is not thread-safe.
+ */
+public class ApduReassembler {
+	
+	private final int maxMessageLength;
+	
+	private byte[] message;
+	private int received;
+	private int nofFrames;
+	private boolean complete;
+	
+	/**
+	 * This constructor instantiates a new object.
+	 * 
+	 * @param maxMessageLength
+	 *            the maximum length of a message, so that a corrupt or
+	 *            malicious first frame cannot make the receiver allocate an
+	 *            arbitrary amount of memory
+	 * @throws IllegalArgumentException
+	 *             if the maximum length is not greater than 0
+	 */
+	public ApduReassembler(int maxMessageLength) throws IllegalArgumentException {
+		if (maxMessageLength <= 0)
+			throw new IllegalArgumentException("The maximum message length must be greater than 0.");
+		
+		this.maxMessageLength = maxMessageLength;
+	}
+	
+	/**
+	 * Adds the next frame.
+	 * 
+	 * @see #add(byte[], int, int)
+	 */
+	public boolean add(byte[] frame) throws IllegalArgumentException {
+		if (frame == null)
+			throw new IllegalArgumentException("The frame cannot be null.");
+		
+		return add(frame, 0, frame.length);
+	}
+	
+	/**
+	 * Adds the next frame, which is located at the given offset of the given
+	 * byte array (e.g., the data field within a received APDU), without
+	 * copying it beforehand.
+	 * 
+	 * @param bytes
+	 *            the byte array containing the frame
+	 * @param offset
+	 *            the start of the frame
+	 * @param length
+	 *            the length of the frame
+	 * @return true if the message is complete, false if further frames are
+	 *         expected
+	 * @throws IllegalArgumentException
+	 *             if the frame is null or empty, if the message is already
+	 *             complete, if the frame does not have the expected sequence
+	 *             number, if the message is longer than the maximum length, or
+	 *             if the length of the frames does not match the length of the
+	 *             message
+	 */
+	public boolean add(byte[] bytes, int offset, int length) throws IllegalArgumentException {
+		if (bytes == null || length <= 0 || offset < 0 || offset + length > bytes.length)
+			throw new IllegalArgumentException("The frame cannot be null or empty.");
+		
+		if (complete)
+			throw new IllegalArgumentException("The message is already complete.");
+		
+		int header = bytes[offset] & 0xFF;
+		if ((header & ApduFragmenter.SEQUENCE_NUMBER_MASK) != (nofFrames & ApduFragmenter.SEQUENCE_NUMBER_MASK))
+			throw new IllegalArgumentException("Expected the frame "+(nofFrames & ApduFragmenter.SEQUENCE_NUMBER_MASK)+", but received the frame "+(header & ApduFragmenter.SEQUENCE_NUMBER_MASK)+".");
+		
+		int index = offset + 1;
+		int end = offset + length;
+		if (nofFrames == 0) {
+			long messageLength;
+			try {
+				messageLength = PrimitiveTypeSerializer.getVarintAsLong(bytes, index);
+			} catch (IndexOutOfBoundsException e) {
+				throw new IllegalArgumentException("The frame is corrupt (not long enough).");
+			}
+			if (messageLength < 1 || messageLength > maxMessageLength)
+				throw new IllegalArgumentException("The message length "+messageLength+" is not between 1 and "+maxMessageLength+".");
+			
+			index += PrimitiveTypeSerializer.getVarintLength(messageLength);
+			if (index > end)
+				throw new IllegalArgumentException("The frame is corrupt (not long enough).");
+			
+			message = new byte[(int) messageLength];
+		}
+		
+		int partLength = end - index;
+		if (partLength > message.length - received)
+			throw new IllegalArgumentException("The frames are longer than the message.");
+		
+		System.arraycopy(bytes, index, message, received, partLength);
+		received += partLength;
+		nofFrames++;
+		
+		boolean isFinal = (header & ApduFragmenter.FINAL_FLAG) != 0;
+		if (isFinal != (received == message.length))
+			throw new IllegalArgumentException("The final frame does not match the end of the message.");
+		
+		complete = isFinal;
+		return complete;
+	}
+	
+	/**
+	 * Returns true if the final frame has been added.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * Returns the number of bytes of the message received so far.
+	 */
+	public int getReceived() {
+		return received;
+	}
+	
+	/**
+	 * Returns the length of the message, or -1 if the first frame has not been
+	 * added yet.
+	 */
+	public int getMessageLength() {
+		return message == null ? -1 : message.length;
+	}
+	
+	/**
+	 * Returns the reassembled message.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the message is not complete
+	 */
+	public byte[] getMessage() throws IllegalArgumentException {
+		if (!complete)
+			throw new IllegalArgumentException("The message is not complete.");
+		
+		return message;
+	}
+	
+	/**
+	 * Decodes the reassembled message into the given sub class of
+	 * {@link SerializableObject} (see {@link DecoderFactory}).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the message is not complete or does not match the given
+	 *             type
+	 * @throws SerializationException
+	 *             any sub class of {@link SerializationException}
+	 */
+	public <T extends SerializableObject> T decode(Class<T> clazz) throws IllegalArgumentException, SerializationException {
+		return DecoderFactory.decode(clazz, getMessage());
+	}
+	
+	/**
+	 * Discards the current message, so that the next frame is expected to be
+	 * the first frame of a new message.
+	 */
+	public void reset() {
+		message = null;
+		received = 0;
+		nofFrames = 0;
+		complete = false;
+	}
+
+}
@@ -0,0 +1,271 @@
+package com.coinblesk.customserialization;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+/**
+ * This class signs many {@link SignedSerializableObject}s with the same
+ * private key at once (e.g., the {@link PaymentResponse}s created by the
+ * server). The objects are split into chunks which are signed in parallel.
+ * The {@link Signature} engines are initialized only once and are reused for
+ * all subsequent batches. The signatures are set in place, i.e., the objects
+ * can be encoded right after the batch has been signed.
+ * 
+ * If the {@link PKIAlgorithm} is a Merkle algorithm (see
+ * {@link PKIAlgorithm#isMerkle()}), the batch is not split. Instead, only the
+ * root of a Merkle tree over all payloads is signed, and every object
+ * receives its inclusion proof together with the root signature. This
+ * replaces one signature per object by one signature per batch and one
+ * hash per object and tree level.
+ */
+public class BatchSigner {
+	
+	private final PKIAlgorithm pkiAlgorithm;
+	private final PrivateKey privateKey;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final int parallelism;
+	
+	private final ConcurrentLinkedQueue<Signature> engines = new ConcurrentLinkedQueue<Signature>();
+	private final BatchStatistics statistics = new BatchStatistics();
+	
+	/**
+	 * This constructor instantiates a new object which signs the batches on
+	 * an own thread pool with one thread per available processor. The thread
+	 * pool must be released by calling {@link #shutdown()}.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the {@link PKIAlgorithm} of the objects to be signed
+	 * @param privateKey
+	 *            the private key used to sign the objects
+	 * @throws IllegalArgumentException
+	 *             if any argument is null
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not known
+	 * @throws InvalidKeyException
+	 *             if the private key does not belong to the given
+	 *             {@link PKIAlgorithm}
+	 */
+	public BatchSigner(PKIAlgorithm pkiAlgorithm, PrivateKey privateKey) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException {
+		this(pkiAlgorithm, privateKey, Runtime.getRuntime().availableProcessors());
+	}
+	
+	private BatchSigner(PKIAlgorithm pkiAlgorithm, PrivateKey privateKey, int parallelism) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException {
+		this(pkiAlgorithm, privateKey, Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory()), true, parallelism);
+	}
+	
+	/**
+	 * This constructor instantiates a new object which signs the batches on
+	 * the given {@link ExecutorService}. The executor is not shut down by this
+	 * object.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the {@link PKIAlgorithm} of the objects to be signed
+	 * @param privateKey
+	 *            the private key used to sign the objects
+	 * @param executor
+	 *            the {@link ExecutorService} to sign the chunks on
+	 * @param parallelism
+	 *            the maximum number of chunks a batch is split into
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or parallelism is smaller than 1
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not known
+	 * @throws InvalidKeyException
+	 *             if the private key does not belong to the given
+	 *             {@link PKIAlgorithm}
+	 */
+	public BatchSigner(PKIAlgorithm pkiAlgorithm, PrivateKey privateKey, ExecutorService executor, int parallelism) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException {
+		this(pkiAlgorithm, privateKey, executor, false, parallelism);
+	}
+	
+	private BatchSigner(PKIAlgorithm pkiAlgorithm, PrivateKey privateKey, ExecutorService executor, boolean ownsExecutor, int parallelism) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException {
+		if (pkiAlgorithm == null)
+			throw new IllegalArgumentException("The signature algorithm cannot be null.");
+		
+		if (privateKey == null)
+			throw new IllegalArgumentException("The private key cannot be null.");
+		
+		if (executor == null)
+			throw new IllegalArgumentException("The executor cannot be null.");
+		
+		if (parallelism <= 0)
+			throw new IllegalArgumentException("The parallelism must be greater than 0.");
+		
+		this.pkiAlgorithm = pkiAlgorithm;
+		this.privateKey = privateKey;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.parallelism = parallelism;
+		
+		// fail early if the key does not match the algorithm
+		engines.offer(createEngine());
+	}
+	
+	private Signature createEngine() throws NoSuchAlgorithmException, InvalidKeyException {
+		return SignedSerializableObject.getSigningEngine(pkiAlgorithm, privateKey);
+	}
+	
+	/**
+	 * Returns the {@link PKIAlgorithm} of the objects this signer signs.
+	 */
+	public PKIAlgorithm getPKIAlgorithm() {
+		return pkiAlgorithm;
+	}
+	
+	/**
+	 * Returns the metrics about the calls of {@link #sign(List)} so far. Each
+	 * non-empty list is recorded as one batch, whose latency lasts until the
+	 * last of its chunks has been signed.
+	 */
+	public BatchStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Signs all given objects and sets their signature. The batch is split
+	 * into chunks which are signed in parallel. This method returns as soon as
+	 * all objects are signed.
+	 * 
+	 * @param objects
+	 *            the objects to be signed
+	 * @throws IllegalArgumentException
+	 *             if the list or any of its elements is null or if the
+	 *             {@link PKIAlgorithm} of an element does not match the one of
+	 *             this signer
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not known
+	 * @throws InvalidKeyException
+	 *             if the private key does not belong to the given
+	 *             {@link PKIAlgorithm}
+	 * @throws SignatureException
+	 *             if an error occured during the signing phase or if the
+	 *             thread was interrupted while waiting for the signatures
+	 */
+	public void sign(List<? extends SignedSerializableObject> objects) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (objects == null)
+			throw new IllegalArgumentException("The objects to sign cannot be null.");
+		
+		for (SignedSerializableObject object : objects) {
+			if (object == null)
+				throw new IllegalArgumentException("The objects to sign cannot contain null.");
+			if (object.getPKIAlgorithm() != pkiAlgorithm)
+				throw new IllegalArgumentException("The objects to sign must use the signature algorithm " + pkiAlgorithm + ".");
+		}
+		
+		if (objects.isEmpty())
+			return;
+		
+		long start = System.nanoTime();
+		// the whole batch is one tree if the algorithm uses Merkle proofs
+		int nofChunks = pkiAlgorithm.isMerkle() ? 1 : Math.min(parallelism, objects.size());
+		if (nofChunks <= 1) {
+			signChunk(objects);
+		} else {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(nofChunks);
+			int chunkSize = (objects.size() + nofChunks - 1) / nofChunks;
+			for (int from = 0; from < objects.size(); from += chunkSize) {
+				final List<? extends SignedSerializableObject> chunk = objects.subList(from, Math.min(from + chunkSize, objects.size()));
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						signChunk(chunk);
+						return null;
+					}
+				}));
+			}
+			awaitAll(futures);
+		}
+		statistics.record(objects.size(), System.nanoTime() - start);
+	}
+	
+	private void signChunk(List<? extends SignedSerializableObject> chunk) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		Signature sig = engines.poll();
+		if (sig == null)
+			sig = createEngine();
+		
+		try {
+			if (pkiAlgorithm.isMerkle()) {
+				new MerkleTree(chunk).sign(sig, pkiAlgorithm);
+			} else {
+				for (SignedSerializableObject object : chunk) {
+					object.sign(sig);
+				}
+			}
+		} catch (SignatureException e) {
+			// the engine might be in an undefined state
+			sig = null;
+			throw e;
+		} finally {
+			if (sig != null)
+				engines.offer(sig);
+		}
+	}
+	
+	private static void awaitAll(List<Future<Void>> futures) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			cancelAll(futures);
+			throw new SignatureException("Interrupted while waiting for the signatures.", e);
+		} catch (ExecutionException e) {
+			cancelAll(futures);
+			Throwable cause = e.getCause();
+			if (cause instanceof SignatureException)
+				throw (SignatureException) cause;
+			if (cause instanceof InvalidKeyException)
+				throw (InvalidKeyException) cause;
+			if (cause instanceof NoSuchAlgorithmException)
+				throw (NoSuchAlgorithmException) cause;
+			throw new SignatureException(cause);
+		}
+	}
+	
+	private static void cancelAll(List<Future<Void>> futures) {
+		for (Future<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+	
+	/**
+	 * Shuts down the thread pool if it has been created by this object. Has no
+	 * effect if an {@link ExecutorService} has been passed to the constructor.
+	 */
+	public void shutdown() {
+		if (ownsExecutor)
+			executor.shutdown();
+	}
+	
+	/**
+	 * Creates daemon threads, so that an unreleased pool does not prevent the
+	 * JVM from exiting.
+	 */
+	static class DaemonThreadFactory implements ThreadFactory {
+		private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = defaultFactory.newThread(r);
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.coinblesk.customserialization;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class collects simple metrics about processed batches, i.e., how many
+ * batches and elements have been processed, how large the batches were and how
+ * long the processing took. It is thread-safe and can be read while batches
+ * are being recorded.
+ */
+public class BatchStatistics {
+	
+	private final AtomicLong nofBatches = new AtomicLong();
+	private final AtomicLong nofElements = new AtomicLong();
+	private final AtomicLong maxBatchSize = new AtomicLong();
+	private final AtomicLong totalLatencyNanos = new AtomicLong();
+	private final AtomicLong maxLatencyNanos = new AtomicLong();
+	private final AtomicLong lastLatencyNanos = new AtomicLong();
+	
+	/**
+	 * Records a processed batch.
+	 * 
+	 * @param batchSize
+	 *            the number of elements contained in the batch
+	 * @param latencyNanos
+	 *            the time in nanoseconds needed to process the batch
+	 */
+	public void record(int batchSize, long latencyNanos) {
+		nofBatches.incrementAndGet();
+		nofElements.addAndGet(batchSize);
+		totalLatencyNanos.addAndGet(latencyNanos);
+		lastLatencyNanos.set(latencyNanos);
+		updateMax(maxBatchSize, batchSize);
+		updateMax(maxLatencyNanos, latencyNanos);
+	}
+	
+	private static void updateMax(AtomicLong max, long value) {
+		long current;
+		while ((current = max.get()) < value) {
+			if (max.compareAndSet(current, value))
+				return;
+		}
+	}
+	
+	/**
+	 * Returns the number of recorded batches.
+	 */
+	public long getNofBatches() {
+		return nofBatches.get();
+	}
+	
+	/**
+	 * Returns the number of elements contained in all recorded batches.
+	 */
+	public long getNofElements() {
+		return nofElements.get();
+	}
+	
+	/**
+	 * Returns the size of the largest recorded batch.
+	 */
+	public long getMaxBatchSize() {
+		return maxBatchSize.get();
+	}
+	
+	/**
+	 * Returns the average batch size or 0 if no batch has been recorded.
+	 */
+	public double getAverageBatchSize() {
+		long batches = nofBatches.get();
+		return batches == 0 ? 0 : (double) nofElements.get() / batches;
+	}
+	
+	/**
+	 * Returns the sum of the latencies of all recorded batches in nanoseconds.
+	 */
+	public long getTotalLatencyNanos() {
+		return totalLatencyNanos.get();
+	}
+	
+	/**
+	 * Returns the highest latency of a recorded batch in nanoseconds.
+	 */
+	public long getMaxLatencyNanos() {
+		return maxLatencyNanos.get();
+	}
+	
+	/**
+	 * Returns the latency of the most recently recorded batch in nanoseconds.
+	 */
+	public long getLastLatencyNanos() {
+		return lastLatencyNanos.get();
+	}
+	
+	/**
+	 * Returns the average latency per batch in nanoseconds or 0 if no batch
+	 * has been recorded.
+	 */
+	public long getAverageLatencyNanos() {
+		long batches = nofBatches.get();
+		return batches == 0 ? 0 : totalLatencyNanos.get() / batches;
+	}
+	
+	@Override
+	public String toString() {
+		return "batches=" + getNofBatches() + ", elements=" + getNofElements() + ", maxBatchSize=" + getMaxBatchSize() + ", avgLatencyNanos=" + getAverageLatencyNanos() + ", maxLatencyNanos=" + getMaxLatencyNanos();
+	}
+
+}
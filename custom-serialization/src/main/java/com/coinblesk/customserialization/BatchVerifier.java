@@ -0,0 +1,173 @@
+package com.coinblesk.customserialization;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.coinblesk.customserialization.crypto.Ed25519BatchVerifier;
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+
+/**
+ * This class verifies many {@link SignedSerializableObject}s at once (e.g.,
+ * the {@link PaymentRequest}s accumulated offline which are settled
+ * together). Objects signed with {@link PKIAlgorithm#ED25519} are verified in
+ * batches by the {@link Ed25519BatchVerifier}. If a batch is rejected, it is
+ * split into halves which are verified again, until the invalid signatures
+ * are located by individual verifications. All other objects are verified
+ * individually.
+ * 
+ * A batch is only accepted if all its points lie in the subgroup of prime
+ * order, see {@link Ed25519BatchVerifier}, so that the result for every
+ * object is the same as that of {@link SignedSerializableObject#verify(PublicKey)}.
+ */
+public class BatchVerifier {
+	private static final int MIN_BATCH_SIZE = 4;
+	
+	private final SecureRandom random;
+	private final BatchStatistics statistics = new BatchStatistics();
+	
+	/**
+	 * This constructor instantiates a new object which uses a new
+	 * {@link SecureRandom} for the random coefficients of the batches.
+	 */
+	public BatchVerifier() {
+		this(new SecureRandom());
+	}
+	
+	/**
+	 * This constructor instantiates a new object which uses the given
+	 * {@link SecureRandom} for the random coefficients of the batches.
+	 * 
+	 * @param random
+	 *            the source of the random coefficients
+	 */
+	public BatchVerifier(SecureRandom random) {
+		this.random = random;
+	}
+	
+	/**
+	 * Returns the metrics about the calls of {@link #verify(List, List)} so
+	 * far, including those made by {@link #verifyAll(List, List)}. Objects
+	 * which are verified again after their Ed25519 batch has been rejected
+	 * are counted only once.
+	 */
+	public BatchStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Verifies the signatures of all given objects. The i-th object is
+	 * verified with the i-th public key.
+	 * 
+	 * @param objects
+	 *            the objects to be verified
+	 * @param publicKeys
+	 *            the public keys to be used for the verification
+	 * @return an array containing for every object whether its signature is
+	 *         valid
+	 * @throws IllegalArgumentException
+	 *             if any list or element is null or if the lists do not have
+	 *             the same size
+	 * @throws NotSignedException
+	 *             if any object has not been signed
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} of an object is not known
+	 * @throws InvalidKeyException
+	 *             if a public key does not belong to the {@link PKIAlgorithm}
+	 *             of its object
+	 * @throws SignatureException
+	 *             if an error occured during the verification phase
+	 */
+	public boolean[] verify(List<? extends SignedSerializableObject> objects, List<? extends PublicKey> publicKeys) throws IllegalArgumentException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (objects == null || publicKeys == null)
+			throw new IllegalArgumentException("The objects and public keys cannot be null.");
+		
+		if (objects.size() != publicKeys.size())
+			throw new IllegalArgumentException("The number of objects and public keys must be equal.");
+		
+		for (int i=0; i<objects.size(); i++) {
+			if (objects.get(i) == null || publicKeys.get(i) == null)
+				throw new IllegalArgumentException("The objects and public keys cannot contain null.");
+			if (objects.get(i).getSignature() == null)
+				throw new NotSignedException();
+		}
+		
+		if (objects.isEmpty())
+			return new boolean[0];
+		
+		long start = System.nanoTime();
+		boolean[] result = new boolean[objects.size()];
+		List<Integer> batch = new ArrayList<Integer>();
+		for (int i=0; i<objects.size(); i++) {
+			if (objects.get(i).getPKIAlgorithm() == PKIAlgorithm.ED25519 && Ed25519BatchVerifier.isSupported(publicKeys.get(i)))
+				batch.add(i);
+			else
+				result[i] = verify(objects.get(i), publicKeys.get(i));
+		}
+		verifyBatch(objects, publicKeys, batch, result);
+		statistics.record(objects.size(), System.nanoTime() - start);
+		return result;
+	}
+	
+	/**
+	 * Verifies the signatures of all given objects. The i-th object is
+	 * verified with the i-th public key.
+	 * 
+	 * @return true if all signatures are valid, false otherwise
+	 * @see #verify(List, List)
+	 */
+	public boolean verifyAll(List<? extends SignedSerializableObject> objects, List<? extends PublicKey> publicKeys) throws IllegalArgumentException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		for (boolean valid : verify(objects, publicKeys)) {
+			if (!valid)
+				return false;
+		}
+		return true;
+	}
+	
+	private void verifyBatch(List<? extends SignedSerializableObject> objects, List<? extends PublicKey> publicKeys, List<Integer> batch, boolean[] result) throws NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (batch.isEmpty())
+			return;
+		
+		if (batch.size() < MIN_BATCH_SIZE) {
+			for (int i : batch) {
+				result[i] = verify(objects.get(i), publicKeys.get(i));
+			}
+			return;
+		}
+		
+		List<PublicKey> keys = new ArrayList<PublicKey>(batch.size());
+		List<byte[]> messages = new ArrayList<byte[]>(batch.size());
+		List<byte[]> signatures = new ArrayList<byte[]>(batch.size());
+		for (int i : batch) {
+			keys.add(publicKeys.get(i));
+			messages.add(objects.get(i).getPayload());
+			signatures.add(objects.get(i).getSignature());
+		}
+		
+		if (Ed25519BatchVerifier.verify(keys, messages, signatures, random)) {
+			for (int i : batch) {
+				result[i] = true;
+			}
+		} else {
+			// locate the invalid signatures
+			int half = batch.size() / 2;
+			verifyBatch(objects, publicKeys, batch.subList(0, half), result);
+			verifyBatch(objects, publicKeys, batch.subList(half, batch.size()), result);
+		}
+	}
+	
+	private static boolean verify(SignedSerializableObject object, PublicKey publicKey) throws NotSignedException, NoSuchAlgorithmException, InvalidKeyException {
+		try {
+			return object.verify(publicKey);
+		} catch (SignatureException e) {
+			// a signature which cannot be decoded is invalid
+			return false;
+		}
+	}
+
+}
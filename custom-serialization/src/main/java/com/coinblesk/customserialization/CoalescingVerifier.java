@@ -0,0 +1,338 @@
+package com.coinblesk.customserialization;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+/**
+ * This class verifies {@link ServerPaymentRequest}s which arrive in bursts.
+ * Busy merchants submit many requests within milliseconds, all signed with
+ * the same key. Instead of verifying every request on its own, the contained
+ * {@link PaymentRequest}s are grouped by the signing key, i.e., by username,
+ * key number and {@link PKIAlgorithm}, during a short time window. When the
+ * window of a group expires (or the group is full), the public key is
+ * resolved once and the whole group is verified on one worker thread by a
+ * {@link BatchVerifier}, which reuses the precomputed tables of the key.
+ * 
+ * The result of every submitted request is reported by its own
+ * {@link Future}.
+ */
+public class CoalescingVerifier {
+	private static final int MAX_GROUP_SIZE = 256;
+	
+	private final PublicKeyResolver publicKeyResolver;
+	private final long window;
+	private final ScheduledExecutorService executor;
+	private final boolean ownsExecutor;
+	private final BatchVerifier batchVerifier = new BatchVerifier();
+	
+	// the groups which are still collecting requests
+	private final Map<SigningKey, Group> groups = new HashMap<SigningKey, Group>();
+	
+	/*
+	 * Identifies the key a payment request has been signed with.
+	 */
+	private static final class SigningKey {
+		private final String username;
+		private final int keyNumber;
+		private final PKIAlgorithm pkiAlgorithm;
+		
+		private SigningKey(String username, int keyNumber, PKIAlgorithm pkiAlgorithm) {
+			this.username = username;
+			this.keyNumber = keyNumber;
+			this.pkiAlgorithm = pkiAlgorithm;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SigningKey))
+				return false;
+			
+			SigningKey k = (SigningKey) o;
+			return username.equals(k.username) && keyNumber == k.keyNumber && pkiAlgorithm == k.pkiAlgorithm;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (username.hashCode() * 31 + keyNumber) * 31 + pkiAlgorithm.hashCode();
+		}
+	}
+	
+	/*
+	 * A payment request waiting for its verification.
+	 */
+	private static final class Pending {
+		private final PaymentRequest paymentRequest;
+		private final Result result;
+		
+		private Pending(PaymentRequest paymentRequest, Result result) {
+			this.paymentRequest = paymentRequest;
+			this.result = result;
+		}
+	}
+	
+	/*
+	 * The requests signed with the same key during one window. Every group is
+	 * flushed by its own task and only once, so that the window task of a
+	 * group which has been flushed early because it was full does not flush
+	 * the next group of the same key before its window expires.
+	 */
+	private final class Group implements Runnable {
+		private final SigningKey signingKey;
+		private final List<Pending> pendings = new ArrayList<Pending>();
+		// guarded by groups
+		private boolean flushed;
+		
+		private Group(SigningKey signingKey) {
+			this.signingKey = signingKey;
+		}
+		
+		@Override
+		public void run() {
+			flush(this);
+		}
+	}
+	
+	/*
+	 * The result of a submitted ServerPaymentRequest. It is completed as soon
+	 * as all contained signatures are valid or as soon as one is invalid.
+	 */
+	private static final class Result implements Future<Boolean> {
+		private final AtomicInteger remaining;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile boolean valid = true;
+		private volatile Exception failure;
+		
+		private Result(int nofSignatures) {
+			this.remaining = new AtomicInteger(nofSignatures);
+		}
+		
+		private void complete(boolean valid) {
+			if (!valid) {
+				this.valid = false;
+				done.countDown();
+			} else if (remaining.decrementAndGet() == 0) {
+				done.countDown();
+			}
+		}
+		
+		private void fail(Exception failure) {
+			if (this.failure == null)
+				this.failure = failure;
+			done.countDown();
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+		
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+		
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+		
+		@Override
+		public Boolean get() throws InterruptedException, ExecutionException {
+			done.await();
+			return getResult();
+		}
+		
+		@Override
+		public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit))
+				throw new TimeoutException();
+			return getResult();
+		}
+		
+		private Boolean getResult() throws ExecutionException {
+			if (failure != null)
+				throw new ExecutionException(failure);
+			return valid;
+		}
+	}
+	
+	/**
+	 * This constructor instantiates a new object which verifies the groups on
+	 * its own daemon thread.
+	 * 
+	 * @param publicKeyResolver
+	 *            provides the public keys of the payers and the payees
+	 * @param window
+	 *            the time in milliseconds during which requests signed with
+	 *            the same key are collected
+	 * @throws IllegalArgumentException
+	 *             if the resolver is null or the window is negative
+	 */
+	public CoalescingVerifier(PublicKeyResolver publicKeyResolver, long window) throws IllegalArgumentException {
+		this(publicKeyResolver, window, Executors.newSingleThreadScheduledExecutor(new BatchSigner.DaemonThreadFactory()), true);
+	}
+	
+	/**
+	 * This constructor instantiates a new object which verifies the groups on
+	 * the given {@link ScheduledExecutorService}. The executor is not shut
+	 * down by this object.
+	 * 
+	 * @param publicKeyResolver
+	 *            provides the public keys of the payers and the payees
+	 * @param window
+	 *            the time in milliseconds during which requests signed with
+	 *            the same key are collected
+	 * @param executor
+	 *            the {@link ScheduledExecutorService} to verify the groups on
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or the window is negative
+	 */
+	public CoalescingVerifier(PublicKeyResolver publicKeyResolver, long window, ScheduledExecutorService executor) throws IllegalArgumentException {
+		this(publicKeyResolver, window, executor, false);
+	}
+	
+	private CoalescingVerifier(PublicKeyResolver publicKeyResolver, long window, ScheduledExecutorService executor, boolean ownsExecutor) throws IllegalArgumentException {
+		if (publicKeyResolver == null || executor == null)
+			throw new IllegalArgumentException("The public key resolver and the executor cannot be null.");
+		
+		if (window < 0)
+			throw new IllegalArgumentException("The window cannot be negative.");
+		
+		this.publicKeyResolver = publicKeyResolver;
+		this.window = window;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+	
+	/**
+	 * Returns the metrics about the groups verified so far. A batch is a group
+	 * of {@link PaymentRequest}s signed with the same key, and its latency
+	 * covers the verification of the group but not the time it waited for its
+	 * window to expire.
+	 */
+	public BatchStatistics getStatistics() {
+		return batchVerifier.getStatistics();
+	}
+	
+	/**
+	 * Submits the given request for verification. The returned {@link Future}
+	 * yields true if all contained signatures are valid and false if any
+	 * signature is invalid or if a public key cannot be resolved. If the
+	 * verification fails with an exception, the {@link Future} throws an
+	 * {@link ExecutionException} containing it.
+	 * 
+	 * @param serverPaymentRequest
+	 *            the request to be verified
+	 * @return the {@link Future} reporting the result of the verification
+	 * @throws IllegalArgumentException
+	 *             if the request is null
+	 */
+	public Future<Boolean> submit(ServerPaymentRequest serverPaymentRequest) throws IllegalArgumentException {
+		if (serverPaymentRequest == null)
+			throw new IllegalArgumentException("The request cannot be null.");
+		
+		PaymentRequest payer = serverPaymentRequest.getPaymentRequestPayer();
+		PaymentRequest payee = serverPaymentRequest.getPaymentRequestPayee();
+		
+		Result result = new Result(serverPaymentRequest.getNofSignatures());
+		enqueue(new SigningKey(payer.getUsernamePayer(), payer.getKeyNumber(), payer.getPKIAlgorithm()), new Pending(payer, result));
+		if (payee != null)
+			enqueue(new SigningKey(payee.getUsernamePayee(), payee.getKeyNumber(), payee.getPKIAlgorithm()), new Pending(payee, result));
+		
+		return result;
+	}
+	
+	private void enqueue(SigningKey signingKey, Pending pending) {
+		Group group;
+		boolean first;
+		boolean full;
+		synchronized (groups) {
+			group = groups.get(signingKey);
+			first = group == null;
+			if (first) {
+				group = new Group(signingKey);
+				groups.put(signingKey, group);
+			}
+			group.pendings.add(pending);
+			full = group.pendings.size() >= MAX_GROUP_SIZE;
+			// the next request signed with this key starts a new group
+			if (full)
+				groups.remove(signingKey);
+		}
+		
+		if (first)
+			executor.schedule(group, window, TimeUnit.MILLISECONDS);
+		if (full)
+			executor.execute(group);
+	}
+	
+	private void flush(Group group) {
+		synchronized (groups) {
+			// the group has already been verified because it was full
+			if (group.flushed)
+				return;
+			
+			group.flushed = true;
+			if (groups.get(group.signingKey) == group)
+				groups.remove(group.signingKey);
+		}
+		
+		SigningKey signingKey = group.signingKey;
+		List<Pending> pendings = group.pendings;
+		try {
+			PublicKey publicKey = publicKeyResolver.getPublicKey(signingKey.username, signingKey.pkiAlgorithm, signingKey.keyNumber);
+			if (publicKey == null) {
+				for (Pending pending : pendings) {
+					pending.result.complete(false);
+				}
+				return;
+			}
+			
+			List<PaymentRequest> paymentRequests = new ArrayList<PaymentRequest>(pendings.size());
+			for (Pending pending : pendings) {
+				paymentRequests.add(pending.paymentRequest);
+			}
+			boolean[] valid = batchVerifier.verify(paymentRequests, Collections.nCopies(pendings.size(), publicKey));
+			for (int i=0; i<pendings.size(); i++) {
+				pendings.get(i).result.complete(valid[i]);
+			}
+		} catch (Exception e) {
+			for (Pending pending : pendings) {
+				pending.result.fail(e);
+			}
+		}
+	}
+	
+	/**
+	 * Verifies all pending requests immediately and shuts down the thread if
+	 * it has been created by this object. Has no effect on the executor if a
+	 * {@link ScheduledExecutorService} has been passed to the constructor.
+	 */
+	public void shutdown() {
+		List<Group> pendingGroups;
+		synchronized (groups) {
+			pendingGroups = new ArrayList<Group>(groups.values());
+		}
+		for (Group group : pendingGroups) {
+			flush(group);
+		}
+		
+		if (ownsExecutor)
+			executor.shutdown();
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.coinblesk.customserialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+/**
+ * This class represents the optional extension section at the end of a
+ * payload, which allows adding optional fields (e.g., metadata of the
+ * terminal) without a new version. Decoders which do not know a tag skip its
+ * value.
+ * 
+ * The section is encoded as its length followed by the entries in ascending
+ * order of their tags:
+ * 
+ * <pre>
+ * length of the entries (varint)
+ * + for every entry: tag + value.length (varint) + value
+ * </pre>
+ * 
+ * Since the length of the section comes first, a decoder skips the whole
+ * section in constant time. The entries are only indexed when a value is
+ * requested for the first time, so decoding a payload with extensions does
+ * not cost more than copying the section.
+ */
+public final class Extensions {
+	
+	/**
+	 * The tag of the ID of the terminal which created the payload.
+	 */
+	public static final int TERMINAL_ID = 0x01;
+	
+	/**
+	 * The tag of an ID which correlates the payload with the caller's
+	 * records.
+	 */
+	public static final int CORRELATION_ID = 0x02;
+	
+	private final byte[] entries;
+	
+	// tag -> offset and length of the value within the entries
+	private volatile Map<Integer, int[]> index;
+	
+	/**
+	 * This constructor instantiates a new object containing the given
+	 * entries.
+	 * 
+	 * @param values
+	 *            the values by their tags
+	 * @throws IllegalArgumentException
+	 *             if the map is null or empty, if any value is null, or if any
+	 *             tag is not between 0 and 255
+	 */
+	public Extensions(Map<Integer, byte[]> values) throws IllegalArgumentException {
+		if (values == null || values.isEmpty())
+			throw new IllegalArgumentException("The extensions cannot be null or empty.");
+		
+		SortedMap<Integer, byte[]> sorted = new TreeMap<Integer, byte[]>(values);
+		int length = 0;
+		for (Map.Entry<Integer, byte[]> entry : sorted.entrySet()) {
+			if (entry.getKey() == null || entry.getKey() < 0 || entry.getKey() > 255)
+				throw new IllegalArgumentException("The tag must be between 0 and 255.");
+			if (entry.getValue() == null)
+				throw new IllegalArgumentException("The value of the tag "+entry.getKey()+" cannot be null.");
+			
+			length += 1 + PrimitiveTypeSerializer.getVarintLength(entry.getValue().length) + entry.getValue().length;
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		for (Map.Entry<Integer, byte[]> entry : sorted.entrySet()) {
+			buffer.put(entry.getKey().byteValue());
+			buffer.put(PrimitiveTypeSerializer.getLongAsVarint(entry.getValue().length));
+			buffer.put(entry.getValue());
+		}
+		this.entries = buffer.array();
+	}
+	
+	private Extensions(byte[] entries) {
+		this.entries = entries;
+	}
+	
+	/**
+	 * Reads the section which starts at the given absolute index of the
+	 * buffer without indexing its entries. The position of the buffer is not
+	 * modified.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the section is empty or longer than the buffer
+	 * @throws IndexOutOfBoundsException
+	 *             if the buffer ends before the length of the section
+	 */
+	static Extensions decode(ByteBuffer buffer, int index) throws IllegalArgumentException {
+		long length = PrimitiveTypeSerializer.getVarintAsLong(buffer, index);
+		index += PrimitiveTypeSerializer.getVarintLength(length);
+		if (length < 1 || length > buffer.limit() - index)
+			throw new IllegalArgumentException("The given byte array is corrupt (the extensions are empty or not long enough).");
+		
+		byte[] entries = new byte[(int) length];
+		ByteBuffer source = buffer.duplicate();
+		source.position(index);
+		source.get(entries);
+		return new Extensions(entries);
+	}
+	
+	/**
+	 * Returns the absolute index following the section which starts at the
+	 * given absolute index of the buffer, without reading the section.
+	 */
+	static int skip(ByteBuffer buffer, int index) throws IllegalArgumentException {
+		long length = PrimitiveTypeSerializer.getVarintAsLong(buffer, index);
+		long end = index + PrimitiveTypeSerializer.getVarintLength(length) + length;
+		if (length < 0 || end > buffer.limit())
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		
+		return (int) end;
+	}
+	
+	/**
+	 * Returns the encoded section, i.e., the length followed by the entries.
+	 */
+	byte[] encode() {
+		byte[] lengthBytes = PrimitiveTypeSerializer.getLongAsVarint(entries.length);
+		byte[] result = Arrays.copyOf(lengthBytes, lengthBytes.length + entries.length);
+		System.arraycopy(entries, 0, result, lengthBytes.length, entries.length);
+		return result;
+	}
+	
+	/**
+	 * Returns the number of bytes of the encoded section.
+	 */
+	int getEncodedLength() {
+		return PrimitiveTypeSerializer.getVarintLength(entries.length) + entries.length;
+	}
+	
+	/**
+	 * Returns the value of the given tag or null if this section does not
+	 * contain the tag.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the section is corrupt
+	 */
+	public byte[] get(int tag) throws IllegalArgumentException {
+		int[] location = getIndex().get(tag);
+		if (location == null)
+			return null;
+		
+		return Arrays.copyOfRange(entries, location[0], location[0] + location[1]);
+	}
+	
+	/**
+	 * Returns the UTF-8 decoded value of the given tag or null if this section
+	 * does not contain the tag.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the section is corrupt
+	 */
+	public String getString(int tag) throws IllegalArgumentException {
+		int[] location = getIndex().get(tag);
+		if (location == null)
+			return null;
+		
+		return new String(entries, location[0], location[1], Charset.forName("UTF-8"));
+	}
+	
+	/**
+	 * Returns true if this section contains the given tag.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the section is corrupt
+	 */
+	public boolean contains(int tag) throws IllegalArgumentException {
+		return getIndex().containsKey(tag);
+	}
+	
+	/**
+	 * Returns the tags contained in this section.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the section is corrupt
+	 */
+	public Set<Integer> getTags() throws IllegalArgumentException {
+		return Collections.unmodifiableSet(getIndex().keySet());
+	}
+	
+	private Map<Integer, int[]> getIndex() throws IllegalArgumentException {
+		Map<Integer, int[]> result = index;
+		if (result != null)
+			return result;
+		
+		result = new HashMap<Integer, int[]>();
+		ByteBuffer buffer = ByteBuffer.wrap(entries);
+		int i = 0;
+		try {
+			while (i < entries.length) {
+				int tag = entries[i++] & 0xFF;
+				long length = PrimitiveTypeSerializer.getVarintAsLong(buffer, i);
+				i += PrimitiveTypeSerializer.getVarintLength(length);
+				if (length < 0 || length > entries.length - i)
+					throw new IllegalArgumentException("The extensions are corrupt (not long enough).");
+				if (result.containsKey(tag))
+					throw new IllegalArgumentException("The extensions contain the tag "+tag+" twice.");
+				
+				result.put(tag, new int[] { i, (int) length });
+				i += (int) length;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The extensions are corrupt (not long enough).");
+		}
+		
+		index = result;
+		return result;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!(o instanceof Extensions))
+			return false;
+		
+		return Arrays.equals(entries, ((Extensions) o).entries);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(entries);
+	}
+
+}
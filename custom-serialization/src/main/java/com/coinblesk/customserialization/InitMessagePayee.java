@@ -1,5 +1,7 @@
 package com.coinblesk.customserialization;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
@@ -20,8 +22,22 @@ public class InitMessagePayee extends SerializableObject {
 		this(1, username, currency, amount);
 	}
 	
-	private InitMessagePayee(int version, String username, Currency currency, long amount) throws IllegalArgumentException {
+	/**
+	 * This constructor instantiates a new object which is encoded in the
+	 * given version of the wire format, e.g.,
+	 * {@link SerializableObject#COMPACT_VERSION}, which encodes the amount as
+	 * varint.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the version is neither 1 nor the compact version, or if
+	 *             any other argument is null or does not fit into the
+	 *             foreseen primitive type
+	 */
+	public InitMessagePayee(int version, String username, Currency currency, long amount) throws IllegalArgumentException {
 		super(version);
+		if (version != 1 && version != COMPACT_VERSION)
+			throw new IllegalArgumentException("An init message cannot be encoded in version "+version+".");
+		
 		checkParameters(username, currency, amount);
 		
 		this.username = username;
@@ -55,51 +71,46 @@ public class InitMessagePayee extends SerializableObject {
 	@Override
 	public byte[] encode() throws NotSignedException {
 		byte[] usernameBytes = username.getBytes(Charset.forName("UTF-8"));
+		byte[] amountBytes = getVersion() == COMPACT_VERSION ? PrimitiveTypeSerializer.getLongAsVarint(amount) : PrimitiveTypeSerializer.getLongAsBytes(amount);
 		
 		/*
 		 * version
 		 * + username.length
 		 * + username
 		 * + currency.getcode
-		 * + amount
+		 * + amount (varint in the compact format)
 		 */
-		int index = 0;
-		byte[] result = new byte[1+1+usernameBytes.length+1+8];
-		result[index++] = (byte) getVersion();
-		result[index++] = (byte) usernameBytes.length;
-		for (byte b : usernameBytes) {
-			result[index++] = b;
-		}
-		result[index++] = currency.getCode();
-		byte[] amountBytes = PrimitiveTypeSerializer.getLongAsBytes(amount);
-		for (byte b : amountBytes) {
-			result[index++] = b;
-		}
+		ByteBuffer buffer = ByteBuffer.allocate(1+1+usernameBytes.length+1+amountBytes.length);
+		buffer.put((byte) getVersion());
+		buffer.put((byte) usernameBytes.length);
+		buffer.put(usernameBytes);
+		buffer.put(currency.getCode());
+		buffer.put(amountBytes);
 		
-		return result;
+		return buffer.array();
 	}
 
 	@Override
 	public InitMessagePayee decode(byte[] bytes) throws IllegalArgumentException, NotSignedException, UnknownCurrencyException {
+		if (bytes == null)
+			throw new IllegalArgumentException("The argument can't be null.");
+		
 		try {
-			int index = 0;
+			ByteBuffer in = ByteBuffer.wrap(bytes);
 			
-			int version = bytes[index++] & 0xFF;
-			int usernameLength = bytes[index++] & 0xFF;
-			byte[] usernameBytes = new byte[usernameLength];
-			for (int i=0; i<usernameLength; i++) {
-				usernameBytes[i] = bytes[index++];
-			}
-			String username = new String(usernameBytes);
-			Currency currency = Currency.getCurrency(bytes[index++]);
+			int version = in.get() & 0xFF;
+			String username = PrimitiveTypeSerializer.getString(in);
+			Currency currency = Currency.getCurrency(in.get());
 			
-			byte[] amountBytes = new byte[Long.SIZE / Byte.SIZE]; //8 bytes (long)
-			for (int i=0; i<amountBytes.length; i++) {
-				amountBytes[i] = bytes[index++];
-			}
-			long amount = PrimitiveTypeSerializer.getBytesAsLong(amountBytes);
+			long amount;
+			if (version == COMPACT_VERSION)
+				amount = PrimitiveTypeSerializer.getVarintAsLong(bytes, in.position());
+			else
+				amount = in.getLong();
 			
 			return new InitMessagePayee(version, username, currency, amount);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		} catch (IndexOutOfBoundsException e) {
 			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		}
@@ -0,0 +1,65 @@
+package com.coinblesk.customserialization;
+
+import java.nio.ByteBuffer;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+
+/**
+ * This class encodes {@link InitMessagePayee}s of a payee terminal, which
+ * always have the same username and currency. The prototype is encoded once,
+ * and the amount is patched in place into a reusable buffer, so that encoding
+ * a message costs a single long write.
+ * 
+ * Only version 1 is supported, since the compact format encodes the amount
+ * as varint. An instance is not thread-safe.
+ */
+public final class InitMessagePayeeTemplate {
+	
+	private final byte[] message;
+	private final ByteBuffer buffer;
+	private final int amountOffset;
+	
+	/**
+	 * This constructor instantiates a new template.
+	 * 
+	 * @param prototype
+	 *            a message containing the constant fields, whose amount is
+	 *            ignored
+	 * @throws IllegalArgumentException
+	 *             if the prototype is null or not encoded in version 1
+	 */
+	public InitMessagePayeeTemplate(InitMessagePayee prototype) throws IllegalArgumentException {
+		if (prototype == null)
+			throw new IllegalArgumentException("The prototype cannot be null.");
+		
+		if (prototype.getVersion() != 1)
+			throw new IllegalArgumentException("Version "+prototype.getVersion()+" does not encode the amount at a fixed offset.");
+		
+		try {
+			this.message = prototype.encode();
+		} catch (NotSignedException e) {
+			// an InitMessagePayee is not signed
+			throw new IllegalArgumentException("The prototype cannot be encoded.");
+		}
+		this.buffer = ByteBuffer.wrap(message);
+		// version + username.length + username + currency.getCode() + amount
+		this.amountOffset = message.length - 8;
+	}
+	
+	/**
+	 * Patches the given amount into the reusable message of this template and
+	 * returns it. The returned array is overwritten by the next call.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the amount is negative
+	 */
+	public byte[] encode(long amount) throws IllegalArgumentException {
+		if (amount < 0)
+			throw new IllegalArgumentException("The amount must be greater than 0.");
+		
+		buffer.putLong(amountOffset, amount);
+		return message;
+	}
+
+}
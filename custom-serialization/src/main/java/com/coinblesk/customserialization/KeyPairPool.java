@@ -0,0 +1,288 @@
+package com.coinblesk.customserialization;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+/**
+ * This class generates key pairs for every {@link PKIAlgorithm} ahead of
+ * time, so that provisioning new users or rotating key numbers does not have
+ * to wait for the {@link java.security.KeyPairGenerator}. The pool of every
+ * algorithm is filled up to the watermark on background threads and refilled
+ * as soon as key pairs are taken from it. Taking a key pair from a non-empty
+ * pool does not generate anything. If the pool is depleted, the key pair is
+ * generated on the calling thread, which is counted as a miss.
+ * 
+ * Only the algorithms for which a key pair generator is available when the
+ * pool is created are pooled (e.g., the key pairs of {@link PKIAlgorithm#DEFAULT}
+ * require a provider supporting ECDSA on brainpoolP256r1, which the JDK does
+ * not contain). For all other algorithms, {@link #take(PKIAlgorithm)} throws
+ * the exception of the provider right away. The Merkle algorithms
+ * share the pool of their root algorithm, since they use the same keys (see
+ * {@link PKIAlgorithm#getRootAlgorithm()}).
+ * 
+ * Every key pair is handed out only once.
+ */
+public class KeyPairPool {
+	
+	private final int watermark;
+	private final SecureRandom random;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	
+	private final Map<PKIAlgorithm, Slot> slots = new EnumMap<PKIAlgorithm, Slot>(PKIAlgorithm.class);
+	
+	/*
+	 * The pre-generated key pairs and the metrics of one algorithm.
+	 */
+	private static final class Slot {
+		private final ConcurrentLinkedQueue<KeyPair> keyPairs = new ConcurrentLinkedQueue<KeyPair>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final AtomicBoolean refilling = new AtomicBoolean();
+		private final AtomicLong nofHits = new AtomicLong();
+		private final AtomicLong nofMisses = new AtomicLong();
+		private final AtomicLong nofGenerated = new AtomicLong();
+		private final AtomicLong nofFailures = new AtomicLong();
+	}
+	
+	/**
+	 * This constructor instantiates a new pool which generates the key pairs
+	 * on its own daemon thread.
+	 * 
+	 * @param watermark
+	 *            the number of key pairs to keep ready per {@link PKIAlgorithm}
+	 * @throws IllegalArgumentException
+	 *             if the watermark is not greater than 0
+	 */
+	public KeyPairPool(int watermark) throws IllegalArgumentException {
+		this(watermark, new SecureRandom(), Executors.newSingleThreadExecutor(new BatchSigner.DaemonThreadFactory()), true);
+	}
+	
+	/**
+	 * This constructor instantiates a new pool which generates the key pairs
+	 * on the given {@link ExecutorService}. The executor is not shut down by
+	 * this object.
+	 * 
+	 * @param watermark
+	 *            the number of key pairs to keep ready per {@link PKIAlgorithm}
+	 * @param random
+	 *            the source of randomness for the key pairs
+	 * @param executor
+	 *            the {@link ExecutorService} to generate the key pairs on
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or if the watermark is not greater
+	 *             than 0
+	 */
+	public KeyPairPool(int watermark, SecureRandom random, ExecutorService executor) throws IllegalArgumentException {
+		this(watermark, random, executor, false);
+	}
+	
+	private KeyPairPool(int watermark, SecureRandom random, ExecutorService executor, boolean ownsExecutor) throws IllegalArgumentException {
+		if (watermark <= 0)
+			throw new IllegalArgumentException("The watermark must be greater than 0.");
+		
+		if (random == null || executor == null)
+			throw new IllegalArgumentException("The source of randomness and the executor cannot be null.");
+		
+		this.watermark = watermark;
+		this.random = random;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		
+		for (PKIAlgorithm pkiAlgorithm : PKIAlgorithm.values()) {
+			if (pkiAlgorithm.getRootAlgorithm() != pkiAlgorithm)
+				continue;
+			
+			try {
+				pkiAlgorithm.getKeyPairGenerator(random);
+				slots.put(pkiAlgorithm, new Slot());
+			} catch (GeneralSecurityException e) {
+				// no provider supports the algorithm, take() reports it to the caller
+			}
+		}
+		for (PKIAlgorithm pkiAlgorithm : slots.keySet()) {
+			refill(pkiAlgorithm);
+		}
+	}
+	
+	/**
+	 * Returns true if key pairs of the given {@link PKIAlgorithm} are
+	 * generated ahead of time, i.e., if a provider supported the algorithm
+	 * when this pool was created.
+	 */
+	public boolean isSupported(PKIAlgorithm pkiAlgorithm) {
+		return slots.containsKey(pkiAlgorithm.getRootAlgorithm());
+	}
+	
+	/**
+	 * Returns the number of key pairs kept ready per {@link PKIAlgorithm}.
+	 */
+	public int getWatermark() {
+		return watermark;
+	}
+	
+	/**
+	 * Returns a new key pair for the given {@link PKIAlgorithm}. If the pool
+	 * is depleted, the key pair is generated on the calling thread. If the
+	 * algorithm is not supported (see {@link #isSupported(PKIAlgorithm)}),
+	 * the exception of the provider is thrown.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the algorithm of the key pair
+	 * @throws IllegalArgumentException
+	 *             if the algorithm is null
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not supported
+	 * @throws InvalidAlgorithmParameterException
+	 *             if the key specification is not supported by the provider
+	 */
+	public KeyPair take(PKIAlgorithm pkiAlgorithm) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		if (pkiAlgorithm == null)
+			throw new IllegalArgumentException("The PKI algorithm cannot be null.");
+		
+		PKIAlgorithm rootAlgorithm = pkiAlgorithm.getRootAlgorithm();
+		Slot slot = slots.get(rootAlgorithm);
+		if (slot == null)
+			return rootAlgorithm.generateKeyPair(random);
+		
+		KeyPair keyPair = slot.keyPairs.poll();
+		if (keyPair != null) {
+			slot.size.decrementAndGet();
+			slot.nofHits.incrementAndGet();
+		} else {
+			slot.nofMisses.incrementAndGet();
+			keyPair = rootAlgorithm.generateKeyPair(random);
+		}
+		refill(rootAlgorithm);
+		return keyPair;
+	}
+	
+	/**
+	 * Generates key pairs for the given {@link PKIAlgorithm} on the calling
+	 * thread until its pool has reached the watermark.
+	 * 
+	 * @return the number of key pairs added to the pool, 0 if the algorithm is
+	 *         not supported (see {@link #isSupported(PKIAlgorithm)})
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not supported
+	 * @throws InvalidAlgorithmParameterException
+	 *             if the key specification is not supported by the provider
+	 */
+	public int fill(PKIAlgorithm pkiAlgorithm) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		PKIAlgorithm rootAlgorithm = pkiAlgorithm.getRootAlgorithm();
+		Slot slot = slots.get(rootAlgorithm);
+		if (slot == null)
+			return 0;
+		
+		int added = 0;
+		while (true) {
+			int current = slot.size.get();
+			if (current >= watermark)
+				return added;
+			
+			if (slot.size.compareAndSet(current, current + 1)) {
+				try {
+					slot.keyPairs.offer(rootAlgorithm.generateKeyPair(random));
+				} catch (GeneralSecurityException e) {
+					slot.size.decrementAndGet();
+					slot.nofFailures.incrementAndGet();
+					throw e;
+				}
+				slot.nofGenerated.incrementAndGet();
+				added++;
+			}
+		}
+	}
+	
+	private void refill(final PKIAlgorithm pkiAlgorithm) {
+		final Slot slot = slots.get(pkiAlgorithm);
+		if (slot.size.get() >= watermark || !slot.refilling.compareAndSet(false, true))
+			return;
+		
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						fill(pkiAlgorithm);
+					} catch (GeneralSecurityException e) {
+						// counted by fill(), take() generates the key pair on the calling thread
+					} finally {
+						slot.refilling.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the executor has been shut down or is saturated, the next take() tries again
+			slot.refilling.set(false);
+		}
+	}
+	
+	/**
+	 * Returns the number of key pairs which are currently ready for the given
+	 * {@link PKIAlgorithm}.
+	 */
+	public int size(PKIAlgorithm pkiAlgorithm) {
+		Slot slot = slots.get(pkiAlgorithm.getRootAlgorithm());
+		return slot == null ? 0 : slot.size.get();
+	}
+	
+	/**
+	 * Returns how many key pairs of the given {@link PKIAlgorithm} have been
+	 * taken from the pool.
+	 */
+	public long getNofHits(PKIAlgorithm pkiAlgorithm) {
+		Slot slot = slots.get(pkiAlgorithm.getRootAlgorithm());
+		return slot == null ? 0 : slot.nofHits.get();
+	}
+	
+	/**
+	 * Returns how many key pairs of the given {@link PKIAlgorithm} had to be
+	 * generated on the calling thread because the pool was depleted.
+	 */
+	public long getNofMisses(PKIAlgorithm pkiAlgorithm) {
+		Slot slot = slots.get(pkiAlgorithm.getRootAlgorithm());
+		return slot == null ? 0 : slot.nofMisses.get();
+	}
+	
+	/**
+	 * Returns how many key pairs of the given {@link PKIAlgorithm} have been
+	 * generated ahead of time.
+	 */
+	public long getNofGenerated(PKIAlgorithm pkiAlgorithm) {
+		Slot slot = slots.get(pkiAlgorithm.getRootAlgorithm());
+		return slot == null ? 0 : slot.nofGenerated.get();
+	}
+	
+	/**
+	 * Returns how often the generation of a key pair of the given
+	 * {@link PKIAlgorithm} ahead of time has failed.
+	 */
+	public long getNofFailures(PKIAlgorithm pkiAlgorithm) {
+		Slot slot = slots.get(pkiAlgorithm.getRootAlgorithm());
+		return slot == null ? 0 : slot.nofFailures.get();
+	}
+	
+	/**
+	 * Shuts down the thread if it has been created by this object. Has no
+	 * effect if an {@link ExecutorService} has been passed to the constructor.
+	 */
+	public void shutdown() {
+		if (ownsExecutor)
+			executor.shutdown();
+	}
+
+}
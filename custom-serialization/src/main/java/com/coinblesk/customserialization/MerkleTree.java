@@ -0,0 +1,200 @@
+package com.coinblesk.customserialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.coinblesk.customserialization.crypto.SignatureEncoding;
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+/**
+ * This class builds a SHA-256 Merkle tree over the payloads of
+ * {@link SignedSerializableObject}s, so that a single signature of the root
+ * authenticates all of them (see {@link PKIAlgorithm#isMerkle()}). Leaves and
+ * inner nodes are hashed with different prefixes, and a node without a
+ * sibling is promoted to the next level unchanged. The signature of every
+ * object consists of its inclusion proof followed by the root signature:
+ * 
+ * <pre>
+ * index of the leaf (varint)
+ * + nofLeaves (varint)
+ * + for every level on which the node has a sibling: the sibling's hash
+ * + signature of ROOT_TAG + nofLeaves (4 bytes) + root
+ * </pre>
+ * 
+ * The root is signed with the same key as the payloads of the non-Merkle
+ * algorithms, whose first byte is the version of the encoding. ROOT_TAG
+ * therefore starts with 0xFF, which is never used as a version, followed by
+ * the ASCII context string "coinblesk merkle root", so that a root signature
+ * can never be taken for the signature of a payload and vice versa.
+ */
+final class MerkleTree {
+	static final int HASH_LENGTH = 32;
+	
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final byte LEAF_PREFIX = 0x00;
+	private static final byte NODE_PREFIX = 0x01;
+	private static final byte[] ROOT_TAG = getRootTag();
+	
+	private final List<? extends SignedSerializableObject> objects;
+	// levels.get(0) contains the leaves, the last level contains the root
+	private final List<byte[][]> levels = new ArrayList<byte[][]>();
+	
+	MerkleTree(List<? extends SignedSerializableObject> objects) throws SignatureException {
+		this.objects = objects;
+		
+		MessageDigest md = getMessageDigest();
+		byte[][] level = new byte[objects.size()][];
+		for (int i=0; i<level.length; i++) {
+			level[i] = hashLeaf(md, ByteBuffer.wrap(objects.get(i).getPayload()));
+		}
+		levels.add(level);
+		
+		while (level.length > 1) {
+			byte[][] next = new byte[(level.length + 1) / 2][];
+			for (int i=0; i<level.length; i+=2) {
+				next[i/2] = i+1 < level.length ? hashNode(md, level[i], level[i+1]) : level[i];
+			}
+			levels.add(next);
+			level = next;
+		}
+	}
+	
+	/**
+	 * Signs the root with the given initialized {@link Signature} engine and
+	 * sets the signature (i.e., the inclusion proof and the root signature)
+	 * of every object of this tree.
+	 */
+	void sign(Signature sig, PKIAlgorithm pkiAlgorithm) throws SignatureException {
+		int nofLeaves = objects.size();
+		if (nofLeaves == 0)
+			return;
+		
+		sig.update(getSignedMessage(levels.get(levels.size() - 1)[0], nofLeaves));
+		byte[] rootSignature = sig.sign();
+		if (pkiAlgorithm.getRootAlgorithm() == PKIAlgorithm.DEFAULT_RAW)
+			rootSignature = SignatureEncoding.toRaw(sig, rootSignature);
+		
+		for (int i=0; i<nofLeaves; i++) {
+			byte[] indexBytes = PrimitiveTypeSerializer.getLongAsVarint(i);
+			byte[] nofLeavesBytes = PrimitiveTypeSerializer.getLongAsVarint(nofLeaves);
+			ByteBuffer buffer = ByteBuffer.allocate(indexBytes.length+nofLeavesBytes.length+getProofLength(i, nofLeaves)*HASH_LENGTH+rootSignature.length);
+			buffer.put(indexBytes);
+			buffer.put(nofLeavesBytes);
+			int index = i;
+			for (int l=0; l<levels.size()-1; l++) {
+				int sibling = index ^ 1;
+				if (sibling < levels.get(l).length)
+					buffer.put(levels.get(l)[sibling]);
+				index >>= 1;
+			}
+			buffer.put(rootSignature);
+			objects.get(i).signature = buffer.array();
+		}
+	}
+	
+	/**
+	 * Returns the message whose signature is contained at the end of the
+	 * given signature, i.e., the root computed from the payload and the
+	 * inclusion proof, or null if the signature is malformed.
+	 * 
+	 * @param payload
+	 *            the payload, which is consumed
+	 * @param signature
+	 *            the inclusion proof followed by the root signature
+	 * @param rootSignatureLength
+	 *            the length of the root signature
+	 */
+	static byte[] getSignedMessage(ByteBuffer payload, byte[] signature, int rootSignatureLength) throws SignatureException {
+		try {
+			long index = PrimitiveTypeSerializer.getVarintAsLong(signature, 0);
+			int offset = PrimitiveTypeSerializer.getVarintLength(index);
+			long nofLeaves = PrimitiveTypeSerializer.getVarintAsLong(signature, offset);
+			offset += PrimitiveTypeSerializer.getVarintLength(nofLeaves);
+			if (nofLeaves > Integer.MAX_VALUE || index >= nofLeaves)
+				return null;
+			
+			int proofLength = getProofLength((int) index, (int) nofLeaves);
+			if (signature.length != offset + proofLength*HASH_LENGTH + rootSignatureLength)
+				return null;
+			
+			MessageDigest md = getMessageDigest();
+			byte[] hash = hashLeaf(md, payload);
+			int i = (int) index;
+			int levelLength = (int) nofLeaves;
+			while (levelLength > 1) {
+				if ((i ^ 1) < levelLength) {
+					byte[] sibling = new byte[HASH_LENGTH];
+					System.arraycopy(signature, offset, sibling, 0, HASH_LENGTH);
+					offset += HASH_LENGTH;
+					hash = (i & 1) == 0 ? hashNode(md, hash, sibling) : hashNode(md, sibling, hash);
+				}
+				i >>= 1;
+				levelLength = (levelLength + 1) / 2;
+			}
+			return getSignedMessage(hash, (int) nofLeaves);
+		} catch (IllegalArgumentException e) {
+			return null;
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+	
+	/*
+	 * Returns the number of sibling hashes of the inclusion proof of the
+	 * given leaf.
+	 */
+	private static int getProofLength(int index, int nofLeaves) {
+		int proofLength = 0;
+		while (nofLeaves > 1) {
+			if ((index ^ 1) < nofLeaves)
+				proofLength++;
+			index >>= 1;
+			nofLeaves = (nofLeaves + 1) / 2;
+		}
+		return proofLength;
+	}
+	
+	private static byte[] getRootTag() {
+		byte[] context = "coinblesk merkle root".getBytes(Charset.forName("US-ASCII"));
+		byte[] tag = new byte[1 + context.length];
+		tag[0] = (byte) 0xFF;
+		System.arraycopy(context, 0, tag, 1, context.length);
+		return tag;
+	}
+	
+	private static byte[] getSignedMessage(byte[] root, int nofLeaves) {
+		ByteBuffer buffer = ByteBuffer.allocate(ROOT_TAG.length+4+HASH_LENGTH);
+		buffer.put(ROOT_TAG);
+		buffer.putInt(nofLeaves);
+		buffer.put(root);
+		return buffer.array();
+	}
+	
+	private static byte[] hashLeaf(MessageDigest md, ByteBuffer payload) {
+		md.update(LEAF_PREFIX);
+		md.update(payload);
+		return md.digest();
+	}
+	
+	private static byte[] hashNode(MessageDigest md, byte[] left, byte[] right) {
+		md.update(NODE_PREFIX);
+		md.update(left);
+		md.update(right);
+		return md.digest();
+	}
+	
+	private static MessageDigest getMessageDigest() throws SignatureException {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new SignatureException(e);
+		}
+	}
+
+}
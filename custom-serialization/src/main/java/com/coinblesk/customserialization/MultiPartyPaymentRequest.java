@@ -0,0 +1,327 @@
+package com.coinblesk.customserialization;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+import com.coinblesk.customserialization.exceptions.SerializationException;
+
+/**
+ * This class represents a payment which is split among several payers (e.g.,
+ * a bill shared by a group), which is transferred from a client to the server
+ * over TCP/IP. It contains one {@link PaymentRequest} per payer, each signed
+ * by its payer, against the same payee and in the same currency. The server
+ * settles either all contained payments or none of them, so that a group
+ * payment needs a single round trip instead of one per payer.
+ * 
+ * Every {@link PaymentRequest} has to carry the group ID (see
+ * {@link #getGroupId(List)}) as its {@link Extensions#CORRELATION_ID}, so that
+ * the payer's signature covers the composition of the group. A signed share
+ * can therefore not be lifted into another group, e.g., one which lets the
+ * payer pay for more participants than agreed.
+ * 
+ * <pre>
+ * version
+ * + nofPaymentRequests (varint)
+ * + for every payer: paymentRequest.length (2 bytes) + paymentRequest
+ * </pre>
+ */
+public class MultiPartyPaymentRequest extends SerializableObject {
+	
+	private List<PaymentRequest> paymentRequests;
+	private byte[] groupId;
+	
+	//this constructor is needed for the DecoderFactory
+	protected MultiPartyPaymentRequest() {
+	}
+	
+	/**
+	 * This constructor instantiates a new object.
+	 * 
+	 * @param paymentRequests
+	 *            the payers' {@link PaymentRequest}s, each signed by its payer
+	 * @throws IllegalArgumentException
+	 *             if the list is null or empty, if any {@link PaymentRequest}
+	 *             is null, not signed or too long, if the
+	 *             {@link PaymentRequest}s differ in the payee or the currency,
+	 *             if a payer is contained twice, if the total amount does not
+	 *             fit into a long, or if any {@link PaymentRequest} does not
+	 *             carry the group ID
+	 */
+	public MultiPartyPaymentRequest(List<PaymentRequest> paymentRequests) throws IllegalArgumentException {
+		super(1);
+		
+		if (paymentRequests == null || paymentRequests.isEmpty())
+			throw new IllegalArgumentException("The payment requests cannot be null or empty.");
+		
+		PaymentRequest first = paymentRequests.get(0);
+		Set<String> usernamesPayer = new HashSet<String>();
+		long totalAmount = 0;
+		for (PaymentRequest pr : paymentRequests) {
+			ServerPaymentRequest.checkPaymentRequest(pr, "payer");
+			
+			if (!pr.getUsernamePayee().equals(first.getUsernamePayee()))
+				throw new IllegalArgumentException("All payment requests must have the same payee.");
+			if (pr.getCurrency() != first.getCurrency())
+				throw new IllegalArgumentException("All payment requests must have the same currency.");
+			if (!usernamesPayer.add(pr.getUsernamePayer()))
+				throw new IllegalArgumentException("The payer "+pr.getUsernamePayer()+" is contained more than once.");
+			if (pr.getAmount() > Long.MAX_VALUE - totalAmount)
+				throw new IllegalArgumentException("The total amount does not fit into a long.");
+			
+			totalAmount += pr.getAmount();
+		}
+		
+		byte[] groupId = getGroupId(paymentRequests);
+		for (PaymentRequest pr : paymentRequests) {
+			Extensions extensions = pr.getExtensions();
+			byte[] correlationId = extensions == null ? null : extensions.get(Extensions.CORRELATION_ID);
+			if (correlationId == null || !MessageDigest.isEqual(groupId, correlationId))
+				throw new IllegalArgumentException("The payment request of "+pr.getUsernamePayer()+" does not belong to this group.");
+		}
+		
+		this.groupId = groupId;
+		this.paymentRequests = Collections.unmodifiableList(new ArrayList<PaymentRequest>(paymentRequests));
+	}
+	
+	/**
+	 * Returns the ID of the given group of {@link PaymentRequest}s, which
+	 * every payer has to add as {@link Extensions#CORRELATION_ID} to its
+	 * {@link PaymentRequest} before signing it. The ID is the SHA-256 hash of
+	 * the payee, the currency, and the payers with their amounts in ascending
+	 * order of the usernames. It does not depend on the signatures or the
+	 * extensions, so that it can be computed from the unsigned requests.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the list is null or empty or if any
+	 *             {@link PaymentRequest} is null
+	 */
+	public static byte[] getGroupId(List<PaymentRequest> paymentRequests) throws IllegalArgumentException {
+		if (paymentRequests == null || paymentRequests.isEmpty())
+			throw new IllegalArgumentException("The payment requests cannot be null or empty.");
+		
+		Charset charset = Charset.forName("UTF-8");
+		SortedMap<String, Long> amounts = new TreeMap<String, Long>();
+		for (PaymentRequest pr : paymentRequests) {
+			if (pr == null)
+				throw new IllegalArgumentException("The payment requests cannot contain null.");
+			
+			amounts.put(pr.getUsernamePayer(), pr.getAmount());
+		}
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+		
+		// every field is length-prefixed, so that no two groups hash the same bytes
+		PaymentRequest first = paymentRequests.get(0);
+		putLengthPrefixed(digest, first.getUsernamePayee().getBytes(charset));
+		digest.update(first.getCurrency().getCode());
+		for (Map.Entry<String, Long> entry : amounts.entrySet()) {
+			putLengthPrefixed(digest, entry.getKey().getBytes(charset));
+			digest.update(ByteBuffer.allocate(8).putLong(entry.getValue()).array());
+		}
+		return digest.digest();
+	}
+	
+	private static void putLengthPrefixed(MessageDigest digest, byte[] bytes) {
+		digest.update(ByteBuffer.allocate(2).putShort((short) bytes.length).array());
+		digest.update(bytes);
+	}
+	
+	/**
+	 * Returns the ID of this group (see {@link #getGroupId(List)}).
+	 */
+	public byte[] getGroupId() {
+		return groupId.clone();
+	}
+	
+	/**
+	 * Returns the payers' {@link PaymentRequest}s.
+	 */
+	public List<PaymentRequest> getPaymentRequests() {
+		return paymentRequests;
+	}
+	
+	/**
+	 * Returns the username of the payee, which is the same in all
+	 * {@link PaymentRequest}s.
+	 */
+	public String getUsernamePayee() {
+		return paymentRequests.get(0).getUsernamePayee();
+	}
+	
+	/**
+	 * Returns the currency, which is the same in all {@link PaymentRequest}s.
+	 */
+	public Currency getCurrency() {
+		return paymentRequests.get(0).getCurrency();
+	}
+	
+	/**
+	 * Returns the sum of the amounts of all {@link PaymentRequest}s, i.e., the
+	 * amount the payee receives.
+	 */
+	public long getTotalAmount() {
+		long totalAmount = 0;
+		for (PaymentRequest pr : paymentRequests) {
+			totalAmount += pr.getAmount();
+		}
+		return totalAmount;
+	}
+	
+	/**
+	 * Verifies the payers' signatures concurrently on a shared pool of daemon
+	 * threads.
+	 * 
+	 * @see #verifyAll(PublicKeyResolver, long, ExecutorService)
+	 */
+	public boolean verifyAll(PublicKeyResolver publicKeyResolver, long deadline) throws IllegalArgumentException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, TimeoutException {
+		return verifyAll(publicKeyResolver, deadline, ServerPaymentRequest.VERIFICATION_EXECUTOR);
+	}
+	
+	/**
+	 * Verifies the payers' signatures concurrently on the given
+	 * {@link ExecutorService}. Since the payment is settled only as a whole,
+	 * the verification stops as soon as one signature turns out to be invalid.
+	 * 
+	 * @param publicKeyResolver
+	 *            provides the public keys of the payers
+	 * @param deadline
+	 *            the point in time (in milliseconds since January 1, 1970
+	 *            UTC) until which the verification has to be completed
+	 * @param executor
+	 *            the {@link ExecutorService} to run the verifications on
+	 * @return true if all signatures are valid, false if any signature is
+	 *         invalid or if a public key cannot be resolved
+	 * @throws IllegalArgumentException
+	 *             if any argument is null
+	 * @throws NotSignedException
+	 *             if a payment request does not contain a signature
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not supported
+	 * @throws InvalidKeyException
+	 *             if a resolved public key does not belong to the
+	 *             {@link PKIAlgorithm} of its payment request
+	 * @throws SignatureException
+	 *             if an error occured during the verification phase or if the
+	 *             thread was interrupted while waiting for the verifications
+	 * @throws TimeoutException
+	 *             if the verification has not been completed before the
+	 *             deadline
+	 */
+	public boolean verifyAll(PublicKeyResolver publicKeyResolver, long deadline, ExecutorService executor) throws IllegalArgumentException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, TimeoutException {
+		if (publicKeyResolver == null || executor == null)
+			throw new IllegalArgumentException("The arguments can't be null.");
+		
+		PaymentRequest[] prs = paymentRequests.toArray(new PaymentRequest[paymentRequests.size()]);
+		PublicKey[] publicKeys = new PublicKey[prs.length];
+		for (int i=0; i<prs.length; i++) {
+			publicKeys[i] = publicKeyResolver.getPublicKey(prs[i].getUsernamePayer(), prs[i].getPKIAlgorithm(), prs[i].getKeyNumber());
+			if (publicKeys[i] == null)
+				return false;
+		}
+		
+		if (prs.length == 1) {
+			if (System.currentTimeMillis() > deadline)
+				throw new TimeoutException("The deadline has passed.");
+			
+			return prs[0].verify(publicKeys[0]);
+		}
+		
+		return ServerPaymentRequest.verifyConcurrently(prs, publicKeys, deadline, executor);
+	}
+	
+	@Override
+	public byte[] encode() throws NotSignedException {
+		int nofPaymentRequests = paymentRequests.size();
+		byte[][] entries = new byte[nofPaymentRequests][];
+		int entriesLength = 0;
+		for (int i=0; i<nofPaymentRequests; i++) {
+			entries[i] = paymentRequests.get(i).encode();
+			entriesLength += 2+entries[i].length;
+		}
+		
+		byte[] nofPaymentRequestsBytes = PrimitiveTypeSerializer.getLongAsVarint(nofPaymentRequests);
+		ByteBuffer buffer = ByteBuffer.allocate(1+nofPaymentRequestsBytes.length+entriesLength);
+		buffer.put((byte) getVersion());
+		buffer.put(nofPaymentRequestsBytes);
+		for (byte[] entry : entries) {
+			buffer.putShort((short) entry.length);
+			buffer.put(entry);
+		}
+		return buffer.array();
+	}
+	
+	@Override
+	public MultiPartyPaymentRequest decode(byte[] bytes) throws IllegalArgumentException, SerializationException {
+		if (bytes == null)
+			throw new IllegalArgumentException("The argument can't be null.");
+		
+		try {
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			in.get();
+			long nofPaymentRequests = PrimitiveTypeSerializer.getVarintAsLong(in, in.position());
+			in.position(in.position() + PrimitiveTypeSerializer.getVarintLength(nofPaymentRequests));
+			// every entry needs at least its length
+			if (nofPaymentRequests < 1 || nofPaymentRequests > in.remaining() / 2)
+				throw new IllegalArgumentException("The given byte array is corrupt.");
+			
+			List<PaymentRequest> paymentRequests = new ArrayList<PaymentRequest>((int) nofPaymentRequests);
+			for (int i=0; i<nofPaymentRequests; i++) {
+				paymentRequests.add(DecoderFactory.decode(PaymentRequest.class, ServerPaymentRequest.getLengthPrefixed(in)));
+			}
+			if (in.hasRemaining())
+				throw new IllegalArgumentException("The given byte array is corrupt (too long).");
+			
+			return new MultiPartyPaymentRequest(paymentRequests);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!(o instanceof MultiPartyPaymentRequest))
+			return false;
+		
+		MultiPartyPaymentRequest other = (MultiPartyPaymentRequest) o;
+		if (getVersion() != other.getVersion())
+			return false;
+		
+		return paymentRequests.equals(other.paymentRequests);
+	}
+	
+	@Override
+	public int hashCode() {
+		// the group ID is derived from the shares, which do not override hashCode()
+		return Arrays.hashCode(groupId);
+	}
+
+}
@@ -1,5 +1,12 @@
 package com.coinblesk.customserialization;
 
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.NamedParameterSpec;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -9,22 +16,51 @@ import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException
  * This class contains the supported algorithms to create asymmetric keys and
  * their corresponding signature algorithms.
  * 
+ * {@link #ED25519} requires a JDK 15 or newer (or a provider supporting
+ * EdDSA). Its signatures have a fixed length of 64 bytes and are considerably
+ * faster to verify than the ECDSA signatures of {@link #DEFAULT}.
+ * 
+ * {@link #DEFAULT_RAW} uses the same keys and signatures as {@link #DEFAULT},
+ * but stores the signatures as raw r||s of a fixed length of 64 bytes instead
+ * of the variable-length DER encoding (70 to 72 bytes). The signatures are
+ * converted when signing and verifying.
+ * 
+ * {@link #HMAC_SHA256} does not use signatures but message authentication
+ * codes with a session key, which has been agreed on beforehand with a signed
+ * {@link SessionHandshake} (see {@link SessionKeyExchange}). The key pair
+ * algorithm of this PKIAlgorithm is the one of the ephemeral keys used for
+ * the key agreement.
+ * 
+ * {@link #MERKLE_ED25519} and {@link #MERKLE_DEFAULT_RAW} use the keys of
+ * {@link #ED25519} and {@link #DEFAULT_RAW}, but the signer signs the root of a
+ * Merkle tree over the payloads of a whole batch only once (see
+ * {@link BatchSigner}). The signature of every object is its inclusion
+ * proof followed by the root signature, so its length varies with the size
+ * of the batch.
+ * 
  * @author Jeton Memeti
  * 
  */
 public enum PKIAlgorithm {
-	DEFAULT((byte) 0x01, "ECDSA", "brainpoolp256r1", "SHA256withECDSA");
+	DEFAULT((byte) 0x01, "ECDSA", "brainpoolp256r1", "SHA256withECDSA", 0),
+	ED25519((byte) 0x02, "Ed25519", "Ed25519", "Ed25519", 64),
+	HMAC_SHA256((byte) 0x03, "XDH", "X25519", "HmacSHA256", 32),
+	DEFAULT_RAW((byte) 0x04, "ECDSA", "brainpoolp256r1", "SHA256withECDSA", 64),
+	MERKLE_ED25519((byte) 0x05, "Ed25519", "Ed25519", "Ed25519", 0),
+	MERKLE_DEFAULT_RAW((byte) 0x06, "ECDSA", "brainpoolp256r1", "SHA256withECDSA", 0);
 	
 	private byte code;
 	private String keyPairAlgorithm;
 	private String keyPairSpecification;
 	private String signaturAlgorithm;
+	private int signatureLength;
 	
-	private PKIAlgorithm(byte code, String keyPairAlgorithm, String keyPairSpecification, String signatureAlgorithm) {
+	private PKIAlgorithm(byte code, String keyPairAlgorithm, String keyPairSpecification, String signatureAlgorithm, int signatureLength) {
 		this.code = code;
 		this.keyPairAlgorithm = keyPairAlgorithm;
 		this.keyPairSpecification = keyPairSpecification;
 		this.signaturAlgorithm = signatureAlgorithm;
+		this.signatureLength = signatureLength;
 	}
 
 	/**
@@ -58,6 +94,88 @@ public enum PKIAlgorithm {
 		return signaturAlgorithm;
 	}
 	
+	/**
+	 * Returns the length of the signatures in bytes if the signature algorithm
+	 * produces signatures of a fixed length. Returns 0 if the length of the
+	 * signatures varies (e.g., DER encoded ECDSA signatures).
+	 */
+	public int getSignatureLength() {
+		return signatureLength;
+	}
+	
+	/**
+	 * Returns true if this PKIAlgorithm creates SHA256withECDSA signatures,
+	 * regardless of how they are encoded.
+	 */
+	public boolean isECDSA() {
+		return this == DEFAULT || this == DEFAULT_RAW;
+	}
+	
+	/**
+	 * Returns true if this PKIAlgorithm authenticates the payload with a
+	 * message authentication code and a secret session key instead of a
+	 * digital signature.
+	 */
+	public boolean isMAC() {
+		return this == HMAC_SHA256;
+	}
+	
+	/**
+	 * Returns true if the signature of this PKIAlgorithm is a Merkle inclusion
+	 * proof followed by the signature of the root (see
+	 * {@link #getRootAlgorithm()}).
+	 */
+	public boolean isMerkle() {
+		return this == MERKLE_ED25519 || this == MERKLE_DEFAULT_RAW;
+	}
+	
+	/**
+	 * Returns the PKIAlgorithm which signs the root of the Merkle tree if this
+	 * is a Merkle algorithm (see {@link #isMerkle()}), this PKIAlgorithm
+	 * otherwise.
+	 */
+	public PKIAlgorithm getRootAlgorithm() {
+		switch (this) {
+		case MERKLE_ED25519:
+			return ED25519;
+		case MERKLE_DEFAULT_RAW:
+			return DEFAULT_RAW;
+		default:
+			return this;
+		}
+	}
+	
+	/**
+	 * Generates a new key pair for this PKIAlgorithm.
+	 * 
+	 * @param random
+	 *            the source of randomness
+	 * @throws NoSuchAlgorithmException
+	 *             if the key pair algorithm is not supported by any provider
+	 * @throws InvalidAlgorithmParameterException
+	 *             if the key pair specification is not supported by the
+	 *             provider
+	 */
+	public KeyPair generateKeyPair(SecureRandom random) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		return getKeyPairGenerator(random).generateKeyPair();
+	}
+	
+	/**
+	 * Returns a new {@link KeyPairGenerator} for this PKIAlgorithm, which has
+	 * been initialized with the key pair specification.
+	 * 
+	 * @see #generateKeyPair(SecureRandom)
+	 */
+	KeyPairGenerator getKeyPairGenerator(SecureRandom random) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		KeyPairGenerator keyGen = KeyPairGenerator.getInstance(keyPairAlgorithm);
+		if (getRootAlgorithm().isECDSA())
+			keyGen.initialize(new ECGenParameterSpec(keyPairSpecification), random);
+		else
+			keyGen.initialize(new NamedParameterSpec(keyPairSpecification), random);
+		
+		return keyGen;
+	}
+	
 	private static Map<Byte, PKIAlgorithm> codeAlgorithmMap = null;
 	
 	/**
@@ -1,6 +1,13 @@
 package com.coinblesk.customserialization;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.Arrays;
 
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.NotSignedException;
@@ -16,6 +23,8 @@ import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException
  * 
  */
 public class PaymentRequest extends SignedSerializableObject {
+	private static final int INPUT_CURRENCY_FLAG = 0x01;
+	static final int EXTENSIONS_FLAG = 0x02;
 	
 	private String usernamePayer;
 	private String usernamePayee;
@@ -26,6 +35,8 @@ public class PaymentRequest extends SignedSerializableObject {
 	private long inputAmount;
 	private long timestamp;
 	
+	private Extensions extensions;
+	
 	//this constructor is needed for the DecoderFactory
 	protected PaymentRequest() {
 	}
@@ -58,10 +69,26 @@ public class PaymentRequest extends SignedSerializableObject {
 		this(1, pkiAlgorithm, keyNumber, usernamePayer, usernamePayee, currency, amount, timestamp);
 	}
 	
-	private PaymentRequest(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, String usernamePayer, String usernamePayee, Currency currency, long amount, long timestamp) throws IllegalArgumentException {
+	/**
+	 * This constructor instantiates a new object which is encoded in the
+	 * given version of the wire format, e.g.,
+	 * {@link SerializableObject#COMPACT_VERSION} or
+	 * {@link SerializableObject#FIXED_OFFSET_VERSION}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the version is not 1, the compact or the fixed-offset
+	 *             version, or if any other argument is null or does not fit
+	 *             into the foreseen primitive type
+	 * @see #PaymentRequest(PKIAlgorithm, int, String, String, Currency, long,
+	 *      long)
+	 */
+	public PaymentRequest(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, String usernamePayer, String usernamePayee, Currency currency, long amount, long timestamp) throws IllegalArgumentException {
 		super(version, pkiAlgorithm, keyNumber);
 		
+		checkVersion(version);
 		checkParameters(usernamePayer, usernamePayee, currency, amount, timestamp);
+		if (version == COMPACT_VERSION)
+			checkCompactParameters(pkiAlgorithm, currency, null, timestamp);
 		
 		this.usernamePayer = usernamePayer;
 		this.usernamePayee = usernamePayee;
@@ -111,10 +138,26 @@ public class PaymentRequest extends SignedSerializableObject {
 		this(1, pkiAlgorithm, keyNumber, usernamePayer, usernamePayee, currency, amount, inputCurrency, inputAmount, timestamp);
 	}
 	
-	private PaymentRequest(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, String usernamePayer, String usernamePayee, Currency currency, long amount, Currency inputCurrency, long inputAmount, long timestamp) throws IllegalArgumentException {
+	/**
+	 * This constructor instantiates a new object with an input currency which
+	 * is encoded in the given version of the wire format, e.g.,
+	 * {@link SerializableObject#COMPACT_VERSION} or
+	 * {@link SerializableObject#FIXED_OFFSET_VERSION}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the version is not 1, the compact or the fixed-offset
+	 *             version, or if any other argument is null or does not fit
+	 *             into the foreseen primitive type
+	 * @see #PaymentRequest(PKIAlgorithm, int, String, String, Currency, long,
+	 *      Currency, long, long)
+	 */
+	public PaymentRequest(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, String usernamePayer, String usernamePayee, Currency currency, long amount, Currency inputCurrency, long inputAmount, long timestamp) throws IllegalArgumentException {
 		super(version, pkiAlgorithm, keyNumber);
 		
+		checkVersion(version);
 		checkParameters(usernamePayer, usernamePayee, currency, amount, inputCurrency, inputAmount, timestamp);
+		if (version == COMPACT_VERSION)
+			checkCompactParameters(pkiAlgorithm, currency, inputCurrency, timestamp);
 		
 		this.usernamePayer = usernamePayer;
 		this.usernamePayee = usernamePayee;
@@ -126,6 +169,138 @@ public class PaymentRequest extends SignedSerializableObject {
 		
 		setPayload(true);
 	}
+	
+	/*
+	 * Instantiates the request of the other party, which contains the same
+	 * fields as the given request, but has been signed with another key. The
+	 * payload is derived from the payload of the given request without
+	 * encoding the fields again.
+	 */
+	private PaymentRequest(PaymentRequest paymentRequest, PKIAlgorithm pkiAlgorithm, int keyNumber, byte[] signature) throws IllegalArgumentException {
+		super(paymentRequest.getVersion(), pkiAlgorithm, keyNumber);
+		
+		if (getVersion() == COMPACT_VERSION)
+			checkCompactParameters(pkiAlgorithm, paymentRequest.currency, paymentRequest.inputCurrency, paymentRequest.timestamp);
+		
+		this.usernamePayer = paymentRequest.usernamePayer;
+		this.usernamePayee = paymentRequest.usernamePayee;
+		this.currency = paymentRequest.currency;
+		this.amount = paymentRequest.amount;
+		this.inputCurrency = paymentRequest.inputCurrency;
+		this.inputAmount = paymentRequest.inputAmount;
+		this.timestamp = paymentRequest.timestamp;
+		
+		this.extensions = paymentRequest.extensions;
+		
+		this.payload = replaceHeader(paymentRequest.payload, pkiAlgorithm, keyNumber);
+		this.signature = signature;
+	}
+	
+	/*
+	 * Instantiates an unsigned copy of the given request with the given
+	 * extensions.
+	 */
+	private PaymentRequest(PaymentRequest paymentRequest, Extensions extensions) throws IllegalArgumentException {
+		super(paymentRequest.getVersion(), paymentRequest.getPKIAlgorithm(), paymentRequest.getKeyNumber());
+		
+		this.usernamePayer = paymentRequest.usernamePayer;
+		this.usernamePayee = paymentRequest.usernamePayee;
+		this.currency = paymentRequest.currency;
+		this.amount = paymentRequest.amount;
+		this.inputCurrency = paymentRequest.inputCurrency;
+		this.inputAmount = paymentRequest.inputAmount;
+		this.timestamp = paymentRequest.timestamp;
+		this.extensions = extensions;
+		
+		setPayload(inputCurrency != null);
+	}
+	
+	/*
+	 * Instantiates an unsigned copy of the given request with another amount,
+	 * input amount and timestamp, whose payload has already been patched by a
+	 * PaymentRequestTemplate.
+	 */
+	private PaymentRequest(PaymentRequest paymentRequest, long amount, long inputAmount, long timestamp, byte[] payload) throws IllegalArgumentException {
+		super(paymentRequest.getVersion(), paymentRequest.getPKIAlgorithm(), paymentRequest.getKeyNumber());
+		
+		this.usernamePayer = paymentRequest.usernamePayer;
+		this.usernamePayee = paymentRequest.usernamePayee;
+		this.currency = paymentRequest.currency;
+		this.amount = amount;
+		this.inputCurrency = paymentRequest.inputCurrency;
+		this.inputAmount = inputAmount;
+		this.timestamp = timestamp;
+		this.extensions = paymentRequest.extensions;
+		
+		this.payload = payload;
+	}
+	
+	/**
+	 * Returns an unsigned request with the same fields as this one except for
+	 * the amounts and the timestamp, which are already contained in the given
+	 * payload (see {@link PaymentRequestTemplate}).
+	 */
+	PaymentRequest withPayload(long amount, long inputAmount, long timestamp, byte[] payload) throws IllegalArgumentException {
+		return new PaymentRequest(this, amount, inputAmount, timestamp, payload);
+	}
+	
+	/**
+	 * Returns a request with the same fields as this one, which has been
+	 * signed with another key (see
+	 * {@link SerializableObject#PAYEE_REFERENCE_VERSION}).
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or does not fit into the foreseen
+	 *             primitive type
+	 */
+	PaymentRequest withSigningKey(PKIAlgorithm pkiAlgorithm, int keyNumber, byte[] signature) throws IllegalArgumentException {
+		return new PaymentRequest(this, pkiAlgorithm, keyNumber, signature);
+	}
+	
+	/**
+	 * Returns an unsigned copy of this request which carries the given
+	 * {@link Extensions} at the end of its payload. Extensions are only
+	 * supported by the {@link SerializableObject#COMPACT_VERSION} and the
+	 * {@link SerializableObject#FIXED_OFFSET_VERSION}, since decoders of
+	 * version 1 do not expect any data between the timestamp and the
+	 * signature.
+	 * 
+	 * @param extensions
+	 *            the extensions or null to remove them
+	 * @throws IllegalArgumentException
+	 *             if this request is encoded in a version which does not
+	 *             support extensions
+	 */
+	public PaymentRequest withExtensions(Extensions extensions) throws IllegalArgumentException {
+		if (getVersion() != COMPACT_VERSION && getVersion() != FIXED_OFFSET_VERSION)
+			throw new IllegalArgumentException("Version "+getVersion()+" does not support extensions.");
+		
+		return new PaymentRequest(this, extensions);
+	}
+	
+	/**
+	 * Returns a copy of the given payload in which the {@link PKIAlgorithm}
+	 * and the key number are replaced. All layouts store the key number at
+	 * index 2 and the {@link PKIAlgorithm} (or the compact header) at index 1.
+	 */
+	static byte[] replaceHeader(byte[] payload, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+		byte[] result = payload.clone();
+		if ((result[0] & 0xFF) == COMPACT_VERSION)
+			result[1] = setCompactHeaderPKIAlgorithm(result[1], pkiAlgorithm);
+		else
+			result[1] = pkiAlgorithm.getCode();
+		result[2] = (byte) keyNumber;
+		return result;
+	}
+	
+	/*
+	 * The other versions are either not defined or used for the frames of a
+	 * ServerPaymentRequest, which contain the payload of version 1, 2 or 3.
+	 */
+	private static void checkVersion(int version) throws IllegalArgumentException {
+		if (version != 1 && version != COMPACT_VERSION && version != FIXED_OFFSET_VERSION)
+			throw new IllegalArgumentException("A payment request cannot be encoded in version "+version+".");
+	}
 
 	private void checkParameters(String usernamePayer, String usernamePayee, Currency currency, long amount, Currency inputCurrency, long inputAmount, long timestamp) throws IllegalArgumentException {
 		checkParameters(usernamePayer, usernamePayee, currency, amount, timestamp);
@@ -157,87 +332,132 @@ public class PaymentRequest extends SignedSerializableObject {
 			throw new IllegalArgumentException("The timestamp must be greater than 0.");
 	}
 	
+	private void checkCompactParameters(PKIAlgorithm pkiAlgorithm, Currency currency, Currency inputCurrency, long timestamp) throws IllegalArgumentException {
+		checkCompactHeader(pkiAlgorithm, currency);
+		
+		if (inputCurrency != null && inputCurrency.getCode() > 0x07)
+			throw new IllegalArgumentException("The input currency cannot be encoded in the compact format.");
+		
+		if (timestamp < COMPACT_TIMESTAMP_EPOCH)
+			throw new IllegalArgumentException("The timestamp cannot be encoded in the compact format.");
+	}
+	
 	private void setPayload(boolean hasInputCurrency) {
+		if (getVersion() == COMPACT_VERSION) {
+			setCompactPayload(hasInputCurrency);
+			return;
+		} else if (getVersion() == FIXED_OFFSET_VERSION) {
+			setFixedOffsetPayload(hasInputCurrency);
+			return;
+		}
+		
 		byte[] usernamePayerBytes = usernamePayer.getBytes(Charset.forName("UTF-8"));
 		byte[] usernamePayeeBytes = usernamePayee.getBytes(Charset.forName("UTF-8"));
-		byte[] amountBytes = PrimitiveTypeSerializer.getLongAsBytes(amount);
-		byte[] inputAmountBytes = new byte[0];
-		byte[] timestampBytes = PrimitiveTypeSerializer.getLongAsBytes(timestamp);
 		
-		byte nofCurrencies;
-
-		int length;
+		/*
+		 * version
+		 * + signatureAlgorithm.getCode()
+		 * + keyNumber
+		 * + usernamePayer.length
+		 * + usernamePayer
+		 * + usernamePayee.length
+		 * + usernamePayee
+		 * + nofCurrencies
+		 * + currency.getCode()
+		 * + amount
+		 * (+ inputCurrency.getCode()
+		 * + inputAmount)
+		 * + timestamp
+		 */
+		int length = 1+1+1+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+1+1+8+(hasInputCurrency ? 1+8 : 0)+8;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(getPKIAlgorithm().getCode());
+		buffer.put((byte) getKeyNumber());
+		buffer.put((byte) usernamePayerBytes.length);
+		buffer.put(usernamePayerBytes);
+		buffer.put((byte) usernamePayeeBytes.length);
+		buffer.put(usernamePayeeBytes);
+		buffer.put((byte) (hasInputCurrency ? 2 : 1));
+		buffer.put(currency.getCode());
+		buffer.putLong(amount);
 		if (hasInputCurrency) {
-			inputAmountBytes = PrimitiveTypeSerializer.getLongAsBytes(inputAmount);
-			nofCurrencies = 2;
-			/*
-			 * version
-			 * + signatureAlgorithm.getCode()
-			 * + keyNumber
-			 * + usernamePayer.length
-			 * + usernamePayer
-			 * + usernamePayee.length
-			 * + usernamePayee
-			 * + nofCurrencies
-			 * + currency.getCode()
-			 * + amount
-			 * + inputCurrency.getCode()
-			 * + inputAmount
-			 * + timestamp
-			 */
-			length = 1+1+1+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+1+1+8+1+8+8;
-		} else {
-			nofCurrencies = 1;
-			/*
-			 * version
-			 * + signatureAlgorithm.getCode()
-			 * + keyNumber
-			 * + usernamePayer.length
-			 * + usernamePayer
-			 * + usernamePayee.length
-			 * + usernamePayee
-			 * + nofCurrencies
-			 * + currency.getCode()
-			 * + amount
-			 * + timestamp
-			 */
-			length = 1+1+1+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+1+1+8+8;
+			buffer.put(inputCurrency.getCode());
+			buffer.putLong(inputAmount);
 		}
+		buffer.putLong(timestamp);
 		
-		byte[] payload = new byte[length];
+		this.payload = buffer.array();
+	}
+	
+	private void setCompactPayload(boolean hasInputCurrency) {
+		byte[] usernamePayerBytes = usernamePayer.getBytes(Charset.forName("UTF-8"));
+		byte[] usernamePayeeBytes = usernamePayee.getBytes(Charset.forName("UTF-8"));
+		byte[] amountBytes = PrimitiveTypeSerializer.getLongAsVarint(amount);
+		byte[] inputAmountBytes = hasInputCurrency ? PrimitiveTypeSerializer.getLongAsVarint(inputAmount) : new byte[0];
+		byte[] timestampBytes = PrimitiveTypeSerializer.getLongAsVarint(timestamp - COMPACT_TIMESTAMP_EPOCH);
 		
-		int index = 0;
-		payload[index++] = (byte) getVersion();
-		payload[index++] = getPKIAlgorithm().getCode();
-		payload[index++] = (byte) getKeyNumber();
-		payload[index++] = (byte) usernamePayerBytes.length;
-		for (byte b : usernamePayerBytes) {
-			payload[index++] = b;
-		}
-		payload[index++] = (byte) usernamePayeeBytes.length;
-		for (byte b : usernamePayeeBytes) {
-			payload[index++] = b;
+		/*
+		 * version
+		 * + header (signatureAlgorithm.getCode(), hasInputCurrency, currency.getCode())
+		 * + keyNumber
+		 * + usernamePayer.length
+		 * + usernamePayer
+		 * + usernamePayee.length
+		 * + usernamePayee
+		 * + amount (varint)
+		 * (+ inputCurrency.getCode()
+		 * + inputAmount (varint))
+		 * + timestamp - COMPACT_TIMESTAMP_EPOCH (varint)
+		 * (+ extensions)
+		 */
+		byte[] extensionsBytes = extensions == null ? new byte[0] : extensions.encode();
+		int length = 1+1+1+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+amountBytes.length+(hasInputCurrency ? 1 : 0)+inputAmountBytes.length+timestampBytes.length+extensionsBytes.length;
+		int flags = (hasInputCurrency ? INPUT_CURRENCY_FLAG : 0) | (extensions != null ? EXTENSIONS_FLAG : 0);
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(getCompactHeader(getPKIAlgorithm(), flags, currency));
+		buffer.put((byte) getKeyNumber());
+		buffer.put((byte) usernamePayerBytes.length);
+		buffer.put(usernamePayerBytes);
+		buffer.put((byte) usernamePayeeBytes.length);
+		buffer.put(usernamePayeeBytes);
+		buffer.put(amountBytes);
+		if (hasInputCurrency) {
+			buffer.put(inputCurrency.getCode());
+			buffer.put(inputAmountBytes);
 		}
+		buffer.put(timestampBytes);
+		buffer.put(extensionsBytes);
 		
-		payload[index++] = nofCurrencies;
-			
-		payload[index++] = currency.getCode();
-		for (byte b : amountBytes) {
-			payload[index++] = b;
-		}
+		this.payload = buffer.array();
+	}
+	
+	private void setFixedOffsetPayload(boolean hasInputCurrency) {
+		byte[] usernamePayerBytes = usernamePayer.getBytes(Charset.forName("UTF-8"));
+		byte[] usernamePayeeBytes = usernamePayee.getBytes(Charset.forName("UTF-8"));
 		
-		if (hasInputCurrency) {
-			payload[index++] = inputCurrency.getCode();
-			for (byte b : inputAmountBytes) {
-				payload[index++] = b;
-			}
-		}
+		byte[] extensionsBytes = extensions == null ? new byte[0] : extensions.encode();
 		
-		for (byte b : timestampBytes) {
-			payload[index++] = b;
-		}
+		// see PaymentRequestFlyweight for the layout
+		ByteBuffer buffer = ByteBuffer.allocate(PaymentRequestFlyweight.USERNAMES_OFFSET+usernamePayerBytes.length+usernamePayeeBytes.length+extensionsBytes.length);
+		buffer.put(PaymentRequestFlyweight.VERSION_OFFSET, (byte) getVersion());
+		buffer.put(PaymentRequestFlyweight.PKI_ALGORITHM_OFFSET, getPKIAlgorithm().getCode());
+		buffer.put(PaymentRequestFlyweight.KEY_NUMBER_OFFSET, (byte) getKeyNumber());
+		buffer.put(PaymentRequestFlyweight.CURRENCY_OFFSET, currency.getCode());
+		buffer.put(PaymentRequestFlyweight.INPUT_CURRENCY_OFFSET, hasInputCurrency ? inputCurrency.getCode() : 0);
+		buffer.put(PaymentRequestFlyweight.USERNAME_PAYER_LENGTH_OFFSET, (byte) usernamePayerBytes.length);
+		buffer.put(PaymentRequestFlyweight.USERNAME_PAYEE_LENGTH_OFFSET, (byte) usernamePayeeBytes.length);
+		buffer.put(PaymentRequestFlyweight.FLAGS_OFFSET, (byte) (extensions != null ? EXTENSIONS_FLAG : 0));
+		buffer.putLong(PaymentRequestFlyweight.AMOUNT_OFFSET, amount);
+		buffer.putLong(PaymentRequestFlyweight.INPUT_AMOUNT_OFFSET, inputAmount);
+		buffer.putLong(PaymentRequestFlyweight.TIMESTAMP_OFFSET, timestamp);
+		buffer.position(PaymentRequestFlyweight.USERNAMES_OFFSET);
+		buffer.put(usernamePayerBytes);
+		buffer.put(usernamePayeeBytes);
+		buffer.put(extensionsBytes);
 		
-		this.payload = payload;
+		this.payload = buffer.array();
 	}
 	
 	public String getUsernamePayer() {
@@ -267,84 +487,370 @@ public class PaymentRequest extends SignedSerializableObject {
 	public long getTimestamp() {
 		return timestamp;
 	}
-
+	
+	/**
+	 * Returns the {@link Extensions} of this request or null if it does not
+	 * carry any.
+	 */
+	public Extensions getExtensions() {
+		return extensions;
+	}
+	
 	@Override
 	public PaymentRequest decode(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, UnknownCurrencyException, NotSignedException {
 		if (bytes == null)
 			throw new IllegalArgumentException("The argument can't be null.");
 		
 		try {
-			int index = 0;
-			
-			int version = bytes[index++] & 0xFF;
-			PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(bytes[index++]);
-			int keyNumber = bytes[index++] & 0xFF;
-			
-			int usernamePayerLength = bytes[index++] & 0xFF;
-			byte[] usernamePayerBytes = new byte[usernamePayerLength];
-			for (int i=0; i<usernamePayerLength; i++) {
-				usernamePayerBytes[i] = bytes[index++];
-			}
-			String usernamePayer = new String(usernamePayerBytes);
+			if ((bytes[0] & 0xFF) == COMPACT_VERSION)
+				return decodeCompact(bytes);
+			else if ((bytes[0] & 0xFF) == FIXED_OFFSET_VERSION)
+				return decodeFixedOffset(bytes);
 			
-			int usernamePayeeLength = bytes[index++] & 0xFF;
-			byte[] usernamePayeeBytes = new byte[usernamePayeeLength];
-			for (int i=0; i<usernamePayeeLength; i++) {
-				usernamePayeeBytes[i] = bytes[index++];
-			}
-			String usernamePayee = new String(usernamePayeeBytes);
-			
-			byte nofCurrencies = bytes[index++];
+			ByteBuffer in = ByteBuffer.wrap(bytes);
 			
-			Currency currency = Currency.getCurrency(bytes[index++]);
-			
-			byte[] amountBytes = new byte[Long.SIZE / Byte.SIZE]; //8 bytes (long)
-			for (int i=0; i<amountBytes.length; i++) {
-				amountBytes[i] = bytes[index++];
-			}
-			long amount = PrimitiveTypeSerializer.getBytesAsLong(amountBytes);
-			
-			Currency inputCurrency = null;
-			long inputAmount = 0;
-			if (nofCurrencies == 2) {
-				inputCurrency = Currency.getCurrency(bytes[index++]);
-				byte[] inputAmountBytes = new byte[Long.SIZE / Byte.SIZE]; //8 bytes (long)
-				for (int i=0; i<inputAmountBytes.length; i++) {
-					inputAmountBytes[i] = bytes[index++];
-				}
-				inputAmount = PrimitiveTypeSerializer.getBytesAsLong(inputAmountBytes);
-			}
-			
-			byte[] timestampBytes = new byte[Long.SIZE / Byte.SIZE]; //8 bytes (long)
-			for (int i=0; i<timestampBytes.length; i++) {
-				timestampBytes[i] = bytes[index++];
-			}
-			long timestamp = PrimitiveTypeSerializer.getBytesAsLong(timestampBytes);
+			int version = in.get() & 0xFF;
+			PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(in.get());
+			int keyNumber = in.get() & 0xFF;
+			String usernamePayer = PrimitiveTypeSerializer.getString(in);
+			String usernamePayee = PrimitiveTypeSerializer.getString(in);
+			byte nofCurrencies = in.get();
+			Currency currency = Currency.getCurrency(in.get());
+			long amount = in.getLong();
 			
 			PaymentRequest pr;
 			if (nofCurrencies == 1) {
+				long timestamp = in.getLong();
 				pr = new PaymentRequest(version, pkiAlgorithm, keyNumber, usernamePayer, usernamePayee, currency, amount, timestamp);
-			} else {
+			} else if (nofCurrencies == 2) {
+				Currency inputCurrency = Currency.getCurrency(in.get());
+				long inputAmount = in.getLong();
+				long timestamp = in.getLong();
 				pr = new PaymentRequest(version, pkiAlgorithm, keyNumber, usernamePayer, usernamePayee, currency, amount, inputCurrency, inputAmount, timestamp);
-			}
-			
-			int signatureLength = bytes.length - index;
-			if (signatureLength == 0) {
-				throw new NotSignedException();
 			} else {
-				byte[] signature = new byte[signatureLength];
-				for (int i=0; i<signature.length; i++) {
-					signature[i] = bytes[index++];
-				}
-				pr.signature = signature;
+				throw new IllegalArgumentException("The given byte array is corrupt.");
 			}
 			
+			pr.signature = getSignature(pkiAlgorithm, bytes, in.position());
 			return pr;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	private PaymentRequest decodeCompact(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, UnknownCurrencyException, NotSignedException {
+		int index = 0;
+		
+		int version = bytes[index++] & 0xFF;
+		byte header = bytes[index++];
+		PKIAlgorithm pkiAlgorithm = getCompactHeaderPKIAlgorithm(header);
+		boolean hasInputCurrency = (getCompactHeaderFlags(header) & INPUT_CURRENCY_FLAG) != 0;
+		boolean hasExtensions = (getCompactHeaderFlags(header) & EXTENSIONS_FLAG) != 0;
+		Currency currency = getCompactHeaderCurrency(header);
+		int keyNumber = bytes[index++] & 0xFF;
+		
+		int usernamePayerLength = bytes[index++] & 0xFF;
+		String usernamePayer = new String(bytes, index, usernamePayerLength, Charset.forName("UTF-8"));
+		index += usernamePayerLength;
+		
+		int usernamePayeeLength = bytes[index++] & 0xFF;
+		String usernamePayee = new String(bytes, index, usernamePayeeLength, Charset.forName("UTF-8"));
+		index += usernamePayeeLength;
+		
+		long amount = PrimitiveTypeSerializer.getVarintAsLong(bytes, index);
+		index += PrimitiveTypeSerializer.getVarintLength(amount);
+		
+		Currency inputCurrency = null;
+		long inputAmount = 0;
+		if (hasInputCurrency) {
+			inputCurrency = Currency.getCurrency(bytes[index++]);
+			inputAmount = PrimitiveTypeSerializer.getVarintAsLong(bytes, index);
+			index += PrimitiveTypeSerializer.getVarintLength(inputAmount);
+		}
+		
+		long timestampOffset = PrimitiveTypeSerializer.getVarintAsLong(bytes, index);
+		index += PrimitiveTypeSerializer.getVarintLength(timestampOffset);
+		long timestamp = COMPACT_TIMESTAMP_EPOCH + timestampOffset;
+		
+		PaymentRequest pr;
+		if (hasInputCurrency) {
+			pr = new PaymentRequest(version, pkiAlgorithm, keyNumber, usernamePayer, usernamePayee, currency, amount, inputCurrency, inputAmount, timestamp);
+		} else {
+			pr = new PaymentRequest(version, pkiAlgorithm, keyNumber, usernamePayer, usernamePayee, currency, amount, timestamp);
+		}
+		
+		if (hasExtensions) {
+			pr.extensions = Extensions.decode(ByteBuffer.wrap(bytes), index);
+			index += pr.extensions.getEncodedLength();
+			pr.payload = Arrays.copyOf(bytes, index);
+		}
+		
+		pr.signature = getSignature(pkiAlgorithm, bytes, index);
+		return pr;
+	}
+	
+	private PaymentRequest decodeFixedOffset(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, UnknownCurrencyException, NotSignedException {
+		PaymentRequestFlyweight flyweight = new PaymentRequestFlyweight().wrap(ByteBuffer.wrap(bytes), 0);
+		
+		PKIAlgorithm pkiAlgorithm = flyweight.getPKIAlgorithm();
+		Currency inputCurrency = flyweight.getInputCurrency();
+		int index = flyweight.getPayloadLength();
+		if (index > bytes.length)
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		
+		PaymentRequest pr;
+		if (inputCurrency == null) {
+			pr = new PaymentRequest(FIXED_OFFSET_VERSION, pkiAlgorithm, flyweight.getKeyNumber(), flyweight.getUsernamePayer(), flyweight.getUsernamePayee(), flyweight.getCurrency(), flyweight.getAmount(), flyweight.getTimestamp());
+		} else {
+			pr = new PaymentRequest(FIXED_OFFSET_VERSION, pkiAlgorithm, flyweight.getKeyNumber(), flyweight.getUsernamePayer(), flyweight.getUsernamePayee(), flyweight.getCurrency(), flyweight.getAmount(), inputCurrency, flyweight.getInputAmount(), flyweight.getTimestamp());
+		}
+		
+		if (flyweight.hasExtensions()) {
+			pr.extensions = flyweight.getExtensions();
+			pr.payload = Arrays.copyOf(bytes, index);
+		}
+		
+		pr.signature = getSignature(pkiAlgorithm, bytes, index);
+		return pr;
+	}
+	
+	/**
+	 * Verifies the signature of an encoded {@link PaymentRequest} directly
+	 * from the buffer it has been received in. The payload and the signature
+	 * are located in place, so no object has to be decoded and the payload is
+	 * not copied. The position and limit of the buffer are not modified.
+	 * 
+	 * @param publicKey
+	 *            the public key to be used for the verification
+	 * @param frame
+	 *            the buffer containing the encoded {@link PaymentRequest}
+	 *            between its position and its limit
+	 * @return true if the signature is valid for the given payload, false
+	 *         otherwise
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or if the frame is corrupt
+	 * @throws UnknownPKIAlgorithmException
+	 *             if the {@link PKIAlgorithm} of the frame is not known
+	 * @throws NotSignedException
+	 *             if the frame does not contain a signature
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not supported
+	 * @throws InvalidKeyException
+	 *             if the public key does not belong to the
+	 *             {@link PKIAlgorithm} of the frame
+	 * @throws SignatureException
+	 *             if an error occured during the verification phase
+	 */
+	public static boolean verify(PublicKey publicKey, ByteBuffer frame) throws IllegalArgumentException, UnknownPKIAlgorithmException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (publicKey == null || frame == null)
+			throw new IllegalArgumentException("The arguments can't be null.");
+		
+		try {
+			PKIAlgorithm pkiAlgorithm = getPKIAlgorithm(frame);
+			int payloadEnd = getPayloadEnd(frame);
+			
+			int signatureLength = frame.limit() - payloadEnd;
+			if (signatureLength == 0)
+				throw new NotSignedException();
+			else if (pkiAlgorithm.getSignatureLength() != 0 && signatureLength != pkiAlgorithm.getSignatureLength())
+				throw new IllegalArgumentException("The given byte array is corrupt (the signature length does not match the signature algorithm).");
+			
+			ByteBuffer payload = frame.duplicate();
+			payload.limit(payloadEnd);
+			
+			byte[] signature = new byte[signatureLength];
+			ByteBuffer signatureBuffer = frame.duplicate();
+			signatureBuffer.position(payloadEnd);
+			signatureBuffer.get(signature);
+			
+			return verify(pkiAlgorithm, publicKey, payload, signature);
 		} catch (IndexOutOfBoundsException e) {
 			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		}
 	}
 	
+	/**
+	 * Returns the length of the payload of the encoded request which starts
+	 * at the position of the given buffer.
+	 */
+	static int getPayloadLength(ByteBuffer frame) throws IllegalArgumentException {
+		return getPayloadEnd(frame) - frame.position();
+	}
+	
+	/*
+	 * Returns the absolute index of the end of the payload (the beginning of
+	 * the signature) of the encoded payment request in the given buffer.
+	 */
+	private static int getPayloadEnd(ByteBuffer frame) throws IllegalArgumentException {
+		if ((frame.get(frame.position()) & 0xFF) == FIXED_OFFSET_VERSION) {
+			int index = frame.position() + new PaymentRequestFlyweight().wrap(frame, frame.position()).getPayloadLength();
+			if (index > frame.limit())
+				throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+			
+			return index;
+		}
+		
+		boolean compact = (frame.get(frame.position()) & 0xFF) == COMPACT_VERSION;
+		// version + signatureAlgorithm (or header) + keyNumber
+		int index = frame.position() + 3;
+		// usernamePayer.length + usernamePayer
+		index += 1 + (frame.get(index) & 0xFF);
+		// usernamePayee.length + usernamePayee
+		index += 1 + (frame.get(index) & 0xFF);
+		
+		if (compact) {
+			int flags = getCompactHeaderFlags(frame.get(frame.position() + 1));
+			// amount (+ inputCurrency + inputAmount) + timestamp
+			index = skipVarint(frame, index);
+			if ((flags & INPUT_CURRENCY_FLAG) != 0)
+				index = skipVarint(frame, index + 1);
+			index = skipVarint(frame, index);
+			// (+ extensions)
+			if ((flags & EXTENSIONS_FLAG) != 0)
+				index = Extensions.skip(frame, index);
+			
+			if (index > frame.limit())
+				throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+			
+			return index;
+		}
+		
+		byte nofCurrencies = frame.get(index++);
+		// currency + amount (+ inputCurrency + inputAmount)
+		index += nofCurrencies == 2 ? 2*(1+8) : 1+8;
+		// timestamp
+		index += 8;
+		
+		if (index > frame.limit())
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		
+		return index;
+	}
+	
+	/*
+	 * Returns the index following the varint which starts at the given index.
+	 */
+	private static int skipVarint(ByteBuffer frame, int index) {
+		while ((frame.get(index) & 0x80) != 0) {
+			index++;
+		}
+		return index + 1;
+	}
+	
+	/*
+	 * Reads the PKIAlgorithm from the encoded payment request in the given
+	 * buffer.
+	 */
+	static PKIAlgorithm getPKIAlgorithm(ByteBuffer frame) throws UnknownPKIAlgorithmException {
+		byte b = frame.get(frame.position() + 1);
+		if ((frame.get(frame.position()) & 0xFF) == COMPACT_VERSION)
+			return getCompactHeaderPKIAlgorithm(b);
+		else
+			return PKIAlgorithm.getPKIAlgorithm(b);
+	}
+	
+	/*
+	 * Reads the username of the payer or of the payee from the encoded payment
+	 * request in the given buffer.
+	 */
+	static String getUsername(ByteBuffer frame, boolean payer) throws IllegalArgumentException {
+		if ((frame.get(frame.position()) & 0xFF) == FIXED_OFFSET_VERSION) {
+			PaymentRequestFlyweight flyweight = new PaymentRequestFlyweight().wrap(frame, frame.position());
+			if (frame.position() + flyweight.getPayloadLength() > frame.limit())
+				throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+			
+			return payer ? flyweight.getUsernamePayer() : flyweight.getUsernamePayee();
+		}
+		
+		int index = frame.position() + 3;
+		if (!payer)
+			index += 1 + (frame.get(index) & 0xFF);
+		
+		byte[] usernameBytes = new byte[frame.get(index) & 0xFF];
+		if (index + 1 + usernameBytes.length > frame.limit())
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		
+		ByteBuffer usernameBuffer = frame.duplicate();
+		usernameBuffer.position(index + 1);
+		usernameBuffer.get(usernameBytes);
+		return new String(usernameBytes, Charset.forName("UTF-8"));
+	}
+	
+	/**
+	 * Returns true if the encoded payment requests in the given buffers are
+	 * identic regarding a payment (see {@link #requestsIdentic(PaymentRequest)}),
+	 * without decoding them. The positions of the buffers are not modified.
+	 */
+	static boolean requestsIdentic(ByteBuffer frame, ByteBuffer other) throws IllegalArgumentException {
+		if (!getUsername(frame, true).equals(getUsername(other, true)))
+			return false;
+		if (!getUsername(frame, false).equals(getUsername(other, false)))
+			return false;
+		
+		return Arrays.equals(getPaymentFields(frame), getPaymentFields(other));
+	}
+	
+	/**
+	 * Returns the timestamp of the encoded payment request in the given
+	 * buffer, without decoding it. The position of the buffer is not
+	 * modified.
+	 */
+	static long getTimestamp(ByteBuffer frame) throws IllegalArgumentException {
+		return getPaymentFields(frame)[2];
+	}
+	
+	/*
+	 * Reads the currency code, the amount and the timestamp from the encoded
+	 * payment request in the given buffer.
+	 */
+	private static long[] getPaymentFields(ByteBuffer frame) throws IllegalArgumentException {
+		int start = frame.position();
+		int version = frame.get(start) & 0xFF;
+		if (version == FIXED_OFFSET_VERSION) {
+			if (start + PaymentRequestFlyweight.USERNAMES_OFFSET > frame.limit())
+				throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+			
+			return new long[] {
+					frame.get(start + PaymentRequestFlyweight.CURRENCY_OFFSET) & 0xFF,
+					frame.getLong(start + PaymentRequestFlyweight.AMOUNT_OFFSET),
+					frame.getLong(start + PaymentRequestFlyweight.TIMESTAMP_OFFSET)
+			};
+		}
+		
+		// version + signatureAlgorithm (or header) + keyNumber + usernamePayer + usernamePayee
+		int index = start + 3;
+		index += 1 + (frame.get(index) & 0xFF);
+		index += 1 + (frame.get(index) & 0xFF);
+		
+		if (version == COMPACT_VERSION) {
+			byte header = frame.get(start + 1);
+			long amount = PrimitiveTypeSerializer.getVarintAsLong(frame, index);
+			index += PrimitiveTypeSerializer.getVarintLength(amount);
+			if ((getCompactHeaderFlags(header) & INPUT_CURRENCY_FLAG) != 0)
+				index = skipVarint(frame, index + 1);
+			long timestamp = COMPACT_TIMESTAMP_EPOCH + PrimitiveTypeSerializer.getVarintAsLong(frame, index);
+			return new long[] { header & 0x07, amount, timestamp };
+		}
+		
+		byte nofCurrencies = frame.get(index++);
+		long currency = frame.get(index++) & 0xFF;
+		long amount = frame.getLong(index);
+		index += 8;
+		if (nofCurrencies == 2)
+			index += 1+8;
+		return new long[] { currency, amount, frame.getLong(index) };
+	}
+	
+	/**
+	 * Returns the index of the usernames within the payload (see
+	 * {@link UsernameDictionary}).
+	 */
+	int getUsernamesOffset() {
+		return getVersion() == FIXED_OFFSET_VERSION ? PaymentRequestFlyweight.USERNAMES_OFFSET : 3;
+	}
+	
 	/**
 	 * This method checks that two payment requests are identic regarding a
 	 * payment. The username of payer and payee as well as the currency and the
@@ -404,6 +910,8 @@ public class PaymentRequest extends SignedSerializableObject {
 		}
 		if (this.getInputAmount() != other.getInputAmount())
 			return false;
+		if (this.extensions == null ? other.extensions != null : !this.extensions.equals(other.extensions))
+			return false;
 		
 		return true;
 	}
@@ -0,0 +1,183 @@
+package com.coinblesk.customserialization;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.UnknownCurrencyException;
+import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException;
+
+/**
+ * This class reads the fields of a {@link PaymentRequest} encoded in the
+ * fixed-offset layout ({@link SerializableObject#FIXED_OFFSET_VERSION})
+ * directly from a buffer, without decoding the object. In this layout all
+ * fixed-width fields come first at constant offsets, and the longs are
+ * aligned to 8 bytes relative to the start of the request:
+ * 
+ * <pre>
+ *  0 version
+ *  1 signatureAlgorithm.getCode()
+ *  2 keyNumber
+ *  3 currency.getCode()
+ *  4 inputCurrency.getCode() (0 if there is no input currency)
+ *  5 usernamePayer.length
+ *  6 usernamePayee.length
+ *  7 flags (PaymentRequest.EXTENSIONS_FLAG)
+ *  8 amount
+ * 16 inputAmount
+ * 24 timestamp
+ * 32 usernamePayer, usernamePayee, (extensions,) signature
+ * </pre>
+ * 
+ * Every numeric field can therefore be read with a single indexed load, which
+ * allows scanning many stored requests (e.g., summing up amounts) without
+ * parsing the usernames. An instance can be re-wrapped around any number of
+ * requests, so that no object has to be allocated per request.
+ */
+public final class PaymentRequestFlyweight {
+	
+	public static final int VERSION_OFFSET = 0;
+	public static final int PKI_ALGORITHM_OFFSET = 1;
+	public static final int KEY_NUMBER_OFFSET = 2;
+	public static final int CURRENCY_OFFSET = 3;
+	public static final int INPUT_CURRENCY_OFFSET = 4;
+	public static final int USERNAME_PAYER_LENGTH_OFFSET = 5;
+	public static final int USERNAME_PAYEE_LENGTH_OFFSET = 6;
+	public static final int FLAGS_OFFSET = 7;
+	public static final int AMOUNT_OFFSET = 8;
+	public static final int INPUT_AMOUNT_OFFSET = 16;
+	public static final int TIMESTAMP_OFFSET = 24;
+	public static final int USERNAMES_OFFSET = 32;
+	
+	private ByteBuffer buffer;
+	private int offset;
+	
+	/**
+	 * Points this flyweight to the request which starts at the given absolute
+	 * index of the buffer. The position and limit of the buffer are not
+	 * modified.
+	 * 
+	 * @param buffer
+	 *            the big-endian buffer containing the encoded request
+	 * @param offset
+	 *            the index of the first byte (the version) of the request
+	 * @return this flyweight
+	 * @throws IllegalArgumentException
+	 *             if the buffer is null or not big-endian, or if it does not
+	 *             contain a request in the fixed-offset layout at the given
+	 *             offset
+	 */
+	public PaymentRequestFlyweight wrap(ByteBuffer buffer, int offset) throws IllegalArgumentException {
+		if (buffer == null || buffer.order() != ByteOrder.BIG_ENDIAN)
+			throw new IllegalArgumentException("The buffer cannot be null and must be big-endian.");
+		
+		if (offset < 0 || offset + USERNAMES_OFFSET > buffer.limit())
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		
+		if ((buffer.get(offset + VERSION_OFFSET) & 0xFF) != SerializableObject.FIXED_OFFSET_VERSION)
+			throw new IllegalArgumentException("The request is not encoded in the fixed-offset layout.");
+		
+		this.buffer = buffer;
+		this.offset = offset;
+		return this;
+	}
+	
+	public PKIAlgorithm getPKIAlgorithm() throws UnknownPKIAlgorithmException {
+		return PKIAlgorithm.getPKIAlgorithm(buffer.get(offset + PKI_ALGORITHM_OFFSET));
+	}
+	
+	public int getKeyNumber() {
+		return buffer.get(offset + KEY_NUMBER_OFFSET) & 0xFF;
+	}
+	
+	public Currency getCurrency() throws UnknownCurrencyException {
+		return Currency.getCurrency(buffer.get(offset + CURRENCY_OFFSET));
+	}
+	
+	/**
+	 * Returns the input currency or null if the request does not contain one.
+	 */
+	public Currency getInputCurrency() throws UnknownCurrencyException {
+		byte code = buffer.get(offset + INPUT_CURRENCY_OFFSET);
+		return code == 0 ? null : Currency.getCurrency(code);
+	}
+	
+	public long getAmount() {
+		return buffer.getLong(offset + AMOUNT_OFFSET);
+	}
+	
+	public long getInputAmount() {
+		return buffer.getLong(offset + INPUT_AMOUNT_OFFSET);
+	}
+	
+	public long getTimestamp() {
+		return buffer.getLong(offset + TIMESTAMP_OFFSET);
+	}
+	
+	public String getUsernamePayer() {
+		return getString(offset + USERNAMES_OFFSET, buffer.get(offset + USERNAME_PAYER_LENGTH_OFFSET) & 0xFF);
+	}
+	
+	public String getUsernamePayee() {
+		int usernamePayerLength = buffer.get(offset + USERNAME_PAYER_LENGTH_OFFSET) & 0xFF;
+		return getString(offset + USERNAMES_OFFSET + usernamePayerLength, buffer.get(offset + USERNAME_PAYEE_LENGTH_OFFSET) & 0xFF);
+	}
+	
+	/**
+	 * Returns true if the {@link Extensions} follow the usernames.
+	 */
+	public boolean hasExtensions() {
+		return (buffer.get(offset + FLAGS_OFFSET) & PaymentRequest.EXTENSIONS_FLAG) != 0;
+	}
+	
+	/**
+	 * Returns the {@link Extensions} or null if the request does not carry
+	 * any.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the extensions are corrupt
+	 */
+	public Extensions getExtensions() throws IllegalArgumentException {
+		if (!hasExtensions())
+			return null;
+		
+		try {
+			return Extensions.decode(buffer, getExtensionsIndex());
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	/**
+	 * Returns the length of the payload, i.e., the offset of the signature
+	 * relative to the start of the request. The extensions are skipped
+	 * without being read.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the extensions are corrupt
+	 */
+	public int getPayloadLength() throws IllegalArgumentException {
+		if (!hasExtensions())
+			return getExtensionsIndex() - offset;
+		
+		try {
+			return Extensions.skip(buffer, getExtensionsIndex()) - offset;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	private int getExtensionsIndex() {
+		return offset + USERNAMES_OFFSET + (buffer.get(offset + USERNAME_PAYER_LENGTH_OFFSET) & 0xFF) + (buffer.get(offset + USERNAME_PAYEE_LENGTH_OFFSET) & 0xFF);
+	}
+	
+	private String getString(int index, int length) {
+		byte[] bytes = new byte[length];
+		for (int i=0; i<length; i++) {
+			bytes[i] = buffer.get(index + i);
+		}
+		return new String(bytes, Charset.forName("UTF-8"));
+	}
+
+}
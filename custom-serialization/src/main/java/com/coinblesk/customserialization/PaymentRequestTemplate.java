@@ -0,0 +1,226 @@
+package com.coinblesk.customserialization;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+import com.coinblesk.customserialization.crypto.SignatureEncoding;
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+
+/**
+ * This class creates {@link PaymentRequest}s which differ only in the amount,
+ * the input amount and the timestamp (e.g., the requests of a point-of-sale
+ * terminal to a regular customer) without validating and encoding the
+ * constant fields again. The payload of a prototype is encoded once, and the
+ * varying fields are patched in place at their fixed offsets, so that
+ * creating a request costs a copy of the payload and a few long writes.
+ * 
+ * Only the layouts with fixed-width amounts and timestamps are supported,
+ * i.e., version 1 and {@link SerializableObject#FIXED_OFFSET_VERSION}. The
+ * created requests are byte-identical to those created with the constructors
+ * of {@link PaymentRequest}.
+ * 
+ * A terminal which signs its requests itself uses
+ * {@link #sign(long, long, PrivateKey)}, which signs the patched payload
+ * without creating a {@link PaymentRequest} and returns the encoded request.
+ * 
+ * An instance is not thread-safe, since {@link #writePayload(long, long)}
+ * and {@link #sign(long, long, PrivateKey)} reuse one buffer.
+ */
+public final class PaymentRequestTemplate {
+	
+	private final PaymentRequest prototype;
+	private final int amountOffset;
+	private final int inputAmountOffset;
+	private final int timestampOffset;
+	
+	// the reusable payload
+	private final byte[] payload;
+	private final ByteBuffer buffer;
+	
+	// the engine of the last private key passed to sign
+	private PrivateKey signingKey;
+	private Signature engine;
+	
+	/**
+	 * This constructor instantiates a new template.
+	 * 
+	 * @param prototype
+	 *            a request containing the constant fields, whose amounts,
+	 *            timestamp and signature are ignored
+	 * @throws IllegalArgumentException
+	 *             if the prototype is null or encoded in a version in which
+	 *             the amount or the timestamp has a variable length
+	 */
+	public PaymentRequestTemplate(PaymentRequest prototype) throws IllegalArgumentException {
+		if (prototype == null)
+			throw new IllegalArgumentException("The prototype cannot be null.");
+		
+		byte[] prototypePayload = prototype.getPayload();
+		if (prototype.getVersion() == SerializableObject.FIXED_OFFSET_VERSION) {
+			amountOffset = PaymentRequestFlyweight.AMOUNT_OFFSET;
+			inputAmountOffset = PaymentRequestFlyweight.INPUT_AMOUNT_OFFSET;
+			timestampOffset = PaymentRequestFlyweight.TIMESTAMP_OFFSET;
+		} else if (prototype.getVersion() == 1) {
+			// ... + amount (+ inputCurrency + inputAmount) + timestamp
+			timestampOffset = prototypePayload.length - 8;
+			inputAmountOffset = timestampOffset - 8;
+			amountOffset = prototype.getInputCurrency() == null ? inputAmountOffset : inputAmountOffset - 1 - 8;
+		} else {
+			throw new IllegalArgumentException("Version "+prototype.getVersion()+" does not encode the amount and the timestamp at fixed offsets.");
+		}
+		
+		this.prototype = prototype;
+		this.payload = prototypePayload.clone();
+		this.buffer = ByteBuffer.wrap(payload);
+	}
+	
+	/**
+	 * Returns a new unsigned {@link PaymentRequest} with the constant fields
+	 * of the prototype and the given amount and timestamp.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the amount or the timestamp is not greater than 0 or if
+	 *             the prototype contains an input currency
+	 */
+	public PaymentRequest create(long amount, long timestamp) throws IllegalArgumentException {
+		if (prototype.getInputCurrency() != null)
+			throw new IllegalArgumentException("The prototype requires an input amount.");
+		
+		return create(amount, 0, timestamp);
+	}
+	
+	/**
+	 * Returns a new unsigned {@link PaymentRequest} with the constant fields
+	 * of the prototype and the given amounts and timestamp.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the amount or the timestamp is not greater than 0, if the
+	 *             input amount is negative, or if the prototype does not
+	 *             contain an input currency but the input amount is not 0
+	 */
+	public PaymentRequest create(long amount, long inputAmount, long timestamp) throws IllegalArgumentException {
+		checkParameters(amount, inputAmount, timestamp);
+		
+		ByteBuffer result = ByteBuffer.wrap(payload.clone());
+		patch(result, amount, inputAmount, timestamp);
+		return prototype.withPayload(amount, inputAmount, timestamp, result.array());
+	}
+	
+	/**
+	 * Patches the given amount and timestamp into the reusable payload of this
+	 * template and returns it, e.g., in order to compute its digest. The
+	 * returned array is overwritten by the next call of this method or of
+	 * {@link #sign(long, long, PrivateKey)}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the amount or the timestamp is not greater than 0 or if
+	 *             the prototype contains an input currency
+	 */
+	public byte[] writePayload(long amount, long timestamp) throws IllegalArgumentException {
+		if (prototype.getInputCurrency() != null)
+			throw new IllegalArgumentException("The prototype requires an input amount.");
+		
+		checkParameters(amount, 0, timestamp);
+		patch(buffer, amount, 0, timestamp);
+		return payload;
+	}
+	
+	/**
+	 * Patches the given amount and timestamp into the reusable payload of this
+	 * template, signs it with the given private key and returns the encoded
+	 * request, i.e., the same bytes as {@link PaymentRequest#encode()} of a
+	 * signed request created by {@link #create(long, long)}. The signature
+	 * engine is kept for the next call with the same private key.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the private key is null, if the amount or the timestamp
+	 *             is not greater than 0, or if the prototype contains an input
+	 *             currency
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} of the prototype is not known
+	 * @throws InvalidKeyException
+	 *             if the private key does not belong to the
+	 *             {@link PKIAlgorithm} of the prototype
+	 * @throws SignatureException
+	 *             if an error occured during the signing phase
+	 */
+	public byte[] sign(long amount, long timestamp, PrivateKey privateKey) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (privateKey == null)
+			throw new IllegalArgumentException("The private key cannot be null.");
+		
+		if (prototype.getPKIAlgorithm().isMAC())
+			throw new InvalidKeyException("The signature algorithm " + prototype.getPKIAlgorithm() + " requires a secret key.");
+		
+		if (privateKey != signingKey) {
+			engine = SignedSerializableObject.getSigningEngine(prototype.getPKIAlgorithm(), privateKey);
+			signingKey = privateKey;
+		}
+		
+		try {
+			return sign(engine, amount, timestamp);
+		} catch (SignatureException e) {
+			// the engine might be in an undefined state
+			signingKey = null;
+			engine = null;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Signs the patched payload with a {@link Signature} engine which has
+	 * already been initialized for signing (see
+	 * {@link SignedSerializableObject#sign(Signature)}) and returns the
+	 * encoded request.
+	 * 
+	 * @see #sign(long, long, PrivateKey)
+	 */
+	byte[] sign(Signature sig, long amount, long timestamp) throws IllegalArgumentException, SignatureException {
+		if (prototype.getPKIAlgorithm().isMerkle()) {
+			// the signature contains the inclusion proof of the only leaf of a tree
+			PaymentRequest paymentRequest = create(amount, timestamp);
+			paymentRequest.sign(sig);
+			try {
+				return paymentRequest.encode();
+			} catch (NotSignedException e) {
+				// the request has just been signed
+				throw new SignatureException(e);
+			}
+		}
+		
+		writePayload(amount, timestamp);
+		sig.update(payload);
+		byte[] signature = sig.sign();
+		if (prototype.getPKIAlgorithm() == PKIAlgorithm.DEFAULT_RAW)
+			signature = SignatureEncoding.toRaw(sig, signature);
+		
+		byte[] result = Arrays.copyOf(payload, payload.length + signature.length);
+		System.arraycopy(signature, 0, result, payload.length, signature.length);
+		return result;
+	}
+	
+	private void checkParameters(long amount, long inputAmount, long timestamp) throws IllegalArgumentException {
+		if (amount <= 0)
+			throw new IllegalArgumentException("The amount must be greater than 0.");
+		
+		if (timestamp <= 0)
+			throw new IllegalArgumentException("The timestamp must be greater than 0.");
+		
+		if (inputAmount < 0 || (prototype.getInputCurrency() == null && inputAmount != 0))
+			throw new IllegalArgumentException("The input amount must be greater than 0 if the prototype contains an input currency and 0 otherwise.");
+	}
+	
+	private void patch(ByteBuffer target, long amount, long inputAmount, long timestamp) {
+		target.putLong(amountOffset, amount);
+		// the fixed-offset layout stores 0 if there is no input currency
+		if (prototype.getInputCurrency() != null || prototype.getVersion() == SerializableObject.FIXED_OFFSET_VERSION)
+			target.putLong(inputAmountOffset, inputAmount);
+		target.putLong(timestampOffset, timestamp);
+	}
+
+}
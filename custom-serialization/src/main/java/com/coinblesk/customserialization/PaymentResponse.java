@@ -1,11 +1,17 @@
 package com.coinblesk.customserialization;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SignatureException;
+import java.util.Arrays;
 
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.NotSignedException;
 import com.coinblesk.customserialization.exceptions.UnknownCurrencyException;
 import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException;
+import com.coinblesk.customserialization.exceptions.UnknownReasonCodeException;
 import com.coinblesk.customserialization.exceptions.UnknownServerResponseStatusException;
 
 /**
@@ -18,9 +24,16 @@ import com.coinblesk.customserialization.exceptions.UnknownServerResponseStatusE
  * 
  */
 public class PaymentResponse extends SignedSerializableObject {
+	/**
+	 * The number of bytes of the SHA-256 digest of the {@link PaymentRequest}
+	 * payload contained in a response of version
+	 * {@link SerializableObject#REQUEST_DIGEST_VERSION}.
+	 */
+	public static final int REQUEST_DIGEST_LENGTH = 16;
 	
 	private ServerResponseStatus status;
 	private String reason;
+	private ReasonCode reasonCode;
 	
 	private String usernamePayer;
 	private String usernamePayee;
@@ -29,6 +42,8 @@ public class PaymentResponse extends SignedSerializableObject {
 	private long amount;
 	private long timestamp;
 	
+	private byte[] requestDigest;
+	
 	//this constructor is needed for the DecoderFactory
 	protected PaymentResponse() {
 	}
@@ -66,13 +81,33 @@ public class PaymentResponse extends SignedSerializableObject {
 		this(1, pkiAlgorithm, keyNumber, status, reason, usernamePayer, usernamePayee, currency, amount, timestamp);
 	}
 	
-	private PaymentResponse(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, ServerResponseStatus status, String reason, String usernamePayer, String usernamePayee, Currency currency, long amount, long timestamp) throws IllegalArgumentException {
+	/**
+	 * This constructor generates a new object which is encoded in the given
+	 * version of the wire format, e.g.,
+	 * {@link SerializableObject#COMPACT_VERSION}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the version is neither 1 nor the compact version, or if
+	 *             any other argument is null or does not fit into the
+	 *             foreseen primitive type
+	 * @see #PaymentResponse(PKIAlgorithm, int, ServerResponseStatus, String,
+	 *      String, String, Currency, long, long)
+	 */
+	public PaymentResponse(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, ServerResponseStatus status, String reason, String usernamePayer, String usernamePayee, Currency currency, long amount, long timestamp) throws IllegalArgumentException {
 		super(version, pkiAlgorithm, keyNumber);
 		
+		if (version == REQUEST_DIGEST_VERSION)
+			throw new IllegalArgumentException("A response of version "+REQUEST_DIGEST_VERSION+" must be instantiated with the payment request.");
+		if (version != 1 && version != COMPACT_VERSION)
+			throw new IllegalArgumentException("A payment response cannot be encoded in version "+version+".");
+		
 		checkParameters(status, reason, usernamePayer, usernamePayee, currency, amount, timestamp);
+		if (version == COMPACT_VERSION)
+			checkCompactParameters(pkiAlgorithm, status, currency, timestamp);
 		
 		this.status = status;
 		this.reason = reason;
+		this.reasonCode = status == ServerResponseStatus.FAILURE ? ReasonCode.getReasonCode(reason) : null;
 		
 		this.usernamePayer = usernamePayer;
 		this.usernamePayee = usernamePayee;
@@ -83,6 +118,103 @@ public class PaymentResponse extends SignedSerializableObject {
 		setPayload();
 	}
 	
+	/**
+	 * This constructor generates a new object with the status
+	 * {@link ServerResponseStatus#FAILURE} and the description of the given
+	 * {@link ReasonCode} as reason. In the compact wire formats, the reason is
+	 * encoded as one byte.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or does not fit into the foreseen
+	 *             primitive type, or if the reason code is
+	 *             {@link ReasonCode#OTHER}, which has no description
+	 * @see #PaymentResponse(int, PKIAlgorithm, int, ServerResponseStatus,
+	 *      String, String, String, Currency, long, long)
+	 */
+	public PaymentResponse(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, ReasonCode reasonCode, String usernamePayer, String usernamePayee, Currency currency, long amount, long timestamp) throws IllegalArgumentException {
+		this(version, pkiAlgorithm, keyNumber, ServerResponseStatus.FAILURE, reasonCode == null ? null : reasonCode.getDescription(), usernamePayer, usernamePayee, currency, amount, timestamp);
+	}
+	
+	/**
+	 * This constructor generates a new object of version
+	 * {@link SerializableObject#REQUEST_DIGEST_VERSION}. Instead of the
+	 * usernames, the currency, the amount and the timestamp, the encoded
+	 * response only contains the first {@link #REQUEST_DIGEST_LENGTH} bytes of
+	 * the SHA-256 digest of the given request's payload, which is covered by
+	 * the server's signature. The getters of these fields return the values
+	 * of the given request on the server side, but null or 0 after decoding.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the server's {@link PKIAlgorithm} to be used for
+	 *            {@link SignedSerializableObject} super class
+	 * @param keyNumber
+	 *            the server's key number to be used for the
+	 *            {@link SignedSerializableObject} super class
+	 * @param status
+	 *            the {@link ServerResponseStatus} indicating if the transaction
+	 *            was granted or not
+	 * @param reason
+	 *            the reason if the transaction was not granted
+	 * @param paymentRequest
+	 *            the request this response answers
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or does not fit into the foreseen
+	 *             primitive type
+	 * @throws SignatureException
+	 *             if SHA-256 is not available
+	 */
+	public PaymentResponse(PKIAlgorithm pkiAlgorithm, int keyNumber, ServerResponseStatus status, String reason, PaymentRequest paymentRequest) throws IllegalArgumentException, SignatureException {
+		super(REQUEST_DIGEST_VERSION, pkiAlgorithm, keyNumber);
+		
+		if (paymentRequest == null)
+			throw new IllegalArgumentException("The payment request cannot be null.");
+		
+		checkParameters(status, reason, paymentRequest.getUsernamePayer(), paymentRequest.getUsernamePayee(), paymentRequest.getCurrency(), paymentRequest.getAmount(), paymentRequest.getTimestamp());
+		
+		this.status = status;
+		this.reason = reason;
+		this.reasonCode = status == ServerResponseStatus.FAILURE ? ReasonCode.getReasonCode(reason) : null;
+		
+		this.usernamePayer = paymentRequest.getUsernamePayer();
+		this.usernamePayee = paymentRequest.getUsernamePayee();
+		this.currency = paymentRequest.getCurrency();
+		this.amount = paymentRequest.getAmount();
+		this.timestamp = paymentRequest.getTimestamp();
+		this.requestDigest = Arrays.copyOf(paymentRequest.getPayloadDigest(), REQUEST_DIGEST_LENGTH);
+		
+		setPayload();
+	}
+	
+	/**
+	 * This constructor generates a new object of version
+	 * {@link SerializableObject#REQUEST_DIGEST_VERSION} with the status
+	 * {@link ServerResponseStatus#FAILURE} and the description of the given
+	 * {@link ReasonCode} as reason.
+	 * 
+	 * @see #PaymentResponse(PKIAlgorithm, int, ServerResponseStatus, String,
+	 *      PaymentRequest)
+	 */
+	public PaymentResponse(PKIAlgorithm pkiAlgorithm, int keyNumber, ReasonCode reasonCode, PaymentRequest paymentRequest) throws IllegalArgumentException, SignatureException {
+		this(pkiAlgorithm, keyNumber, ServerResponseStatus.FAILURE, reasonCode == null ? null : reasonCode.getDescription(), paymentRequest);
+	}
+	
+	private PaymentResponse(PKIAlgorithm pkiAlgorithm, int keyNumber, ServerResponseStatus status, String reason, byte[] requestDigest) throws IllegalArgumentException {
+		super(REQUEST_DIGEST_VERSION, pkiAlgorithm, keyNumber);
+		
+		if (status == null || (status == ServerResponseStatus.FAILURE && reason == null))
+			throw new IllegalArgumentException("The status cannot be null and the reason cannot be null if the status is set to FAILURE.");
+		
+		if (reason != null)
+			checkReasonLength(reason);
+		
+		this.status = status;
+		this.reason = reason;
+		this.reasonCode = status == ServerResponseStatus.FAILURE ? ReasonCode.getReasonCode(reason) : null;
+		this.requestDigest = requestDigest;
+		
+		setPayload();
+	}
+	
 	private void checkParameters(ServerResponseStatus status, String reason, String usernamePayer, String usernamePayee, Currency currency, long amount, long timestamp) throws IllegalArgumentException {
 		if (status == null)
 			throw new IllegalArgumentException("The status cannot be null.");
@@ -90,8 +222,7 @@ public class PaymentResponse extends SignedSerializableObject {
 		if (status.getCode() == 2) {
 			if (reason == null)
 				throw new IllegalArgumentException("The reason cannot be null if the status is set to FAILURE.");
-			if (reason.length() > 255)
-				throw new IllegalArgumentException("The reason cannot be longer than 255 characters.");
+			checkReasonLength(reason);
 		}
 		
 		if (usernamePayer == null || usernamePayer.length() == 0 || usernamePayer.length() > 255)
@@ -113,81 +244,201 @@ public class PaymentResponse extends SignedSerializableObject {
 			throw new IllegalArgumentException("The timestamp must be greater than 0.");
 	}
 	
+	/*
+	 * The reason is prefixed with the number of its UTF-8 bytes, which has to
+	 * fit into one byte.
+	 */
+	private static void checkReasonLength(String reason) throws IllegalArgumentException {
+		if (reason.getBytes(Charset.forName("UTF-8")).length > 255)
+			throw new IllegalArgumentException("The reason cannot be longer than 255 bytes in UTF-8.");
+	}
+	
+	private void checkCompactParameters(PKIAlgorithm pkiAlgorithm, ServerResponseStatus status, Currency currency, long timestamp) throws IllegalArgumentException {
+		checkCompactHeader(pkiAlgorithm, currency);
+		
+		if (status.getCode() > 0x03)
+			throw new IllegalArgumentException("The status " + status + " cannot be encoded in the compact format.");
+		
+		if (timestamp < COMPACT_TIMESTAMP_EPOCH)
+			throw new IllegalArgumentException("The timestamp cannot be encoded in the compact format.");
+	}
+	
 	private void setPayload() {
-		byte[] reasonBytes = null;
+		if (getVersion() == COMPACT_VERSION) {
+			setCompactPayload();
+			return;
+		} else if (getVersion() == REQUEST_DIGEST_VERSION) {
+			setRequestDigestPayload();
+			return;
+		}
+		
+		byte[] reasonBytes = status == ServerResponseStatus.FAILURE ? reason.getBytes(Charset.forName("UTF-8")) : null;
 		byte[] usernamePayerBytes = usernamePayer.getBytes(Charset.forName("UTF-8"));
 		byte[] usernamePayeeBytes = usernamePayee.getBytes(Charset.forName("UTF-8"));
-		byte[] amountBytes = PrimitiveTypeSerializer.getLongAsBytes(amount);
-		byte[] timestampBytes = PrimitiveTypeSerializer.getLongAsBytes(timestamp);
 		
-		int length;
-		if (status == ServerResponseStatus.FAILURE) {
-			/*
-			 * version
-			 * + signatureAlgorithm.getCode()
-			 * + keyNumber
-			 * + status
-			 * + reason.length
-			 * + reason
-			 * + usernamePayer.length
-			 * + usernamePayer
-			 * + usernamePayee.length
-			 * + usernamePayee
-			 * + currency.getCode()
-			 * + amount
-			 * + timestamp
-			 */
-			reasonBytes = reason.getBytes(Charset.forName("UTF-8"));
-			length = 1+1+1+1+1+reasonBytes.length+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+1+8+8;
-		} else {
-			/*
-			 * version
-			 * + signatureAlgorithm.getCode()
-			 * + keyNumber
-			 * + status
-			 * + usernamePayer.length
-			 * + usernamePayer
-			 * + usernamePayee.length
-			 * + usernamePayee
-			 * + currency.getCode()
-			 * + amount
-			 * + timestamp
-			 */
-			length = 1+1+1+1+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+1+8+8;
+		/*
+		 * version
+		 * + signatureAlgorithm.getCode()
+		 * + keyNumber
+		 * + status
+		 * (+ reason.length
+		 * + reason)
+		 * + usernamePayer.length
+		 * + usernamePayer
+		 * + usernamePayee.length
+		 * + usernamePayee
+		 * + currency.getCode()
+		 * + amount
+		 * + timestamp
+		 */
+		int length = 1+1+1+1+(reasonBytes != null ? 1+reasonBytes.length : 0)+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+1+8+8;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(getPKIAlgorithm().getCode());
+		buffer.put((byte) getKeyNumber());
+		buffer.put(status.getCode());
+		if (reasonBytes != null) {
+			buffer.put((byte) reasonBytes.length);
+			buffer.put(reasonBytes);
 		}
-		byte[] payload = new byte[length];
+		buffer.put((byte) usernamePayerBytes.length);
+		buffer.put(usernamePayerBytes);
+		buffer.put((byte) usernamePayeeBytes.length);
+		buffer.put(usernamePayeeBytes);
+		buffer.put(currency.getCode());
+		buffer.putLong(amount);
+		buffer.putLong(timestamp);
 		
-		int index = 0;
+		this.payload = buffer.array();
+	}
+	
+	private void setCompactPayload() {
+		byte[] reasonBytes = getCompactReasonBytes();
+		byte[] usernamePayerBytes = usernamePayer.getBytes(Charset.forName("UTF-8"));
+		byte[] usernamePayeeBytes = usernamePayee.getBytes(Charset.forName("UTF-8"));
+		byte[] amountBytes = PrimitiveTypeSerializer.getLongAsVarint(amount);
+		byte[] timestampBytes = PrimitiveTypeSerializer.getLongAsVarint(timestamp - COMPACT_TIMESTAMP_EPOCH);
 		
-		payload[index++] = (byte) getVersion();
-		payload[index++] = getPKIAlgorithm().getCode();
-		payload[index++] = (byte) getKeyNumber();
-		payload[index++] = status.getCode();
+		/*
+		 * version
+		 * + header (signatureAlgorithm.getCode(), status.getCode(), currency.getCode())
+		 * + keyNumber
+		 * (+ reasonCode.getCode()
+		 * (+ reason.length
+		 * + reason))
+		 * + usernamePayer.length
+		 * + usernamePayer
+		 * + usernamePayee.length
+		 * + usernamePayee
+		 * + amount (varint)
+		 * + timestamp - COMPACT_TIMESTAMP_EPOCH (varint)
+		 */
+		int length = 1+1+1+reasonBytes.length+1+usernamePayerBytes.length+1+usernamePayeeBytes.length+amountBytes.length+timestampBytes.length;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(getCompactHeader(getPKIAlgorithm(), status.getCode(), currency));
+		buffer.put((byte) getKeyNumber());
+		buffer.put(reasonBytes);
+		buffer.put((byte) usernamePayerBytes.length);
+		buffer.put(usernamePayerBytes);
+		buffer.put((byte) usernamePayeeBytes.length);
+		buffer.put(usernamePayeeBytes);
+		buffer.put(amountBytes);
+		buffer.put(timestampBytes);
 		
-		if (status == ServerResponseStatus.FAILURE) {
-			payload[index++] = (byte) reason.length();
-			for (byte b : reasonBytes) {
-				payload[index++] = b;
-			}
-		}
+		this.payload = buffer.array();
+	}
+	
+	private void setRequestDigestPayload() {
+		byte[] reasonBytes = getCompactReasonBytes();
 		
-		payload[index++] = (byte) usernamePayerBytes.length;
-		for (byte b : usernamePayerBytes) {
-			payload[index++] = b;
-		}
-		payload[index++] = (byte) usernamePayeeBytes.length;
-		for (byte b : usernamePayeeBytes) {
-			payload[index++] = b;
-		}
-		payload[index++] = currency.getCode();
-		for (byte b : amountBytes) {
-			payload[index++] = b;
-		}
-		for (byte b : timestampBytes) {
-			payload[index++] = b;
-		}
+		/*
+		 * version
+		 * + signatureAlgorithm.getCode()
+		 * + keyNumber
+		 * + status
+		 * (+ reasonCode.getCode()
+		 * (+ reason.length
+		 * + reason))
+		 * + requestDigest
+		 */
+		int length = 1+1+1+1+reasonBytes.length+REQUEST_DIGEST_LENGTH;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(getPKIAlgorithm().getCode());
+		buffer.put((byte) getKeyNumber());
+		buffer.put(status.getCode());
+		buffer.put(reasonBytes);
+		buffer.put(requestDigest);
+		
+		this.payload = buffer.array();
+	}
+	
+	/*
+	 * In the compact wire formats, the reason of a FAILURE is encoded as the
+	 * code of its ReasonCode. Only a reason without a ReasonCode (OTHER) is
+	 * followed by its text.
+	 */
+	private byte[] getCompactReasonBytes() {
+		if (status != ServerResponseStatus.FAILURE)
+			return new byte[0];
+		
+		if (reasonCode != ReasonCode.OTHER)
+			return new byte[] { reasonCode.getCode() };
+		
+		byte[] reasonBytes = reason.getBytes(Charset.forName("UTF-8"));
+		byte[] result = new byte[1+1+reasonBytes.length];
+		result[0] = reasonCode.getCode();
+		result[1] = (byte) reasonBytes.length;
+		System.arraycopy(reasonBytes, 0, result, 2, reasonBytes.length);
+		return result;
+	}
+	
+	/**
+	 * Returns the index of the usernames within the payload (see
+	 * {@link UsernameDictionary}), i.e., the index after the reason.
+	 */
+	int getUsernamesOffset() {
+		if (getVersion() == COMPACT_VERSION)
+			return 3 + getCompactReasonBytes().length;
+		
+		if (status != ServerResponseStatus.FAILURE)
+			return 4;
+		
+		return 4 + 1 + (payload[4] & 0xFF);
+	}
+	
+	/**
+	 * Returns the truncated digest of the {@link PaymentRequest} payload if
+	 * this response is of version
+	 * {@link SerializableObject#REQUEST_DIGEST_VERSION}, null otherwise.
+	 */
+	public byte[] getRequestDigest() {
+		return requestDigest == null ? null : requestDigest.clone();
+	}
+	
+	/**
+	 * Returns true if this response answers the given {@link PaymentRequest}.
+	 * A response of version {@link SerializableObject#REQUEST_DIGEST_VERSION}
+	 * is compared with the digest of the request's payload, any other
+	 * response with the request's fields (see
+	 * {@link PaymentRequest#requestsIdentic(PaymentRequest)}).
+	 * 
+	 * @throws SignatureException
+	 *             if SHA-256 is not available
+	 */
+	public boolean references(PaymentRequest paymentRequest) throws SignatureException {
+		if (paymentRequest == null)
+			return false;
+		
+		if (requestDigest != null)
+			return MessageDigest.isEqual(requestDigest, Arrays.copyOf(paymentRequest.getPayloadDigest(), REQUEST_DIGEST_LENGTH));
 		
-		this.payload = payload;
+		return usernamePayer.equals(paymentRequest.getUsernamePayer())
+				&& usernamePayee.equals(paymentRequest.getUsernamePayee())
+				&& currency == paymentRequest.getCurrency()
+				&& amount == paymentRequest.getAmount()
+				&& timestamp == paymentRequest.getTimestamp();
 	}
 	
 	public ServerResponseStatus getStatus() {
@@ -197,6 +448,16 @@ public class PaymentResponse extends SignedSerializableObject {
 	public String getReason() {
 		return reason;
 	}
+	
+	/**
+	 * Returns the {@link ReasonCode} of the reason if the status is
+	 * {@link ServerResponseStatus#FAILURE}, null otherwise. A reason which is
+	 * not the description of a {@link ReasonCode} has the code
+	 * {@link ReasonCode#OTHER}.
+	 */
+	public ReasonCode getReasonCode() {
+		return reasonCode;
+	}
 
 	public String getUsernamePayer() {
 		return usernamePayer;
@@ -219,77 +480,112 @@ public class PaymentResponse extends SignedSerializableObject {
 	}
 
 	@Override
-	public PaymentResponse decode(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, UnknownServerResponseStatusException, UnknownCurrencyException, NotSignedException {
+	public PaymentResponse decode(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, UnknownServerResponseStatusException, UnknownCurrencyException, UnknownReasonCodeException, NotSignedException {
 		if (bytes == null)
 			throw new IllegalArgumentException("The argument can't be null.");
 		
 		try {
-			int index = 0;
-			
-			int version = bytes[index++] & 0xFF;
-			PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(bytes[index++]);
-			int keyNumber = bytes[index++] & 0xFF;
-			ServerResponseStatus status = ServerResponseStatus.getStatus(bytes[index++]);
-			
-			String reason;
-			if (status == ServerResponseStatus.FAILURE) {
-				int reasonLength = bytes[index++] & 0xFF;
-				byte[] reasonBytes = new byte[reasonLength];
-				for (int i=0; i<reasonLength; i++) {
-					reasonBytes[i] = bytes[index++];
-				}
-				reason = new String(reasonBytes);
-			} else {
-				reason = null;
-			}
-			
-			int usernamePayerLength = bytes[index++] & 0xFF;
-			byte[] usernamePayerBytes = new byte[usernamePayerLength];
-			for (int i=0; i<usernamePayerLength; i++) {
-				usernamePayerBytes[i] = bytes[index++];
-			}
-			String usernamePayer = new String(usernamePayerBytes);
-			
-			int usernamePayeeLength = bytes[index++] & 0xFF;
-			byte[] usernamePayeeBytes = new byte[usernamePayeeLength];
-			for (int i=0; i<usernamePayeeLength; i++) {
-				usernamePayeeBytes[i] = bytes[index++];
-			}
-			String usernamePayee = new String(usernamePayeeBytes);
+			if ((bytes[0] & 0xFF) == COMPACT_VERSION)
+				return decodeCompact(bytes);
+			else if ((bytes[0] & 0xFF) == REQUEST_DIGEST_VERSION)
+				return decodeRequestDigest(bytes);
 			
-			Currency currency = Currency.getCurrency(bytes[index++]);
+			ByteBuffer in = ByteBuffer.wrap(bytes);
 			
-			byte[] amountBytes = new byte[Long.SIZE / Byte.SIZE]; //8 bytes (long)
-			for (int i=0; i<amountBytes.length; i++) {
-				amountBytes[i] = bytes[index++];
-			}
-			long amount = PrimitiveTypeSerializer.getBytesAsLong(amountBytes);
-			
-			byte[] timestampBytes = new byte[Long.SIZE / Byte.SIZE]; //8 bytes (long)
-			for (int i=0; i<timestampBytes.length; i++) {
-				timestampBytes[i] = bytes[index++];
-			}
-			long timestamp = PrimitiveTypeSerializer.getBytesAsLong(timestampBytes);
+			int version = in.get() & 0xFF;
+			PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(in.get());
+			int keyNumber = in.get() & 0xFF;
+			ServerResponseStatus status = ServerResponseStatus.getStatus(in.get());
+			String reason = status == ServerResponseStatus.FAILURE ? PrimitiveTypeSerializer.getString(in) : null;
+			String usernamePayer = PrimitiveTypeSerializer.getString(in);
+			String usernamePayee = PrimitiveTypeSerializer.getString(in);
+			Currency currency = Currency.getCurrency(in.get());
+			long amount = in.getLong();
+			long timestamp = in.getLong();
 			
 			PaymentResponse pr = new PaymentResponse(version, pkiAlgorithm, keyNumber, status, reason, usernamePayer, usernamePayee, currency, amount, timestamp);
-			
-			int signatureLength = bytes.length - index;
-			if (signatureLength == 0) {
-				throw new NotSignedException();
-			} else {
-				byte[] signature = new byte[signatureLength];
-				for (int i=0; i<signature.length; i++) {
-					signature[i] = bytes[index++];
-				}
-				pr.signature = signature;
-			}
-			
+			pr.signature = getSignature(pkiAlgorithm, bytes, in.position());
 			return pr;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		} catch (IndexOutOfBoundsException e) {
 			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		}
 	}
 	
+	private PaymentResponse decodeCompact(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, UnknownServerResponseStatusException, UnknownCurrencyException, UnknownReasonCodeException, NotSignedException {
+		int index = 0;
+		
+		int version = bytes[index++] & 0xFF;
+		byte header = bytes[index++];
+		PKIAlgorithm pkiAlgorithm = getCompactHeaderPKIAlgorithm(header);
+		ServerResponseStatus status = ServerResponseStatus.getStatus((byte) getCompactHeaderFlags(header));
+		Currency currency = getCompactHeaderCurrency(header);
+		int keyNumber = bytes[index++] & 0xFF;
+		
+		String reason = null;
+		if (status == ServerResponseStatus.FAILURE) {
+			ReasonCode reasonCode = ReasonCode.getReasonCode(bytes[index++]);
+			if (reasonCode == ReasonCode.OTHER) {
+				int reasonLength = bytes[index++] & 0xFF;
+				reason = new String(bytes, index, reasonLength, Charset.forName("UTF-8"));
+				index += reasonLength;
+			} else {
+				reason = reasonCode.getDescription();
+			}
+		}
+		
+		int usernamePayerLength = bytes[index++] & 0xFF;
+		String usernamePayer = new String(bytes, index, usernamePayerLength, Charset.forName("UTF-8"));
+		index += usernamePayerLength;
+		
+		int usernamePayeeLength = bytes[index++] & 0xFF;
+		String usernamePayee = new String(bytes, index, usernamePayeeLength, Charset.forName("UTF-8"));
+		index += usernamePayeeLength;
+		
+		long amount = PrimitiveTypeSerializer.getVarintAsLong(bytes, index);
+		index += PrimitiveTypeSerializer.getVarintLength(amount);
+		
+		long timestampOffset = PrimitiveTypeSerializer.getVarintAsLong(bytes, index);
+		index += PrimitiveTypeSerializer.getVarintLength(timestampOffset);
+		long timestamp = COMPACT_TIMESTAMP_EPOCH + timestampOffset;
+		
+		PaymentResponse pr = new PaymentResponse(version, pkiAlgorithm, keyNumber, status, reason, usernamePayer, usernamePayee, currency, amount, timestamp);
+		
+		pr.signature = getSignature(pkiAlgorithm, bytes, index);
+		return pr;
+	}
+	
+	private PaymentResponse decodeRequestDigest(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, UnknownServerResponseStatusException, UnknownReasonCodeException, NotSignedException {
+		int index = 1;
+		PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(bytes[index++]);
+		int keyNumber = bytes[index++] & 0xFF;
+		ServerResponseStatus status = ServerResponseStatus.getStatus(bytes[index++]);
+		
+		String reason = null;
+		if (status == ServerResponseStatus.FAILURE) {
+			ReasonCode reasonCode = ReasonCode.getReasonCode(bytes[index++]);
+			if (reasonCode == ReasonCode.OTHER) {
+				int reasonLength = bytes[index++] & 0xFF;
+				reason = new String(bytes, index, reasonLength, Charset.forName("UTF-8"));
+				index += reasonLength;
+			} else {
+				reason = reasonCode.getDescription();
+			}
+		}
+		
+		if (index + REQUEST_DIGEST_LENGTH > bytes.length)
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		
+		byte[] requestDigest = Arrays.copyOfRange(bytes, index, index + REQUEST_DIGEST_LENGTH);
+		index += REQUEST_DIGEST_LENGTH;
+		
+		PaymentResponse pr = new PaymentResponse(pkiAlgorithm, keyNumber, status, reason, requestDigest);
+		
+		pr.signature = getSignature(pkiAlgorithm, bytes, index);
+		return pr;
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		if (o == null)
@@ -304,6 +600,8 @@ public class PaymentResponse extends SignedSerializableObject {
 			return false;
 		if (getKeyNumber() != pr.getKeyNumber())
 			return false;
+		if (getVersion() == REQUEST_DIGEST_VERSION)
+			return this.status == pr.status && Arrays.equals(this.requestDigest, pr.requestDigest);
 		if (!this.usernamePayer.equals(pr.usernamePayer))
 			return false;
 		if (!this.usernamePayee.equals(pr.usernamePayee))
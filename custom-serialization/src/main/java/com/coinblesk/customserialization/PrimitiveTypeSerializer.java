@@ -1,5 +1,11 @@
 package com.coinblesk.customserialization;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
 /**
  * This class serializes and deserializes primitive types such as long and
  * short.
@@ -53,10 +59,96 @@ public class PrimitiveTypeSerializer {
 	 * Returns a short from a given byte array.
 	 */
 	public static short getBytesAsShort(byte[] b) {
-		int i = (b[0] & 0xFF << 8)
+		int i = ((b[0] & 0xFF) << 8)
 				| (b[1] & 0xFF);
 		
 		return (short) i;
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Returns the number of bytes needed to encode the given non-negative long
+	 * as an unsigned varint (see {@link #getLongAsVarint(long)}).
+	 */
+	public static int getVarintLength(long l) {
+		int length = 1;
+		while ((l >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+	
+	/**
+	 * Returns a non-negative long as an unsigned varint, i.e., as groups of 7
+	 * bits starting with the least significant group, where the most
+	 * significant bit of every byte indicates that another byte follows.
+	 * Small values need fewer bytes, e.g., values below 128 need 1 byte and
+	 * values below 2^35 need 5 bytes.
+	 */
+	public static byte[] getLongAsVarint(long l) {
+		byte[] result = new byte[getVarintLength(l)];
+		for (int i=0; i<result.length-1; i++) {
+			result[i] = (byte) ((l & 0x7F) | 0x80);
+			l >>>= 7;
+		}
+		result[result.length-1] = (byte) l;
+		return result;
+	}
+	
+	/**
+	 * Returns a long from an unsigned varint which starts at the given offset
+	 * of the byte array. The number of bytes read is
+	 * {@link #getVarintLength(long)} of the returned value.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the varint is longer than 9 bytes, i.e., does not fit
+	 *             into a non-negative long, or is not encoded with the minimal
+	 *             number of bytes
+	 * @throws IndexOutOfBoundsException
+	 *             if the byte array ends before the varint
+	 */
+	public static long getVarintAsLong(byte[] b, int offset) throws IllegalArgumentException {
+		return getVarintAsLong(ByteBuffer.wrap(b), offset);
+	}
+	
+	/**
+	 * Returns a long from an unsigned varint which starts at the given
+	 * absolute index of the buffer. The position of the buffer is not
+	 * modified.
+	 * 
+	 * @see #getVarintAsLong(byte[], int)
+	 */
+	public static long getVarintAsLong(ByteBuffer b, int index) throws IllegalArgumentException {
+		long result = 0;
+		// a non-negative long needs at most 9 bytes
+		for (int i=0; i<9; i++) {
+			byte current = b.get(index + i);
+			result |= (long) (current & 0x7F) << (7 * i);
+			if ((current & 0x80) == 0) {
+				// the minimal encoding is required so that the length can be derived from the value
+				if (current == 0 && i > 0)
+					throw new IllegalArgumentException("The varint is not minimally encoded.");
+				return result;
+			}
+		}
+		throw new IllegalArgumentException("The varint is too long.");
+	}
+	
+	/**
+	 * Returns a UTF-8 string preceded by its length (1 byte) from the current
+	 * position of the heap buffer, which is advanced past the string. The
+	 * string is decoded directly from the backing array.
+	 * 
+	 * @throws BufferUnderflowException
+	 *             if the buffer ends before the string
+	 */
+	public static String getString(ByteBuffer b) {
+		int length = b.get() & 0xFF;
+		if (length > b.remaining())
+			throw new BufferUnderflowException();
+		
+		String result = new String(b.array(), b.arrayOffset() + b.position(), length, Charset.forName("UTF-8"));
+		b.position(b.position() + length);
+		return result;
+	}
+
+}
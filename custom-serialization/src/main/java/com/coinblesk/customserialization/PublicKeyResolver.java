@@ -0,0 +1,25 @@
+package com.coinblesk.customserialization;
+
+import java.security.PublicKey;
+
+/**
+ * This interface provides the public keys needed to verify the signatures of
+ * messages which have not been decoded into objects yet, e.g., when verifying
+ * a {@link ServerPaymentRequest} directly from the received frame.
+ */
+public interface PublicKeyResolver {
+	
+	/**
+	 * Returns the public key of the given user.
+	 * 
+	 * @param username
+	 *            the username of the user who signed the message
+	 * @param pkiAlgorithm
+	 *            the {@link PKIAlgorithm} of the signature
+	 * @param keyNumber
+	 *            the key number of the user's key
+	 * @return the public key, or null if no such key is known
+	 */
+	public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber);
+
+}
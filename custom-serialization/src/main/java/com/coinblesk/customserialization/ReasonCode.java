@@ -0,0 +1,97 @@
+package com.coinblesk.customserialization;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.coinblesk.customserialization.exceptions.UnknownReasonCodeException;
+
+/**
+ * This class contains the reasons why a server did not grant a transaction
+ * (see {@link ServerResponseStatus#FAILURE}). In the compact wire formats of
+ * {@link PaymentResponse}, the reason is encoded as its one byte code instead
+ * of the text, optionally followed by a free-text extension. Every code
+ * except {@link #OTHER} has a description, which allows clients to display
+ * the reason without receiving its text.
+ */
+public enum ReasonCode {
+	OTHER((byte) 0x00, null),
+	INSUFFICIENT_FUNDS((byte) 0x01, "Insufficient funds."),
+	UNKNOWN_USER((byte) 0x02, "Unknown user."),
+	INVALID_SIGNATURE((byte) 0x03, "Invalid signature."),
+	AMOUNT_LIMIT_EXCEEDED((byte) 0x04, "Amount limit exceeded."),
+	REQUEST_EXPIRED((byte) 0x05, "The request has expired."),
+	CURRENCY_NOT_SUPPORTED((byte) 0x06, "Currency not supported."),
+	SERVER_UNAVAILABLE((byte) 0x07, "The server is temporarily unavailable.");
+	
+	private byte code;
+	private String description;
+	
+	private ReasonCode(byte code, String description) {
+		this.code = code;
+		this.description = description;
+	}
+	
+	/**
+	 * Returns the code of this ReasonCode
+	 */
+	public byte getCode() {
+		return code;
+	}
+	
+	/**
+	 * Returns the text describing this reason or null for {@link #OTHER}.
+	 */
+	public String getDescription() {
+		return description;
+	}
+	
+	private static Map<Byte, ReasonCode> codeReasonMap = null;
+	private static Map<String, ReasonCode> descriptionReasonMap = null;
+	
+	/**
+	 * Returns the ReasonCode based on the code.
+	 * 
+	 * @param code
+	 *            the code
+	 * @throws UnknownReasonCodeException
+	 *             if the given code is not known
+	 */
+	public static ReasonCode getReasonCode(byte code) throws UnknownReasonCodeException {
+		if (codeReasonMap == null)
+			initMaps();
+		
+		ReasonCode reasonCode = codeReasonMap.get(code);
+		if (reasonCode == null)
+			throw new UnknownReasonCodeException();
+		else
+			return reasonCode;
+	}
+	
+	/**
+	 * Returns the ReasonCode with the given description, {@link #OTHER} if no
+	 * ReasonCode has this description, or null if the reason is null.
+	 */
+	public static ReasonCode getReasonCode(String reason) {
+		if (reason == null)
+			return null;
+		
+		if (descriptionReasonMap == null)
+			initMaps();
+		
+		ReasonCode reasonCode = descriptionReasonMap.get(reason);
+		return reasonCode == null ? OTHER : reasonCode;
+	}
+	
+	private static void initMaps() {
+		Map<Byte, ReasonCode> codes = new HashMap<Byte, ReasonCode>();
+		Map<String, ReasonCode> descriptions = new HashMap<String, ReasonCode>();
+		for (ReasonCode r : values()) {
+			codes.put(r.getCode(), r);
+			if (r.getDescription() != null)
+				descriptions.put(r.getDescription(), r);
+		}
+		descriptionReasonMap = descriptions;
+		codeReasonMap = codes;
+	}
+
+}
@@ -14,6 +14,55 @@ import com.coinblesk.customserialization.exceptions.SerializationException;
  */
 public abstract class SerializableObject {
 	
+	/**
+	 * The version of the compact wire format, which encodes amounts and
+	 * timestamps as varints (see {@link PrimitiveTypeSerializer}) and packs
+	 * the {@link PKIAlgorithm} and the {@link Currency} into a single header
+	 * byte. Objects of this version are decoded side by side with version 1.
+	 */
+	public static final int COMPACT_VERSION = 2;
+	
+	/**
+	 * The origin of the timestamps in the compact wire format (2015-01-01
+	 * 00:00:00 UTC in milliseconds since January 1, 1970 UTC). Timestamps are
+	 * encoded relative to this point in time, which saves 2 bytes compared to
+	 * the 8 bytes of the original format.
+	 */
+	public static final long COMPACT_TIMESTAMP_EPOCH = 1420070400000L;
+	
+	/**
+	 * The version of the fixed-offset wire format of {@link PaymentRequest},
+	 * which places all fixed-width fields at constant offsets in front of
+	 * the variable-length data (see {@link PaymentRequestFlyweight}). It is
+	 * intended for server-to-server communication and storage.
+	 */
+	public static final int FIXED_OFFSET_VERSION = 3;
+	
+	/**
+	 * The version of the frames of {@link ServerPaymentRequest} and
+	 * {@link ServerPaymentResponse} in which the usernames of the nested
+	 * messages are replaced by the IDs of a shared
+	 * {@link UsernameDictionary}. The nested messages themselves keep their
+	 * version, so that their signatures remain valid.
+	 */
+	public static final int DICTIONARY_VERSION = 4;
+	
+	/**
+	 * The version of the frames of {@link ServerPaymentRequest} in which the
+	 * payee's {@link PaymentRequest} is not transferred, but derived from the
+	 * payer's {@link PaymentRequest}. Only the payee's {@link PKIAlgorithm},
+	 * key number and signature are transferred.
+	 */
+	public static final int PAYEE_REFERENCE_VERSION = 5;
+	
+	/**
+	 * The version of {@link PaymentResponse} which does not echo the fields
+	 * of the {@link PaymentRequest}, but contains a truncated digest of its
+	 * payload instead. The client, which already has the
+	 * {@link PaymentRequest}, matches the response against it.
+	 */
+	public static final int REQUEST_DIGEST_VERSION = 6;
+	
 	private int version;
 	
 	//this constructor is needed for the DecoderFactory
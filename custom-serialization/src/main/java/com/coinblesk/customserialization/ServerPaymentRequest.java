@@ -1,8 +1,29 @@
 package com.coinblesk.customserialization;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.NotSignedException;
 import com.coinblesk.customserialization.exceptions.SerializationException;
+import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException;
 
 /**
  * This class represents a payment request, which is transferred from a client
@@ -19,6 +40,13 @@ import com.coinblesk.customserialization.exceptions.SerializationException;
 public class ServerPaymentRequest extends SerializableObject {
 	private static final int NOF_BYTES_FOR_PAYLOAD_LENGTH = 2; // 2 bytes for the payload length, up to 65536 bytes
 	
+	/*
+	 * The shared pool for the verifications, bounded by the number of
+	 * processors, so that the number of threads does not depend on the
+	 * number of requests received.
+	 */
+	static final ExecutorService VERIFICATION_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new BatchSigner.DaemonThreadFactory());
+	
 	private byte nofSignatures;
 	
 	private PaymentRequest paymentRequestPayer;
@@ -91,7 +119,7 @@ public class ServerPaymentRequest extends SerializableObject {
 			throw new IllegalArgumentException("The two payment requests must be identic.");
 	}
 	
-	private void checkPaymentRequest(PaymentRequest paymentRequest, String role) throws IllegalArgumentException {
+	static void checkPaymentRequest(PaymentRequest paymentRequest, String role) throws IllegalArgumentException {
 		if (paymentRequest == null)
 			throw new IllegalArgumentException("The "+role+"'s Payment Request can't be null.");
 		
@@ -132,58 +160,428 @@ public class ServerPaymentRequest extends SerializableObject {
 	public PaymentRequest getPaymentRequestPayee() {
 		return paymentRequestPayee;
 	}
-
-	@Override
-	public byte[] encode() throws NotSignedException {
-		int outputLength;
-		if (nofSignatures == 1) {
-			/*
-			 * version
-			 * + nofSignatures
-			 * + paymentRequestPayer.length
-			 * + paymentRequestPayer
-			 */
-			outputLength = 1+1+NOF_BYTES_FOR_PAYLOAD_LENGTH+paymentRequestPayer.getPayload().length+paymentRequestPayer.getSignature().length;
-		} else {
+	
+	/**
+	 * Verifies the signatures of the contained {@link PaymentRequest}s. If
+	 * this object contains two signatures, both are verified concurrently on
+	 * a shared pool of daemon threads, which has one thread per processor.
+	 * 
+	 * @see #verifyAll(PublicKeyResolver, long, ExecutorService)
+	 */
+	public boolean verifyAll(PublicKeyResolver publicKeyResolver, long deadline) throws IllegalArgumentException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, TimeoutException {
+		return verifyAll(publicKeyResolver, deadline, VERIFICATION_EXECUTOR);
+	}
+	
+	/**
+	 * Verifies the signatures of the contained {@link PaymentRequest}s. If
+	 * this object contains two signatures, the payer's and the payee's
+	 * {@link PaymentRequest} are verified concurrently on the given
+	 * {@link ExecutorService}. As soon as one signature turns out to be
+	 * invalid, false is returned and the other verification is abandoned.
+	 * Note that {@link java.security.Signature#verify(byte[])} does not
+	 * respond to interrupts, so an abandoned verification which has already
+	 * started still occupies its thread until it is completed, and its result
+	 * is discarded.
+	 * 
+	 * @param publicKeyResolver
+	 *            provides the public keys of the payer and the payee
+	 * @param deadline
+	 *            the point in time (in milliseconds since January 1, 1970
+	 *            UTC) until which the verification has to be completed
+	 * @param executor
+	 *            the {@link ExecutorService} to run the verifications on
+	 * @return true if all contained signatures are valid, false if any
+	 *         signature is invalid or if a public key cannot be resolved
+	 * @throws IllegalArgumentException
+	 *             if any argument is null
+	 * @throws NotSignedException
+	 *             if a payment request does not contain a signature
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not supported
+	 * @throws InvalidKeyException
+	 *             if a resolved public key does not belong to the
+	 *             {@link PKIAlgorithm} of its payment request
+	 * @throws SignatureException
+	 *             if an error occured during the verification phase or if the
+	 *             thread was interrupted while waiting for the verifications
+	 * @throws TimeoutException
+	 *             if the verification has not been completed before the
+	 *             deadline
+	 */
+	public boolean verifyAll(PublicKeyResolver publicKeyResolver, long deadline, ExecutorService executor) throws IllegalArgumentException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, TimeoutException {
+		if (publicKeyResolver == null || executor == null)
+			throw new IllegalArgumentException("The arguments can't be null.");
+		
+		PaymentRequest[] paymentRequests = nofSignatures == 2 ? new PaymentRequest[] { paymentRequestPayer, paymentRequestPayee } : new PaymentRequest[] { paymentRequestPayer };
+		PublicKey[] publicKeys = new PublicKey[paymentRequests.length];
+		for (int i=0; i<paymentRequests.length; i++) {
+			PaymentRequest pr = paymentRequests[i];
+			publicKeys[i] = publicKeyResolver.getPublicKey(i == 0 ? pr.getUsernamePayer() : pr.getUsernamePayee(), pr.getPKIAlgorithm(), pr.getKeyNumber());
+			if (publicKeys[i] == null)
+				return false;
+		}
+		
+		if (paymentRequests.length == 1) {
+			if (System.currentTimeMillis() > deadline)
+				throw new TimeoutException("The deadline has passed.");
+			
+			return paymentRequestPayer.verify(publicKeys[0]);
+		}
+		
+		return verifyConcurrently(paymentRequests, publicKeys, deadline, executor);
+	}
+	
+	/*
+	 * Verifies the i-th payment request with the i-th public key, all of them
+	 * concurrently on the given executor. As soon as one signature turns out
+	 * to be invalid, the remaining verifications are cancelled and false is
+	 * returned.
+	 */
+	static boolean verifyConcurrently(PaymentRequest[] paymentRequests, PublicKey[] publicKeys, long deadline, ExecutorService executor) throws NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException, TimeoutException {
+		CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(executor);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(paymentRequests.length);
+		try {
+			for (int i=0; i<paymentRequests.length; i++) {
+				final PaymentRequest pr = paymentRequests[i];
+				final PublicKey publicKey = publicKeys[i];
+				futures.add(completionService.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return pr.verify(publicKey);
+					}
+				}));
+			}
+			
+			for (int i=0; i<futures.size(); i++) {
+				Future<Boolean> completed = completionService.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				if (completed == null)
+					throw new TimeoutException("The signatures could not be verified before the deadline.");
+				
+				if (!completed.get())
+					return false;
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SignatureException("Interrupted while waiting for the verifications.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof NotSignedException)
+				throw (NotSignedException) cause;
+			if (cause instanceof SignatureException)
+				throw (SignatureException) cause;
+			if (cause instanceof InvalidKeyException)
+				throw (InvalidKeyException) cause;
+			if (cause instanceof NoSuchAlgorithmException)
+				throw (NoSuchAlgorithmException) cause;
+			throw new SignatureException(cause);
+		} finally {
 			/*
-			 * version
-			 * + nofSignatures
-			 * + paymentRequestPayer.length
-			 * + paymentRequestPayer
-			 * + paymentRequestPayee.length
-			 * + paymentRequestPayee
+			 * Abandons the remaining verifications if one has failed or the
+			 * deadline has passed. This only removes the tasks which have not
+			 * started yet, since Signature.verify ignores the interrupt.
 			 */
-			outputLength = 1+1+NOF_BYTES_FOR_PAYLOAD_LENGTH+paymentRequestPayer.getPayload().length+paymentRequestPayer.getSignature().length+NOF_BYTES_FOR_PAYLOAD_LENGTH+paymentRequestPayee.getPayload().length+paymentRequestPayee.getSignature().length;
+			for (Future<Boolean> future : futures) {
+				future.cancel(true);
+			}
 		}
+	}
+	
+	/**
+	 * Verifies the signatures of an encoded {@link ServerPaymentRequest}
+	 * directly from the buffer it has been received in, without decoding any
+	 * object or copying the payloads. This allows rejecting forged requests
+	 * before allocating them. The verification stops at the first invalid
+	 * signature. The position and limit of the buffer are not modified.
+	 * 
+	 * @param publicKeyResolver
+	 *            provides the public keys of the payer and the payee
+	 * @param frame
+	 *            the buffer containing the encoded {@link ServerPaymentRequest}
+	 *            between its position and its limit
+	 * @return true if all contained signatures are valid, false if any
+	 *         signature is invalid or if a public key cannot be resolved
+	 * @throws IllegalArgumentException
+	 *             if any argument is null, if the frame is corrupt, or if the
+	 *             payer's and the payee's payment requests are not identic
+	 *             (see {@link PaymentRequest#requestsIdentic(PaymentRequest)})
+	 * @throws UnknownPKIAlgorithmException
+	 *             if the {@link PKIAlgorithm} of a payment request is not known
+	 * @throws NotSignedException
+	 *             if a payment request does not contain a signature
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not supported
+	 * @throws InvalidKeyException
+	 *             if a resolved public key does not belong to the
+	 *             {@link PKIAlgorithm} of its payment request
+	 * @throws SignatureException
+	 *             if an error occured during the verification phase
+	 */
+	public static boolean verify(PublicKeyResolver publicKeyResolver, ByteBuffer frame) throws IllegalArgumentException, UnknownPKIAlgorithmException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (publicKeyResolver == null || frame == null)
+			throw new IllegalArgumentException("The arguments can't be null.");
 		
-		int index = 0;
-		byte[] result = new byte[outputLength];
+		try {
+			if ((frame.get(frame.position()) & 0xFF) == DICTIONARY_VERSION)
+				throw new IllegalArgumentException("The frame has been encoded with a username dictionary.");
+			
+			boolean payeeReference = (frame.get(frame.position()) & 0xFF) == PAYEE_REFERENCE_VERSION;
+			int index = frame.position() + 1;
+			byte nofSignatures = frame.get(index++);
+			if ((nofSignatures != 1 && nofSignatures != 2) || (payeeReference && nofSignatures != 2))
+				throw new IllegalArgumentException("The given byte array is corrupt.");
+			
+			ByteBuffer paymentRequestPayer = null;
+			for (int i=0; i<nofSignatures; i++) {
+				if (payeeReference && i == 1)
+					return verifyPayeeReference(publicKeyResolver, frame, index);
+				
+				int length = ((frame.get(index) & 0xFF) << 8) | (frame.get(index + 1) & 0xFF);
+				index += NOF_BYTES_FOR_PAYLOAD_LENGTH;
+				if (index + length > frame.limit())
+					throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+				
+				ByteBuffer paymentRequest = frame.duplicate();
+				paymentRequest.limit(index + length);
+				paymentRequest.position(index);
+				index += length;
+				
+				if (i == 0)
+					paymentRequestPayer = paymentRequest;
+				else if (!PaymentRequest.requestsIdentic(paymentRequestPayer, paymentRequest))
+					throw new IllegalArgumentException("The two payment requests must be identic.");
+				
+				PKIAlgorithm pkiAlgorithm = PaymentRequest.getPKIAlgorithm(paymentRequest);
+				int keyNumber = paymentRequest.get(paymentRequest.position() + 2) & 0xFF;
+				String username = PaymentRequest.getUsername(paymentRequest, i == 0);
+				
+				PublicKey publicKey = publicKeyResolver.getPublicKey(username, pkiAlgorithm, keyNumber);
+				if (publicKey == null || !PaymentRequest.verify(publicKey, paymentRequest))
+					return false;
+			}
+			return true;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	/**
+	 * Returns the timestamp of the payer's payment request of the encoded
+	 * {@link ServerPaymentRequest} in the given buffer, without decoding it.
+	 * The position and limit of the buffer are not modified.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the frame is corrupt
+	 */
+	static long getPayerTimestamp(ByteBuffer frame) throws IllegalArgumentException {
+		try {
+			// version + nofSignatures
+			int index = frame.position() + 2;
+			int length = ((frame.get(index) & 0xFF) << 8) | (frame.get(index + 1) & 0xFF);
+			index += NOF_BYTES_FOR_PAYLOAD_LENGTH;
+			if (index + length > frame.limit())
+				throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+			
+			ByteBuffer paymentRequest = frame.duplicate();
+			paymentRequest.limit(index + length);
+			paymentRequest.position(index);
+			return PaymentRequest.getTimestamp(paymentRequest);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	/*
+	 * Verifies the payee's signature of a frame of version
+	 * PAYEE_REFERENCE_VERSION. The payer's request has already been verified,
+	 * the payee's fields start at the given index.
+	 */
+	private static boolean verifyPayeeReference(PublicKeyResolver publicKeyResolver, ByteBuffer frame, int index) throws IllegalArgumentException, UnknownPKIAlgorithmException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		int payerStart = frame.position() + 1 + 1 + NOF_BYTES_FOR_PAYLOAD_LENGTH;
+		ByteBuffer paymentRequestPayer = frame.duplicate();
+		paymentRequestPayer.limit(index);
+		paymentRequestPayer.position(payerStart);
+		String username = PaymentRequest.getUsername(paymentRequestPayer, false);
+		int payloadLength = PaymentRequest.getPayloadLength(paymentRequestPayer);
+		
+		PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(frame.get(index++));
+		int keyNumber = frame.get(index++) & 0xFF;
+		int signatureLength = frame.limit() - index;
+		if (signatureLength <= 0)
+			throw new NotSignedException();
+		else if (pkiAlgorithm.getSignatureLength() != 0 && signatureLength != pkiAlgorithm.getSignatureLength())
+			throw new IllegalArgumentException("The given byte array is corrupt (the signature length does not match the signature algorithm).");
 		
-		result[index++] = (byte) getVersion();
-		result[index++] = nofSignatures;
+		byte[] signature = new byte[signatureLength];
+		ByteBuffer signatureBuffer = frame.duplicate();
+		signatureBuffer.position(index);
+		signatureBuffer.get(signature);
 		
+		byte[] payerPayload = new byte[payloadLength];
+		paymentRequestPayer.get(payerPayload);
+		byte[] payload = PaymentRequest.replaceHeader(payerPayload, pkiAlgorithm, keyNumber);
+		
+		PublicKey publicKey = publicKeyResolver.getPublicKey(username, pkiAlgorithm, keyNumber);
+		if (publicKey == null)
+			return false;
+		
+		return SignedSerializableObject.verify(pkiAlgorithm, publicKey, ByteBuffer.wrap(payload), signature);
+	}
+	
+	@Override
+	public byte[] encode() throws NotSignedException {
 		byte[] paymentRequestPayerBytes = paymentRequestPayer.encode();
-		byte[] paymentRequestPayerBytesLength = PrimitiveTypeSerializer.getShortAsBytes((short) paymentRequestPayerBytes.length);
+		byte[] paymentRequestPayeeBytes = nofSignatures > 1 ? paymentRequestPayee.encode() : null;
 		
-		for (byte b : paymentRequestPayerBytesLength) {
-			result[index++] = b;
-		}
-		for (byte b : paymentRequestPayerBytes) {
-			result[index++] = b;
+		/*
+		 * version
+		 * + nofSignatures
+		 * + paymentRequestPayer.length
+		 * + paymentRequestPayer
+		 * (+ paymentRequestPayee.length
+		 * + paymentRequestPayee)
+		 */
+		int length = 1+1+NOF_BYTES_FOR_PAYLOAD_LENGTH+paymentRequestPayerBytes.length;
+		if (paymentRequestPayeeBytes != null)
+			length += NOF_BYTES_FOR_PAYLOAD_LENGTH+paymentRequestPayeeBytes.length;
+		
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(nofSignatures);
+		buffer.putShort((short) paymentRequestPayerBytes.length);
+		buffer.put(paymentRequestPayerBytes);
+		if (paymentRequestPayeeBytes != null) {
+			buffer.putShort((short) paymentRequestPayeeBytes.length);
+			buffer.put(paymentRequestPayeeBytes);
 		}
+		return buffer.array();
+	}
+	
+	/**
+	 * Encodes this object in a frame of version
+	 * {@link SerializableObject#PAYEE_REFERENCE_VERSION} if it contains two
+	 * signatures and if the payee's {@link PaymentRequest} differs from the
+	 * payer's only in the {@link PKIAlgorithm} and the key number. The payee's
+	 * payload is then derived from the payer's payload by the receiver, which
+	 * saves nearly half of the frame. Otherwise, the frame is encoded as by
+	 * {@link #encode()}.
+	 * 
+	 * <pre>
+	 * PAYEE_REFERENCE_VERSION
+	 * + nofSignatures
+	 * + paymentRequestPayer.length
+	 * + paymentRequestPayer
+	 * + paymentRequestPayee.getPKIAlgorithm().getCode()
+	 * + paymentRequestPayee.getKeyNumber()
+	 * + paymentRequestPayee.getSignature()
+	 * </pre>
+	 * 
+	 * @throws NotSignedException
+	 *             if a {@link PaymentRequest} is not signed
+	 */
+	public byte[] encodeWithPayeeReference() throws NotSignedException {
+		if (nofSignatures != 2 || !isPayeeReferenceable())
+			return encode();
+		
+		byte[] paymentRequestPayerBytes = paymentRequestPayer.encode();
+		byte[] paymentRequestPayeeSignature = paymentRequestPayee.getSignature();
+		ByteBuffer buffer = ByteBuffer.allocate(1+1+NOF_BYTES_FOR_PAYLOAD_LENGTH+paymentRequestPayerBytes.length+1+1+paymentRequestPayeeSignature.length);
+		buffer.put((byte) PAYEE_REFERENCE_VERSION);
+		buffer.put(nofSignatures);
+		buffer.putShort((short) paymentRequestPayerBytes.length);
+		buffer.put(paymentRequestPayerBytes);
+		buffer.put(paymentRequestPayee.getPKIAlgorithm().getCode());
+		buffer.put((byte) paymentRequestPayee.getKeyNumber());
+		buffer.put(paymentRequestPayeeSignature);
+		return buffer.array();
+	}
+	
+	private boolean isPayeeReferenceable() {
+		if (paymentRequestPayee.getVersion() != paymentRequestPayer.getVersion())
+			return false;
+		
+		byte[] derivedPayload = PaymentRequest.replaceHeader(paymentRequestPayer.getPayload(), paymentRequestPayee.getPKIAlgorithm(), paymentRequestPayee.getKeyNumber());
+		return Arrays.equals(derivedPayload, paymentRequestPayee.getPayload());
+	}
+	
+	/**
+	 * Encodes this object in a frame of version
+	 * {@link SerializableObject#DICTIONARY_VERSION}, in which the usernames
+	 * of the contained {@link PaymentRequest}s are replaced by their IDs in the given
+	 * dictionary. Usernames which are not contained in the dictionary are
+	 * written inline. The receiver needs a dictionary containing at least the
+	 * entries of the given one.
+	 * 
+	 * <pre>
+	 * DICTIONARY_VERSION
+	 * + dictionary.getVersion() (varint)
+	 * + nofSignatures
+	 * + paymentRequestPayer (see {@link UsernameDictionary})
+	 * (+ paymentRequestPayee)
+	 * </pre>
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the dictionary is null
+	 * @throws NotSignedException
+	 *             if a {@link PaymentRequest} is not signed
+	 */
+	public byte[] encode(UsernameDictionary dictionary) throws IllegalArgumentException, NotSignedException {
+		if (dictionary == null)
+			throw new IllegalArgumentException("The dictionary cannot be null.");
 		
-		if (nofSignatures > 1) {
-			byte[] paymentRequestPayeeBytes = paymentRequestPayee.encode();
-			byte[] paymentRequestPayeeBytesLength = PrimitiveTypeSerializer.getShortAsBytes((short) paymentRequestPayeeBytes.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(DICTIONARY_VERSION);
+		byte[] dictionaryVersionBytes = PrimitiveTypeSerializer.getLongAsVarint(dictionary.getVersion());
+		out.write(dictionaryVersionBytes, 0, dictionaryVersionBytes.length);
+		out.write(nofSignatures);
+		dictionary.writeMessage(out, paymentRequestPayer.encode(), paymentRequestPayer.getUsernamesOffset(), paymentRequestPayer.getUsernamePayer(), paymentRequestPayer.getUsernamePayee());
+		if (nofSignatures == 2)
+			dictionary.writeMessage(out, paymentRequestPayee.encode(), paymentRequestPayee.getUsernamesOffset(), paymentRequestPayee.getUsernamePayer(), paymentRequestPayee.getUsernamePayee());
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decodes a frame encoded with
+	 * {@link #encode(UsernameDictionary)}. Frames of any other version are
+	 * decoded as by {@link #decode(byte[])}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any argument is null, if the frame references a username
+	 *             which is not contained in the dictionary (i.e., the
+	 *             dictionary has to be synchronized with a
+	 *             {@link UsernameDictionaryUpdate}), or if the byte array is
+	 *             corrupt
+	 * @throws SerializationException
+	 *             any sub class of {@link SerializationException}
+	 */
+	public ServerPaymentRequest decode(byte[] bytes, UsernameDictionary dictionary) throws IllegalArgumentException, SerializationException {
+		if (bytes == null || dictionary == null)
+			throw new IllegalArgumentException("The arguments can't be null.");
+		
+		if (bytes.length == 0 || (bytes[0] & 0xFF) != DICTIONARY_VERSION)
+			return decode(bytes);
+		
+		try {
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			in.get();
+			long dictionaryVersion = UsernameDictionary.readVarint(in);
+			if (dictionaryVersion > dictionary.getVersion())
+				throw new IllegalArgumentException("The frame has been encoded with dictionary version "+dictionaryVersion+", but the dictionary has version "+dictionary.getVersion()+".");
 			
-			for (byte b : paymentRequestPayeeBytesLength) {
-				result[index++] = b;
-			}
-			for (byte b : paymentRequestPayeeBytes) {
-				result[index++] = b;
+			byte nofSignatures = in.get();
+			PaymentRequest paymentRequestPayer = DecoderFactory.decode(PaymentRequest.class, dictionary.readMessage(in));
+			if (nofSignatures == 1) {
+				return new ServerPaymentRequest(1, paymentRequestPayer);
+			} else if (nofSignatures == 2) {
+				PaymentRequest paymentRequestPayee = DecoderFactory.decode(PaymentRequest.class, dictionary.readMessage(in));
+				return new ServerPaymentRequest(1, paymentRequestPayer, paymentRequestPayee);
+			} else {
+				throw new IllegalArgumentException("The given byte array is corrupt.");
 			}
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		}
-		return result;
 	}
 
 	@Override
@@ -192,48 +590,48 @@ public class ServerPaymentRequest extends SerializableObject {
 			throw new IllegalArgumentException("The argument can't be null.");
 		
 		try {
-			int index = 0;
-			
-			int version = (bytes[index++] & 0xFF);
-			byte nofSignatures = bytes[index++];
-			
-			byte[] indicatedLengthPayer = new byte[NOF_BYTES_FOR_PAYLOAD_LENGTH];
-			for (int i=0; i<NOF_BYTES_FOR_PAYLOAD_LENGTH; i++) {
-				indicatedLengthPayer[i] = bytes[index++];
-			}
+			ByteBuffer in = ByteBuffer.wrap(bytes);
 			
-			int paymentRequestPayerLength = (PrimitiveTypeSerializer.getBytesAsShort(indicatedLengthPayer) & 0xFF);
-			byte[] paymentRequestPayerBytes = new byte[paymentRequestPayerLength];
-			for (int i=0; i<paymentRequestPayerLength; i++) {
-				paymentRequestPayerBytes[i] = bytes[index++];
-			}
+			int version = in.get() & 0xFF;
+			if (version == DICTIONARY_VERSION)
+				throw new IllegalArgumentException("The frame has been encoded with a username dictionary.");
 			
-			PaymentRequest paymentRequestPayer = DecoderFactory.decode(PaymentRequest.class, paymentRequestPayerBytes);
+			byte nofSignatures = in.get();
+			PaymentRequest paymentRequestPayer = DecoderFactory.decode(PaymentRequest.class, getLengthPrefixed(in));
 			
-			if (nofSignatures == 1) {
-				return new ServerPaymentRequest(version, paymentRequestPayer);
-			} else if (nofSignatures == 2) {
-				byte[] indicatedLengthPayee = new byte[NOF_BYTES_FOR_PAYLOAD_LENGTH];
-				for (int i=0; i<NOF_BYTES_FOR_PAYLOAD_LENGTH; i++) {
-					indicatedLengthPayee[i] = bytes[index++];
-				}
+			if (version == PAYEE_REFERENCE_VERSION) {
+				if (nofSignatures != 2 || in.remaining() < 3)
+					throw new IllegalArgumentException("The given byte array is corrupt.");
 				
-				int paymentRequestPayeeLength = (PrimitiveTypeSerializer.getBytesAsShort(indicatedLengthPayee) & 0xFF);
-				byte[] paymentRequestPayeeBytes = new byte[paymentRequestPayeeLength];
-				for (int i=0; i<paymentRequestPayeeLength; i++) {
-					paymentRequestPayeeBytes[i] = bytes[index++];
-				}
-				PaymentRequest paymentRequestPayee = DecoderFactory.decode(PaymentRequest.class, paymentRequestPayeeBytes);
+				PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(in.get());
+				int keyNumber = in.get() & 0xFF;
+				byte[] signature = Arrays.copyOfRange(bytes, in.position(), bytes.length);
+				if (pkiAlgorithm.getSignatureLength() != 0 && signature.length != pkiAlgorithm.getSignatureLength())
+					throw new IllegalArgumentException("The given byte array is corrupt (the signature length does not match the signature algorithm).");
 				
+				return new ServerPaymentRequest(1, paymentRequestPayer, paymentRequestPayer.withSigningKey(pkiAlgorithm, keyNumber, signature));
+			} else if (nofSignatures == 1) {
+				return new ServerPaymentRequest(version, paymentRequestPayer);
+			} else if (nofSignatures == 2) {
+				PaymentRequest paymentRequestPayee = DecoderFactory.decode(PaymentRequest.class, getLengthPrefixed(in));
 				return new ServerPaymentRequest(version, paymentRequestPayer, paymentRequestPayee);
 			} else {
 				throw new IllegalArgumentException("The given byte array is corrupt.");
 			}
-		} catch (IndexOutOfBoundsException e) {
+		} catch (BufferUnderflowException e) {
 			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		}
 	}
 	
+	/*
+	 * Reads a nested message preceded by its length (2 bytes, unsigned).
+	 */
+	static byte[] getLengthPrefixed(ByteBuffer in) {
+		byte[] result = new byte[in.getShort() & 0xFFFF];
+		in.get(result);
+		return result;
+	}
+	
 	@Override
 	public boolean equals(Object o) {
 		if (o == null)
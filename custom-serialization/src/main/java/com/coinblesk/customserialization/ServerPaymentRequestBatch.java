@@ -0,0 +1,339 @@
+package com.coinblesk.customserialization;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+import com.coinblesk.customserialization.exceptions.SerializationException;
+
+/**
+ * This class represents many {@link ServerPaymentRequest}s which are
+ * transferred together from a client to the server over TCP/IP (e.g., the
+ * payments accumulated by a device while it was offline), so that a bulk
+ * upload needs a single round trip. The server answers with a
+ * {@link ServerPaymentResponseBatch} containing the responses in the same
+ * order.
+ * 
+ * <pre>
+ * version
+ * + nofEntries (varint)
+ * + for every entry: start of the entry relative to the start of the frame (4 bytes)
+ * + baseTimestamp (the earliest timestamp of the payers' requests)
+ * + for every entry: timestamp - baseTimestamp (varint)
+ * + for every entry: the entry encoded with {@link ServerPaymentRequest#encodeWithPayeeReference()}
+ * </pre>
+ * 
+ * The timestamps of the entries are part of the signed payloads and
+ * therefore remain in the entries. The delta-encoded copy in the header
+ * allows the server to order the entries or to reject expired ones without
+ * decoding them. The copy is not authenticated, so it can only be trusted for
+ * the entries which have been accepted by
+ * {@link #verifyAll(PublicKeyResolver, ByteBuffer, long, ExecutorService)},
+ * which compares it with the signed timestamps. The fixed-width offset table allows accessing every entry in
+ * constant time (the last entry extends to the end of the frame), so that
+ * the entries can be verified and processed in parallel directly from the
+ * received buffer (see
+ * {@link #verifyAll(PublicKeyResolver, ByteBuffer, long, ExecutorService)}).
+ */
+public class ServerPaymentRequestBatch extends SerializableObject {
+	static final int NOF_BYTES_FOR_OFFSET = 4;
+	
+	private List<ServerPaymentRequest> serverPaymentRequests;
+	
+	//this constructor is needed for the DecoderFactory
+	protected ServerPaymentRequestBatch() {
+	}
+	
+	/**
+	 * This constructor instantiates a new object.
+	 * 
+	 * @param serverPaymentRequests
+	 *            the entries in the order in which they will be processed
+	 * @throws IllegalArgumentException
+	 *             if the list is null or empty or if any entry is null
+	 */
+	public ServerPaymentRequestBatch(List<ServerPaymentRequest> serverPaymentRequests) throws IllegalArgumentException {
+		super(1);
+		
+		if (serverPaymentRequests == null || serverPaymentRequests.isEmpty())
+			throw new IllegalArgumentException("The server payment requests cannot be null or empty.");
+		
+		for (ServerPaymentRequest spr : serverPaymentRequests) {
+			if (spr == null)
+				throw new IllegalArgumentException("The server payment requests cannot contain null.");
+		}
+		
+		this.serverPaymentRequests = Collections.unmodifiableList(new ArrayList<ServerPaymentRequest>(serverPaymentRequests));
+	}
+	
+	/**
+	 * Returns the contained {@link ServerPaymentRequest}s.
+	 */
+	public List<ServerPaymentRequest> getServerPaymentRequests() {
+		return serverPaymentRequests;
+	}
+	
+	@Override
+	public byte[] encode() throws NotSignedException {
+		int nofEntries = serverPaymentRequests.size();
+		byte[][] entries = new byte[nofEntries][];
+		long baseTimestamp = Long.MAX_VALUE;
+		int entriesLength = 0;
+		for (int i=0; i<nofEntries; i++) {
+			entries[i] = serverPaymentRequests.get(i).encodeWithPayeeReference();
+			entriesLength += entries[i].length;
+			baseTimestamp = Math.min(baseTimestamp, getTimestamp(i));
+		}
+		
+		byte[][] timestampDeltas = new byte[nofEntries][];
+		int timestampDeltasLength = 0;
+		for (int i=0; i<nofEntries; i++) {
+			timestampDeltas[i] = PrimitiveTypeSerializer.getLongAsVarint(getTimestamp(i) - baseTimestamp);
+			timestampDeltasLength += timestampDeltas[i].length;
+		}
+		
+		byte[] nofEntriesBytes = PrimitiveTypeSerializer.getLongAsVarint(nofEntries);
+		int headerLength = 1+nofEntriesBytes.length+nofEntries*NOF_BYTES_FOR_OFFSET+8+timestampDeltasLength;
+		ByteBuffer buffer = ByteBuffer.allocate(headerLength+entriesLength);
+		buffer.put((byte) getVersion());
+		buffer.put(nofEntriesBytes);
+		int start = headerLength;
+		for (byte[] entry : entries) {
+			buffer.putInt(start);
+			start += entry.length;
+		}
+		buffer.putLong(baseTimestamp);
+		for (byte[] timestampDelta : timestampDeltas) {
+			buffer.put(timestampDelta);
+		}
+		for (byte[] entry : entries) {
+			buffer.put(entry);
+		}
+		return buffer.array();
+	}
+	
+	private long getTimestamp(int index) {
+		return serverPaymentRequests.get(index).getPaymentRequestPayer().getTimestamp();
+	}
+	
+	@Override
+	public ServerPaymentRequestBatch decode(byte[] bytes) throws IllegalArgumentException, SerializationException {
+		if (bytes == null)
+			throw new IllegalArgumentException("The argument can't be null.");
+		
+		ByteBuffer frame = ByteBuffer.wrap(bytes);
+		long[] timestamps = getTimestamps(frame);
+		List<ServerPaymentRequest> serverPaymentRequests = new ArrayList<ServerPaymentRequest>(timestamps.length);
+		for (int i=0; i<timestamps.length; i++) {
+			ByteBuffer entry = getEntry(frame, i);
+			byte[] entryBytes = new byte[entry.remaining()];
+			entry.get(entryBytes);
+			
+			ServerPaymentRequest spr = DecoderFactory.decode(ServerPaymentRequest.class, entryBytes);
+			if (spr.getPaymentRequestPayer().getTimestamp() != timestamps[i])
+				throw new IllegalArgumentException("The given byte array is corrupt (the timestamp of entry "+i+" does not match).");
+			
+			serverPaymentRequests.add(spr);
+		}
+		return new ServerPaymentRequestBatch(serverPaymentRequests);
+	}
+	
+	/**
+	 * Returns the number of entries of the encoded batch which starts at the
+	 * position of the given buffer.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the frame is corrupt
+	 */
+	public static int getNofEntries(ByteBuffer frame) throws IllegalArgumentException {
+		try {
+			long nofEntries = PrimitiveTypeSerializer.getVarintAsLong(frame, frame.position() + 1);
+			if (nofEntries < 1 || nofEntries > frame.remaining())
+				throw new IllegalArgumentException("The given byte array is corrupt.");
+			
+			return (int) nofEntries;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	/**
+	 * Returns the timestamps of the payers' {@link PaymentRequest}s of the
+	 * encoded batch which starts at the position of the given buffer, without
+	 * decoding the entries. The timestamps are read from the header, which is
+	 * not signed. They match the signed timestamps of the entries only if the
+	 * entries have been accepted by
+	 * {@link #verifyAll(PublicKeyResolver, ByteBuffer, long, ExecutorService)}.
+	 * The position and limit of the buffer are not modified.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the frame is corrupt
+	 */
+	public static long[] getTimestamps(ByteBuffer frame) throws IllegalArgumentException {
+		int nofEntries = getNofEntries(frame);
+		try {
+			int index = getOffsetTableIndex(frame, nofEntries) + nofEntries*NOF_BYTES_FOR_OFFSET;
+			long baseTimestamp = frame.getLong(index);
+			index += 8;
+			
+			long[] timestamps = new long[nofEntries];
+			for (int i=0; i<nofEntries; i++) {
+				long delta = PrimitiveTypeSerializer.getVarintAsLong(frame, index);
+				index += PrimitiveTypeSerializer.getVarintLength(delta);
+				timestamps[i] = baseTimestamp + delta;
+			}
+			return timestamps;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	/**
+	 * Returns a view of the i-th entry of the encoded batch which starts at
+	 * the position of the given buffer. The entry lies between the position
+	 * and the limit of the returned buffer and can be passed to
+	 * {@link ServerPaymentRequest#verify(PublicKeyResolver, ByteBuffer)}.
+	 * The position and limit of the given buffer are not modified.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the index is out of range or if the frame is corrupt
+	 */
+	public static ByteBuffer getEntry(ByteBuffer frame, int i) throws IllegalArgumentException {
+		int nofEntries = getNofEntries(frame);
+		if (i < 0 || i >= nofEntries)
+			throw new IllegalArgumentException("The index must be between 0 and "+(nofEntries-1)+".");
+		
+		try {
+			int offsetTableIndex = getOffsetTableIndex(frame, nofEntries);
+			int start = frame.getInt(offsetTableIndex + i*NOF_BYTES_FOR_OFFSET);
+			int end = i == nofEntries-1 ? frame.remaining() : frame.getInt(offsetTableIndex + (i+1)*NOF_BYTES_FOR_OFFSET);
+			if (start < offsetTableIndex - frame.position() + nofEntries*NOF_BYTES_FOR_OFFSET || end <= start || end > frame.remaining())
+				throw new IllegalArgumentException("The given byte array is corrupt (the offset of entry "+i+" is invalid).");
+			
+			ByteBuffer entry = frame.duplicate();
+			entry.limit(frame.position() + end);
+			entry.position(frame.position() + start);
+			return entry;
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	private static int getOffsetTableIndex(ByteBuffer frame, int nofEntries) {
+		return frame.position() + 1 + PrimitiveTypeSerializer.getVarintLength(nofEntries);
+	}
+	
+	/**
+	 * Verifies the signatures of all entries of an encoded batch directly
+	 * from the buffer it has been received in. The entries are verified
+	 * concurrently on the given {@link ExecutorService} with
+	 * {@link ServerPaymentRequest#verify(PublicKeyResolver, ByteBuffer)}, and
+	 * the timestamp of the payer's request of every entry is compared with the
+	 * copy in the header. A single forged or corrupt entry does not affect the
+	 * other entries.
+	 * 
+	 * @param publicKeyResolver
+	 *            provides the public keys of the payers and the payees
+	 * @param frame
+	 *            the buffer containing the encoded batch between its position
+	 *            and its limit
+	 * @param deadline
+	 *            the point in time (in milliseconds since January 1, 1970
+	 *            UTC) until which the verification has to be completed
+	 * @param executor
+	 *            the {@link ExecutorService} to run the verifications on
+	 * @return an array containing for every entry whether all its signatures
+	 *         are valid and its timestamp matches the header (false if an
+	 *         entry is corrupt, not signed or if a public key cannot be
+	 *         resolved)
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or if the header of the frame is
+	 *             corrupt
+	 * @throws TimeoutException
+	 *             if the verification has not been completed before the
+	 *             deadline
+	 */
+	public static boolean[] verifyAll(final PublicKeyResolver publicKeyResolver, ByteBuffer frame, long deadline, ExecutorService executor) throws IllegalArgumentException, TimeoutException {
+		if (publicKeyResolver == null || frame == null || executor == null)
+			throw new IllegalArgumentException("The arguments can't be null.");
+		
+		long[] timestamps = getTimestamps(frame);
+		int nofEntries = timestamps.length;
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(nofEntries);
+		try {
+			for (int i=0; i<nofEntries; i++) {
+				final ByteBuffer entry = getEntry(frame, i);
+				final long timestamp = timestamps[i];
+				futures.add(executor.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return ServerPaymentRequest.getPayerTimestamp(entry) == timestamp && ServerPaymentRequest.verify(publicKeyResolver, entry);
+					}
+				}));
+			}
+			
+			boolean[] result = new boolean[nofEntries];
+			for (int i=0; i<nofEntries; i++) {
+				try {
+					result[i] = futures.get(i).get(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				} catch (ExecutionException e) {
+					// the entry is corrupt or cannot be verified
+					result[i] = false;
+				}
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TimeoutException("Interrupted while waiting for the verifications.");
+		} finally {
+			for (Future<Boolean> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+	
+	/**
+	 * Verifies the signatures of all entries on a shared pool of daemon
+	 * threads.
+	 * 
+	 * @see #verifyAll(PublicKeyResolver, ByteBuffer, long, ExecutorService)
+	 */
+	public static boolean[] verifyAll(PublicKeyResolver publicKeyResolver, ByteBuffer frame, long deadline) throws IllegalArgumentException, TimeoutException {
+		return verifyAll(publicKeyResolver, frame, deadline, ServerPaymentRequest.VERIFICATION_EXECUTOR);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!(o instanceof ServerPaymentRequestBatch))
+			return false;
+		
+		ServerPaymentRequestBatch other = (ServerPaymentRequestBatch) o;
+		if (getVersion() != other.getVersion())
+			return false;
+		
+		return serverPaymentRequests.equals(other.serverPaymentRequests);
+	}
+	
+	@Override
+	public int hashCode() {
+		// the entries do not override hashCode()
+		int result = getVersion();
+		for (int i=0; i<serverPaymentRequests.size(); i++) {
+			long timestamp = getTimestamp(i);
+			result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+		}
+		return result;
+	}
+
+}
@@ -1,5 +1,9 @@
 package com.coinblesk.customserialization;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.NotSignedException;
 import com.coinblesk.customserialization.exceptions.SerializationException;
@@ -133,58 +137,117 @@ public class ServerPaymentResponse extends SerializableObject {
 
 	@Override
 	public byte[] encode() throws NotSignedException {
-		byte[] paymentResponsePayerRaw = null;
-		byte[] paymentResponsePayeeRaw = null;
+		byte[] paymentResponsePayerRaw = paymentResponsePayer.encode();
+		byte[] paymentResponsePayeeRaw = nofPaymentResponses > 1 ? paymentResponsePayee.encode() : null;
+		
+		/*
+		 * version
+		 * + nofPaymentResponses
+		 * + paymentResponsePayer.length
+		 * + paymentResponsePayer
+		 * (+ paymentResponsePayee.length
+		 * + paymentResponsePayee)
+		 */
+		int length = 1+1+NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH+paymentResponsePayerRaw.length;
+		if (paymentResponsePayeeRaw != null)
+			length += NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH+paymentResponsePayeeRaw.length;
 		
-		int length;
-		if (nofPaymentResponses == 1) {
-			paymentResponsePayerRaw = paymentResponsePayer.encode();
-			/*
-			 * version
-			 * + nofPaymentResponses
-			 * + paymentResponsePayer.length
-			 * + paymentResponsePayer
-			 */
-			length = 1+1+NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH+paymentResponsePayerRaw.length;
-		} else {
-			paymentResponsePayerRaw = paymentResponsePayer.encode();
-			paymentResponsePayeeRaw = paymentResponsePayee.encode();
-			/*
-			 * version
-			 * + nofPaymentResponses
-			 * + paymentResponsePayer.length
-			 * + paymentResponsePayer
-			 * + paymentResponsePayee.length
-			 * + paymentResponsePayee
-			 */
-			length = 1+1+NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH+paymentResponsePayerRaw.length+NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH+paymentResponsePayeeRaw.length;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(nofPaymentResponses);
+		buffer.putShort((short) paymentResponsePayerRaw.length);
+		buffer.put(paymentResponsePayerRaw);
+		if (paymentResponsePayeeRaw != null) {
+			buffer.putShort((short) paymentResponsePayeeRaw.length);
+			buffer.put(paymentResponsePayeeRaw);
 		}
+		return buffer.array();
+	}
+	
+	/**
+	 * Encodes this object in a frame of version
+	 * {@link SerializableObject#DICTIONARY_VERSION}, in which the usernames
+	 * of the contained {@link PaymentResponse}s are replaced by their IDs in the given
+	 * dictionary. Usernames which are not contained in the dictionary are
+	 * written inline. The receiver needs a dictionary containing at least the
+	 * entries of the given one.
+	 * 
+	 * <pre>
+	 * DICTIONARY_VERSION
+	 * + dictionary.getVersion() (varint)
+	 * + nofPaymentResponses
+	 * + paymentResponsePayer (see {@link UsernameDictionary})
+	 * (+ paymentResponsePayee)
+	 * </pre>
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the dictionary is null or if a {@link PaymentResponse}
+	 *             is of version
+	 *             {@link SerializableObject#REQUEST_DIGEST_VERSION}, which
+	 *             does not contain any usernames
+	 * @throws NotSignedException
+	 *             if a {@link PaymentResponse} is not signed
+	 */
+	public byte[] encode(UsernameDictionary dictionary) throws IllegalArgumentException, NotSignedException {
+		if (dictionary == null)
+			throw new IllegalArgumentException("The dictionary cannot be null.");
 		
-		int index = 0;
-		byte[] result = new byte[length];
+		if (paymentResponsePayer.getVersion() == REQUEST_DIGEST_VERSION || (nofPaymentResponses == 2 && paymentResponsePayee.getVersion() == REQUEST_DIGEST_VERSION))
+			throw new IllegalArgumentException("A payment response of version "+REQUEST_DIGEST_VERSION+" does not contain any usernames.");
 		
-		result[index++] = (byte) getVersion();
-		result[index++] = nofPaymentResponses;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(DICTIONARY_VERSION);
+		byte[] dictionaryVersionBytes = PrimitiveTypeSerializer.getLongAsVarint(dictionary.getVersion());
+		out.write(dictionaryVersionBytes, 0, dictionaryVersionBytes.length);
+		out.write(nofPaymentResponses);
+		dictionary.writeMessage(out, paymentResponsePayer.encode(), paymentResponsePayer.getUsernamesOffset(), paymentResponsePayer.getUsernamePayer(), paymentResponsePayer.getUsernamePayee());
+		if (nofPaymentResponses == 2)
+			dictionary.writeMessage(out, paymentResponsePayee.encode(), paymentResponsePayee.getUsernamesOffset(), paymentResponsePayee.getUsernamePayer(), paymentResponsePayee.getUsernamePayee());
 		
-		byte[] paymentResponsePayerLengthBytes = PrimitiveTypeSerializer.getShortAsBytes((short) paymentResponsePayerRaw.length);
-		for (byte b : paymentResponsePayerLengthBytes) {
-			result[index++] = b;
-		}
-		for (byte b : paymentResponsePayerRaw) {
-			result[index++] = b;
-		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decodes a frame encoded with
+	 * {@link #encode(UsernameDictionary)}. Frames of any other version are
+	 * decoded as by {@link #decode(byte[])}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if any argument is null, if the frame references a username
+	 *             which is not contained in the dictionary (i.e., the
+	 *             dictionary has to be synchronized with a
+	 *             {@link UsernameDictionaryUpdate}), or if the byte array is
+	 *             corrupt
+	 * @throws SerializationException
+	 *             any sub class of {@link SerializationException}
+	 */
+	public ServerPaymentResponse decode(byte[] bytes, UsernameDictionary dictionary) throws IllegalArgumentException, SerializationException {
+		if (bytes == null || dictionary == null)
+			throw new IllegalArgumentException("The arguments can't be null.");
 		
-		if (nofPaymentResponses > 1) {
-			byte[] paymentResponsePayeeLengthBytes = PrimitiveTypeSerializer.getShortAsBytes((short) paymentResponsePayeeRaw.length);
-			for (byte b : paymentResponsePayeeLengthBytes) {
-				result[index++] = b;
-			}
-			for (byte b : paymentResponsePayeeRaw) {
-				result[index++] = b;
+		if (bytes.length == 0 || (bytes[0] & 0xFF) != DICTIONARY_VERSION)
+			return decode(bytes);
+		
+		try {
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			in.get();
+			long dictionaryVersion = UsernameDictionary.readVarint(in);
+			if (dictionaryVersion > dictionary.getVersion())
+				throw new IllegalArgumentException("The frame has been encoded with dictionary version "+dictionaryVersion+", but the dictionary has version "+dictionary.getVersion()+".");
+			
+			byte nofPaymentResponses = in.get();
+			PaymentResponse paymentResponsePayer = DecoderFactory.decode(PaymentResponse.class, dictionary.readMessage(in));
+			if (nofPaymentResponses == 1) {
+				return new ServerPaymentResponse(1, paymentResponsePayer);
+			} else if (nofPaymentResponses == 2) {
+				PaymentResponse paymentResponsePayee = DecoderFactory.decode(PaymentResponse.class, dictionary.readMessage(in));
+				return new ServerPaymentResponse(1, paymentResponsePayer, paymentResponsePayee);
+			} else {
+				throw new IllegalArgumentException("The given byte array is corrupt.");
 			}
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		}
-		
-		return result;
 	}
 	
 	@Override
@@ -193,43 +256,23 @@ public class ServerPaymentResponse extends SerializableObject {
 			throw new IllegalArgumentException("The argument can't be null.");
 		
 		try {
-			int index = 0;
-			
-			int version = (bytes[index++] & 0xFF);
-			byte nofPaymentResponses = bytes[index++];
+			ByteBuffer in = ByteBuffer.wrap(bytes);
 			
-			byte[] indicatedPaymentResponsePayerLengthBytes = new byte[NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH];
-			for (int i=0; i<NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH; i++) {
-				indicatedPaymentResponsePayerLengthBytes[i] = bytes[index++];
-			}
-			
-			int paymentResponsePayerLength = (PrimitiveTypeSerializer.getBytesAsShort(indicatedPaymentResponsePayerLengthBytes) & 0xFF);
-			byte[] paymentResponsePayerBytes = new byte[paymentResponsePayerLength];
-			for (int i=0; i<paymentResponsePayerLength; i++) {
-				paymentResponsePayerBytes[i] = bytes[index++];
-			}
+			int version = in.get() & 0xFF;
+			if (version == DICTIONARY_VERSION)
+				throw new IllegalArgumentException("The frame has been encoded with a username dictionary.");
 			
-			PaymentResponse paymentResponsePayer = DecoderFactory.decode(PaymentResponse.class, paymentResponsePayerBytes);
+			byte nofPaymentResponses = in.get();
+			PaymentResponse paymentResponsePayer = DecoderFactory.decode(PaymentResponse.class, ServerPaymentRequest.getLengthPrefixed(in));
 			if (nofPaymentResponses == 1) {
 				return new ServerPaymentResponse(version, paymentResponsePayer);
 			} else if (nofPaymentResponses == 2) {
-				byte[] indicatedPaymentResponsePayeeLengthBytes = new byte[NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH];
-				for (int i=0; i<NOF_BYTES_FOR_PAYMENT_RESPONSE_LENGTH; i++) {
-					indicatedPaymentResponsePayeeLengthBytes[i] = bytes[index++];
-				}
-				
-				int paymentResponsePayeeLength = (PrimitiveTypeSerializer.getBytesAsShort(indicatedPaymentResponsePayeeLengthBytes) & 0xFF);
-				byte[] paymentResponsePayeeBytes = new byte[paymentResponsePayeeLength];
-				for (int i=0; i<paymentResponsePayeeLength; i++) {
-					paymentResponsePayeeBytes[i] = bytes[index++];
-				}
-				
-				PaymentResponse paymentResponsePayee = DecoderFactory.decode(PaymentResponse.class, paymentResponsePayeeBytes);
+				PaymentResponse paymentResponsePayee = DecoderFactory.decode(PaymentResponse.class, ServerPaymentRequest.getLengthPrefixed(in));
 				return new ServerPaymentResponse(version, paymentResponsePayer, paymentResponsePayee);
 			} else {
 				throw new IllegalArgumentException("The given byte array is corrupt.");
 			}
-		} catch (IndexOutOfBoundsException e) {
+		} catch (BufferUnderflowException e) {
 			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
 		}
 	}
@@ -0,0 +1,156 @@
+package com.coinblesk.customserialization;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+import com.coinblesk.customserialization.exceptions.SerializationException;
+
+/**
+ * This class represents the answer to a {@link ServerPaymentRequestBatch},
+ * which is transferred from the server to the client over TCP/IP. The i-th
+ * {@link ServerPaymentResponse} answers the i-th entry of the batch.
+ * 
+ * <pre>
+ * version
+ * + nofEntries (varint)
+ * + for every entry: start of the entry relative to the start of the frame (4 bytes)
+ * + for every entry: the encoded entry
+ * </pre>
+ * 
+ * As in the {@link ServerPaymentRequestBatch}, every entry can be accessed in
+ * constant time with {@link #getEntry(ByteBuffer, int)}.
+ */
+public class ServerPaymentResponseBatch extends SerializableObject {
+	
+	private List<ServerPaymentResponse> serverPaymentResponses;
+	
+	//this constructor is needed for the DecoderFactory
+	protected ServerPaymentResponseBatch() {
+	}
+	
+	/**
+	 * This constructor instantiates a new object.
+	 * 
+	 * @param serverPaymentResponses
+	 *            the responses in the order of the entries of the
+	 *            {@link ServerPaymentRequestBatch}
+	 * @throws IllegalArgumentException
+	 *             if the list is null or empty or if any entry is null
+	 */
+	public ServerPaymentResponseBatch(List<ServerPaymentResponse> serverPaymentResponses) throws IllegalArgumentException {
+		super(1);
+		
+		if (serverPaymentResponses == null || serverPaymentResponses.isEmpty())
+			throw new IllegalArgumentException("The server payment responses cannot be null or empty.");
+		
+		for (ServerPaymentResponse spr : serverPaymentResponses) {
+			if (spr == null)
+				throw new IllegalArgumentException("The server payment responses cannot contain null.");
+		}
+		
+		this.serverPaymentResponses = Collections.unmodifiableList(new ArrayList<ServerPaymentResponse>(serverPaymentResponses));
+	}
+	
+	/**
+	 * Returns the contained {@link ServerPaymentResponse}s.
+	 */
+	public List<ServerPaymentResponse> getServerPaymentResponses() {
+		return serverPaymentResponses;
+	}
+	
+	@Override
+	public byte[] encode() throws NotSignedException {
+		int nofEntries = serverPaymentResponses.size();
+		byte[][] entries = new byte[nofEntries][];
+		int entriesLength = 0;
+		for (int i=0; i<nofEntries; i++) {
+			entries[i] = serverPaymentResponses.get(i).encode();
+			entriesLength += entries[i].length;
+		}
+		
+		byte[] nofEntriesBytes = PrimitiveTypeSerializer.getLongAsVarint(nofEntries);
+		int headerLength = 1+nofEntriesBytes.length+nofEntries*ServerPaymentRequestBatch.NOF_BYTES_FOR_OFFSET;
+		ByteBuffer buffer = ByteBuffer.allocate(headerLength+entriesLength);
+		buffer.put((byte) getVersion());
+		buffer.put(nofEntriesBytes);
+		int start = headerLength;
+		for (byte[] entry : entries) {
+			buffer.putInt(start);
+			start += entry.length;
+		}
+		for (byte[] entry : entries) {
+			buffer.put(entry);
+		}
+		return buffer.array();
+	}
+	
+	@Override
+	public ServerPaymentResponseBatch decode(byte[] bytes) throws IllegalArgumentException, SerializationException {
+		if (bytes == null)
+			throw new IllegalArgumentException("The argument can't be null.");
+		
+		ByteBuffer frame = ByteBuffer.wrap(bytes);
+		int nofEntries = getNofEntries(frame);
+		List<ServerPaymentResponse> serverPaymentResponses = new ArrayList<ServerPaymentResponse>(nofEntries);
+		for (int i=0; i<nofEntries; i++) {
+			ByteBuffer entry = getEntry(frame, i);
+			byte[] entryBytes = new byte[entry.remaining()];
+			entry.get(entryBytes);
+			serverPaymentResponses.add(DecoderFactory.decode(ServerPaymentResponse.class, entryBytes));
+		}
+		return new ServerPaymentResponseBatch(serverPaymentResponses);
+	}
+	
+	/**
+	 * Returns the number of entries of the encoded batch which starts at the
+	 * position of the given buffer.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the frame is corrupt
+	 */
+	public static int getNofEntries(ByteBuffer frame) throws IllegalArgumentException {
+		return ServerPaymentRequestBatch.getNofEntries(frame);
+	}
+	
+	/**
+	 * Returns a view of the i-th entry of the encoded batch which starts at
+	 * the position of the given buffer. The position and limit of the given
+	 * buffer are not modified.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the index is out of range or if the frame is corrupt
+	 */
+	public static ByteBuffer getEntry(ByteBuffer frame, int i) throws IllegalArgumentException {
+		return ServerPaymentRequestBatch.getEntry(frame, i);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!(o instanceof ServerPaymentResponseBatch))
+			return false;
+		
+		ServerPaymentResponseBatch other = (ServerPaymentResponseBatch) o;
+		if (getVersion() != other.getVersion())
+			return false;
+		
+		return serverPaymentResponses.equals(other.serverPaymentResponses);
+	}
+	
+	@Override
+	public int hashCode() {
+		// the entries do not override hashCode()
+		int result = getVersion();
+		for (ServerPaymentResponse serverPaymentResponse : serverPaymentResponses) {
+			long timestamp = serverPaymentResponse.getPaymentResponsePayer().getTimestamp();
+			result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,198 @@
+package com.coinblesk.customserialization;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException;
+
+/**
+ * This class represents the handshake message which establishes the session
+ * keys between a client (e.g., a merchant terminal) and the server. Both
+ * parties send a handshake containing an ephemeral X25519 public key, which is
+ * signed with their long-term key. The session keys are derived from the two
+ * handshakes by the {@link SessionKeyExchange}. Subsequent messages of the session
+ * use {@link PKIAlgorithm#HMAC_SHA256} and carry the session number as their
+ * key number.
+ */
+public class SessionHandshake extends SignedSerializableObject {
+	
+	/**
+	 * The length of a raw X25519 public key.
+	 */
+	public static final int EPHEMERAL_KEY_LENGTH = 32;
+	
+	private String username;
+	private int sessionNumber;
+	private byte[] ephemeralPublicKey;
+	private long timestamp;
+	
+	//this constructor is needed for the DecoderFactory
+	protected SessionHandshake() {
+	}
+	
+	/**
+	 * This constructor generates a new object.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the {@link PKIAlgorithm} of the long-term key signing this
+	 *            handshake, must not be a MAC algorithm
+	 * @param keyNumber
+	 *            the key number of the long-term key
+	 * @param username
+	 *            the username of the sender
+	 * @param sessionNumber
+	 *            the number identifying the session, which is used as key
+	 *            number of the MAC authenticated messages
+	 * @param ephemeralPublicKey
+	 *            the raw 32 bytes X25519 public key (little-endian u
+	 *            coordinate)
+	 * @param timestamp
+	 *            the sender's timestamp
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or does not fit into the foreseen
+	 *             primitive type
+	 */
+	public SessionHandshake(PKIAlgorithm pkiAlgorithm, int keyNumber, String username, int sessionNumber, byte[] ephemeralPublicKey, long timestamp) throws IllegalArgumentException {
+		this(1, pkiAlgorithm, keyNumber, username, sessionNumber, ephemeralPublicKey, timestamp);
+	}
+	
+	private SessionHandshake(int version, PKIAlgorithm pkiAlgorithm, int keyNumber, String username, int sessionNumber, byte[] ephemeralPublicKey, long timestamp) throws IllegalArgumentException {
+		super(version, pkiAlgorithm, keyNumber);
+		
+		checkParameters(pkiAlgorithm, username, sessionNumber, ephemeralPublicKey, timestamp);
+		
+		this.username = username;
+		this.sessionNumber = sessionNumber;
+		this.ephemeralPublicKey = ephemeralPublicKey.clone();
+		this.timestamp = timestamp;
+		
+		setPayload();
+	}
+	
+	private void checkParameters(PKIAlgorithm pkiAlgorithm, String username, int sessionNumber, byte[] ephemeralPublicKey, long timestamp) throws IllegalArgumentException {
+		if (pkiAlgorithm.isMAC())
+			throw new IllegalArgumentException("The handshake must be signed with a key pair.");
+		
+		if (username == null || username.length() == 0 || username.length() > 255)
+			throw new IllegalArgumentException("The username cannot be null, empty, or longer than 255 characters.");
+		
+		if (sessionNumber <= 0 || sessionNumber > 255)
+			throw new IllegalArgumentException("The session number must be between 1 and 255.");
+		
+		if (ephemeralPublicKey == null || ephemeralPublicKey.length != EPHEMERAL_KEY_LENGTH)
+			throw new IllegalArgumentException("The ephemeral public key must be " + EPHEMERAL_KEY_LENGTH + " bytes long.");
+		
+		if (timestamp <= 0)
+			throw new IllegalArgumentException("The timestamp must be greater than 0.");
+	}
+	
+	private void setPayload() {
+		byte[] usernameBytes = username.getBytes(Charset.forName("UTF-8"));
+		
+		/*
+		 * version
+		 * + signatureAlgorithm.getCode()
+		 * + keyNumber
+		 * + sessionNumber
+		 * + username.length
+		 * + username
+		 * + ephemeralPublicKey
+		 * + timestamp
+		 */
+		int length = 1+1+1+1+1+usernameBytes.length+EPHEMERAL_KEY_LENGTH+8;
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.put((byte) getVersion());
+		buffer.put(getPKIAlgorithm().getCode());
+		buffer.put((byte) getKeyNumber());
+		buffer.put((byte) sessionNumber);
+		buffer.put((byte) usernameBytes.length);
+		buffer.put(usernameBytes);
+		buffer.put(ephemeralPublicKey);
+		buffer.putLong(timestamp);
+		
+		this.payload = buffer.array();
+	}
+	
+	public String getUsername() {
+		return username;
+	}
+	
+	public int getSessionNumber() {
+		return sessionNumber;
+	}
+	
+	public byte[] getEphemeralPublicKey() {
+		return ephemeralPublicKey.clone();
+	}
+	
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	@Override
+	public SessionHandshake decode(byte[] bytes) throws IllegalArgumentException, UnknownPKIAlgorithmException, NotSignedException {
+		if (bytes == null)
+			throw new IllegalArgumentException("The argument can't be null.");
+		
+		try {
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			
+			int version = in.get() & 0xFF;
+			PKIAlgorithm pkiAlgorithm = PKIAlgorithm.getPKIAlgorithm(in.get());
+			int keyNumber = in.get() & 0xFF;
+			int sessionNumber = in.get() & 0xFF;
+			String username = PrimitiveTypeSerializer.getString(in);
+			byte[] ephemeralPublicKey = new byte[EPHEMERAL_KEY_LENGTH];
+			in.get(ephemeralPublicKey);
+			long timestamp = in.getLong();
+			
+			SessionHandshake sh = new SessionHandshake(version, pkiAlgorithm, keyNumber, username, sessionNumber, ephemeralPublicKey, timestamp);
+			sh.signature = getSignature(pkiAlgorithm, bytes, in.position());
+			return sh;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!(o instanceof SessionHandshake))
+			return false;
+		
+		SessionHandshake sh = (SessionHandshake) o;
+		if (getVersion() != sh.getVersion())
+			return false;
+		if (getPKIAlgorithm().getCode() != sh.getPKIAlgorithm().getCode())
+			return false;
+		if (getKeyNumber() != sh.getKeyNumber())
+			return false;
+		if (!this.username.equals(sh.username))
+			return false;
+		if (this.sessionNumber != sh.sessionNumber)
+			return false;
+		if (!Arrays.equals(this.ephemeralPublicKey, sh.ephemeralPublicKey))
+			return false;
+		if (this.timestamp != sh.timestamp)
+			return false;
+		
+		return true;
+	}
+	
+	@Override
+	public int hashCode() {
+		int result = username.hashCode();
+		result = 31 * result + sessionNumber;
+		result = 31 * result + Arrays.hashCode(ephemeralPublicKey);
+		result = 31 * result + (int) (timestamp ^ (timestamp >>> 32));
+		return result;
+	}
+
+}
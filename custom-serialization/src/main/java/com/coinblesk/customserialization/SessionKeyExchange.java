@@ -0,0 +1,266 @@
+package com.coinblesk.customserialization;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.NamedParameterSpec;
+import java.security.spec.XECPublicKeySpec;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+
+/**
+ * This class establishes the session keys for {@link PKIAlgorithm#HMAC_SHA256}
+ * with a single signed handshake in each direction. Each party creates a new
+ * instance (and thereby a new ephemeral X25519 key pair) for every session,
+ * sends the {@link SessionHandshake} created by
+ * {@link #createHandshake(PKIAlgorithm, int, String, int, long, PrivateKey)}
+ * and derives the {@link SessionKeys} from the handshake of the other party
+ * with {@link #deriveSessionKeys(SessionHandshake, PublicKey)}.
+ * 
+ * The keys are derived with HKDF-SHA256 from the X25519 shared secret, using
+ * both ephemeral public keys as salt. The info of each key binds the session
+ * number and the sender's and the receiver's handshake (username, key pair
+ * and ephemeral key), so that each direction has its own key and a key is
+ * only valid for the two handshakes it has been derived from. Since the
+ * ephemeral keys are signed with the long-term keys, only the two
+ * authenticated parties know the session keys. All subsequent messages of the
+ * session can then be authenticated with
+ * {@link SignedSerializableObject#sign(SecretKey)} and
+ * {@link SignedSerializableObject#verify(SecretKey)}, which is orders of
+ * magnitude faster than ECDSA.
+ */
+public class SessionKeyExchange {
+	private static final byte[] INFO = "custom-serialization session key".getBytes(Charset.forName("UTF-8"));
+	private static final int SESSION_KEY_LENGTH = 32;
+	
+	private final KeyPair ephemeralKeyPair;
+	private final byte[] ephemeralPublicKey;
+	
+	private SessionHandshake handshake;
+	
+	/**
+	 * This constructor instantiates a new object with a new ephemeral X25519
+	 * key pair.
+	 * 
+	 * @param random
+	 *            the source of randomness for the ephemeral key pair
+	 * @throws NoSuchAlgorithmException
+	 *             if X25519 is not supported by any provider
+	 * @throws InvalidAlgorithmParameterException
+	 *             if X25519 is not supported by the provider
+	 */
+	public SessionKeyExchange(SecureRandom random) throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+		this.ephemeralKeyPair = PKIAlgorithm.HMAC_SHA256.generateKeyPair(random);
+		this.ephemeralPublicKey = encode((XECPublicKey) ephemeralKeyPair.getPublic());
+	}
+	
+	/**
+	 * Returns the raw 32 bytes ephemeral X25519 public key of this exchange.
+	 */
+	public byte[] getEphemeralPublicKey() {
+		return ephemeralPublicKey.clone();
+	}
+	
+	/**
+	 * Creates the handshake containing the ephemeral public key of this
+	 * exchange and signs it with the given long-term private key. The
+	 * handshake is kept by this exchange, since the session keys are bound to
+	 * it.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the {@link PKIAlgorithm} of the long-term key
+	 * @param keyNumber
+	 *            the key number of the long-term key
+	 * @param username
+	 *            the username of the sender
+	 * @param sessionNumber
+	 *            the number identifying the session
+	 * @param timestamp
+	 *            the sender's timestamp
+	 * @param privateKey
+	 *            the long-term private key
+	 * @throws IllegalArgumentException
+	 *             if any argument is null or does not fit into the foreseen
+	 *             primitive type
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not known
+	 * @throws InvalidKeyException
+	 *             if the private key does not belong to the given
+	 *             {@link PKIAlgorithm}
+	 * @throws SignatureException
+	 *             if an error occured during the signing phase
+	 */
+	public SessionHandshake createHandshake(PKIAlgorithm pkiAlgorithm, int keyNumber, String username, int sessionNumber, long timestamp, PrivateKey privateKey) throws IllegalArgumentException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		SessionHandshake handshake = new SessionHandshake(pkiAlgorithm, keyNumber, username, sessionNumber, ephemeralPublicKey, timestamp);
+		handshake.sign(privateKey);
+		this.handshake = handshake;
+		return handshake;
+	}
+	
+	/**
+	 * Verifies the handshake of the other party and derives the session keys.
+	 * 
+	 * @param handshake
+	 *            the handshake received from the other party
+	 * @param publicKey
+	 *            the long-term public key of the other party
+	 * @return the session keys to be used with
+	 *         {@link PKIAlgorithm#HMAC_SHA256}
+	 * @throws IllegalArgumentException
+	 *             if any argument is null, if the own handshake has not been
+	 *             created yet, or if the session numbers of the two handshakes
+	 *             are not equal
+	 * @throws NotSignedException
+	 *             if the handshake has not been signed
+	 * @throws NoSuchAlgorithmException
+	 *             if X25519 or HmacSHA256 is not supported
+	 * @throws InvalidKeyException
+	 *             if the public key does not belong to the {@link PKIAlgorithm}
+	 *             of the handshake or if the ephemeral key is invalid
+	 * @throws SignatureException
+	 *             if the signature of the handshake is invalid
+	 */
+	public SessionKeys deriveSessionKeys(SessionHandshake handshake, PublicKey publicKey) throws IllegalArgumentException, NotSignedException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (handshake == null || publicKey == null)
+			throw new IllegalArgumentException("The handshake and the public key cannot be null.");
+		
+		if (this.handshake == null)
+			throw new IllegalArgumentException("The own handshake has to be created first.");
+		
+		if (handshake.getSessionNumber() != this.handshake.getSessionNumber())
+			throw new IllegalArgumentException("The session numbers of the two handshakes must be equal.");
+		
+		if (!handshake.verify(publicKey))
+			throw new SignatureException("The signature of the handshake is invalid.");
+		
+		byte[] peerEphemeralPublicKey = handshake.getEphemeralPublicKey();
+		byte[] sharedSecret;
+		try {
+			KeyAgreement keyAgreement = KeyAgreement.getInstance(PKIAlgorithm.HMAC_SHA256.getKeyPairAlgorithm());
+			keyAgreement.init(ephemeralKeyPair.getPrivate());
+			keyAgreement.doPhase(decode(peerEphemeralPublicKey), true);
+			sharedSecret = keyAgreement.generateSecret();
+		} catch (IllegalStateException e) {
+			throw new InvalidKeyException("The ephemeral public key is invalid.", e);
+		}
+		
+		int bits = 0;
+		for (byte b : sharedSecret) {
+			bits |= b;
+		}
+		if (bits == 0)
+			throw new InvalidKeyException("The ephemeral public key is invalid.");
+		
+		// both parties use the same salt, regardless of who initiated the session
+		byte[] salt = new byte[2 * SessionHandshake.EPHEMERAL_KEY_LENGTH];
+		boolean ownFirst = compare(ephemeralPublicKey, peerEphemeralPublicKey) <= 0;
+		System.arraycopy(ownFirst ? ephemeralPublicKey : peerEphemeralPublicKey, 0, salt, 0, SessionHandshake.EPHEMERAL_KEY_LENGTH);
+		System.arraycopy(ownFirst ? peerEphemeralPublicKey : ephemeralPublicKey, 0, salt, SessionHandshake.EPHEMERAL_KEY_LENGTH, SessionHandshake.EPHEMERAL_KEY_LENGTH);
+		
+		String algorithm = PKIAlgorithm.HMAC_SHA256.getSignatureAlgorithm();
+		Mac mac = Mac.getInstance(algorithm);
+		mac.init(new SecretKeySpec(salt, algorithm));
+		byte[] pseudoRandomKey = mac.doFinal(sharedSecret);
+		
+		SecretKey sendingKey = new SecretKeySpec(hkdfExpand(mac, pseudoRandomKey, getInfo(this.handshake, handshake)), algorithm);
+		SecretKey receivingKey = new SecretKeySpec(hkdfExpand(mac, pseudoRandomKey, getInfo(handshake, this.handshake)), algorithm);
+		return new SessionKeys(sendingKey, receivingKey);
+	}
+	
+	/*
+	 * Returns the info of the key of the given direction:
+	 * 
+	 * INFO
+	 * + sessionNumber
+	 * + sender (pkiAlgorithm.getCode() + keyNumber + username.length + username + ephemeralPublicKey)
+	 * + receiver (pkiAlgorithm.getCode() + keyNumber + username.length + username + ephemeralPublicKey)
+	 */
+	private static byte[] getInfo(SessionHandshake sender, SessionHandshake receiver) {
+		byte[] senderUsername = sender.getUsername().getBytes(Charset.forName("UTF-8"));
+		byte[] receiverUsername = receiver.getUsername().getBytes(Charset.forName("UTF-8"));
+		int length = INFO.length+1+2*(1+1+1+SessionHandshake.EPHEMERAL_KEY_LENGTH)+senderUsername.length+receiverUsername.length;
+		
+		ByteBuffer info = ByteBuffer.allocate(length);
+		info.put(INFO);
+		info.put((byte) sender.getSessionNumber());
+		putHandshake(info, sender, senderUsername);
+		putHandshake(info, receiver, receiverUsername);
+		return info.array();
+	}
+	
+	private static void putHandshake(ByteBuffer info, SessionHandshake handshake, byte[] usernameBytes) {
+		info.put(handshake.getPKIAlgorithm().getCode());
+		info.put((byte) handshake.getKeyNumber());
+		info.put((byte) usernameBytes.length);
+		info.put(usernameBytes);
+		info.put(handshake.getEphemeralPublicKey());
+	}
+	
+	/*
+	 * The expand step of HKDF as specified in RFC 5869 with HmacSHA256,
+	 * producing a single block of output.
+	 */
+	private static byte[] hkdfExpand(Mac mac, byte[] pseudoRandomKey, byte[] info) throws InvalidKeyException {
+		mac.init(new SecretKeySpec(pseudoRandomKey, mac.getAlgorithm()));
+		mac.update(info);
+		mac.update((byte) 0x01);
+		byte[] okm = mac.doFinal();
+		
+		byte[] result = new byte[SESSION_KEY_LENGTH];
+		System.arraycopy(okm, 0, result, 0, SESSION_KEY_LENGTH);
+		return result;
+	}
+	
+	private static int compare(byte[] a, byte[] b) {
+		for (int i=0; i<a.length; i++) {
+			int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (diff != 0)
+				return diff;
+		}
+		return 0;
+	}
+	
+	/*
+	 * Encodes the u coordinate as 32 bytes little-endian as specified in RFC
+	 * 7748.
+	 */
+	private static byte[] encode(XECPublicKey publicKey) {
+		byte[] bigEndian = publicKey.getU().toByteArray();
+		byte[] result = new byte[SessionHandshake.EPHEMERAL_KEY_LENGTH];
+		for (int i=0; i<result.length && i<bigEndian.length; i++) {
+			result[i] = bigEndian[bigEndian.length - 1 - i];
+		}
+		return result;
+	}
+	
+	private static PublicKey decode(byte[] encoded) throws NoSuchAlgorithmException, InvalidKeyException {
+		byte[] bigEndian = new byte[encoded.length];
+		for (int i=0; i<encoded.length; i++) {
+			bigEndian[i] = encoded[encoded.length - 1 - i];
+		}
+		KeyFactory keyFactory = KeyFactory.getInstance(PKIAlgorithm.HMAC_SHA256.getKeyPairAlgorithm());
+		try {
+			return keyFactory.generatePublic(new XECPublicKeySpec(NamedParameterSpec.X25519, new BigInteger(1, bigEndian)));
+		} catch (InvalidKeySpecException e) {
+			throw new InvalidKeyException("The ephemeral public key is invalid.", e);
+		}
+	}
+
+}
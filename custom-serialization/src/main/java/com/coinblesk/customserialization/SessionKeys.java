@@ -0,0 +1,37 @@
+package com.coinblesk.customserialization;
+
+import javax.crypto.SecretKey;
+
+/**
+ * This class contains the two session keys derived by the
+ * {@link SessionKeyExchange}. Each direction of a session uses its own key, so
+ * that a message authenticated by one party cannot be reflected back to it.
+ * The sending key of one party is the receiving key of the other party.
+ */
+public final class SessionKeys {
+	
+	private final SecretKey sendingKey;
+	private final SecretKey receivingKey;
+	
+	SessionKeys(SecretKey sendingKey, SecretKey receivingKey) {
+		this.sendingKey = sendingKey;
+		this.receivingKey = receivingKey;
+	}
+	
+	/**
+	 * Returns the key to sign the messages sent to the other party with (see
+	 * {@link SignedSerializableObject#sign(SecretKey)}).
+	 */
+	public SecretKey getSendingKey() {
+		return sendingKey;
+	}
+	
+	/**
+	 * Returns the key to verify the messages received from the other party
+	 * with (see {@link SignedSerializableObject#verify(SecretKey)}).
+	 */
+	public SecretKey getReceivingKey() {
+		return receivingKey;
+	}
+
+}
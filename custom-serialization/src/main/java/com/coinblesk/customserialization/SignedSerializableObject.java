@@ -1,14 +1,26 @@
 package com.coinblesk.customserialization;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Collections;
 
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+import com.coinblesk.customserialization.crypto.BrainpoolP256r1Verifier;
+import com.coinblesk.customserialization.crypto.NoncePool;
+import com.coinblesk.customserialization.crypto.SignatureEncoding;
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.NotSignedException;
+import com.coinblesk.customserialization.exceptions.UnknownCurrencyException;
+import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException;
 
 /**
  * This is an abstract class for objects which can be serialized into a byte
@@ -21,12 +33,17 @@ import com.coinblesk.customserialization.exceptions.NotSignedException;
  */
 public abstract class SignedSerializableObject extends SerializableObject {
 	
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final String PREHASHED_SIGNATURE_ALGORITHM = "NONEwithECDSA";
+	
 	private PKIAlgorithm pkiAlgorithm;
 	private int keyNumber;
 	
 	protected byte[] payload;
 	protected byte[] signature;
 	
+	private volatile byte[] payloadDigest;
+	
 	//this constructor is needed for the DecoderFactory
 	protected SignedSerializableObject() {
 	}
@@ -61,6 +78,57 @@ public abstract class SignedSerializableObject extends SerializableObject {
 		this.keyNumber = keyNumber;
 	}
 	
+	/*
+	 * The header byte of the compact wire format contains the code of the
+	 * PKIAlgorithm in the 3 most significant bits, 2 bits of flags depending
+	 * on the message type and the code of the Currency in the 3 least
+	 * significant bits.
+	 */
+	static byte getCompactHeader(PKIAlgorithm pkiAlgorithm, int flags, Currency currency) {
+		return (byte) ((pkiAlgorithm.getCode() << 5) | (flags << 3) | currency.getCode());
+	}
+	
+	static PKIAlgorithm getCompactHeaderPKIAlgorithm(byte header) throws UnknownPKIAlgorithmException {
+		return PKIAlgorithm.getPKIAlgorithm((byte) ((header >> 5) & 0x07));
+	}
+	
+	static byte setCompactHeaderPKIAlgorithm(byte header, PKIAlgorithm pkiAlgorithm) {
+		return (byte) ((pkiAlgorithm.getCode() << 5) | (header & 0x1F));
+	}
+	
+	static int getCompactHeaderFlags(byte header) {
+		return (header >> 3) & 0x03;
+	}
+	
+	static Currency getCompactHeaderCurrency(byte header) throws UnknownCurrencyException {
+		return Currency.getCurrency((byte) (header & 0x07));
+	}
+	
+	static void checkCompactHeader(PKIAlgorithm pkiAlgorithm, Currency currency) throws IllegalArgumentException {
+		if (pkiAlgorithm.getCode() > 0x07 || currency.getCode() > 0x07)
+			throw new IllegalArgumentException("The PKI algorithm " + pkiAlgorithm + " or the currency " + currency + " cannot be encoded in the compact format.");
+	}
+	
+	/**
+	 * Returns the signature of an encoded object, which starts at the given
+	 * index and extends to the end of the byte array.
+	 * 
+	 * @throws NotSignedException
+	 *             if the byte array ends at the given index
+	 * @throws IllegalArgumentException
+	 *             if the length of the signature does not match the
+	 *             {@link PKIAlgorithm}
+	 */
+	static byte[] getSignature(PKIAlgorithm pkiAlgorithm, byte[] bytes, int index) throws IllegalArgumentException, NotSignedException {
+		int signatureLength = bytes.length - index;
+		if (signatureLength <= 0)
+			throw new NotSignedException();
+		else if (pkiAlgorithm.getSignatureLength() != 0 && signatureLength != pkiAlgorithm.getSignatureLength())
+			throw new IllegalArgumentException("The given byte array is corrupt (the signature length does not match the signature algorithm).");
+		
+		return Arrays.copyOfRange(bytes, index, bytes.length);
+	}
+	
 	/**
 	 * Returns the {@link PKIAlgorithm} which has been used to sign the payload.
 	 */
@@ -83,6 +151,28 @@ public abstract class SignedSerializableObject extends SerializableObject {
 		return payload;
 	}
 	
+	/**
+	 * Returns the SHA-256 digest of the payload. The digest is computed on the
+	 * first call and cached, so that the same digest can be used for verifying
+	 * the signature, detecting replays and auditing without hashing the
+	 * payload again.
+	 * 
+	 * @throws SignatureException
+	 *             if SHA-256 is not available
+	 */
+	public byte[] getPayloadDigest() throws SignatureException {
+		byte[] digest = payloadDigest;
+		if (digest == null) {
+			try {
+				digest = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(payload);
+			} catch (NoSuchAlgorithmException e) {
+				throw new SignatureException(e);
+			}
+			payloadDigest = digest;
+		}
+		return digest.clone();
+	}
+	
 	/**
 	 * Returns only the signature of this object.
 	 */
@@ -105,14 +195,102 @@ public abstract class SignedSerializableObject extends SerializableObject {
 	 *             if an error occured during the signing phase
 	 */
 	public void sign(PrivateKey privateKey) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (pkiAlgorithm.isMAC())
+			throw new InvalidKeyException("The signature algorithm " + pkiAlgorithm + " requires a secret key.");
+		
+		sign(getSigningEngine(pkiAlgorithm, privateKey));
+	}
+	
+	/**
+	 * Returns a {@link Signature} engine which has been initialized for
+	 * signing with the given private key. The raw ECDSA algorithms (see
+	 * {@link PKIAlgorithm#DEFAULT_RAW}) use the P1363 format of the provider
+	 * if it supports the curve of the key, so that the signatures do not have
+	 * to be converted (see {@link SignatureEncoding}).
+	 * 
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not known
+	 * @throws InvalidKeyException
+	 *             if the private key does not belong to the given
+	 *             {@link PKIAlgorithm}
+	 */
+	static Signature getSigningEngine(PKIAlgorithm pkiAlgorithm, PrivateKey privateKey) throws NoSuchAlgorithmException, InvalidKeyException {
+		if (pkiAlgorithm.getRootAlgorithm() == PKIAlgorithm.DEFAULT_RAW) {
+			Signature sig = SignatureEncoding.getRawInstance(pkiAlgorithm.getSignatureAlgorithm());
+			if (sig != null) {
+				try {
+					sig.initSign(privateKey);
+					return sig;
+				} catch (InvalidKeyException e) {
+					// the provider does not support the curve in the P1363 format
+				}
+			}
+		}
+		
 		Signature sig = Signature.getInstance(pkiAlgorithm.getSignatureAlgorithm());
 		sig.initSign(privateKey);
+		return sig;
+	}
+	
+	/**
+	 * Signs this object with a nonce precomputed by the given
+	 * {@link NoncePool}. Since the expensive part of the signature has been
+	 * computed beforehand, this method returns considerably faster than
+	 * {@link #sign(PrivateKey)}.
+	 * 
+	 * @param noncePool
+	 *            the pool bound to the private key used to sign the object
+	 * @throws InvalidKeyException
+	 *             if the {@link PKIAlgorithm} provided in the constructor is
+	 *             not an ECDSA algorithm (see {@link PKIAlgorithm#isECDSA()})
+	 * @throws SignatureException
+	 *             if an error occured during the signing phase
+	 */
+	public void sign(NoncePool noncePool) throws InvalidKeyException, SignatureException {
+		if (!pkiAlgorithm.isECDSA())
+			throw new InvalidKeyException("A nonce pool can only be used with an ECDSA signature algorithm.");
+		
+		signature = encodeSignature(null, noncePool.signDigest(getPayloadDigest()));
+	}
+	
+	/**
+	 * Signs this object with a {@link Signature} engine which has already been
+	 * initialized for signing. Since the engine is reset after each signature,
+	 * it can be reused to sign further objects with the same private key.
+	 * 
+	 * @param sig
+	 *            the initialized {@link Signature} engine
+	 * @throws SignatureException
+	 *             if an error occured during the signing phase
+	 */
+	void sign(Signature sig) throws SignatureException {
+		if (pkiAlgorithm.isMerkle()) {
+			// a single object is the only leaf of its tree
+			new MerkleTree(Collections.singletonList(this)).sign(sig, pkiAlgorithm);
+			return;
+		}
+		
 		sig.update(payload);
-		signature = sig.sign();
+		signature = encodeSignature(sig, sig.sign());
+	}
+	
+	/*
+	 * Converts the signature created by the given engine (or the DER encoded
+	 * signature if the engine is null) into the encoding of the PKIAlgorithm.
+	 */
+	private byte[] encodeSignature(Signature sig, byte[] signature) throws SignatureException {
+		if (pkiAlgorithm == PKIAlgorithm.DEFAULT_RAW)
+			return SignatureEncoding.toRaw(sig, signature);
+		else
+			return signature;
 	}
 	
 	/**
-	 * Verifies the signature contained in this object.
+	 * Verifies the signature contained in this object. ECDSA signatures (see
+	 * {@link PKIAlgorithm#isECDSA()}) are verified against the cached
+	 * {@link #getPayloadDigest()}. The ones made with brainpoolP256r1 keys are
+	 * verified by the {@link BrainpoolP256r1Verifier}, since most providers do
+	 * not support this curve anymore.
 	 * 
 	 * @param publicKey
 	 *            the public key to be used for the verification
@@ -133,12 +311,224 @@ public abstract class SignedSerializableObject extends SerializableObject {
 		if (signature == null)
 			throw new NotSignedException();
 		
+		if (pkiAlgorithm.isMAC())
+			throw new InvalidKeyException("The signature algorithm " + pkiAlgorithm + " requires a secret key.");
+		
+		if (pkiAlgorithm.isECDSA())
+			return verifyDigest(pkiAlgorithm, publicKey, getPayloadDigest(), signature);
+		
+		if (pkiAlgorithm.isMerkle())
+			return verifyMerkle(pkiAlgorithm, publicKey, ByteBuffer.wrap(payload), signature);
+		
 		Signature sig = Signature.getInstance(pkiAlgorithm.getSignatureAlgorithm());
 		sig.initVerify(publicKey);
 		sig.update(payload);
 		return sig.verify(signature);
 	}
 	
+	/**
+	 * Verifies a signature against the SHA-256 digest of the payload, which
+	 * has been computed beforehand (e.g., by {@link #getPayloadDigest()}). This
+	 * is only possible for the ECDSA algorithms, since EdDSA hashes
+	 * the payload together with the public key and the MAC algorithms need
+	 * the payload itself.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the {@link PKIAlgorithm} of the signature
+	 * @param publicKey
+	 *            the public key to be used for the verification
+	 * @param digest
+	 *            the SHA-256 digest of the payload
+	 * @param signature
+	 *            the signature
+	 * @return true if the signature is valid for the given digest, false
+	 *         otherwise
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} cannot be verified against a
+	 *             digest
+	 * @throws InvalidKeyException
+	 *             if the public key does not belong to the given
+	 *             {@link PKIAlgorithm}
+	 * @throws SignatureException
+	 *             if an error occured during the verification phase
+	 */
+	public static boolean verifyDigest(PKIAlgorithm pkiAlgorithm, PublicKey publicKey, byte[] digest, byte[] signature) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (!pkiAlgorithm.isECDSA())
+			throw new NoSuchAlgorithmException("The signature algorithm " + pkiAlgorithm + " cannot be verified against a digest.");
+		
+		if (pkiAlgorithm == PKIAlgorithm.DEFAULT_RAW)
+			return verifyDigestRaw(publicKey, digest, signature);
+		
+		if (BrainpoolP256r1Verifier.isSupported(publicKey))
+			return BrainpoolP256r1Verifier.verifyDigest(publicKey, digest, signature);
+		
+		Signature sig = Signature.getInstance(PREHASHED_SIGNATURE_ALGORITHM);
+		sig.initVerify(publicKey);
+		sig.update(digest);
+		return sig.verify(signature);
+	}
+	
+	/*
+	 * Verifies a raw encoded signature without converting it into the DER
+	 * encoding if the provider supports the P1363 format for the curve of the
+	 * public key.
+	 */
+	private static boolean verifyDigestRaw(PublicKey publicKey, byte[] digest, byte[] signature) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (signature == null || signature.length != SignatureEncoding.RAW_LENGTH)
+			throw new SignatureException("Invalid encoding for signature.");
+		
+		if (BrainpoolP256r1Verifier.isSupported(publicKey))
+			return BrainpoolP256r1Verifier.verifyDigestRaw(publicKey, digest, signature);
+		
+		Signature sig = SignatureEncoding.getRawInstance(PREHASHED_SIGNATURE_ALGORITHM);
+		if (sig != null) {
+			try {
+				sig.initVerify(publicKey);
+				sig.update(digest);
+				return sig.verify(signature);
+			} catch (InvalidKeyException e) {
+				// the provider does not support the curve in the P1363 format
+			}
+		}
+		
+		sig = Signature.getInstance(PREHASHED_SIGNATURE_ALGORITHM);
+		sig.initVerify(publicKey);
+		sig.update(digest);
+		return sig.verify(SignatureEncoding.toDER(signature));
+	}
+	
+	/**
+	 * Verifies a signature of a payload which is located in a buffer, without
+	 * copying the payload into an array. The position of the payload buffer is
+	 * moved to its limit.
+	 */
+	static boolean verify(PKIAlgorithm pkiAlgorithm, PublicKey publicKey, ByteBuffer payload, byte[] signature) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (pkiAlgorithm.isMAC())
+			throw new InvalidKeyException("The signature algorithm " + pkiAlgorithm + " requires a secret key.");
+		
+		if (pkiAlgorithm.isECDSA()) {
+			MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			md.update(payload);
+			return verifyDigest(pkiAlgorithm, publicKey, md.digest(), signature);
+		}
+		
+		if (pkiAlgorithm.isMerkle())
+			return verifyMerkle(pkiAlgorithm, publicKey, payload, signature);
+		
+		Signature sig = Signature.getInstance(pkiAlgorithm.getSignatureAlgorithm());
+		sig.initVerify(publicKey);
+		sig.update(payload);
+		return sig.verify(signature);
+	}
+	
+	/**
+	 * Verifies a signature of a Merkle algorithm (see
+	 * {@link PKIAlgorithm#isMerkle()}): the root is computed from the payload
+	 * and the inclusion proof and then verified against the root signature
+	 * with the root algorithm. A malformed proof is not valid. The position of
+	 * the payload buffer is moved to its limit.
+	 * 
+	 * @param pkiAlgorithm
+	 *            the Merkle {@link PKIAlgorithm} of the signature
+	 * @param publicKey
+	 *            the public key of the signer of the root
+	 * @param payload
+	 *            the payload
+	 * @param signature
+	 *            the inclusion proof followed by the root signature
+	 * @return true if the payload is contained in a tree whose root has been
+	 *         signed with the private key, false otherwise
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} is not a Merkle algorithm
+	 * @throws InvalidKeyException
+	 *             if the public key does not belong to the root algorithm
+	 * @throws SignatureException
+	 *             if an error occured during the verification phase
+	 */
+	public static boolean verifyMerkle(PKIAlgorithm pkiAlgorithm, PublicKey publicKey, ByteBuffer payload, byte[] signature) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		if (!pkiAlgorithm.isMerkle())
+			throw new NoSuchAlgorithmException("The signature algorithm " + pkiAlgorithm + " does not use Merkle proofs.");
+		
+		PKIAlgorithm rootAlgorithm = pkiAlgorithm.getRootAlgorithm();
+		int rootSignatureLength = rootAlgorithm.getSignatureLength();
+		byte[] message = MerkleTree.getSignedMessage(payload, signature, rootSignatureLength);
+		if (message == null)
+			return false;
+		
+		byte[] rootSignature = Arrays.copyOfRange(signature, signature.length - rootSignatureLength, signature.length);
+		return verify(rootAlgorithm, publicKey, ByteBuffer.wrap(message), rootSignature);
+	}
+	
+	/**
+	 * Authenticates this object with a message authentication code instead of
+	 * a signature. This is only possible if the {@link PKIAlgorithm} is a MAC
+	 * algorithm (see {@link PKIAlgorithm#isMAC()}).
+	 * 
+	 * @param sessionKey
+	 *            the session key agreed on with the {@link SessionKeyExchange}
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} provided in the constructor is
+	 *             not known
+	 * @throws InvalidKeyException
+	 *             if the {@link PKIAlgorithm} is not a MAC algorithm or the
+	 *             key is not suitable for it
+	 */
+	public void sign(SecretKey sessionKey) throws NoSuchAlgorithmException, InvalidKeyException {
+		signature = computeMAC(sessionKey);
+	}
+	
+	/**
+	 * Verifies the message authentication code contained in this object.
+	 * 
+	 * @param sessionKey
+	 *            the session key agreed on with the {@link SessionKeyExchange}
+	 * @return true if the message authentication code is valid for the given
+	 *         payload, false otherwise
+	 * @throws NotSignedException
+	 *             if this object (the payload) has not been signed
+	 * @throws NoSuchAlgorithmException
+	 *             if the {@link PKIAlgorithm} provided in the constructor is
+	 *             not known
+	 * @throws InvalidKeyException
+	 *             if the {@link PKIAlgorithm} is not a MAC algorithm or the
+	 *             key is not suitable for it
+	 */
+	public boolean verify(SecretKey sessionKey) throws NotSignedException, NoSuchAlgorithmException, InvalidKeyException {
+		if (signature == null)
+			throw new NotSignedException();
+		
+		// compare in constant time
+		return MessageDigest.isEqual(computeMAC(sessionKey), signature);
+	}
+	
+	private byte[] computeMAC(SecretKey sessionKey) throws NoSuchAlgorithmException, InvalidKeyException {
+		if (!pkiAlgorithm.isMAC())
+			throw new InvalidKeyException("The signature algorithm " + pkiAlgorithm + " requires a key pair.");
+		
+		Mac mac = Mac.getInstance(pkiAlgorithm.getSignatureAlgorithm());
+		mac.init(sessionKey);
+		return mac.doFinal(payload);
+	}
+	
+	/**
+	 * Returns the length of the byte array returned by {@link #encode()}. If
+	 * this object has not been signed yet, the length can only be determined
+	 * if the {@link PKIAlgorithm} produces signatures of a fixed length.
+	 * 
+	 * @throws NotSignedException
+	 *             if the object was not signed before and the length of the
+	 *             signature varies
+	 */
+	public int encodedLength() throws NotSignedException {
+		if (signature != null)
+			return payload.length + signature.length;
+		
+		if (pkiAlgorithm.getSignatureLength() == 0)
+			throw new NotSignedException();
+		
+		return payload.length + pkiAlgorithm.getSignatureLength();
+	}
+	
 	/**
 	 * Returns the raw payload of this object and attaches the raw
 	 * signature to it.
@@ -151,15 +541,9 @@ public abstract class SignedSerializableObject extends SerializableObject {
 		if (signature == null)
 			throw new NotSignedException();
 		
-		int index = 0;
 		byte[] result = new byte[payload.length+signature.length];
-		for (byte b : payload) {
-			result[index++] = b;
-		}
-		for (byte b : signature) {
-			result[index++] = b;
-		}
-		
+		System.arraycopy(payload, 0, result, 0, payload.length);
+		System.arraycopy(signature, 0, result, payload.length, signature.length);
 		return result;
 	}
 
@@ -0,0 +1,288 @@
+package com.coinblesk.customserialization;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+/**
+ * This class maps usernames to small integer IDs, which are shared between
+ * servers (e.g., a gateway and the settlement nodes). A
+ * {@link ServerPaymentRequest} or {@link ServerPaymentResponse} encoded with
+ * a dictionary (see {@link SerializableObject#DICTIONARY_VERSION}) carries
+ * the IDs as varints instead of repeating both usernames in every nested
+ * message.
+ * 
+ * The dictionary is append-only: an ID, once assigned, never changes. Its
+ * version is the number of entries, so that two peers with the same version
+ * have identical dictionaries. New entries are distributed with a
+ * {@link UsernameDictionaryUpdate}. Usernames which are not (yet) known to
+ * the dictionary are written inline, so that a frame can always be encoded.
+ * 
+ * This class is thread-safe.
+ */
+public class UsernameDictionary {
+	
+	/*
+	 * The varint written instead of an ID if the username follows inline.
+	 */
+	private static final int ESCAPE = 0;
+	
+	private final List<byte[]> usernames = new ArrayList<byte[]>();
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	
+	/**
+	 * Returns the version of this dictionary, i.e., the number of usernames
+	 * it contains.
+	 */
+	public synchronized int getVersion() {
+		return usernames.size();
+	}
+	
+	/**
+	 * Adds the given username to this dictionary, which increases its version
+	 * by one. If the username is already contained, nothing is added.
+	 * 
+	 * @return the ID of the username
+	 * @throws IllegalArgumentException
+	 *             if the username is null, empty or longer than 255 bytes
+	 */
+	public synchronized int add(String username) throws IllegalArgumentException {
+		Integer id = ids.get(username);
+		if (id != null)
+			return id;
+		
+		byte[] usernameBytes = toBytes(username);
+		usernames.add(usernameBytes);
+		ids.put(username, usernames.size() - 1);
+		return usernames.size() - 1;
+	}
+	
+	/**
+	 * Returns the ID of the given username or -1 if it is not contained in
+	 * this dictionary.
+	 */
+	public synchronized int getId(String username) {
+		Integer id = ids.get(username);
+		return id == null ? -1 : id;
+	}
+	
+	/**
+	 * Returns the username with the given ID.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if there is no username with the given ID (i.e., the
+	 *             dictionary has to be synchronized)
+	 */
+	public String getUsername(int id) throws IllegalArgumentException {
+		return new String(getUsernameBytes(id), Charset.forName("UTF-8"));
+	}
+	
+	private synchronized byte[] getUsernameBytes(long id) throws IllegalArgumentException {
+		if (id < 0 || id >= usernames.size())
+			throw new IllegalArgumentException("The username with the ID "+id+" is unknown (dictionary version "+usernames.size()+").");
+		
+		return usernames.get((int) id);
+	}
+	
+	/**
+	 * Returns the message which brings a dictionary of the given version up
+	 * to the version of this dictionary.
+	 * 
+	 * @param fromVersion
+	 *            the version of the peer's dictionary
+	 * @throws IllegalArgumentException
+	 *             if the given version is negative or greater than the version
+	 *             of this dictionary
+	 */
+	public synchronized UsernameDictionaryUpdate getUpdate(int fromVersion) throws IllegalArgumentException {
+		if (fromVersion < 0 || fromVersion > usernames.size())
+			throw new IllegalArgumentException("The version must be between 0 and "+usernames.size()+".");
+		
+		List<String> entries = new ArrayList<String>(usernames.size() - fromVersion);
+		for (int i=fromVersion; i<usernames.size(); i++) {
+			entries.add(new String(usernames.get(i), Charset.forName("UTF-8")));
+		}
+		return new UsernameDictionaryUpdate(fromVersion, entries);
+	}
+	
+	/**
+	 * Appends the entries of the given update which are not yet contained in
+	 * this dictionary. Entries which are already contained must match the
+	 * entries of this dictionary.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the update is null, if it starts after the version of
+	 *             this dictionary (i.e., entries are missing in between), or
+	 *             if it conflicts with this dictionary
+	 */
+	public synchronized void apply(UsernameDictionaryUpdate update) throws IllegalArgumentException {
+		if (update == null)
+			throw new IllegalArgumentException("The update cannot be null.");
+		
+		if (update.getFromVersion() > usernames.size())
+			throw new IllegalArgumentException("The update starts at version "+update.getFromVersion()+", but the dictionary has version "+usernames.size()+".");
+		
+		List<String> entries = update.getUsernames();
+		for (int i=0; i<entries.size(); i++) {
+			int id = update.getFromVersion() + i;
+			byte[] usernameBytes = toBytes(entries.get(i));
+			if (id < usernames.size()) {
+				if (!Arrays.equals(usernames.get(id), usernameBytes))
+					throw new IllegalArgumentException("The update conflicts with the dictionary at ID "+id+".");
+			} else {
+				if (ids.containsKey(entries.get(i)))
+					throw new IllegalArgumentException("The update contains the username with the ID "+ids.get(entries.get(i))+" twice.");
+				
+				usernames.add(usernameBytes);
+				ids.put(entries.get(i), id);
+			}
+		}
+	}
+	
+	static byte[] toBytes(String username) throws IllegalArgumentException {
+		if (username == null || username.length() == 0)
+			throw new IllegalArgumentException("The username cannot be null or empty.");
+		
+		byte[] usernameBytes = username.getBytes(Charset.forName("UTF-8"));
+		if (usernameBytes.length > 255)
+			throw new IllegalArgumentException("The username cannot be longer than 255 bytes.");
+		
+		return usernameBytes;
+	}
+	
+	/**
+	 * Writes the given encoded message (a {@link PaymentRequest} or a
+	 * {@link PaymentResponse}) without its usernames:
+	 * 
+	 * <pre>
+	 * ID of the payer + 1 (varint, 0 if the username follows inline)
+	 * (+ usernamePayer.length
+	 * + usernamePayer)
+	 * + ID of the payee + 1 (varint, 0 if the username follows inline)
+	 * (+ usernamePayee.length
+	 * + usernamePayee)
+	 * + usernamesOffset
+	 * + length of the remaining message (varint)
+	 * + remaining message
+	 * </pre>
+	 * 
+	 * The usernames section starts at usernamesOffset. In the fixed-offset
+	 * layout it contains the concatenated usernames, in all other layouts
+	 * each username is preceded by its length.
+	 */
+	void writeMessage(ByteArrayOutputStream out, byte[] encoded, int usernamesOffset, String usernamePayer, String usernamePayee) throws IllegalArgumentException {
+		byte[] usernamePayerBytes = toBytes(usernamePayer);
+		byte[] usernamePayeeBytes = toBytes(usernamePayee);
+		writeUsername(out, usernamePayer, usernamePayerBytes);
+		writeUsername(out, usernamePayee, usernamePayeeBytes);
+		
+		int usernamesLength = usernamePayerBytes.length + usernamePayeeBytes.length;
+		if ((encoded[0] & 0xFF) != SerializableObject.FIXED_OFFSET_VERSION)
+			usernamesLength += 2;
+		
+		if (usernamesOffset > 255)
+			throw new IllegalArgumentException("The usernames must start within the first 255 bytes.");
+		
+		out.write(usernamesOffset);
+		int remainingLength = encoded.length - usernamesLength;
+		writeVarint(out, remainingLength);
+		out.write(encoded, 0, usernamesOffset);
+		out.write(encoded, usernamesOffset + usernamesLength, encoded.length - usernamesOffset - usernamesLength);
+	}
+	
+	private void writeUsername(ByteArrayOutputStream out, String username, byte[] usernameBytes) {
+		int id = getId(username);
+		if (id == -1) {
+			writeVarint(out, ESCAPE);
+			out.write(usernameBytes.length);
+			out.write(usernameBytes, 0, usernameBytes.length);
+		} else {
+			writeVarint(out, id + 1);
+		}
+	}
+	
+	private static void writeVarint(ByteArrayOutputStream out, long l) {
+		byte[] varint = PrimitiveTypeSerializer.getLongAsVarint(l);
+		out.write(varint, 0, varint.length);
+	}
+	
+	/**
+	 * Reads a message written by
+	 * {@link #writeMessage(ByteArrayOutputStream, byte[], int, String, String)}
+	 * from the given buffer and restores the original encoding. Only bytes are
+	 * copied, the usernames are not decoded.
+	 * 
+	 * @param in
+	 *            the buffer positioned at the message, which is advanced past
+	 *            the message
+	 * @throws IllegalArgumentException
+	 *             if an ID is unknown to this dictionary or if the bytes are
+	 *             corrupt
+	 * @throws BufferUnderflowException
+	 *             if the buffer is not long enough
+	 */
+	byte[] readMessage(ByteBuffer in) throws IllegalArgumentException {
+		byte[] usernamePayerBytes = readUsername(in);
+		byte[] usernamePayeeBytes = readUsername(in);
+		
+		int usernamesOffset = in.get() & 0xFF;
+		long remainingLength = readVarint(in);
+		if (remainingLength < usernamesOffset + 1 || remainingLength > in.remaining())
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		
+		boolean inline = (in.get(in.position()) & 0xFF) != SerializableObject.FIXED_OFFSET_VERSION;
+		int usernamesLength = usernamePayerBytes.length + usernamePayeeBytes.length + (inline ? 2 : 0);
+		ByteBuffer encoded = ByteBuffer.allocate((int) remainingLength + usernamesLength);
+		
+		ByteBuffer beforeUsernames = in.slice();
+		beforeUsernames.limit(usernamesOffset);
+		encoded.put(beforeUsernames);
+		if (inline)
+			encoded.put((byte) usernamePayerBytes.length);
+		encoded.put(usernamePayerBytes);
+		if (inline)
+			encoded.put((byte) usernamePayeeBytes.length);
+		encoded.put(usernamePayeeBytes);
+		
+		in.position(in.position() + usernamesOffset);
+		ByteBuffer afterUsernames = in.slice();
+		afterUsernames.limit((int) remainingLength - usernamesOffset);
+		encoded.put(afterUsernames);
+		
+		in.position(in.position() + afterUsernames.limit());
+		return encoded.array();
+	}
+	
+	private byte[] readUsername(ByteBuffer in) throws IllegalArgumentException {
+		long reference = readVarint(in);
+		if (reference != ESCAPE)
+			return getUsernameBytes(reference - 1);
+		
+		byte[] usernameBytes = new byte[in.get() & 0xFF];
+		in.get(usernameBytes);
+		return usernameBytes;
+	}
+	
+	/**
+	 * Reads a varint from the given heap buffer and advances its position.
+	 */
+	static long readVarint(ByteBuffer in) throws IllegalArgumentException {
+		long l;
+		try {
+			l = PrimitiveTypeSerializer.getVarintAsLong(in.array(), in.arrayOffset() + in.position());
+		} catch (IndexOutOfBoundsException e) {
+			throw new BufferUnderflowException();
+		}
+		in.position(in.position() + PrimitiveTypeSerializer.getVarintLength(l));
+		return l;
+	}
+
+}
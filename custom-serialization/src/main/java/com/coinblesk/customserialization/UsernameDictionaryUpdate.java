@@ -0,0 +1,141 @@
+package com.coinblesk.customserialization;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+/**
+ * This class represents the synchronization message of a
+ * {@link UsernameDictionary}. It contains the usernames which have been added
+ * to the sender's dictionary since the given version, in the order of their
+ * IDs. It is transferred between servers over TCP/IP and applied with
+ * {@link UsernameDictionary#apply(UsernameDictionaryUpdate)}.
+ */
+public class UsernameDictionaryUpdate extends SerializableObject {
+	
+	private int fromVersion;
+	private List<String> usernames;
+	
+	//this constructor is needed for the DecoderFactory
+	protected UsernameDictionaryUpdate() {
+	}
+	
+	/**
+	 * This constructor instantiates a new object.
+	 * 
+	 * @param fromVersion
+	 *            the version of the dictionary the update applies to, i.e.,
+	 *            the ID of the first username
+	 * @param usernames
+	 *            the usernames in the order of their IDs
+	 * @throws IllegalArgumentException
+	 *             if the version is negative, if the list is null or if any
+	 *             username is null, empty or longer than 255 bytes
+	 */
+	public UsernameDictionaryUpdate(int fromVersion, List<String> usernames) throws IllegalArgumentException {
+		super(1);
+		
+		if (fromVersion < 0)
+			throw new IllegalArgumentException("The version cannot be negative.");
+		
+		if (usernames == null)
+			throw new IllegalArgumentException("The usernames cannot be null.");
+		
+		for (String username : usernames) {
+			UsernameDictionary.toBytes(username);
+		}
+		
+		this.fromVersion = fromVersion;
+		this.usernames = Collections.unmodifiableList(new ArrayList<String>(usernames));
+	}
+	
+	/**
+	 * Returns the version of the dictionary this update applies to, i.e., the
+	 * ID of the first contained username.
+	 */
+	public int getFromVersion() {
+		return fromVersion;
+	}
+	
+	/**
+	 * Returns the usernames in the order of their IDs.
+	 */
+	public List<String> getUsernames() {
+		return usernames;
+	}
+	
+	@Override
+	public byte[] encode() {
+		/*
+		 * version
+		 * + fromVersion (varint)
+		 * + nofUsernames (varint)
+		 * + for every username: username.length + username
+		 */
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(getVersion());
+		byte[] fromVersionBytes = PrimitiveTypeSerializer.getLongAsVarint(fromVersion);
+		out.write(fromVersionBytes, 0, fromVersionBytes.length);
+		byte[] nofUsernamesBytes = PrimitiveTypeSerializer.getLongAsVarint(usernames.size());
+		out.write(nofUsernamesBytes, 0, nofUsernamesBytes.length);
+		for (String username : usernames) {
+			byte[] usernameBytes = username.getBytes(Charset.forName("UTF-8"));
+			out.write(usernameBytes.length);
+			out.write(usernameBytes, 0, usernameBytes.length);
+		}
+		return out.toByteArray();
+	}
+	
+	@Override
+	public UsernameDictionaryUpdate decode(byte[] bytes) throws IllegalArgumentException {
+		if (bytes == null)
+			throw new IllegalArgumentException("The argument can't be null.");
+		
+		try {
+			ByteBuffer in = ByteBuffer.wrap(bytes);
+			in.get();
+			long fromVersion = UsernameDictionary.readVarint(in);
+			long nofUsernames = UsernameDictionary.readVarint(in);
+			if (fromVersion < 0 || fromVersion > Integer.MAX_VALUE || nofUsernames < 0 || nofUsernames > in.remaining())
+				throw new IllegalArgumentException("The given byte array is corrupt.");
+			
+			List<String> usernames = new ArrayList<String>((int) nofUsernames);
+			for (int i=0; i<nofUsernames; i++) {
+				byte[] usernameBytes = new byte[in.get() & 0xFF];
+				in.get(usernameBytes);
+				usernames.add(new String(usernameBytes, Charset.forName("UTF-8")));
+			}
+			return new UsernameDictionaryUpdate((int) fromVersion, usernames);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("The given byte array is corrupt (not long enough).");
+		}
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (o == null)
+			return false;
+		if (!(o instanceof UsernameDictionaryUpdate))
+			return false;
+		
+		UsernameDictionaryUpdate other = (UsernameDictionaryUpdate) o;
+		if (getVersion() != other.getVersion())
+			return false;
+		if (fromVersion != other.fromVersion)
+			return false;
+		
+		return usernames.equals(other.usernames);
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * fromVersion + usernames.hashCode();
+	}
+
+}
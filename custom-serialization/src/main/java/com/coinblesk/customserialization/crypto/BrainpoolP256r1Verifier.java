@@ -0,0 +1,188 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECPoint;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.coinblesk.customserialization.crypto.WeierstrassCurve.AffineTable;
+import com.coinblesk.customserialization.crypto.WeierstrassCurve.JacobianPoint;
+
+/**
+ * This class verifies SHA256withECDSA signatures on the curve brainpoolP256r1
+ * without relying on a security provider. Recent JDKs do no longer support
+ * brainpool curves in SunEC, so that the signatures of
+ * {@link com.coinblesk.customserialization.PKIAlgorithm#DEFAULT} could
+ * otherwise not be verified without an additional provider.
+ * 
+ * The verification computes u1*G + u2*Q with interleaved wNAFs in Jacobian
+ * coordinates. The table of the generator G is computed once, the table of a
+ * public key Q is computed on its first use and cached, since the same keys
+ * are used over and over again. Since only public data is involved in the
+ * verification, the computation is not constant-time.
+ */
+public final class BrainpoolP256r1Verifier {
+	private static final int GENERATOR_WINDOW = 8;
+	private static final int PUBLIC_KEY_WINDOW = 6;
+	private static final int MAX_CACHED_PUBLIC_KEYS = 1024;
+	
+	private static final WeierstrassCurve CURVE = WeierstrassCurve.BRAINPOOL_P256R1;
+	
+	private static final Map<ECPoint, AffineTable> publicKeyTables = Collections.synchronizedMap(new LinkedHashMap<ECPoint, AffineTable>(16, 0.75f, true) {
+		private static final long serialVersionUID = 8167262212591848052L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ECPoint, AffineTable> eldest) {
+			return size() > MAX_CACHED_PUBLIC_KEYS;
+		}
+	});
+	
+	private BrainpoolP256r1Verifier() {
+	}
+	
+	private static class GeneratorTableHolder {
+		private static final AffineTable TABLE = CURVE.precompute(CURVE.getGenerator(), GENERATOR_WINDOW);
+	}
+	
+	/**
+	 * Returns true if the given public key is an EC public key on the curve
+	 * brainpoolP256r1 and can therefore be verified by this class.
+	 */
+	public static boolean isSupported(PublicKey publicKey) {
+		if (!(publicKey instanceof ECPublicKey))
+			return false;
+		
+		return CURVE.matches(((ECPublicKey) publicKey).getParams());
+	}
+	
+	/**
+	 * Verifies a SHA256withECDSA signature.
+	 * 
+	 * @param publicKey
+	 *            the public key on the curve brainpoolP256r1
+	 * @param data
+	 *            the signed data
+	 * @param signature
+	 *            the DER encoded signature
+	 * @return true if the signature is valid for the given data, false
+	 *         otherwise
+	 * @throws InvalidKeyException
+	 *             if the public key is not a valid brainpoolP256r1 key
+	 * @throws SignatureException
+	 *             if the signature is not properly encoded
+	 */
+	public static boolean verify(PublicKey publicKey, byte[] data, byte[] signature) throws InvalidKeyException, SignatureException {
+		return verifyDigest(publicKey, sha256(data), signature);
+	}
+	
+	/**
+	 * Verifies an ECDSA signature of a SHA-256 digest which has been computed
+	 * beforehand.
+	 * 
+	 * @param publicKey
+	 *            the public key on the curve brainpoolP256r1
+	 * @param digest
+	 *            the 32 bytes SHA-256 digest of the signed data
+	 * @param signature
+	 *            the DER encoded signature
+	 * @return true if the signature is valid for the given digest, false
+	 *         otherwise
+	 * @throws InvalidKeyException
+	 *             if the public key is not a valid brainpoolP256r1 key
+	 * @throws SignatureException
+	 *             if the signature is not properly encoded
+	 */
+	public static boolean verifyDigest(PublicKey publicKey, byte[] digest, byte[] signature) throws InvalidKeyException, SignatureException {
+		AffineTable publicKeyTable = getPublicKeyTable(publicKey);
+		BigInteger[] rs = SignatureEncoding.decodeDER(signature);
+		return verify(publicKeyTable, new BigInteger(1, digest), rs[0], rs[1]);
+	}
+	
+	/**
+	 * Verifies a raw encoded ECDSA signature (see {@link SignatureEncoding})
+	 * of a SHA-256 digest which has been computed beforehand.
+	 * 
+	 * @param publicKey
+	 *            the public key on the curve brainpoolP256r1
+	 * @param digest
+	 *            the 32 bytes SHA-256 digest of the signed data
+	 * @param signature
+	 *            the 64 bytes r||s
+	 * @return true if the signature is valid for the given digest, false
+	 *         otherwise
+	 * @throws InvalidKeyException
+	 *             if the public key is not a valid brainpoolP256r1 key
+	 * @throws SignatureException
+	 *             if the signature is not 64 bytes long
+	 */
+	public static boolean verifyDigestRaw(PublicKey publicKey, byte[] digest, byte[] signature) throws InvalidKeyException, SignatureException {
+		AffineTable publicKeyTable = getPublicKeyTable(publicKey);
+		BigInteger[] rs = SignatureEncoding.decodeRaw(signature);
+		return verify(publicKeyTable, new BigInteger(1, digest), rs[0], rs[1]);
+	}
+	
+	private static boolean verify(AffineTable publicKeyTable, BigInteger e, BigInteger r, BigInteger s) {
+		BigInteger n = CURVE.getOrder();
+		if (r.signum() <= 0 || r.compareTo(n) >= 0 || s.signum() <= 0 || s.compareTo(n) >= 0)
+			return false;
+		
+		BigInteger w = s.modInverse(n);
+		BigInteger u1 = e.multiply(w).mod(n);
+		BigInteger u2 = r.multiply(w).mod(n);
+		
+		JacobianPoint point = CURVE.multiplyAdd(u1, GeneratorTableHolder.TABLE, u2, publicKeyTable);
+		MontgomeryField field = CURVE.getField();
+		if (field.isZero(point.z))
+			return false;
+		
+		/*
+		 * Instead of inverting Z, check whether X == r * Z^2 (or (r + n) * Z^2,
+		 * since the x coordinate was reduced modulo n and n < p).
+		 */
+		int[] zz = new int[MontgomeryField.LIMBS];
+		int[] candidate = new int[MontgomeryField.LIMBS];
+		field.sqr(point.z, zz);
+		field.mul(field.fromBigInteger(r), zz, candidate);
+		if (field.equal(candidate, point.x))
+			return true;
+		
+		BigInteger rPlusN = r.add(n);
+		if (rPlusN.compareTo(field.getModulus()) >= 0)
+			return false;
+		
+		field.mul(field.fromBigInteger(rPlusN), zz, candidate);
+		return field.equal(candidate, point.x);
+	}
+	
+	private static AffineTable getPublicKeyTable(PublicKey publicKey) throws InvalidKeyException {
+		if (!isSupported(publicKey))
+			throw new InvalidKeyException("The public key is not a brainpoolP256r1 key.");
+		
+		ECPoint w = ((ECPublicKey) publicKey).getW();
+		AffineTable table = publicKeyTables.get(w);
+		if (table == null) {
+			if (!CURVE.isOnCurve(w))
+				throw new InvalidKeyException("The public key is not a point on brainpoolP256r1.");
+			
+			table = CURVE.precompute(w, PUBLIC_KEY_WINDOW);
+			publicKeyTables.put(w, table);
+		}
+		return table;
+	}
+	
+	static byte[] sha256(byte[] data) throws SignatureException {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new SignatureException(e);
+		}
+	}
+
+}
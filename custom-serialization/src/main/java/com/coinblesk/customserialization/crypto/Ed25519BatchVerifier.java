@@ -0,0 +1,269 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.security.interfaces.EdECPublicKey;
+import java.security.spec.EdECPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.coinblesk.customserialization.crypto.Ed25519Curve.CachedPoint;
+import com.coinblesk.customserialization.crypto.Ed25519Curve.ExtendedPoint;
+import com.coinblesk.customserialization.crypto.Ed25519Curve.Scratch;
+
+/**
+ * This class verifies many Ed25519 signatures at once. Instead of checking
+ * sB = R + hA for every signature, a random linear combination of all
+ * equations is checked with a single multi-scalar multiplication:
+ * 
+ * 8 * (-(sum z_i s_i) B + sum z_i R_i + sum (z_i h_i) A_i) = 0
+ * 
+ * where the z_i are random 128 bit values. If all signatures are valid, the
+ * batch is accepted. If at least one signature is invalid, the batch is
+ * rejected with overwhelming probability, but the invalid signatures are not
+ * identified. The caller has to fall back to individual verifications in that
+ * case.
+ * 
+ * The batch equation is cofactored (multiplied by 8), whereas the individual
+ * verification of the JDK is cofactorless. Both agree as long as R and A lie
+ * in the subgroup of prime order L, so a batch containing any R or A with a
+ * small order component (i.e., L * P is not the neutral element) is rejected
+ * and left to the individual verification. Signatures with S >= L and
+ * non-canonical point encodings are always rejected.
+ * 
+ * Since only public data is involved in the verification, the computation is
+ * not constant-time.
+ */
+public final class Ed25519BatchVerifier {
+	private static final int BASE_WINDOW = 8;
+	private static final int POINT_WINDOW = 5;
+	private static final int MAX_CACHED_PUBLIC_KEYS = 1024;
+	private static final int SIGNATURE_LENGTH = 64;
+	
+	private static final BigInteger ORDER = Ed25519Curve.ORDER;
+	
+	private static final Map<ByteBuffer, CachedPoint[]> publicKeyTables = Collections.synchronizedMap(new LinkedHashMap<ByteBuffer, CachedPoint[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = -2291841371766403866L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ByteBuffer, CachedPoint[]> eldest) {
+			return size() > MAX_CACHED_PUBLIC_KEYS;
+		}
+	});
+	
+	private Ed25519BatchVerifier() {
+	}
+	
+	private static class BaseTableHolder {
+		private static final CachedPoint[] TABLE = Ed25519Curve.precompute(Ed25519Curve.base(), BASE_WINDOW, new Scratch());
+	}
+	
+	/**
+	 * Returns true if the given public key is an Ed25519 public key and can
+	 * therefore be verified by this class.
+	 */
+	public static boolean isSupported(PublicKey publicKey) {
+		if (!(publicKey instanceof EdECPublicKey))
+			return false;
+		
+		return "Ed25519".equalsIgnoreCase(((EdECPublicKey) publicKey).getParams().getName());
+	}
+	
+	/**
+	 * Verifies a batch of Ed25519 signatures. The lists must have the same
+	 * size, the i-th signature is verified with the i-th public key and the
+	 * i-th message. The same public key may occur several times within a
+	 * batch, which makes the verification cheaper.
+	 * 
+	 * @param publicKeys
+	 *            the Ed25519 public keys
+	 * @param messages
+	 *            the signed messages
+	 * @param signatures
+	 *            the 64 bytes signatures
+	 * @param random
+	 *            the source of the random coefficients
+	 * @return true if all signatures are valid, false if at least one of them
+	 *         is invalid, not properly encoded, or contains a point with a
+	 *         small order component
+	 * @throws InvalidKeyException
+	 *             if any public key is not a valid Ed25519 key
+	 * @throws SignatureException
+	 *             if SHA-512 is not available
+	 */
+	public static boolean verify(List<? extends PublicKey> publicKeys, List<byte[]> messages, List<byte[]> signatures, SecureRandom random) throws InvalidKeyException, SignatureException {
+		int size = publicKeys.size();
+		if (messages.size() != size || signatures.size() != size)
+			throw new java.lang.IllegalArgumentException("The number of public keys, messages and signatures must be equal.");
+		
+		if (size == 0)
+			return true;
+		
+		MessageDigest sha512 = getSHA512();
+		
+		// the coefficients of the same public key are summed up
+		Map<ByteBuffer, Integer> keyIndexes = new HashMap<ByteBuffer, Integer>();
+		List<CachedPoint[]> keyTables = new ArrayList<CachedPoint[]>();
+		List<BigInteger> keyScalars = new ArrayList<BigInteger>();
+		
+		List<CachedPoint[]> rTables = new ArrayList<CachedPoint[]>(size);
+		List<BigInteger> rScalars = new ArrayList<BigInteger>(size);
+		BigInteger baseScalar = BigInteger.ZERO;
+		Scratch scratch = new Scratch();
+		
+		for (int i=0; i<size; i++) {
+			byte[] encodedKey = encode(publicKeys.get(i));
+			byte[] signature = signatures.get(i);
+			if (signature == null || signature.length != SIGNATURE_LENGTH)
+				return false;
+			
+			BigInteger s = fromLittleEndian(signature, 32, 32);
+			if (s.compareTo(ORDER) >= 0)
+				return false;
+			
+			ExtendedPoint r = Ed25519Curve.decode(signature, 0);
+			if (r == null)
+				return false;
+			
+			CachedPoint[] rTable = Ed25519Curve.precompute(r, POINT_WINDOW, scratch);
+			if (!isTorsionFree(rTable))
+				return false;
+			
+			sha512.update(signature, 0, 32);
+			sha512.update(encodedKey);
+			sha512.update(messages.get(i));
+			byte[] digest = sha512.digest();
+			BigInteger h = fromLittleEndian(digest, 0, digest.length).mod(ORDER);
+			
+			BigInteger z = new BigInteger(128, random);
+			if (z.signum() == 0)
+				z = BigInteger.ONE;
+			
+			baseScalar = baseScalar.add(z.multiply(s));
+			rTables.add(rTable);
+			rScalars.add(z);
+			
+			ByteBuffer key = ByteBuffer.wrap(encodedKey);
+			Integer keyIndex = keyIndexes.get(key);
+			if (keyIndex == null) {
+				CachedPoint[] keyTable = getPublicKeyTable(key);
+				if (keyTable == null)
+					return false;
+				
+				keyIndex = keyTables.size();
+				keyIndexes.put(key, keyIndex);
+				keyTables.add(keyTable);
+				keyScalars.add(BigInteger.ZERO);
+			}
+			keyScalars.set(keyIndex, keyScalars.get(keyIndex).add(z.multiply(h)));
+		}
+		
+		int nofPoints = 1 + rTables.size() + keyTables.size();
+		BigInteger[] scalars = new BigInteger[nofPoints];
+		CachedPoint[][] tables = new CachedPoint[nofPoints][];
+		int[] widths = new int[nofPoints];
+		
+		scalars[0] = ORDER.subtract(baseScalar.mod(ORDER)).mod(ORDER);
+		tables[0] = BaseTableHolder.TABLE;
+		widths[0] = BASE_WINDOW;
+		int index = 1;
+		for (int i=0; i<rTables.size(); i++, index++) {
+			scalars[index] = rScalars.get(i);
+			tables[index] = rTables.get(i);
+			widths[index] = POINT_WINDOW;
+		}
+		for (int i=0; i<keyTables.size(); i++, index++) {
+			scalars[index] = keyScalars.get(i).mod(ORDER);
+			tables[index] = keyTables.get(i);
+			widths[index] = POINT_WINDOW;
+		}
+		
+		ExtendedPoint result = Ed25519Curve.multiScalarMultiply(scalars, tables, widths);
+		for (int i=0; i<3; i++) {
+			Ed25519Curve.doublePoint(result, scratch);
+		}
+		return Ed25519Curve.isIdentity(result);
+	}
+	
+	/*
+	 * Returns the table of the given public key, or null if the public key has
+	 * a small order component.
+	 */
+	private static CachedPoint[] getPublicKeyTable(ByteBuffer encodedKey) throws InvalidKeyException {
+		CachedPoint[] table = publicKeyTables.get(encodedKey);
+		if (table == null) {
+			ExtendedPoint a = Ed25519Curve.decode(encodedKey.array(), 0);
+			if (a == null)
+				throw new InvalidKeyException("The public key is not a point on edwards25519.");
+			
+			table = Ed25519Curve.precompute(a, POINT_WINDOW, new Scratch());
+			if (!isTorsionFree(table))
+				return null;
+			
+			publicKeyTables.put(encodedKey, table);
+		}
+		return table;
+	}
+	
+	/*
+	 * Returns true if the point of the given table lies in the subgroup of
+	 * prime order, i.e., L * P is the neutral element.
+	 */
+	private static boolean isTorsionFree(CachedPoint[] table) {
+		ExtendedPoint p = Ed25519Curve.multiScalarMultiply(new BigInteger[] { ORDER }, new CachedPoint[][] { table }, new int[] { POINT_WINDOW });
+		return Ed25519Curve.isIdentity(p);
+	}
+	
+	/*
+	 * Returns the 32 bytes encoding of the public key as specified in RFC 8032
+	 * (little-endian y, the most significant bit is the parity of x).
+	 */
+	private static byte[] encode(PublicKey publicKey) throws InvalidKeyException {
+		if (!isSupported(publicKey))
+			throw new InvalidKeyException("The public key is not an Ed25519 key.");
+		
+		EdECPoint point = ((EdECPublicKey) publicKey).getPoint();
+		byte[] bigEndian = point.getY().toByteArray();
+		if (bigEndian.length > 33 || (bigEndian.length == 33 && bigEndian[0] != 0))
+			throw new InvalidKeyException("The public key is not a point on edwards25519.");
+		
+		byte[] encoded = new byte[32];
+		for (int i=0; i<32 && i<bigEndian.length; i++) {
+			encoded[i] = bigEndian[bigEndian.length - 1 - i];
+		}
+		if ((encoded[31] & 0x80) != 0)
+			throw new InvalidKeyException("The public key is not a point on edwards25519.");
+		
+		if (point.isXOdd())
+			encoded[31] |= (byte) 0x80;
+		
+		return encoded;
+	}
+	
+	private static BigInteger fromLittleEndian(byte[] bytes, int offset, int length) {
+		byte[] bigEndian = new byte[length];
+		for (int i=0; i<length; i++) {
+			bigEndian[i] = bytes[offset + length - 1 - i];
+		}
+		return new BigInteger(1, bigEndian);
+	}
+	
+	private static MessageDigest getSHA512() throws SignatureException {
+		try {
+			return MessageDigest.getInstance("SHA-512");
+		} catch (NoSuchAlgorithmException e) {
+			throw new SignatureException(e);
+		}
+	}
+
+}
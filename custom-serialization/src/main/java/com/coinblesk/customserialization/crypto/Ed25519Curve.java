@@ -0,0 +1,317 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * This class implements the group operations of the twisted Edwards curve
+ * edwards25519 (-x^2 + y^2 = 1 + dx^2y^2) used by Ed25519 as specified in
+ * RFC 8032. Points are kept in extended coordinates (X:Y:Z:T) with x = X/Z,
+ * y = Y/Z and xy = T/Z. Table entries are kept in the cached form (Y+X, Y-X,
+ * 2Z, 2dT), which saves some field operations when they are added.
+ * 
+ * The multi-scalar multiplication is variable-time and must only be used with
+ * public data, e.g., when verifying signatures.
+ */
+final class Ed25519Curve {
+	private static final int L = MontgomeryField.LIMBS;
+	
+	static final BigInteger P = BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
+	static final BigInteger ORDER = BigInteger.ONE.shiftLeft(252).add(new BigInteger("27742317777372353535851937790883648493"));
+	
+	static final MontgomeryField FIELD = new MontgomeryField(P);
+	
+	private static final BigInteger D = BigInteger.valueOf(-121665).multiply(BigInteger.valueOf(121666).modInverse(P)).mod(P);
+	private static final int[] D_MONT = FIELD.fromBigInteger(D);
+	private static final int[] D2_MONT = FIELD.fromBigInteger(D.shiftLeft(1));
+	private static final int[] SQRT_M1 = FIELD.fromBigInteger(BigInteger.valueOf(2).modPow(P.subtract(BigInteger.ONE).shiftRight(2), P));
+	
+	private static final BigInteger BASE_Y = BigInteger.valueOf(4).multiply(BigInteger.valueOf(5).modInverse(P)).mod(P);
+	
+	private Ed25519Curve() {
+	}
+	
+	/**
+	 * A point in extended coordinates.
+	 */
+	static final class ExtendedPoint {
+		final int[] x = new int[L];
+		final int[] y = new int[L];
+		final int[] z = new int[L];
+		final int[] t = new int[L];
+		
+		static ExtendedPoint identity() {
+			ExtendedPoint p = new ExtendedPoint();
+			System.arraycopy(FIELD.one(), 0, p.y, 0, L);
+			System.arraycopy(FIELD.one(), 0, p.z, 0, L);
+			return p;
+		}
+	}
+	
+	/**
+	 * A point in the cached form (Y+X, Y-X, 2Z, 2dT).
+	 */
+	static final class CachedPoint {
+		final int[] yPlusX = new int[L];
+		final int[] yMinusX = new int[L];
+		final int[] z2 = new int[L];
+		final int[] t2d = new int[L];
+	}
+	
+	/**
+	 * Temporary field elements, so that the group operations do not allocate
+	 * memory. An instance must not be shared between threads.
+	 */
+	static final class Scratch {
+		final int[] a = new int[L], b = new int[L], c = new int[L], d = new int[L];
+		final int[] e = new int[L], f = new int[L], g = new int[L], h = new int[L];
+	}
+	
+	private static class BaseHolder {
+		private static final ExtendedPoint BASE = decompress(BASE_Y, false);
+	}
+	
+	/**
+	 * Returns the base point B.
+	 */
+	static ExtendedPoint base() {
+		return BaseHolder.BASE;
+	}
+	
+	/**
+	 * Decodes a point from its 32 bytes encoding as specified in RFC 8032,
+	 * section 5.1.3. Returns null if the encoding is not valid. Non-canonical
+	 * encodings (y >= p) are rejected.
+	 */
+	static ExtendedPoint decode(byte[] encoded, int offset) {
+		byte[] bigEndian = new byte[32];
+		for (int i=0; i<32; i++) {
+			bigEndian[i] = encoded[offset + 31 - i];
+		}
+		boolean xOdd = (bigEndian[0] & 0x80) != 0;
+		bigEndian[0] &= 0x7F;
+		BigInteger y = new BigInteger(1, bigEndian);
+		if (y.compareTo(P) >= 0)
+			return null;
+		
+		return decompress(y, xOdd);
+	}
+	
+	/**
+	 * Recovers the x coordinate of a point from y and the parity of x. Returns
+	 * null if there is no such point.
+	 */
+	static ExtendedPoint decompress(BigInteger yValue, boolean xOdd) {
+		int[] y = FIELD.fromBigInteger(yValue);
+		int[] yy = new int[L];
+		int[] u = new int[L];
+		int[] v = new int[L];
+		FIELD.sqr(y, yy);
+		FIELD.sub(yy, FIELD.one(), u);
+		FIELD.mul(yy, D_MONT, v);
+		FIELD.add(v, FIELD.one(), v);
+		
+		// x = u * v^3 * (u * v^7)^((p-5)/8)
+		int[] v3 = new int[L];
+		int[] x = new int[L];
+		FIELD.sqr(v, v3);
+		FIELD.mul(v3, v, v3);
+		FIELD.sqr(v3, x);
+		FIELD.mul(x, v, x);
+		FIELD.mul(x, u, x);
+		pow22523(x, x);
+		FIELD.mul(x, v3, x);
+		FIELD.mul(x, u, x);
+		
+		int[] check = new int[L];
+		FIELD.sqr(x, check);
+		FIELD.mul(check, v, check);
+		if (!FIELD.equal(check, u)) {
+			FIELD.neg(u, u);
+			if (!FIELD.equal(check, u))
+				return null;
+			FIELD.mul(x, SQRT_M1, x);
+		}
+		
+		BigInteger xValue = FIELD.toBigInteger(x);
+		if (xValue.signum() == 0 && xOdd)
+			return null;
+		if (xValue.testBit(0) != xOdd)
+			FIELD.neg(x, x);
+		
+		ExtendedPoint p = new ExtendedPoint();
+		System.arraycopy(x, 0, p.x, 0, L);
+		System.arraycopy(y, 0, p.y, 0, L);
+		System.arraycopy(FIELD.one(), 0, p.z, 0, L);
+		FIELD.mul(x, y, p.t);
+		return p;
+	}
+	
+	/*
+	 * Computes r = a^((p-5)/8) = a^(2^252-3) with the addition chain of the
+	 * reference implementation.
+	 */
+	private static void pow22523(int[] a, int[] r) {
+		int[] t0 = new int[L];
+		int[] t1 = new int[L];
+		int[] t2 = new int[L];
+		
+		FIELD.sqr(a, t0);
+		FIELD.sqr(t0, t1);
+		FIELD.sqr(t1, t1);
+		FIELD.mul(a, t1, t1);
+		FIELD.mul(t0, t1, t0);
+		FIELD.sqr(t0, t0);
+		FIELD.mul(t1, t0, t0);		// a^31 = a^(2^5-1)
+		sqrN(t0, 5, t1);
+		FIELD.mul(t1, t0, t0);		// a^(2^10-1)
+		sqrN(t0, 10, t1);
+		FIELD.mul(t1, t0, t1);		// a^(2^20-1)
+		sqrN(t1, 20, t2);
+		FIELD.mul(t2, t1, t1);		// a^(2^40-1)
+		sqrN(t1, 10, t1);
+		FIELD.mul(t1, t0, t0);		// a^(2^50-1)
+		sqrN(t0, 50, t1);
+		FIELD.mul(t1, t0, t1);		// a^(2^100-1)
+		sqrN(t1, 100, t2);
+		FIELD.mul(t2, t1, t1);		// a^(2^200-1)
+		sqrN(t1, 50, t1);
+		FIELD.mul(t1, t0, t0);		// a^(2^250-1)
+		sqrN(t0, 2, t0);
+		FIELD.mul(t0, a, r);		// a^(2^252-3)
+	}
+	
+	private static void sqrN(int[] a, int n, int[] r) {
+		FIELD.sqr(a, r);
+		for (int i=1; i<n; i++) {
+			FIELD.sqr(r, r);
+		}
+	}
+	
+	/**
+	 * Converts the given point into the cached form.
+	 */
+	static CachedPoint toCached(ExtendedPoint p) {
+		CachedPoint c = new CachedPoint();
+		FIELD.add(p.y, p.x, c.yPlusX);
+		FIELD.sub(p.y, p.x, c.yMinusX);
+		FIELD.add(p.z, p.z, c.z2);
+		FIELD.mul(p.t, D2_MONT, c.t2d);
+		return c;
+	}
+	
+	/**
+	 * Doubles the given point in place (dbl-2008-hwcd with a = -1).
+	 */
+	static void doublePoint(ExtendedPoint p, Scratch s) {
+		FIELD.sqr(p.x, s.a);
+		FIELD.sqr(p.y, s.b);
+		FIELD.sqr(p.z, s.c);
+		FIELD.add(s.c, s.c, s.c);
+		// E = (X1+Y1)^2-A-B
+		FIELD.add(p.x, p.y, s.e);
+		FIELD.sqr(s.e, s.e);
+		FIELD.sub(s.e, s.a, s.e);
+		FIELD.sub(s.e, s.b, s.e);
+		// G = -A+B, F = G-C, H = -A-B
+		FIELD.sub(s.b, s.a, s.g);
+		FIELD.sub(s.g, s.c, s.f);
+		FIELD.neg(s.a, s.h);
+		FIELD.sub(s.h, s.b, s.h);
+		FIELD.mul(s.e, s.f, p.x);
+		FIELD.mul(s.g, s.h, p.y);
+		FIELD.mul(s.e, s.h, p.t);
+		FIELD.mul(s.f, s.g, p.z);
+	}
+	
+	/**
+	 * Adds (or subtracts if negate is true) the cached point q to p in place
+	 * (add-2008-hwcd-3).
+	 */
+	static void add(ExtendedPoint p, CachedPoint q, boolean negate, Scratch s) {
+		FIELD.sub(p.y, p.x, s.a);
+		FIELD.add(p.y, p.x, s.b);
+		// -(x, y) = (-x, y) swaps Y+X and Y-X and negates T
+		FIELD.mul(s.a, negate ? q.yPlusX : q.yMinusX, s.a);
+		FIELD.mul(s.b, negate ? q.yMinusX : q.yPlusX, s.b);
+		FIELD.mul(p.t, q.t2d, s.c);
+		if (negate)
+			FIELD.neg(s.c, s.c);
+		FIELD.mul(p.z, q.z2, s.d);
+		FIELD.sub(s.b, s.a, s.e);
+		FIELD.sub(s.d, s.c, s.f);
+		FIELD.add(s.d, s.c, s.g);
+		FIELD.add(s.b, s.a, s.h);
+		FIELD.mul(s.e, s.f, p.x);
+		FIELD.mul(s.g, s.h, p.y);
+		FIELD.mul(s.e, s.h, p.t);
+		FIELD.mul(s.f, s.g, p.z);
+	}
+	
+	/**
+	 * Returns true if the given point is the neutral element.
+	 */
+	static boolean isIdentity(ExtendedPoint p) {
+		return FIELD.isZero(p.x) && FIELD.equal(p.y, p.z);
+	}
+	
+	/**
+	 * Computes the odd multiples P, 3P, ..., (2^(width-1)-1)P of the given
+	 * point in the cached form.
+	 */
+	static CachedPoint[] precompute(ExtendedPoint point, int width, Scratch s) {
+		CachedPoint[] table = new CachedPoint[1 << (width - 2)];
+		table[0] = toCached(point);
+		if (table.length > 1) {
+			ExtendedPoint twice = copy(point);
+			doublePoint(twice, s);
+			CachedPoint twiceCached = toCached(twice);
+			ExtendedPoint current = copy(point);
+			for (int i=1; i<table.length; i++) {
+				add(current, twiceCached, false, s);
+				table[i] = toCached(current);
+			}
+		}
+		return table;
+	}
+	
+	private static ExtendedPoint copy(ExtendedPoint p) {
+		ExtendedPoint c = new ExtendedPoint();
+		System.arraycopy(p.x, 0, c.x, 0, L);
+		System.arraycopy(p.y, 0, c.y, 0, L);
+		System.arraycopy(p.z, 0, c.z, 0, L);
+		System.arraycopy(p.t, 0, c.t, 0, L);
+		return c;
+	}
+	
+	/**
+	 * Computes the sum of scalars[i] * tables[i] with interleaved wNAFs
+	 * (Straus' algorithm), sharing the doublings among all points. Each table
+	 * must have been created by {@link #precompute} with the given width.
+	 */
+	static ExtendedPoint multiScalarMultiply(BigInteger[] scalars, CachedPoint[][] tables, int[] widths) {
+		int[][] nafs = new int[scalars.length][];
+		int maxLength = 0;
+		for (int i=0; i<scalars.length; i++) {
+			nafs[i] = Wnaf.compute(scalars[i], widths[i]);
+			maxLength = Math.max(maxLength, nafs[i].length);
+		}
+		
+		Scratch s = new Scratch();
+		ExtendedPoint result = ExtendedPoint.identity();
+		for (int bit=maxLength-1; bit>=0; bit--) {
+			doublePoint(result, s);
+			for (int i=0; i<nafs.length; i++) {
+				if (bit >= nafs[i].length)
+					continue;
+				
+				int digit = nafs[i][bit];
+				if (digit > 0)
+					add(result, tables[i][digit >> 1], false, s);
+				else if (digit < 0)
+					add(result, tables[i][(-digit) >> 1], true, s);
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,296 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * This class implements the arithmetic of a prime field with a modulus of up
+ * to 256 bits. Elements are stored in Montgomery form as eight 32 bit limbs
+ * (least significant limb first), which allows multiplying them without
+ * divisions and without allocating {@link BigInteger}s.
+ * 
+ * Addition, subtraction, multiplication and {@link #invConstantTime} do not
+ * branch on the values of their operands, so they can also be used for secret
+ * values. Only {@link #inv} and the conversions from and to
+ * {@link BigInteger} are not constant-time.
+ */
+final class MontgomeryField {
+	static final int LIMBS = 8;
+	
+	private static final long MASK = 0xFFFFFFFFL;
+	
+	private final BigInteger p;
+	private final int[] modulus;
+	private final long n0;
+	private final int[] rSquared;
+	private final int[] one;
+	
+	MontgomeryField(BigInteger p) {
+		if (p.bitLength() > LIMBS * 32 || !p.testBit(0))
+			throw new java.lang.IllegalArgumentException("The modulus must be odd and not longer than 256 bits.");
+		
+		this.p = p;
+		this.modulus = toLimbs(p);
+		
+		BigInteger twoTo32 = BigInteger.ONE.shiftLeft(32);
+		this.n0 = p.modInverse(twoTo32).negate().mod(twoTo32).longValue();
+		
+		BigInteger r = BigInteger.ONE.shiftLeft(LIMBS * 32);
+		this.rSquared = toLimbs(r.multiply(r).mod(p));
+		this.one = toLimbs(r.mod(p));
+	}
+	
+	/**
+	 * Returns the modulus of this field.
+	 */
+	BigInteger getModulus() {
+		return p;
+	}
+	
+	/**
+	 * Returns a new element which is 1 in Montgomery form.
+	 */
+	int[] one() {
+		return one.clone();
+	}
+	
+	/**
+	 * Converts the given value into a new element in Montgomery form.
+	 */
+	int[] fromBigInteger(BigInteger x) {
+		int[] result = toLimbs(x.mod(p));
+		mul(result, rSquared, result);
+		return result;
+	}
+	
+	/**
+	 * Converts the given integer, which is stored in limbs and smaller than
+	 * the modulus, into Montgomery form without using {@link BigInteger}.
+	 * The arrays may overlap.
+	 */
+	void toMontgomery(int[] a, int[] r) {
+		mul(a, rSquared, r);
+	}
+	
+	/**
+	 * Converts the given element from Montgomery form into a
+	 * {@link BigInteger}.
+	 */
+	BigInteger toBigInteger(int[] a) {
+		int[] unit = new int[LIMBS];
+		unit[0] = 1;
+		int[] result = new int[LIMBS];
+		mul(a, unit, result);
+		return fromLimbs(result);
+	}
+	
+	/**
+	 * Computes r = a * b. The arrays may overlap.
+	 */
+	void mul(int[] a, int[] b, int[] r) {
+		long t0 = 0, t1 = 0, t2 = 0, t3 = 0, t4 = 0, t5 = 0, t6 = 0, t7 = 0, t8 = 0;
+		long a0 = a[0] & MASK, a1 = a[1] & MASK, a2 = a[2] & MASK, a3 = a[3] & MASK;
+		long a4 = a[4] & MASK, a5 = a[5] & MASK, a6 = a[6] & MASK, a7 = a[7] & MASK;
+		long p0 = modulus[0] & MASK, p1 = modulus[1] & MASK, p2 = modulus[2] & MASK, p3 = modulus[3] & MASK;
+		long p4 = modulus[4] & MASK, p5 = modulus[5] & MASK, p6 = modulus[6] & MASK, p7 = modulus[7] & MASK;
+		
+		for (int i=0; i<LIMBS; i++) {
+			long bi = b[i] & MASK;
+			long v;
+			
+			// t += a * b[i]
+			v = t0 + a0 * bi; t0 = v & MASK;
+			v = t1 + a1 * bi + (v >>> 32); t1 = v & MASK;
+			v = t2 + a2 * bi + (v >>> 32); t2 = v & MASK;
+			v = t3 + a3 * bi + (v >>> 32); t3 = v & MASK;
+			v = t4 + a4 * bi + (v >>> 32); t4 = v & MASK;
+			v = t5 + a5 * bi + (v >>> 32); t5 = v & MASK;
+			v = t6 + a6 * bi + (v >>> 32); t6 = v & MASK;
+			v = t7 + a7 * bi + (v >>> 32); t7 = v & MASK;
+			v = t8 + (v >>> 32);
+			long t9 = v >>> 32;
+			t8 = v & MASK;
+			
+			// t = (t + m * p) / 2^32
+			long m = (t0 * n0) & MASK;
+			v = t0 + m * p0;
+			v = t1 + m * p1 + (v >>> 32); t0 = v & MASK;
+			v = t2 + m * p2 + (v >>> 32); t1 = v & MASK;
+			v = t3 + m * p3 + (v >>> 32); t2 = v & MASK;
+			v = t4 + m * p4 + (v >>> 32); t3 = v & MASK;
+			v = t5 + m * p5 + (v >>> 32); t4 = v & MASK;
+			v = t6 + m * p6 + (v >>> 32); t5 = v & MASK;
+			v = t7 + m * p7 + (v >>> 32); t6 = v & MASK;
+			v = t8 + (v >>> 32); t7 = v & MASK;
+			t8 = t9 + (v >>> 32);
+		}
+		
+		// subtract the modulus once if t >= p, without branching
+		long d, borrow;
+		d = t0 - p0; long d0 = d & MASK; borrow = d >> 32;
+		d = t1 - p1 + borrow; long d1 = d & MASK; borrow = d >> 32;
+		d = t2 - p2 + borrow; long d2 = d & MASK; borrow = d >> 32;
+		d = t3 - p3 + borrow; long d3 = d & MASK; borrow = d >> 32;
+		d = t4 - p4 + borrow; long d4 = d & MASK; borrow = d >> 32;
+		d = t5 - p5 + borrow; long d5 = d & MASK; borrow = d >> 32;
+		d = t6 - p6 + borrow; long d6 = d & MASK; borrow = d >> 32;
+		d = t7 - p7 + borrow; long d7 = d & MASK; borrow = d >> 32;
+		long keep = ~((t8 + borrow) >> 63);
+		r[0] = (int) ((d0 & keep) | (t0 & ~keep));
+		r[1] = (int) ((d1 & keep) | (t1 & ~keep));
+		r[2] = (int) ((d2 & keep) | (t2 & ~keep));
+		r[3] = (int) ((d3 & keep) | (t3 & ~keep));
+		r[4] = (int) ((d4 & keep) | (t4 & ~keep));
+		r[5] = (int) ((d5 & keep) | (t5 & ~keep));
+		r[6] = (int) ((d6 & keep) | (t6 & ~keep));
+		r[7] = (int) ((d7 & keep) | (t7 & ~keep));
+	}
+	
+	/**
+	 * Computes r = a * a. The arrays may overlap.
+	 */
+	void sqr(int[] a, int[] r) {
+		mul(a, a, r);
+	}
+	
+	/**
+	 * Computes r = a + b. The arrays may overlap.
+	 */
+	void add(int[] a, int[] b, int[] r) {
+		long carry = 0;
+		for (int i=0; i<LIMBS; i++) {
+			carry += (a[i] & MASK) + (b[i] & MASK);
+			r[i] = (int) carry;
+			carry >>>= 32;
+		}
+		reduceOnce(r, (int) carry);
+	}
+	
+	/**
+	 * Computes r = a - b. The arrays may overlap.
+	 */
+	void sub(int[] a, int[] b, int[] r) {
+		long borrow = 0;
+		for (int i=0; i<LIMBS; i++) {
+			borrow = (a[i] & MASK) - (b[i] & MASK) + borrow;
+			r[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		// add the modulus back if the result is negative
+		long mask = borrow & MASK;
+		long carry = 0;
+		for (int i=0; i<LIMBS; i++) {
+			carry += (r[i] & MASK) + (modulus[i] & mask);
+			r[i] = (int) carry;
+			carry >>>= 32;
+		}
+	}
+	
+	/**
+	 * Computes r = -a. The arrays may overlap.
+	 */
+	void neg(int[] a, int[] r) {
+		sub(new int[LIMBS], a, r);
+	}
+	
+	/**
+	 * Computes r = 1 / a. This operation is not constant-time.
+	 */
+	void inv(int[] a, int[] r) {
+		BigInteger x = toBigInteger(a);
+		int[] result = fromBigInteger(x.modInverse(p));
+		System.arraycopy(result, 0, r, 0, LIMBS);
+	}
+	
+	/**
+	 * Computes r = 1 / a as a ^ (p-2), which does not branch on a. The modulus
+	 * must be prime.
+	 */
+	void invConstantTime(int[] a, int[] r) {
+		pow(a, p.subtract(BigInteger.valueOf(2)), r);
+	}
+	
+	/**
+	 * Computes r = a ^ e. The exponent is not secret, the base may be.
+	 */
+	void pow(int[] a, BigInteger e, int[] r) {
+		int[] base = a.clone();
+		int[] result = one();
+		for (int i=e.bitLength()-1; i>=0; i--) {
+			sqr(result, result);
+			if (e.testBit(i))
+				mul(result, base, result);
+		}
+		System.arraycopy(result, 0, r, 0, LIMBS);
+	}
+	
+	/**
+	 * Returns true if the given element is zero.
+	 */
+	boolean isZero(int[] a) {
+		int bits = 0;
+		for (int i=0; i<LIMBS; i++) {
+			bits |= a[i];
+		}
+		return bits == 0;
+	}
+	
+	/**
+	 * Returns true if the given elements are equal.
+	 */
+	boolean equal(int[] a, int[] b) {
+		int bits = 0;
+		for (int i=0; i<LIMBS; i++) {
+			bits |= a[i] ^ b[i];
+		}
+		return bits == 0;
+	}
+	
+	/**
+	 * Copies b into a if flag is 1 and leaves a untouched if flag is 0, without
+	 * branching on the flag.
+	 */
+	static void conditionalCopy(int[] a, int[] b, int flag) {
+		int mask = -flag;
+		for (int i=0; i<LIMBS; i++) {
+			a[i] ^= (a[i] ^ b[i]) & mask;
+		}
+	}
+	
+	/*
+	 * Subtracts the modulus from (high, r) if the value is not smaller than
+	 * the modulus. The value must be smaller than twice the modulus.
+	 */
+	private void reduceOnce(int[] r, int high) {
+		int[] d = new int[LIMBS];
+		long borrow = 0;
+		for (int i=0; i<LIMBS; i++) {
+			borrow = (r[i] & MASK) - (modulus[i] & MASK) + borrow;
+			d[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		// the subtraction is kept if it did not underflow or if the high limb absorbs the borrow
+		long keep = ((high & MASK) + borrow) >>> 63 ^ 1;
+		conditionalCopy(r, d, (int) keep);
+	}
+	
+	static int[] toLimbs(BigInteger x) {
+		int[] limbs = new int[LIMBS];
+		for (int i=0; i<LIMBS; i++) {
+			limbs[i] = x.shiftRight(32 * i).intValue();
+		}
+		return limbs;
+	}
+	
+	static BigInteger fromLimbs(int[] limbs) {
+		byte[] bytes = new byte[LIMBS * 4 + 1];
+		for (int i=0; i<LIMBS; i++) {
+			int limb = limbs[LIMBS - 1 - i];
+			bytes[1 + 4*i] = (byte) (limb >>> 24);
+			bytes[2 + 4*i] = (byte) (limb >>> 16);
+			bytes[3 + 4*i] = (byte) (limb >>> 8);
+			bytes[4 + 4*i] = (byte) limb;
+		}
+		return new BigInteger(bytes);
+	}
+
+}
@@ -0,0 +1,323 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class creates SHA256withECDSA signatures in two phases. The expensive
+ * part of an ECDSA signature, i.e., the point multiplication k * G of the
+ * random nonce k and the inversion of k, does not depend on the signed data.
+ * It is therefore computed ahead of time (offline) and stored in a pool. When
+ * a message is signed (online), a precomputed entry is removed from the pool
+ * and the signature is finished with one modular multiplication and one
+ * addition.
+ * 
+ * Every pool is bound to one private key on the curve brainpoolP256r1 or
+ * secp256r1. Each nonce is used exactly once: an entry is removed atomically
+ * from the pool before it is used and is invalidated afterwards, so that it
+ * can never be used for a second signature, even if several threads sign
+ * concurrently. If the pool is empty, a nonce is computed online, which is as
+ * slow as a regular signature.
+ * 
+ * If an {@link Executor} is provided, the pool is refilled in the background
+ * as soon as it is half empty. Otherwise {@link #fill()} has to be called
+ * when the device is idle.
+ * 
+ * The nonces and the private key are kept as limbs in Montgomery form modulo
+ * the group order, so that the computations on them do not branch on their
+ * values: k is inverted as k^(n-2), the odd scalar is selected from k and
+ * n - k with a conditional copy, and the Z coordinate of k * G is randomized
+ * before the variable-time inversion of the affine conversion. Only the
+ * public values r and s are converted into {@link BigInteger}s.
+ */
+public final class NoncePool {
+	
+	private static final int L = MontgomeryField.LIMBS;
+	
+	private final WeierstrassCurve curve;
+	private final MontgomeryField scalarField;
+	private final int[] order;
+	private final int[] privateKey;
+	private final int capacity;
+	private final SecureRandom random;
+	private final Executor executor;
+	
+	private final ConcurrentLinkedQueue<Presignature> presignatures = new ConcurrentLinkedQueue<Presignature>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicBoolean refilling = new AtomicBoolean();
+	
+	/*
+	 * A precomputed nonce. It contains r = x(k * G) mod n, and k^-1 mod n and
+	 * k^-1 * r * d mod n in Montgomery form, so that
+	 * s = k^-1 * e + k^-1 * r * d.
+	 */
+	private static final class Presignature {
+		private BigInteger r;
+		private int[] kInv;
+		private int[] kInvRD;
+		
+		private Presignature(BigInteger r, int[] kInv, int[] kInvRD) {
+			this.r = r;
+			this.kInv = kInv;
+			this.kInvRD = kInvRD;
+		}
+		
+		/*
+		 * Returns the signature for the given digest (in Montgomery form) and
+		 * invalidates this nonce.
+		 */
+		private synchronized BigInteger[] consume(int[] e, MontgomeryField scalarField) {
+			if (r == null)
+				throw new IllegalStateException("The nonce has already been used.");
+			
+			int[] s = new int[L];
+			scalarField.mul(kInv, e, s);
+			scalarField.add(s, kInvRD, s);
+			BigInteger[] rs = { r, scalarField.toBigInteger(s) };
+			invalidate();
+			return rs;
+		}
+		
+		private synchronized void invalidate() {
+			if (r == null)
+				return;
+			
+			r = null;
+			Arrays.fill(kInv, 0);
+			Arrays.fill(kInvRD, 0);
+			kInv = null;
+			kInvRD = null;
+		}
+	}
+	
+	/**
+	 * This constructor instantiates a new pool which is refilled only by
+	 * calling {@link #fill()}.
+	 * 
+	 * @param privateKey
+	 *            the brainpoolP256r1 or secp256r1 private key
+	 * @param capacity
+	 *            the maximum number of precomputed nonces
+	 * @throws InvalidKeyException
+	 *             if the private key is not supported
+	 */
+	public NoncePool(PrivateKey privateKey, int capacity) throws InvalidKeyException {
+		this(privateKey, capacity, new SecureRandom(), null);
+	}
+	
+	/**
+	 * This constructor instantiates a new pool which is refilled on the given
+	 * {@link Executor} as soon as it is half empty.
+	 * 
+	 * @param privateKey
+	 *            the brainpoolP256r1 or secp256r1 private key
+	 * @param capacity
+	 *            the maximum number of precomputed nonces
+	 * @param random
+	 *            the source of the nonces
+	 * @param executor
+	 *            the {@link Executor} to refill the pool on, or null if the
+	 *            pool is refilled only by calling {@link #fill()}
+	 * @throws InvalidKeyException
+	 *             if the private key is not supported
+	 */
+	public NoncePool(PrivateKey privateKey, int capacity, SecureRandom random, Executor executor) throws InvalidKeyException {
+		if (!isSupported(privateKey))
+			throw new InvalidKeyException("The private key is not a brainpoolP256r1 or secp256r1 key.");
+		
+		if (capacity <= 0)
+			throw new java.lang.IllegalArgumentException("The capacity must be greater than 0.");
+		
+		if (random == null)
+			throw new java.lang.IllegalArgumentException("The source of randomness cannot be null.");
+		
+		ECPrivateKey ecPrivateKey = (ECPrivateKey) privateKey;
+		this.curve = WeierstrassCurve.forParameters(ecPrivateKey.getParams());
+		this.capacity = capacity;
+		this.random = random;
+		this.executor = executor;
+		
+		BigInteger d = ecPrivateKey.getS();
+		if (d.signum() <= 0 || d.compareTo(curve.getOrder()) >= 0)
+			throw new InvalidKeyException("The private key is out of range.");
+		
+		// the private key is converted once, all further operations are constant-time
+		this.scalarField = new MontgomeryField(curve.getOrder());
+		this.order = MontgomeryField.toLimbs(curve.getOrder());
+		this.privateKey = scalarField.fromBigInteger(d);
+	}
+	
+	/**
+	 * Returns true if the given private key is an EC private key on a curve
+	 * supported by this class.
+	 */
+	public static boolean isSupported(PrivateKey privateKey) {
+		if (!(privateKey instanceof ECPrivateKey))
+			return false;
+		
+		return WeierstrassCurve.forParameters(((ECPrivateKey) privateKey).getParams()) != null;
+	}
+	
+	/**
+	 * Returns the maximum number of precomputed nonces.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Returns the number of precomputed nonces which are currently available.
+	 */
+	public int size() {
+		return size.get();
+	}
+	
+	/**
+	 * Precomputes nonces until the pool is full. This method blocks until the
+	 * pool is full and may be called from any thread.
+	 * 
+	 * @return the number of nonces added to the pool
+	 */
+	public int fill() {
+		int added = 0;
+		while (true) {
+			int current = size.get();
+			if (current >= capacity)
+				return added;
+			
+			if (size.compareAndSet(current, current + 1)) {
+				presignatures.offer(precompute());
+				added++;
+			}
+		}
+	}
+	
+	/**
+	 * Removes all precomputed nonces from the pool.
+	 */
+	public void clear() {
+		Presignature presignature;
+		while ((presignature = presignatures.poll()) != null) {
+			size.decrementAndGet();
+			presignature.invalidate();
+		}
+	}
+	
+	/**
+	 * Signs the given data with SHA256withECDSA.
+	 * 
+	 * @param data
+	 *            the data to be signed
+	 * @return the DER encoded signature
+	 * @throws SignatureException
+	 *             if SHA-256 is not available
+	 */
+	public byte[] sign(byte[] data) throws SignatureException {
+		return signDigest(BrainpoolP256r1Verifier.sha256(data));
+	}
+	
+	/**
+	 * Signs a SHA-256 digest which has been computed beforehand.
+	 * 
+	 * @param digest
+	 *            the 32 bytes SHA-256 digest of the data to be signed
+	 * @return the DER encoded signature
+	 */
+	public byte[] signDigest(byte[] digest) {
+		BigInteger n = curve.getOrder();
+		BigInteger e = new BigInteger(1, digest);
+		int excessBits = digest.length * 8 - n.bitLength();
+		if (excessBits > 0)
+			e = e.shiftRight(excessBits);
+		
+		int[] eMont = scalarField.fromBigInteger(e);
+		while (true) {
+			BigInteger[] rs = take().consume(eMont, scalarField);
+			if (rs[1].signum() != 0)
+				return SignatureEncoding.encodeDER(rs[0], rs[1]);
+		}
+	}
+	
+	private Presignature take() {
+		Presignature presignature = presignatures.poll();
+		if (presignature == null)
+			return precompute();
+		
+		int remaining = size.decrementAndGet();
+		if (executor != null && remaining <= capacity / 2 && refilling.compareAndSet(false, true)) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						fill();
+					} finally {
+						refilling.set(false);
+					}
+				}
+			});
+		}
+		return presignature;
+	}
+	
+	private Presignature precompute() {
+		BigInteger n = curve.getOrder();
+		int topBits = n.bitLength() - 32 * (L - 1);
+		int[] k = new int[L];
+		int[] oddK = new int[L];
+		try {
+			while (true) {
+				for (int i=0; i<L; i++) {
+					k[i] = random.nextInt();
+				}
+				k[L - 1] &= topBits >= 32 ? -1 : (1 << topBits) - 1;
+				
+				// n - k, whose borrow tells whether k < n
+				if (subtract(order, k, oddK) != 0 || scalarField.isZero(k))
+					continue;
+				
+				// x(k * G) = x(-k * G), and the multiplication requires an odd scalar
+				MontgomeryField.conditionalCopy(oddK, k, k[0] & 1);
+				WeierstrassCurve.JacobianPoint point = curve.multiplyGenerator(oddK);
+				curve.randomize(point, random);
+				BigInteger r = curve.toAffine(point).getAffineX().mod(n);
+				if (r.signum() == 0)
+					continue;
+				
+				int[] kInv = new int[L];
+				scalarField.toMontgomery(k, kInv);
+				scalarField.invConstantTime(kInv, kInv);
+				int[] kInvRD = new int[L];
+				scalarField.mul(kInv, scalarField.fromBigInteger(r), kInvRD);
+				scalarField.mul(kInvRD, privateKey, kInvRD);
+				return new Presignature(r, kInv, kInvRD);
+			}
+		} finally {
+			Arrays.fill(k, 0);
+			Arrays.fill(oddK, 0);
+		}
+	}
+	
+	/*
+	 * Computes r = a - b on the plain limbs without branching and returns the
+	 * borrow (1 if b > a, 0 otherwise).
+	 */
+	private static int subtract(int[] a, int[] b, int[] r) {
+		long borrow = 0;
+		for (int i=0; i<L; i++) {
+			borrow = (a[i] & 0xFFFFFFFFL) - (b[i] & 0xFFFFFFFFL) + borrow;
+			r[i] = (int) borrow;
+			borrow >>= 32;
+		}
+		return (int) -borrow;
+	}
+
+}
@@ -0,0 +1,228 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class converts ECDSA signatures between the DER encoding produced by
+ * the security providers and the raw encoding, which is the concatenation of
+ * the two integers r and s, each as unsigned big-endian number of a fixed
+ * length (also known as IEEE P1363 format). The raw encoding of a signature
+ * on a 256 bits curve always takes 64 bytes, whereas the DER encoding takes
+ * between 8 and 72 bytes.
+ * 
+ * Providers which support the P1363 format (e.g., SunEC since Java 9) create
+ * and verify raw signatures directly (see {@link #getRawInstance(String)}),
+ * so that the conversion is only needed for the other providers and for the
+ * signatures which are not created by a provider.
+ */
+public final class SignatureEncoding {
+	
+	/**
+	 * The length of r and s in the raw encoding.
+	 */
+	public static final int COMPONENT_LENGTH = 32;
+	
+	/**
+	 * The length of a raw encoded signature.
+	 */
+	public static final int RAW_LENGTH = 2 * COMPONENT_LENGTH;
+	
+	private static final String RAW_SUFFIX = "inP1363Format";
+	
+	// the algorithms for which no provider supports the P1363 format
+	private static final Set<String> unsupportedRawAlgorithms = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	private SignatureEncoding() {
+	}
+	
+	/**
+	 * Returns a new {@link Signature} engine which creates and verifies raw
+	 * encoded signatures of the given ECDSA algorithm (e.g.,
+	 * "SHA256withECDSA"), or null if no provider supports the algorithm in
+	 * the P1363 format. The engine may still reject keys on curves its
+	 * provider does not support.
+	 */
+	public static Signature getRawInstance(String algorithm) {
+		if (unsupportedRawAlgorithms.contains(algorithm))
+			return null;
+		
+		try {
+			return Signature.getInstance(algorithm + RAW_SUFFIX);
+		} catch (NoSuchAlgorithmException e) {
+			unsupportedRawAlgorithms.add(algorithm);
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns true if the given {@link Signature} engine creates and verifies
+	 * raw encoded signatures (see {@link #getRawInstance(String)}).
+	 */
+	public static boolean isRaw(Signature sig) {
+		return sig != null && sig.getAlgorithm().endsWith(RAW_SUFFIX);
+	}
+	
+	/**
+	 * Converts a DER encoded ECDSA signature into the raw encoding.
+	 * 
+	 * @param signature
+	 *            the DER encoded signature
+	 * @return the 64 bytes r||s
+	 * @throws SignatureException
+	 *             if the signature is not properly encoded or if r or s do
+	 *             not fit into 32 bytes
+	 */
+	public static byte[] toRaw(byte[] signature) throws SignatureException {
+		BigInteger[] rs = decodeDER(signature);
+		byte[] raw = new byte[RAW_LENGTH];
+		for (int i=0; i<2; i++) {
+			if (rs[i].bitLength() > COMPONENT_LENGTH * 8)
+				throw new SignatureException("Invalid encoding for signature.");
+			
+			byte[] value = rs[i].toByteArray();
+			// skip the sign byte
+			int length = Math.min(value.length, COMPONENT_LENGTH);
+			System.arraycopy(value, value.length - length, raw, (i + 1) * COMPONENT_LENGTH - length, length);
+		}
+		return raw;
+	}
+	
+	/**
+	 * Converts a signature created by the given {@link Signature} engine into
+	 * the raw encoding. If the engine creates raw signatures already (see
+	 * {@link #isRaw(Signature)}), only their length is checked.
+	 * 
+	 * @param sig
+	 *            the engine which created the signature
+	 * @param signature
+	 *            the signature
+	 * @return the 64 bytes r||s
+	 * @throws SignatureException
+	 *             if the signature is not properly encoded or if r or s do
+	 *             not fit into 32 bytes
+	 */
+	public static byte[] toRaw(Signature sig, byte[] signature) throws SignatureException {
+		if (!isRaw(sig))
+			return toRaw(signature);
+		
+		if (signature == null || signature.length != RAW_LENGTH)
+			throw new SignatureException("Invalid encoding for signature.");
+		
+		return signature;
+	}
+	
+	/**
+	 * Converts a raw encoded ECDSA signature into the DER encoding.
+	 * 
+	 * @param signature
+	 *            the 64 bytes r||s
+	 * @return the DER encoded signature
+	 * @throws SignatureException
+	 *             if the signature is not 64 bytes long
+	 */
+	public static byte[] toDER(byte[] signature) throws SignatureException {
+		BigInteger[] rs = decodeRaw(signature);
+		return encodeDER(rs[0], rs[1]);
+	}
+	
+	/**
+	 * Decodes a raw encoded ECDSA signature into the two integers r and s.
+	 * 
+	 * @throws SignatureException
+	 *             if the signature is not 64 bytes long
+	 */
+	static BigInteger[] decodeRaw(byte[] signature) throws SignatureException {
+		if (signature == null || signature.length != RAW_LENGTH)
+			throw new SignatureException("Invalid encoding for signature.");
+		
+		byte[] r = new byte[COMPONENT_LENGTH];
+		byte[] s = new byte[COMPONENT_LENGTH];
+		System.arraycopy(signature, 0, r, 0, COMPONENT_LENGTH);
+		System.arraycopy(signature, COMPONENT_LENGTH, s, 0, COMPONENT_LENGTH);
+		return new BigInteger[] { new BigInteger(1, r), new BigInteger(1, s) };
+	}
+	
+	/**
+	 * Decodes a DER encoded ECDSA signature (a sequence of the two integers r
+	 * and s). Only the distinguished encoding is accepted, i.e., all lengths
+	 * have to be minimal, the integers have to be positive and must not
+	 * contain superfluous leading zero bytes, and no bytes may follow the
+	 * sequence. Otherwise, the same signature would have several encodings.
+	 */
+	static BigInteger[] decodeDER(byte[] signature) throws SignatureException {
+		if (signature == null || signature.length < 8 || signature[0] != 0x30)
+			throw new SignatureException("Invalid encoding for signature.");
+		
+		int index = 1;
+		int sequenceLength = signature[index++] & 0xFF;
+		if (sequenceLength == 0x81) {
+			sequenceLength = signature[index++] & 0xFF;
+			// the long form is only allowed for lengths which do not fit into the short form
+			if (sequenceLength < 0x80)
+				throw new SignatureException("Invalid encoding for signature.");
+		} else if (sequenceLength > 0x7F) {
+			throw new SignatureException("Invalid encoding for signature.");
+		}
+		
+		if (index + sequenceLength != signature.length)
+			throw new SignatureException("Invalid encoding for signature.");
+		
+		BigInteger[] rs = new BigInteger[2];
+		for (int i=0; i<2; i++) {
+			if (index + 2 > signature.length || signature[index++] != 0x02)
+				throw new SignatureException("Invalid encoding for signature.");
+			
+			int length = signature[index++] & 0xFF;
+			if (length == 0 || length > 33 || index + length > signature.length)
+				throw new SignatureException("Invalid encoding for signature.");
+			
+			// negative
+			if ((signature[index] & 0x80) != 0)
+				throw new SignatureException("Invalid encoding for signature.");
+			
+			// a leading zero byte is only allowed in front of a byte whose highest bit is set
+			if (length > 1 && signature[index] == 0 && (signature[index+1] & 0x80) == 0)
+				throw new SignatureException("Invalid encoding for signature.");
+			
+			byte[] value = new byte[length];
+			System.arraycopy(signature, index, value, 0, length);
+			rs[i] = new BigInteger(value);
+			index += length;
+		}
+		
+		if (index != signature.length)
+			throw new SignatureException("Invalid encoding for signature.");
+		
+		return rs;
+	}
+	
+	/**
+	 * Encodes an ECDSA signature as a DER sequence of the two integers r and s.
+	 */
+	static byte[] encodeDER(BigInteger r, BigInteger s) {
+		byte[] rBytes = r.toByteArray();
+		byte[] sBytes = s.toByteArray();
+		int length = 2 + rBytes.length + 2 + sBytes.length;
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length + 3);
+		out.write(0x30);
+		if (length > 0x7F)
+			out.write(0x81);
+		out.write(length);
+		out.write(0x02);
+		out.write(rBytes.length);
+		out.write(rBytes, 0, rBytes.length);
+		out.write(0x02);
+		out.write(sBytes.length);
+		out.write(sBytes, 0, sBytes.length);
+		return out.toByteArray();
+	}
+
+}
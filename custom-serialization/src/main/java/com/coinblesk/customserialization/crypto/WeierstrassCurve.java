@@ -0,0 +1,536 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.security.spec.ECField;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.util.Arrays;
+
+/**
+ * This class implements the group operations of an elliptic curve in short
+ * Weierstrass form (y^2 = x^3 + ax + b) over a prime field of up to 256 bits.
+ * Points are kept in Jacobian coordinates during the computations, so that
+ * only a single field inversion is needed when a table of points is
+ * normalized.
+ * 
+ * The variable-time multi-scalar multiplication used for verifying signatures
+ * relies on width-w non-adjacent forms (wNAF) of the scalars and on
+ * precomputed tables of odd multiples in affine coordinates. It must only be
+ * used with public scalars. The fixed-base multiplication used for creating
+ * signatures recodes the secret scalar into digits which are all non-zero and
+ * reads the table entries without branching on the digits.
+ */
+final class WeierstrassCurve {
+	private static final int L = MontgomeryField.LIMBS;
+	
+	/**
+	 * The curve brainpoolP256r1 as specified in RFC 5639, which is used by
+	 * PKIAlgorithm.DEFAULT.
+	 */
+	static final WeierstrassCurve BRAINPOOL_P256R1 = new WeierstrassCurve(
+			new BigInteger("A9FB57DBA1EEA9BC3E660A909D838D726E3BF623D52620282013481D1F6E5377", 16),
+			new BigInteger("7D5A0975FC2C3057EEF67530417AFFE7FB8055C126DC5C6CE94A4B44F330B5D9", 16),
+			new BigInteger("26DC5C6CE94A4B44F330B5D9BBD77CBF958416295CF7E1CE6BCCDC18FF8C07B6", 16),
+			new BigInteger("8BD2AEB9CB7E57CB2C4B482FFC81B7AFB9DE27E1E3BD23C23A4453BD9ACE3262", 16),
+			new BigInteger("547EF835C3DAC4FD97F8461A14611DC9C27745132DED8E545C1D54C72F046997", 16),
+			new BigInteger("A9FB57DBA1EEA9BC3E660A909D838D718C397AA3B561A6F7901E0E82974856A7", 16));
+	
+	/**
+	 * The curve secp256r1 (NIST P-256) as specified in SEC 2.
+	 */
+	static final WeierstrassCurve SECP256R1 = new WeierstrassCurve(
+			new BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFF", 16),
+			new BigInteger("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFC", 16),
+			new BigInteger("5AC635D8AA3A93E7B3EBBD55769886BC651D06B0CC53B0F63BCE3C3E27D2604B", 16),
+			new BigInteger("6B17D1F2E12C4247F8BCE6E563A440F277037D812DEB33A0F4A13945D898C296", 16),
+			new BigInteger("4FE342E2FE1A7F9B8EE7EB4A7C0F9E162BCE33576B315ECECBB6406837BF51F5", 16),
+			new BigInteger("FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551", 16));
+	
+	private static final WeierstrassCurve[] CURVES = { BRAINPOOL_P256R1, SECP256R1 };
+	
+	/*
+	 * The fixed-base multiplication processes the scalar in 4 bit windows. The
+	 * window at position i is added from a table of the odd multiples of
+	 * 16^i * G, so that no doublings are needed.
+	 */
+	private static final int FIXED_BASE_WINDOW = 4;
+	private static final int FIXED_BASE_POSITIONS = 64;
+	
+	private final MontgomeryField field;
+	private final BigInteger a;
+	private final BigInteger b;
+	private final BigInteger order;
+	private final ECPoint generator;
+	private final int[] aMont;
+	private final int[] bMont;
+	
+	private volatile AffineTable[] fixedBaseTables;
+	
+	WeierstrassCurve(BigInteger p, BigInteger a, BigInteger b, BigInteger gx, BigInteger gy, BigInteger order) {
+		this.field = new MontgomeryField(p);
+		this.a = a;
+		this.b = b;
+		this.order = order;
+		this.generator = new ECPoint(gx, gy);
+		this.aMont = field.fromBigInteger(a);
+		this.bMont = field.fromBigInteger(b);
+	}
+	
+	MontgomeryField getField() {
+		return field;
+	}
+	
+	BigInteger getOrder() {
+		return order;
+	}
+	
+	ECPoint getGenerator() {
+		return generator;
+	}
+	
+	/**
+	 * Returns the known curve described by the given parameters, or null if
+	 * there is no such curve.
+	 */
+	static WeierstrassCurve forParameters(ECParameterSpec params) {
+		for (WeierstrassCurve curve : CURVES) {
+			if (curve.matches(params))
+				return curve;
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns true if the given parameters describe this curve.
+	 */
+	boolean matches(ECParameterSpec params) {
+		if (params == null)
+			return false;
+		
+		ECField f = params.getCurve().getField();
+		if (!(f instanceof ECFieldFp))
+			return false;
+		
+		return ((ECFieldFp) f).getP().equals(field.getModulus())
+				&& params.getCurve().getA().equals(a)
+				&& params.getCurve().getB().equals(b)
+				&& params.getOrder().equals(order)
+				&& params.getGenerator().equals(generator);
+	}
+	
+	/**
+	 * Returns true if the given affine point lies on this curve.
+	 */
+	boolean isOnCurve(ECPoint point) {
+		if (point == null || point == ECPoint.POINT_INFINITY)
+			return false;
+		
+		BigInteger p = field.getModulus();
+		BigInteger x = point.getAffineX();
+		BigInteger y = point.getAffineY();
+		if (x.signum() < 0 || x.compareTo(p) >= 0 || y.signum() < 0 || y.compareTo(p) >= 0)
+			return false;
+		
+		int[] xm = field.fromBigInteger(x);
+		int[] ym = field.fromBigInteger(y);
+		int[] lhs = new int[L];
+		int[] rhs = new int[L];
+		field.sqr(ym, lhs);
+		field.sqr(xm, rhs);
+		field.add(rhs, aMont, rhs);
+		field.mul(rhs, xm, rhs);
+		field.add(rhs, bMont, rhs);
+		return field.equal(lhs, rhs);
+	}
+	
+	/**
+	 * A point in Jacobian coordinates (X/Z^2, Y/Z^3). The point at infinity
+	 * has Z = 0.
+	 */
+	static final class JacobianPoint {
+		final int[] x = new int[L];
+		final int[] y = new int[L];
+		final int[] z = new int[L];
+		
+		void set(JacobianPoint other) {
+			System.arraycopy(other.x, 0, x, 0, L);
+			System.arraycopy(other.y, 0, y, 0, L);
+			System.arraycopy(other.z, 0, z, 0, L);
+		}
+	}
+	
+	/**
+	 * A table of the odd multiples P, 3P, 5P, ... of a point in affine
+	 * coordinates.
+	 */
+	static final class AffineTable {
+		final int width;
+		final int[][] x;
+		final int[][] y;
+		final int[][] negY;
+		
+		AffineTable(int width) {
+			this.width = width;
+			int size = 1 << (width - 2);
+			this.x = new int[size][];
+			this.y = new int[size][];
+			this.negY = new int[size][];
+		}
+	}
+	
+	/**
+	 * Temporary field elements, so that the group operations do not allocate
+	 * memory. An instance must not be shared between threads.
+	 */
+	static final class Scratch {
+		final int[] t0 = new int[L], t1 = new int[L], t2 = new int[L], t3 = new int[L];
+		final int[] t4 = new int[L], t5 = new int[L], t6 = new int[L];
+	}
+	
+	JacobianPoint toJacobian(ECPoint point) {
+		JacobianPoint result = new JacobianPoint();
+		System.arraycopy(field.fromBigInteger(point.getAffineX()), 0, result.x, 0, L);
+		System.arraycopy(field.fromBigInteger(point.getAffineY()), 0, result.y, 0, L);
+		System.arraycopy(field.one(), 0, result.z, 0, L);
+		return result;
+	}
+	
+	/**
+	 * Converts the given point into affine coordinates, or returns
+	 * {@link ECPoint#POINT_INFINITY}.
+	 */
+	ECPoint toAffine(JacobianPoint point) {
+		if (field.isZero(point.z))
+			return ECPoint.POINT_INFINITY;
+		
+		int[] zInv = new int[L];
+		int[] zInv2 = new int[L];
+		int[] x = new int[L];
+		int[] y = new int[L];
+		field.inv(point.z, zInv);
+		field.sqr(zInv, zInv2);
+		field.mul(point.x, zInv2, x);
+		field.mul(zInv2, zInv, zInv2);
+		field.mul(point.y, zInv2, y);
+		return new ECPoint(field.toBigInteger(x), field.toBigInteger(y));
+	}
+	
+	/**
+	 * Doubles the given point in place (dbl-2007-bl, valid for any a).
+	 */
+	void doublePoint(JacobianPoint p, Scratch s) {
+		if (field.isZero(p.z))
+			return;
+		
+		int[] xx = s.t0, yy = s.t1, yyyy = s.t2, zz = s.t3, sv = s.t4, m = s.t5, t = s.t6;
+		field.sqr(p.x, xx);
+		field.sqr(p.y, yy);
+		field.sqr(yy, yyyy);
+		field.sqr(p.z, zz);
+		
+		// S = 2*((X1+YY)^2-XX-YYYY)
+		field.add(p.x, yy, sv);
+		field.sqr(sv, sv);
+		field.sub(sv, xx, sv);
+		field.sub(sv, yyyy, sv);
+		field.add(sv, sv, sv);
+		
+		// M = 3*XX+a*ZZ^2
+		field.sqr(zz, m);
+		field.mul(m, aMont, m);
+		field.add(m, xx, m);
+		field.add(m, xx, m);
+		field.add(m, xx, m);
+		
+		// Z3 = (Y1+Z1)^2-YY-ZZ
+		field.add(p.y, p.z, p.z);
+		field.sqr(p.z, p.z);
+		field.sub(p.z, yy, p.z);
+		field.sub(p.z, zz, p.z);
+		
+		// X3 = M^2-2*S
+		field.sqr(m, t);
+		field.sub(t, sv, t);
+		field.sub(t, sv, p.x);
+		
+		// Y3 = M*(S-X3)-8*YYYY
+		field.sub(sv, p.x, t);
+		field.mul(m, t, t);
+		field.add(yyyy, yyyy, yyyy);
+		field.add(yyyy, yyyy, yyyy);
+		field.add(yyyy, yyyy, yyyy);
+		field.sub(t, yyyy, p.y);
+	}
+	
+	/**
+	 * Adds the affine point (x2, y2) to the given point in place
+	 * (madd-2007-bl). This operation is not constant-time.
+	 */
+	void addAffine(JacobianPoint p, int[] x2, int[] y2, Scratch s) {
+		if (field.isZero(p.z)) {
+			System.arraycopy(x2, 0, p.x, 0, L);
+			System.arraycopy(y2, 0, p.y, 0, L);
+			System.arraycopy(field.one(), 0, p.z, 0, L);
+			return;
+		}
+		
+		int[] z1z1 = s.t0, u2 = s.t1, s2 = s.t2, h = s.t3, hh = s.t4, r = s.t5, v = s.t6;
+		field.sqr(p.z, z1z1);
+		field.mul(x2, z1z1, u2);
+		field.mul(y2, p.z, s2);
+		field.mul(s2, z1z1, s2);
+		
+		field.sub(u2, p.x, h);
+		field.sub(s2, p.y, r);
+		if (field.isZero(h)) {
+			if (field.isZero(r)) {
+				doublePoint(p, s);
+			} else {
+				// P + (-P)
+				Arrays.fill(p.z, 0);
+			}
+			return;
+		}
+		field.add(r, r, r);
+		
+		// Z3 = (Z1+H)^2-Z1Z1-HH
+		field.sqr(h, hh);
+		field.add(p.z, h, p.z);
+		field.sqr(p.z, p.z);
+		field.sub(p.z, z1z1, p.z);
+		field.sub(p.z, hh, p.z);
+		
+		// I = 4*HH, J = H*I, V = X1*I
+		int[] i = hh;
+		field.add(hh, hh, i);
+		field.add(i, i, i);
+		int[] j = u2;
+		field.mul(h, i, j);
+		field.mul(p.x, i, v);
+		
+		// X3 = r^2-J-2*V
+		field.sqr(r, p.x);
+		field.sub(p.x, j, p.x);
+		field.sub(p.x, v, p.x);
+		field.sub(p.x, v, p.x);
+		
+		// Y3 = r*(V-X3)-2*Y1*J
+		field.mul(p.y, j, s2);
+		field.add(s2, s2, s2);
+		field.sub(v, p.x, v);
+		field.mul(r, v, v);
+		field.sub(v, s2, p.y);
+	}
+	
+	/**
+	 * Computes the odd multiples P, 3P, ..., (2^(width-1)-1)P of the given
+	 * point and normalizes them to affine coordinates with a single
+	 * inversion.
+	 */
+	AffineTable precompute(ECPoint point, int width) {
+		AffineTable table = new AffineTable(width);
+		int size = table.x.length;
+		Scratch s = new Scratch();
+		
+		JacobianPoint[] multiples = new JacobianPoint[size];
+		multiples[0] = toJacobian(point);
+		if (size > 1) {
+			JacobianPoint twice = new JacobianPoint();
+			twice.set(multiples[0]);
+			doublePoint(twice, s);
+			ECPoint twiceAffine = toAffine(twice);
+			int[] tx = field.fromBigInteger(twiceAffine.getAffineX());
+			int[] ty = field.fromBigInteger(twiceAffine.getAffineY());
+			for (int i=1; i<size; i++) {
+				multiples[i] = new JacobianPoint();
+				multiples[i].set(multiples[i-1]);
+				addAffine(multiples[i], tx, ty, s);
+			}
+		}
+		
+		// Montgomery's trick: invert the product of all Z coordinates once
+		int[][] prefix = new int[size][];
+		prefix[0] = multiples[0].z.clone();
+		for (int i=1; i<size; i++) {
+			prefix[i] = new int[L];
+			field.mul(prefix[i-1], multiples[i].z, prefix[i]);
+		}
+		int[] inv = new int[L];
+		field.inv(prefix[size-1], inv);
+		for (int i=size-1; i>=0; i--) {
+			int[] zInv = new int[L];
+			if (i > 0) {
+				field.mul(inv, prefix[i-1], zInv);
+				field.mul(inv, multiples[i].z, inv);
+			} else {
+				System.arraycopy(inv, 0, zInv, 0, L);
+			}
+			int[] zInv2 = new int[L];
+			field.sqr(zInv, zInv2);
+			table.x[i] = new int[L];
+			field.mul(multiples[i].x, zInv2, table.x[i]);
+			field.mul(zInv2, zInv, zInv2);
+			table.y[i] = new int[L];
+			field.mul(multiples[i].y, zInv2, table.y[i]);
+			table.negY[i] = new int[L];
+			field.neg(table.y[i], table.negY[i]);
+		}
+		return table;
+	}
+	
+	/**
+	 * Computes k1 * P1 + k2 * P2 with interleaved wNAFs (Shamir's trick). The
+	 * scalars must be non-negative and not longer than 256 bits. This
+	 * operation is not constant-time.
+	 */
+	JacobianPoint multiplyAdd(BigInteger k1, AffineTable t1, BigInteger k2, AffineTable t2) {
+		int[] naf1 = Wnaf.compute(k1, t1.width);
+		int[] naf2 = Wnaf.compute(k2, t2.width);
+		
+		Scratch s = new Scratch();
+		JacobianPoint result = new JacobianPoint();
+		for (int i=Math.max(naf1.length, naf2.length)-1; i>=0; i--) {
+			doublePoint(result, s);
+			if (i < naf1.length && naf1[i] != 0)
+				addDigit(result, t1, naf1[i], s);
+			if (i < naf2.length && naf2[i] != 0)
+				addDigit(result, t2, naf2[i], s);
+		}
+		return result;
+	}
+	
+	private void addDigit(JacobianPoint p, AffineTable table, int digit, Scratch s) {
+		if (digit > 0)
+			addAffine(p, table.x[digit >> 1], table.y[digit >> 1], s);
+		else
+			addAffine(p, table.x[(-digit) >> 1], table.negY[(-digit) >> 1], s);
+	}
+	
+	
+	/**
+	 * Computes k * G for a secret scalar k, where G is the generator of this
+	 * curve. The scalar must be odd and smaller than 2^256.
+	 * 
+	 * @see #multiplyGenerator(int[])
+	 */
+	JacobianPoint multiplyGenerator(BigInteger k) {
+		int[] limbs = MontgomeryField.toLimbs(k);
+		JacobianPoint result = multiplyGenerator(limbs);
+		Arrays.fill(limbs, 0);
+		return result;
+	}
+	
+	/**
+	 * Computes k * G for a secret scalar k given as eight 32 bit limbs (least
+	 * significant limb first), where G is the generator of this curve. The
+	 * scalar must be odd.
+	 * 
+	 * The scalar is recoded into 64 signed odd digits d_i (|d_i| < 16) and a
+	 * leading 1, so that every window contributes an addition and there are no
+	 * zero digits to skip. The table entries are selected with conditional
+	 * copies over the whole table. The exceptional cases of the addition (the
+	 * sum being the point at infinity or a doubling) only occur with negligible
+	 * probability for random scalars.
+	 */
+	JacobianPoint multiplyGenerator(int[] k) {
+		AffineTable[] tables = getFixedBaseTables();
+		int[] digits = recodeOdd(k);
+		
+		Scratch s = new Scratch();
+		int[] x = new int[L];
+		int[] y = new int[L];
+		JacobianPoint result = new JacobianPoint();
+		addAffine(result, tables[FIXED_BASE_POSITIONS].x[0], tables[FIXED_BASE_POSITIONS].y[0], s);
+		for (int i=0; i<FIXED_BASE_POSITIONS; i++) {
+			select(tables[i], digits[i], x, y);
+			addAffine(result, x, y, s);
+		}
+		Arrays.fill(digits, 0);
+		return result;
+	}
+	
+	/*
+	 * Recodes the odd scalar k into the digits d_0, ..., d_63 which are odd and
+	 * between -15 and 15, such that k = 16^64 + sum d_i * 16^i.
+	 */
+	private static int[] recodeOdd(int[] limbs) {
+		int[] nibbles = new int[FIXED_BASE_POSITIONS + 1];
+		for (int i=0; i<FIXED_BASE_POSITIONS; i++) {
+			nibbles[i] = (limbs[i >>> 3] >>> ((i & 7) << 2)) & 0xF;
+		}
+		
+		int[] digits = new int[FIXED_BASE_POSITIONS];
+		for (int i=0; i<FIXED_BASE_POSITIONS; i++) {
+			// d_i = (k mod 32) - 16, and (k - d_i) / 16 is odd again
+			digits[i] = nibbles[i] + ((nibbles[i+1] & 1) << FIXED_BASE_WINDOW) - (1 << FIXED_BASE_WINDOW);
+			nibbles[i+1] |= 1;
+		}
+		Arrays.fill(nibbles, 0);
+		return digits;
+	}
+	
+	/**
+	 * Multiplies the coordinates of the given point by lambda^2, lambda^3 and
+	 * lambda for a random lambda. The point remains the same, but its Z
+	 * coordinate no longer depends on the scalar it has been computed from,
+	 * so that the variable-time inversion in {@link #toAffine(JacobianPoint)}
+	 * does not leak the scalar.
+	 */
+	void randomize(JacobianPoint p, SecureRandom random) {
+		BigInteger modulus = field.getModulus();
+		BigInteger lambdaValue;
+		do {
+			lambdaValue = new BigInteger(modulus.bitLength(), random);
+		} while (lambdaValue.signum() == 0 || lambdaValue.compareTo(modulus) >= 0);
+		
+		int[] lambda = field.fromBigInteger(lambdaValue);
+		int[] power = new int[L];
+		field.mul(p.z, lambda, p.z);
+		field.sqr(lambda, power);
+		field.mul(p.x, power, p.x);
+		field.mul(power, lambda, power);
+		field.mul(p.y, power, p.y);
+	}
+	
+	/*
+	 * Copies the entry |digit| of the table into (x, y) and negates y if the
+	 * digit is negative, without branching on the digit.
+	 */
+	private static void select(AffineTable table, int digit, int[] x, int[] y) {
+		int sign = digit >>> 31;
+		int index = ((digit ^ -sign) + sign) >> 1;
+		int[] negY = new int[L];
+		for (int j=0; j<table.x.length; j++) {
+			int equal = ((j ^ index) - 1) >>> 31;
+			MontgomeryField.conditionalCopy(x, table.x[j], equal);
+			MontgomeryField.conditionalCopy(y, table.y[j], equal);
+			MontgomeryField.conditionalCopy(negY, table.negY[j], equal);
+		}
+		MontgomeryField.conditionalCopy(y, negY, sign);
+	}
+	
+	private AffineTable[] getFixedBaseTables() {
+		AffineTable[] tables = fixedBaseTables;
+		if (tables == null) {
+			synchronized (this) {
+				tables = fixedBaseTables;
+				if (tables == null) {
+					tables = new AffineTable[FIXED_BASE_POSITIONS + 1];
+					JacobianPoint base = toJacobian(generator);
+					Scratch s = new Scratch();
+					for (int i=0; i<=FIXED_BASE_POSITIONS; i++) {
+						tables[i] = precompute(toAffine(base), FIXED_BASE_WINDOW + 1);
+						for (int j=0; j<FIXED_BASE_WINDOW; j++) {
+							doublePoint(base, s);
+						}
+					}
+					fixedBaseTables = tables;
+				}
+			}
+		}
+		return tables;
+	}
+
+}
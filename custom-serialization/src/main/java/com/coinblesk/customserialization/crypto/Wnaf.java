@@ -0,0 +1,49 @@
+package com.coinblesk.customserialization.crypto;
+
+import java.math.BigInteger;
+
+/**
+ * This class computes the width-w non-adjacent form (wNAF) of scalars, which
+ * is used by the variable-time scalar multiplications of the curves.
+ */
+final class Wnaf {
+	
+	private Wnaf() {
+	}
+	
+	/**
+	 * Returns the width-w non-adjacent form of k, least significant digit
+	 * first. Every non-zero digit is odd and smaller than 2^(w-1) in absolute
+	 * value, and any w consecutive digits contain at most one non-zero digit.
+	 */
+	static int[] compute(BigInteger k, int w) {
+		int[] limbs = MontgomeryField.toLimbs(k);
+		int len = k.bitLength() + 1;
+		int[] naf = new int[len];
+		int carry = 0;
+		int bit = 0;
+		while (bit < len) {
+			if (getBits(limbs, bit, 1) == carry) {
+				bit++;
+				continue;
+			}
+			int now = Math.min(w, len - bit);
+			int word = getBits(limbs, bit, now) + carry;
+			carry = (word >> (w - 1)) & 1;
+			word -= carry << w;
+			naf[bit] = word;
+			bit += now;
+		}
+		return naf;
+	}
+	
+	private static int getBits(int[] limbs, int offset, int count) {
+		int index = offset >>> 5;
+		int shift = offset & 31;
+		long word = index < limbs.length ? limbs[index] & 0xFFFFFFFFL : 0;
+		if (index + 1 < limbs.length)
+			word |= (limbs[index + 1] & 0xFFFFFFFFL) << 32;
+		return (int) ((word >>> shift) & ((1L << count) - 1));
+	}
+
+}
@@ -0,0 +1,13 @@
+package com.coinblesk.customserialization.exceptions;
+
+import com.coinblesk.customserialization.ReasonCode;
+
+/**
+ * This Exception is thrown when a {@link ReasonCode} with an unknown code is
+ * tried to be created.
+ */
+public class UnknownReasonCodeException extends SerializationException {
+	
+	private static final long serialVersionUID = -4205638411027393541L;
+
+}
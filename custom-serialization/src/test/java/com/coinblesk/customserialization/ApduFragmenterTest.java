@@ -0,0 +1,84 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+public class ApduFragmenterTest {
+	
+	@Test
+	public void testFragmentReassemble() throws Exception {
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()).getPrivate());
+		
+		List<byte[]> frames = new ApduFragmenter(32).fragment(pr);
+		assertTrue(frames.size() > 1);
+		ApduReassembler reassembler = new ApduReassembler(1024);
+		for (int i=0; i<frames.size(); i++) {
+			assertTrue(frames.get(i).length <= 32);
+			assertEquals(i == frames.size() - 1, reassembler.add(frames.get(i)));
+		}
+		assertEquals(pr, reassembler.decode(PaymentRequest.class));
+		
+		// a single frame with the default length
+		frames = new ApduFragmenter().fragment(pr);
+		assertEquals(1, frames.size());
+		reassembler.reset();
+		assertTrue(reassembler.add(frames.get(0)));
+		assertEquals(pr, reassembler.decode(PaymentRequest.class));
+	}
+	
+	@Test
+	public void testFragmentReassemble_sequenceNumberWraps() throws Exception {
+		byte[] message = new byte[5000];
+		new SecureRandom().nextBytes(message);
+		List<byte[]> frames = new ApduFragmenter(16).fragment(message);
+		assertTrue(frames.size() > 256);
+		
+		ApduReassembler reassembler = new ApduReassembler(message.length);
+		for (byte[] frame : frames) {
+			// the frame within the data field of an APDU
+			byte[] apdu = new byte[5 + frame.length];
+			System.arraycopy(frame, 0, apdu, 5, frame.length);
+			reassembler.add(apdu, 5, frame.length);
+		}
+		assertTrue(reassembler.isComplete());
+		assertTrue(Arrays.equals(message, reassembler.getMessage()));
+	}
+	
+	@Test
+	public void testAdd_IllegalArgumentException() throws Exception {
+		byte[] message = new byte[100];
+		List<byte[]> frames = new ApduFragmenter(16).fragment(message);
+		
+		// a missing frame
+		ApduReassembler reassembler = new ApduReassembler(100);
+		assertFalse(reassembler.add(frames.get(0)));
+		boolean exceptionThrown = false;
+		try {
+			reassembler.add(frames.get(2));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		// a message longer than the maximum length
+		reassembler = new ApduReassembler(99);
+		exceptionThrown = false;
+		try {
+			reassembler.add(frames.get(0));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
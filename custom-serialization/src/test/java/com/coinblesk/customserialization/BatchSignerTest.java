@@ -0,0 +1,162 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.testutils.TestUtils;
+
+public class BatchSignerTest {
+	
+	@Test
+	public void testSign() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		List<PaymentResponse> responses = new ArrayList<PaymentResponse>();
+		for (int i=1; i<=25; i++) {
+			responses.add(new PaymentResponse(PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, i, timestamp));
+		}
+		
+		BatchSigner batchSigner = new BatchSigner(PKIAlgorithm.DEFAULT, keyPair.getPrivate());
+		try {
+			batchSigner.sign(responses);
+			batchSigner.sign(responses.subList(0, 1));
+			// an empty list is not recorded
+			batchSigner.sign(new ArrayList<PaymentResponse>());
+		} finally {
+			batchSigner.shutdown();
+		}
+		
+		for (PaymentResponse pr : responses) {
+			assertNotNull(pr.getSignature());
+			PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+			assertTrue(decoded.verify(keyPair.getPublic()));
+		}
+		
+		BatchStatistics statistics = batchSigner.getStatistics();
+		assertEquals(2, statistics.getNofBatches());
+		assertEquals(26, statistics.getNofElements());
+		assertEquals(25, statistics.getMaxBatchSize());
+	}
+	
+	@Test
+	public void testSign_IllegalArgumentException() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		BatchSigner batchSigner = new BatchSigner(PKIAlgorithm.DEFAULT, keyPair.getPrivate());
+		boolean exceptionThrown = false;
+		
+		try {
+			List<PaymentResponse> responses = new ArrayList<PaymentResponse>();
+			responses.add(null);
+			batchSigner.sign(responses);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		} finally {
+			batchSigner.shutdown();
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testSign_merkle() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.MERKLE_ED25519.generateKeyPair(new SecureRandom());
+		KeyPair otherKeyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		long timestamp = System.currentTimeMillis();
+		
+		BatchSigner batchSigner = new BatchSigner(PKIAlgorithm.MERKLE_ED25519, keyPair.getPrivate());
+		try {
+			// every shape of the tree up to 17 leaves
+			for (int n=1; n<=17; n++) {
+				List<PaymentResponse> responses = new ArrayList<PaymentResponse>();
+				for (int i=1; i<=n; i++) {
+					responses.add(new PaymentResponse(PKIAlgorithm.MERKLE_ED25519, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, i, timestamp));
+				}
+				batchSigner.sign(responses);
+				
+				for (PaymentResponse pr : responses) {
+					PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+					assertTrue(decoded.verify(keyPair.getPublic()));
+					assertFalse(decoded.verify(otherKeyPair.getPublic()));
+				}
+			}
+		} finally {
+			batchSigner.shutdown();
+		}
+		assertEquals(17, batchSigner.getStatistics().getNofBatches());
+	}
+	
+	@Test
+	public void testSign_merkleTampered() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.MERKLE_ED25519.generateKeyPair(new SecureRandom());
+		long timestamp = System.currentTimeMillis();
+		
+		List<PaymentResponse> responses = new ArrayList<PaymentResponse>();
+		for (int i=1; i<=5; i++) {
+			responses.add(new PaymentResponse(PKIAlgorithm.MERKLE_ED25519, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, i, timestamp));
+		}
+		BatchSigner batchSigner = new BatchSigner(PKIAlgorithm.MERKLE_ED25519, keyPair.getPrivate());
+		try {
+			batchSigner.sign(responses);
+		} finally {
+			batchSigner.shutdown();
+		}
+		
+		// the proof of another leaf
+		byte[] payload = responses.get(0).getPayload();
+		byte[] signature = responses.get(1).getSignature();
+		assertFalse(SignedSerializableObject.verifyMerkle(PKIAlgorithm.MERKLE_ED25519, keyPair.getPublic(), ByteBuffer.wrap(payload), signature));
+		
+		// a modified sibling
+		signature = responses.get(0).getSignature().clone();
+		signature[2] ^= 0x01;
+		assertFalse(SignedSerializableObject.verifyMerkle(PKIAlgorithm.MERKLE_ED25519, keyPair.getPublic(), ByteBuffer.wrap(payload), signature));
+		
+		// a truncated proof
+		signature = responses.get(0).getSignature();
+		signature = Arrays.copyOfRange(signature, 0, signature.length - 1);
+		assertFalse(SignedSerializableObject.verifyMerkle(PKIAlgorithm.MERKLE_ED25519, keyPair.getPublic(), ByteBuffer.wrap(payload), signature));
+		
+		assertTrue(SignedSerializableObject.verifyMerkle(PKIAlgorithm.MERKLE_ED25519, keyPair.getPublic(), ByteBuffer.wrap(payload), responses.get(0).getSignature()));
+	}
+	
+	@Test
+	public void testSign_merkleECDSA() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		List<PaymentResponse> responses = new ArrayList<PaymentResponse>();
+		for (int i=1; i<=7; i++) {
+			responses.add(new PaymentResponse(PKIAlgorithm.MERKLE_DEFAULT_RAW, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, i, timestamp));
+		}
+		BatchSigner batchSigner = new BatchSigner(PKIAlgorithm.MERKLE_DEFAULT_RAW, keyPair.getPrivate());
+		try {
+			batchSigner.sign(responses);
+		} finally {
+			batchSigner.shutdown();
+		}
+		
+		// a single object is signed as a tree with one leaf
+		PaymentResponse single = new PaymentResponse(PKIAlgorithm.MERKLE_DEFAULT_RAW, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, 8, timestamp);
+		single.sign(keyPair.getPrivate());
+		responses.add(single);
+		
+		for (PaymentResponse pr : responses) {
+			PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+			assertTrue(decoded.verify(keyPair.getPublic()));
+		}
+		assertEquals(2+64, single.getSignature().length);
+	}
+
+}
@@ -0,0 +1,150 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPublicKeySpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.exceptions.NotSignedException;
+import com.coinblesk.customserialization.testutils.TestUtils;
+
+public class BatchVerifierTest {
+	
+	@Test
+	public void testVerify() throws Exception {
+		SecureRandom random = new SecureRandom();
+		KeyPair[] keyPairs = new KeyPair[3];
+		for (int i=0; i<keyPairs.length; i++) {
+			keyPairs[i] = PKIAlgorithm.ED25519.generateKeyPair(random);
+		}
+		KeyPair ecKeyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		List<PaymentRequest> requests = new ArrayList<PaymentRequest>();
+		List<PublicKey> publicKeys = new ArrayList<PublicKey>();
+		boolean[] expected = new boolean[40];
+		for (int i=0; i<expected.length; i++) {
+			KeyPair keyPair = keyPairs[i % keyPairs.length];
+			PaymentRequest pr;
+			if (i % 10 == 7) {
+				pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, i + 1, timestamp);
+				keyPair = ecKeyPair;
+			} else {
+				pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, i + 1, timestamp);
+			}
+			
+			// some requests are signed with a wrong key
+			expected[i] = i != 5 && i != 6 && i != 23 && i != 34;
+			if (expected[i])
+				pr.sign(keyPair.getPrivate());
+			else
+				pr.sign(keyPairs[(i + 1) % keyPairs.length].getPrivate());
+			
+			requests.add(DecoderFactory.decode(PaymentRequest.class, pr.encode()));
+			publicKeys.add(keyPair.getPublic());
+		}
+		
+		BatchVerifier batchVerifier = new BatchVerifier();
+		boolean[] result = batchVerifier.verify(requests, publicKeys);
+		for (int i=0; i<expected.length; i++) {
+			assertEquals("request " + i, expected[i], result[i]);
+		}
+		assertFalse(batchVerifier.verifyAll(requests, publicKeys));
+		assertTrue(batchVerifier.verifyAll(requests.subList(8, 20), publicKeys.subList(8, 20)));
+		// an empty list is not recorded
+		assertEquals(0, batchVerifier.verify(requests.subList(0, 0), publicKeys.subList(0, 0)).length);
+		
+		BatchStatistics statistics = batchVerifier.getStatistics();
+		assertEquals(3, statistics.getNofBatches());
+		assertEquals(92, statistics.getNofElements());
+	}
+	
+	@Test
+	public void testVerify_smallOrderR() throws Exception {
+		SecureRandom random = new SecureRandom();
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(random);
+		long timestamp = System.currentTimeMillis();
+		
+		List<PaymentRequest> requests = new ArrayList<PaymentRequest>();
+		List<PublicKey> publicKeys = new ArrayList<PublicKey>();
+		for (int i=0; i<8; i++) {
+			PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, i + 1, timestamp);
+			pr.sign(keyPair.getPrivate());
+			requests.add(pr);
+			publicKeys.add(keyPair.getPublic());
+		}
+		
+		/*
+		 * R is the point of order 2, A is the neutral element and S is 0. The
+		 * cofactored equation 8 * (SB - R - hA) = 0 holds, the cofactorless
+		 * equation SB = R + hA does not.
+		 */
+		byte[] encoded = requests.get(3).encode();
+		int offset = encoded.length - 64;
+		encoded[offset] = (byte) 0xEC;
+		for (int i=1; i<31; i++) {
+			encoded[offset + i] = (byte) 0xFF;
+		}
+		encoded[offset + 31] = 0x7F;
+		for (int i=32; i<64; i++) {
+			encoded[offset + i] = 0;
+		}
+		PaymentRequest forged = DecoderFactory.decode(PaymentRequest.class, encoded);
+		PublicKey identity = KeyFactory.getInstance("Ed25519").generatePublic(new EdECPublicKeySpec(NamedParameterSpec.ED25519, new EdECPoint(false, BigInteger.ONE)));
+		requests.set(3, forged);
+		publicKeys.set(3, identity);
+		
+		assertFalse(forged.verify(identity));
+		boolean[] result = new BatchVerifier(random).verify(requests, publicKeys);
+		for (int i=0; i<result.length; i++) {
+			assertEquals("request " + i, i != 3, result[i]);
+		}
+	}
+	
+	@Test
+	public void testVerify_IllegalArgumentException() throws Exception {
+		BatchVerifier batchVerifier = new BatchVerifier();
+		boolean exceptionThrown = false;
+		
+		try {
+			List<PaymentRequest> requests = new ArrayList<PaymentRequest>();
+			requests.add(new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 1, 1));
+			batchVerifier.verify(requests, new ArrayList<PublicKey>());
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testVerify_NotSignedException() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		BatchVerifier batchVerifier = new BatchVerifier();
+		boolean exceptionThrown = false;
+		
+		try {
+			List<PaymentRequest> requests = new ArrayList<PaymentRequest>();
+			requests.add(new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 1, 1));
+			List<PublicKey> publicKeys = new ArrayList<PublicKey>();
+			publicKeys.add(keyPair.getPublic());
+			batchVerifier.verify(requests, publicKeys);
+		} catch (NotSignedException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.testutils.TestUtils;
+
+public class CoalescingVerifierTest {
+	
+	@Test
+	public void testSubmit() throws Exception {
+		SecureRandom random = new SecureRandom();
+		final KeyPair payeeKeyPair = PKIAlgorithm.ED25519.generateKeyPair(random);
+		final KeyPair payerKeyPair = TestUtils.generateKeyPair();
+		final AtomicInteger resolved = new AtomicInteger();
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				resolved.incrementAndGet();
+				if (username.equals("seller"))
+					return payeeKeyPair.getPublic();
+				if (username.equals("buyer"))
+					return payerKeyPair.getPublic();
+				return null;
+			}
+		};
+		
+		CoalescingVerifier verifier = new CoalescingVerifier(resolver, 1000);
+		long timestamp = System.currentTimeMillis();
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		boolean[] expected = new boolean[12];
+		for (int i=0; i<expected.length; i++) {
+			PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, i + 1, timestamp);
+			prPayer.sign(payerKeyPair.getPrivate());
+			PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, i + 1, timestamp);
+			
+			// some requests are signed with a wrong key
+			expected[i] = i != 3 && i != 8;
+			prPayee.sign(expected[i] ? payeeKeyPair.getPrivate() : PKIAlgorithm.ED25519.generateKeyPair(random).getPrivate());
+			results.add(verifier.submit(new ServerPaymentRequest(prPayer, prPayee)));
+		}
+		
+		PaymentRequest unknown = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "stranger", "seller", Currency.BTC, 1, timestamp);
+		unknown.sign(payerKeyPair.getPrivate());
+		Future<Boolean> unknownResult = verifier.submit(new ServerPaymentRequest(unknown));
+		
+		for (int i=0; i<expected.length; i++) {
+			assertEquals("request " + i, expected[i], results.get(i).get(10, TimeUnit.SECONDS));
+		}
+		assertFalse(unknownResult.get(10, TimeUnit.SECONDS));
+		// one resolution per signing key
+		assertEquals(3, resolved.get());
+		verifier.shutdown();
+	}
+	
+	@Test
+	public void testShutdown() throws Exception {
+		final KeyPair keyPair = TestUtils.generateKeyPair();
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return keyPair.getPublic();
+			}
+		};
+		
+		CoalescingVerifier verifier = new CoalescingVerifier(resolver, 60000);
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(keyPair.getPrivate());
+		Future<Boolean> result = verifier.submit(new ServerPaymentRequest(pr));
+		assertFalse(result.isDone());
+		
+		// the pending requests are verified without waiting for the window
+		verifier.shutdown();
+		assertTrue(result.isDone());
+		assertTrue(result.get());
+	}
+	
+	@Test
+	public void testSubmit_fullGroup() throws Exception {
+		final KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return keyPair.getPublic();
+			}
+		};
+		
+		// the window tasks are run by the test
+		final List<Runnable> windowTasks = new ArrayList<Runnable>();
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1) {
+			@Override
+			public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+				if (delay == 0)
+					return super.schedule(command, delay, unit);
+				
+				synchronized (windowTasks) {
+					windowTasks.add(command);
+				}
+				return null;
+			}
+		};
+		
+		CoalescingVerifier verifier = new CoalescingVerifier(resolver, 1000, executor);
+		long timestamp = System.currentTimeMillis();
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int i=0; i<257; i++) {
+			PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, i + 1, timestamp);
+			pr.sign(keyPair.getPrivate());
+			results.add(verifier.submit(new ServerPaymentRequest(pr)));
+		}
+		
+		// the full group is verified without waiting for its window
+		for (int i=0; i<256; i++) {
+			assertTrue(results.get(i).get(10, TimeUnit.SECONDS));
+		}
+		assertEquals(2, windowTasks.size());
+		
+		// the window task of the full group does not flush the next group
+		windowTasks.get(0).run();
+		assertFalse(results.get(256).isDone());
+		
+		windowTasks.get(1).run();
+		assertTrue(results.get(256).get(10, TimeUnit.SECONDS));
+		assertEquals(2, verifier.getStatistics().getNofBatches());
+		assertEquals(257, verifier.getStatistics().getNofElements());
+		executor.shutdown();
+	}
+	
+	@Test
+	public void testSubmit_wrongKeyType() throws Exception {
+		final KeyPair keyPair = TestUtils.generateKeyPair();
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return keyPair.getPublic();
+			}
+		};
+		
+		CoalescingVerifier verifier = new CoalescingVerifier(resolver, 0);
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()).getPrivate());
+		
+		boolean exceptionThrown = false;
+		try {
+			verifier.submit(new ServerPaymentRequest(pr)).get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		verifier.shutdown();
+	}
+
+}
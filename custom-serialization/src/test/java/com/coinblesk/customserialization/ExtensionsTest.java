@@ -0,0 +1,86 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+public class ExtensionsTest {
+	
+	@Test
+	public void testEncodeDecode() throws Exception {
+		Map<Integer, byte[]> values = new HashMap<Integer, byte[]>();
+		values.put(0x7F, new byte[200]);
+		values.put(Extensions.TERMINAL_ID, "terminal-1".getBytes(Charset.forName("UTF-8")));
+		Extensions extensions = new Extensions(values);
+		
+		byte[] encoded = extensions.encode();
+		assertEquals(encoded.length, extensions.getEncodedLength());
+		// length (2 byte varint) + terminal ID (1+1+10) + unknown tag (1+2+200)
+		assertEquals(2+12+203, encoded.length);
+		// the terminal ID comes first, since the entries are sorted by tag
+		assertEquals(Extensions.TERMINAL_ID, encoded[2]);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 3);
+		buffer.put(new byte[] { 1, 2, 3 });
+		buffer.put(encoded);
+		assertEquals(buffer.limit(), Extensions.skip(buffer, 3));
+		
+		Extensions decoded = Extensions.decode(buffer, 3);
+		assertTrue(extensions.equals(decoded));
+		assertEquals("terminal-1", decoded.getString(Extensions.TERMINAL_ID));
+		assertArrayEquals(new byte[200], decoded.get(0x7F));
+		assertTrue(decoded.contains(0x7F));
+		assertFalse(decoded.contains(Extensions.CORRELATION_ID));
+		assertNull(decoded.get(Extensions.CORRELATION_ID));
+		assertEquals(2, decoded.getTags().size());
+	}
+	
+	@Test
+	public void testDecode_corrupt() throws Exception {
+		// the value of the tag 0x01 is longer than the section
+		Extensions extensions = Extensions.decode(ByteBuffer.wrap(new byte[] { 3, 0x01, 5, 0 }), 0);
+		
+		boolean exceptionThrown = false;
+		try {
+			extensions.get(0x01);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		// the section is longer than the buffer
+		exceptionThrown = false;
+		try {
+			Extensions.decode(ByteBuffer.wrap(new byte[] { 4, 0x01, 1, 0 }), 0);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testConstructor_invalidTag() throws Exception {
+		Map<Integer, byte[]> values = new HashMap<Integer, byte[]>();
+		values.put(256, new byte[1]);
+		
+		boolean exceptionThrown = false;
+		try {
+			new Extensions(values);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
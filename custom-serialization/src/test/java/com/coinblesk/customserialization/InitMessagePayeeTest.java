@@ -6,6 +6,8 @@ import com.coinblesk.customserialization.DecoderFactory;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -13,6 +15,7 @@ import org.junit.Test;
 
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.SerializationException;
+import com.coinblesk.customserialization.testutils.TestUtils;
 
 
 public class InitMessagePayeeTest {
@@ -68,5 +71,53 @@ public class InitMessagePayeeTest {
 		assertEquals(initMessagePayee.getCurrency().getCode(), decode.getCurrency().getCode());
 		assertEquals(initMessagePayee.getAmount(), decode.getAmount());
 	}
+	
+	@Test
+	public void testEncodeDecode_compact() throws IllegalArgumentException, SerializationException {
+		InitMessagePayee initMessagePayee = new InitMessagePayee(SerializableObject.COMPACT_VERSION, "payee", Currency.CHF, 1500);
+		byte[] encode = initMessagePayee.encode();
+		assertEquals(new InitMessagePayee("payee", Currency.CHF, 1500).encode().length - 6, encode.length);
+		InitMessagePayee decode = DecoderFactory.decode(InitMessagePayee.class, encode);
+		
+		assertEquals(SerializableObject.COMPACT_VERSION, decode.getVersion());
+		assertEquals(initMessagePayee.getUsername(), decode.getUsername());
+		assertEquals(Currency.CHF, decode.getCurrency());
+		assertEquals(1500, decode.getAmount());
+	}
+	
+	@Test
+	public void testEncode_wireFormat() throws IllegalArgumentException, SerializationException {
+		assertTrue(Arrays.equals(TestUtils.fromHex("010673656c6c65720100000000000186a0"), new InitMessagePayee("seller", Currency.BTC, 100000).encode()));
+		assertTrue(Arrays.equals(TestUtils.fromHex("020673656c6c657201a08d06"), new InitMessagePayee(SerializableObject.COMPACT_VERSION, "seller", Currency.BTC, 100000).encode()));
+	}
+	
+	@Test
+	public void testTemplate() throws Exception {
+		InitMessagePayeeTemplate template = new InitMessagePayeeTemplate(new InitMessagePayee("seller", Currency.BTC, 1));
+		for (long amount : new long[] { 0, 100000, Long.MAX_VALUE }) {
+			assertTrue(Arrays.equals(new InitMessagePayee("seller", Currency.BTC, amount).encode(), template.encode(amount)));
+		}
+		
+		boolean exceptionThrown = false;
+		try {
+			new InitMessagePayeeTemplate(new InitMessagePayee(SerializableObject.COMPACT_VERSION, "seller", Currency.BTC, 1));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testConstructor_unsupportedVersion() {
+		for (int version : new int[] { SerializableObject.FIXED_OFFSET_VERSION, SerializableObject.REQUEST_DIGEST_VERSION, 7, 255 }) {
+			boolean exceptionThrown = false;
+			try {
+				new InitMessagePayee(version, "payee", Currency.BTC, 1);
+			} catch (IllegalArgumentException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+		}
+	}
 
 }
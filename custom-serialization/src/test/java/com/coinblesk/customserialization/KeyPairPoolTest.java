@@ -0,0 +1,175 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+public class KeyPairPoolTest {
+	
+	/*
+	 * Returns an executor whose only thread is busy until the latch is
+	 * released, so that the pools are filled only explicitly.
+	 */
+	private static ExecutorService newBlockedExecutor(final CountDownLatch latch) {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		return executor;
+	}
+	
+	@Test
+	public void testTake() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		ExecutorService executor = newBlockedExecutor(latch);
+		try {
+			KeyPairPool pool = new KeyPairPool(3, new SecureRandom(), executor);
+			assertEquals(0, pool.size(PKIAlgorithm.ED25519));
+			
+			assertNotNull(pool.take(PKIAlgorithm.ED25519));
+			assertEquals(1, pool.getNofMisses(PKIAlgorithm.ED25519));
+			
+			assertEquals(3, pool.fill(PKIAlgorithm.ED25519));
+			assertEquals(3, pool.size(PKIAlgorithm.ED25519));
+			assertEquals(0, pool.fill(PKIAlgorithm.ED25519));
+			
+			Set<KeyPair> keyPairs = new HashSet<KeyPair>();
+			for (int i=0; i<3; i++) {
+				assertTrue(keyPairs.add(pool.take(PKIAlgorithm.ED25519)));
+			}
+			assertEquals(3, pool.getNofHits(PKIAlgorithm.ED25519));
+			assertEquals(1, pool.getNofMisses(PKIAlgorithm.ED25519));
+			assertEquals(3, pool.getNofGenerated(PKIAlgorithm.ED25519));
+			assertEquals(0, pool.size(PKIAlgorithm.ED25519));
+		} finally {
+			latch.countDown();
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testBackgroundFill() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			KeyPairPool pool = new KeyPairPool(2, new SecureRandom(), executor);
+			assertNotNull(pool.take(PKIAlgorithm.ED25519));
+			
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+			assertEquals(2, pool.size(PKIAlgorithm.ED25519));
+			assertEquals(2, pool.size(PKIAlgorithm.HMAC_SHA256));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testTake_rejectedRefill() throws Exception {
+		final AtomicInteger nofRejected = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+				nofRejected.incrementAndGet();
+				throw new RejectedExecutionException();
+			}
+		});
+		executor.shutdown();
+		
+		KeyPairPool pool = new KeyPairPool(2, new SecureRandom(), executor);
+		int nofRejectedInitially = nofRejected.get();
+		assertNotNull(pool.take(PKIAlgorithm.ED25519));
+		assertEquals(nofRejectedInitially + 1, nofRejected.get());
+		
+		// the rejected refill does not block the next one
+		assertNotNull(pool.take(PKIAlgorithm.ED25519));
+		assertEquals(nofRejectedInitially + 2, nofRejected.get());
+		assertEquals(2, pool.getNofMisses(PKIAlgorithm.ED25519));
+	}
+	
+	@Test
+	public void testTake_merkle() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		ExecutorService executor = newBlockedExecutor(latch);
+		try {
+			KeyPairPool pool = new KeyPairPool(2, new SecureRandom(), executor);
+			pool.fill(PKIAlgorithm.ED25519);
+			
+			// the Merkle algorithm shares the pool of its root algorithm
+			assertEquals(pool.size(PKIAlgorithm.ED25519), pool.size(PKIAlgorithm.MERKLE_ED25519));
+			assertNotNull(pool.take(PKIAlgorithm.MERKLE_ED25519));
+			assertEquals(1, pool.getNofHits(PKIAlgorithm.ED25519));
+			assertEquals(0, pool.getNofMisses(PKIAlgorithm.ED25519));
+		} finally {
+			latch.countDown();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testTake_default() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		ExecutorService executor = newBlockedExecutor(latch);
+		try {
+			KeyPairPool pool = new KeyPairPool(1, new SecureRandom(), executor);
+			if (!pool.isSupported(PKIAlgorithm.DEFAULT)) {
+				// no provider supports the algorithm, so it is neither pooled nor counted
+				boolean exceptionThrown = false;
+				try {
+					pool.take(PKIAlgorithm.DEFAULT);
+				} catch (GeneralSecurityException e) {
+					exceptionThrown = true;
+				}
+				assertTrue(exceptionThrown);
+				assertFalse(pool.isSupported(PKIAlgorithm.MERKLE_DEFAULT_RAW));
+				assertEquals(0, pool.fill(PKIAlgorithm.DEFAULT));
+				assertEquals(0, pool.getNofMisses(PKIAlgorithm.DEFAULT));
+				assertEquals(0, pool.getNofFailures(PKIAlgorithm.DEFAULT));
+			}
+			
+			Assume.assumeTrue("No provider supports ECDSA on brainpoolP256r1.", pool.isSupported(PKIAlgorithm.DEFAULT));
+			pool.fill(PKIAlgorithm.DEFAULT);
+			KeyPair keyPair = pool.take(PKIAlgorithm.DEFAULT_RAW);
+			PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+			pr.sign(keyPair.getPrivate());
+			assertTrue(pr.verify(keyPair.getPublic()));
+			assertEquals(1, pool.getNofHits(PKIAlgorithm.DEFAULT));
+		} finally {
+			latch.countDown();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testConstructor_IllegalArgumentException() throws Exception {
+		new KeyPairPool(0);
+	}
+
+}
@@ -0,0 +1,155 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+public class MultiPartyPaymentRequestTest {
+	
+	/*
+	 * Adds the group ID to the given unsigned requests and signs them with the
+	 * given keys.
+	 */
+	private static List<PaymentRequest> signShares(List<PaymentRequest> unsigned, KeyPair[] keyPairs) throws Exception {
+		Extensions extensions = new Extensions(Collections.singletonMap(Extensions.CORRELATION_ID, MultiPartyPaymentRequest.getGroupId(unsigned)));
+		List<PaymentRequest> result = new ArrayList<PaymentRequest>();
+		for (int i=0; i<unsigned.size(); i++) {
+			PaymentRequest pr = unsigned.get(i).withExtensions(extensions);
+			pr.sign(keyPairs[i].getPrivate());
+			result.add(pr);
+		}
+		return result;
+	}
+	
+	private static PaymentRequest newShare(String usernamePayer, String usernamePayee, long amount, long timestamp) throws Exception {
+		return new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, PKIAlgorithm.ED25519, 1, usernamePayer, usernamePayee, Currency.BTC, amount, timestamp);
+	}
+	
+	@Test
+	public void testEncodeDecode() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		final KeyPair[] keyPairs = new KeyPair[5];
+		List<PaymentRequest> unsigned = new ArrayList<PaymentRequest>();
+		for (int i=0; i<keyPairs.length; i++) {
+			keyPairs[i] = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+			unsigned.add(newShare("buyer"+i, "seller", 10+i, timestamp));
+		}
+		List<PaymentRequest> paymentRequests = signShares(unsigned, keyPairs);
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return keyPairs[Integer.parseInt(username.substring("buyer".length()))].getPublic();
+			}
+		};
+		
+		MultiPartyPaymentRequest mppr = new MultiPartyPaymentRequest(paymentRequests);
+		MultiPartyPaymentRequest decoded = DecoderFactory.decode(MultiPartyPaymentRequest.class, mppr.encode());
+		assertTrue(mppr.equals(decoded));
+		assertEquals(mppr.hashCode(), decoded.hashCode());
+		assertEquals("seller", decoded.getUsernamePayee());
+		assertEquals(Currency.BTC, decoded.getCurrency());
+		assertEquals(60, decoded.getTotalAmount());
+		assertTrue(Arrays.equals(MultiPartyPaymentRequest.getGroupId(unsigned), decoded.getGroupId()));
+		assertTrue(decoded.verifyAll(resolver, System.currentTimeMillis() + 10000));
+		
+		// one forged share fails the whole payment
+		PaymentRequest forged = paymentRequests.get(4).withExtensions(paymentRequests.get(4).getExtensions());
+		forged.sign(keyPairs[0].getPrivate());
+		paymentRequests.set(4, forged);
+		decoded = DecoderFactory.decode(MultiPartyPaymentRequest.class, new MultiPartyPaymentRequest(paymentRequests).encode());
+		assertFalse(decoded.verifyAll(resolver, System.currentTimeMillis() + 10000));
+	}
+	
+	@Test
+	public void testMultiPartyPaymentRequest_liftedShare() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		KeyPair[] keyPairs = new KeyPair[] { PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()), PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()) };
+		
+		// buyer0 agreed to share the bill with buyer1 only
+		List<PaymentRequest> unsigned = new ArrayList<PaymentRequest>();
+		unsigned.add(newShare("buyer0", "seller", 10, timestamp));
+		unsigned.add(newShare("buyer1", "seller", 10, timestamp));
+		PaymentRequest share = signShares(unsigned, keyPairs).get(0);
+		
+		// the share is lifted into a group with another participant
+		unsigned.set(1, newShare("buyer2", "seller", 10, timestamp));
+		List<PaymentRequest> paymentRequests = signShares(unsigned, keyPairs);
+		paymentRequests.set(0, share);
+		boolean exceptionThrown = false;
+		try {
+			new MultiPartyPaymentRequest(paymentRequests);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		// the decoder rejects the lifted share as well
+		List<PaymentRequest> valid = signShares(unsigned, keyPairs);
+		byte[] encoded = new MultiPartyPaymentRequest(valid).encode();
+		byte[] liftedShare = share.encode();
+		byte[] validShare = valid.get(0).encode();
+		assertEquals(validShare.length, liftedShare.length);
+		// version + nofPaymentRequests + length of the first entry
+		System.arraycopy(liftedShare, 0, encoded, 1+1+2, liftedShare.length);
+		exceptionThrown = false;
+		try {
+			DecoderFactory.decode(MultiPartyPaymentRequest.class, encoded);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		// a share without the group ID
+		PaymentRequest unbound = newShare("buyer0", "seller", 10, timestamp);
+		unbound.sign(keyPairs[0].getPrivate());
+		paymentRequests.set(0, unbound);
+		exceptionThrown = false;
+		try {
+			new MultiPartyPaymentRequest(paymentRequests);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testMultiPartyPaymentRequest_IllegalArgumentException() throws Exception {
+		KeyPair[] keyPairs = new KeyPair[] { PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()), PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()) };
+		List<PaymentRequest> unsigned = new ArrayList<PaymentRequest>();
+		unsigned.add(newShare("buyer1", "seller", 10, System.currentTimeMillis()));
+		unsigned.add(newShare("buyer2", "another seller", 10, System.currentTimeMillis()));
+		List<PaymentRequest> paymentRequests = signShares(unsigned, keyPairs);
+		PaymentRequest pr1 = paymentRequests.get(0);
+		
+		boolean exceptionThrown = false;
+		try {
+			new MultiPartyPaymentRequest(paymentRequests);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		// the same payer twice
+		paymentRequests.set(1, pr1);
+		exceptionThrown = false;
+		try {
+			new MultiPartyPaymentRequest(paymentRequests);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+public class PaymentRequestFlyweightTest {
+	
+	@Test
+	public void testWrap() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		long timestamp = System.currentTimeMillis();
+		
+		PaymentRequest pr1 = new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 100, timestamp);
+		PaymentRequest pr2 = new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, PKIAlgorithm.ED25519, 2, "anotherBuyer", "seller", Currency.BTC, 250, Currency.CHF, 42, timestamp + 1);
+		pr1.sign(keyPair.getPrivate());
+		pr2.sign(keyPair.getPrivate());
+		byte[] encoded1 = pr1.encode();
+		byte[] encoded2 = pr2.encode();
+		
+		// store both requests back-to-back, the second one at an unaligned offset
+		ByteBuffer buffer = ByteBuffer.allocate(3 + encoded1.length + encoded2.length);
+		buffer.position(3);
+		buffer.put(encoded1);
+		buffer.put(encoded2);
+		buffer.flip();
+		
+		PaymentRequestFlyweight flyweight = new PaymentRequestFlyweight();
+		long sum = 0;
+		int offset = 3;
+		while (offset < buffer.limit()) {
+			flyweight.wrap(buffer, offset);
+			sum += flyweight.getAmount();
+			offset += flyweight.getPayloadLength() + PKIAlgorithm.ED25519.getSignatureLength();
+		}
+		assertEquals(350, sum);
+		assertEquals(buffer.limit(), offset);
+		
+		flyweight.wrap(buffer, 3);
+		assertEquals(PKIAlgorithm.ED25519, flyweight.getPKIAlgorithm());
+		assertEquals(1, flyweight.getKeyNumber());
+		assertEquals(Currency.BTC, flyweight.getCurrency());
+		assertNull(flyweight.getInputCurrency());
+		assertEquals(timestamp, flyweight.getTimestamp());
+		assertEquals("buyer", flyweight.getUsernamePayer());
+		assertEquals("seller", flyweight.getUsernamePayee());
+		
+		flyweight.wrap(buffer, 3 + encoded1.length);
+		assertEquals(2, flyweight.getKeyNumber());
+		assertEquals(Currency.CHF, flyweight.getInputCurrency());
+		assertEquals(42, flyweight.getInputAmount());
+		assertEquals("anotherBuyer", flyweight.getUsernamePayer());
+		assertEquals("seller", flyweight.getUsernamePayee());
+	}
+	
+	@Test
+	public void testWrap_invalid() throws Exception {
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 100, System.currentTimeMillis());
+		pr.sign(PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()).getPrivate());
+		
+		boolean exceptionThrown = false;
+		try {
+			// version 1
+			new PaymentRequestFlyweight().wrap(ByteBuffer.wrap(pr.encode()), 0);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			new PaymentRequestFlyweight().wrap(ByteBuffer.allocate(PaymentRequestFlyweight.USERNAMES_OFFSET - 1), 0);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			new PaymentRequestFlyweight().wrap(ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN), 0);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
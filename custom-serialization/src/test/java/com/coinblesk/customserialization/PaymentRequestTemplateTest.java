@@ -0,0 +1,100 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.testutils.TestUtils;
+
+public class PaymentRequestTemplateTest {
+	
+	@Test
+	public void testCreate() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		for (int version : new int[] { 1, SerializableObject.FIXED_OFFSET_VERSION }) {
+			PaymentRequestTemplate template = new PaymentRequestTemplate(new PaymentRequest(version, PKIAlgorithm.ED25519, 3, "buyer", "seller", Currency.BTC, 1, 1));
+			PaymentRequest expected = new PaymentRequest(version, PKIAlgorithm.ED25519, 3, "buyer", "seller", Currency.BTC, 4711, timestamp);
+			PaymentRequest created = template.create(4711, timestamp);
+			assertTrue(Arrays.equals(expected.getPayload(), created.getPayload()));
+			assertEquals(4711, created.getAmount());
+			assertEquals(timestamp, created.getTimestamp());
+			assertTrue(Arrays.equals(expected.getPayload(), template.writePayload(4711, timestamp)));
+			
+			template = new PaymentRequestTemplate(new PaymentRequest(version, PKIAlgorithm.ED25519, 3, "buyer", "seller", Currency.BTC, 1, Currency.CHF, 1, 1));
+			expected = new PaymentRequest(version, PKIAlgorithm.ED25519, 3, "buyer", "seller", Currency.BTC, 4711, Currency.CHF, 2500, timestamp);
+			assertTrue(Arrays.equals(expected.getPayload(), template.create(4711, 2500, timestamp).getPayload()));
+		}
+	}
+	
+	@Test
+	public void testCreate_signDecode() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		PaymentRequestTemplate template = new PaymentRequestTemplate(new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 1, 1));
+		
+		PaymentRequest first = template.create(10, System.currentTimeMillis());
+		PaymentRequest second = template.create(20, System.currentTimeMillis());
+		first.sign(keyPair.getPrivate());
+		second.sign(keyPair.getPrivate());
+		
+		// the requests do not share their payloads
+		assertEquals(10, DecoderFactory.<PaymentRequest>decode(PaymentRequest.class, first.encode()).getAmount());
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, second.encode());
+		assertEquals(second, decoded);
+		assertTrue(decoded.verify(keyPair.getPublic()));
+	}
+	
+	@Test
+	public void testSign() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		for (int version : new int[] { 1, SerializableObject.FIXED_OFFSET_VERSION }) {
+			PaymentRequestTemplate template = new PaymentRequestTemplate(new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 1, 1));
+			byte[] encoded = template.sign(4711, timestamp, keyPair.getPrivate());
+			
+			// Ed25519 signatures are deterministic
+			PaymentRequest expected = new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 4711, timestamp);
+			expected.sign(keyPair.getPrivate());
+			assertTrue(Arrays.equals(expected.encode(), encoded));
+			
+			PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, template.sign(42, timestamp, keyPair.getPrivate()));
+			assertEquals(42, decoded.getAmount());
+			assertTrue(decoded.verify(keyPair.getPublic()));
+		}
+		
+		KeyPair ecKeyPair = TestUtils.generateKeyPair();
+		for (PKIAlgorithm pkiAlgorithm : new PKIAlgorithm[] { PKIAlgorithm.DEFAULT_RAW, PKIAlgorithm.MERKLE_DEFAULT_RAW }) {
+			PaymentRequestTemplate template = new PaymentRequestTemplate(new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, pkiAlgorithm, 1, "buyer", "seller", Currency.BTC, 1, 1));
+			PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, template.sign(4711, timestamp, ecKeyPair.getPrivate()));
+			assertEquals(pkiAlgorithm, decoded.getPKIAlgorithm());
+			assertEquals(4711, decoded.getAmount());
+			assertTrue(decoded.verify(ecKeyPair.getPublic()));
+		}
+	}
+	
+	@Test
+	public void testPaymentRequestTemplate_IllegalArgumentException() throws Exception {
+		boolean exceptionThrown = false;
+		try {
+			new PaymentRequestTemplate(new PaymentRequest(SerializableObject.COMPACT_VERSION, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 1, System.currentTimeMillis()));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		PaymentRequestTemplate template = new PaymentRequestTemplate(new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 1, 1));
+		exceptionThrown = false;
+		try {
+			template.create(0, System.currentTimeMillis());
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
@@ -6,21 +6,33 @@ import com.coinblesk.customserialization.DecoderFactory;
 import com.coinblesk.customserialization.PKIAlgorithm;
 import com.coinblesk.customserialization.PrimitiveTypeSerializer;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
 import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.coinblesk.customserialization.crypto.NoncePool;
+import com.coinblesk.customserialization.crypto.SignatureEncoding;
 import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.NotSignedException;
 import com.coinblesk.customserialization.exceptions.SerializationException;
@@ -217,5 +229,364 @@ public class PaymentRequestTest {
 		assertTrue(verify);
 		assertTrue(pr.equals(decoded));
 	}
+	
+	@Test
+	public void testEncodeDecode_ed25519() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		long timestamp = System.currentTimeMillis();
+		
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		pr.sign(keyPair.getPrivate());
+		assertEquals(64, pr.getSignature().length);
+		
+		byte[] encode = pr.encode();
+		assertEquals(2, encode[1]); //SignatureAlgorithm
+		
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, encode);
+		assertEquals(PKIAlgorithm.ED25519, decoded.getPKIAlgorithm());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		assertTrue(pr.equals(decoded));
+	}
+	
+	@Test
+	public void testDecode_ed25519WrongSignatureLength() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(keyPair.getPrivate());
+		
+		byte[] encode = pr.encode();
+		byte[] truncated = new byte[encode.length-1];
+		System.arraycopy(encode, 0, truncated, 0, truncated.length);
+		
+		boolean exceptionThrown = false;
+		try {
+			DecoderFactory.decode(PaymentRequest.class, truncated);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testSign_noncePool() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		NoncePool noncePool = new NoncePool(keyPair.getPrivate(), 2);
+		noncePool.fill();
+		
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(noncePool);
+		assertEquals(1, noncePool.size());
+		
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, pr.encode());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		
+		boolean exceptionThrown = false;
+		try {
+			new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis()).sign(noncePool);
+		} catch (InvalidKeyException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testSign_rawSignature() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT_RAW, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		int encodedLength = pr.encodedLength();
+		pr.sign(keyPair.getPrivate());
+		assertEquals(SignatureEncoding.RAW_LENGTH, pr.getSignature().length);
+		
+		byte[] encoded = pr.encode();
+		assertEquals(encodedLength, encoded.length);
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, encoded);
+		assertEquals(PKIAlgorithm.DEFAULT_RAW, decoded.getPKIAlgorithm());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		assertTrue(PaymentRequest.verify(keyPair.getPublic(), ByteBuffer.wrap(encoded)));
+		assertFalse(decoded.verify(TestUtils.generateKeyPair().getPublic()));
+		
+		// the raw signature can be converted into the DER signature of DEFAULT and back
+		byte[] der = SignatureEncoding.toDER(pr.getSignature());
+		assertTrue(SignedSerializableObject.verifyDigest(PKIAlgorithm.DEFAULT, keyPair.getPublic(), pr.getPayloadDigest(), der));
+		assertTrue(Arrays.equals(pr.getSignature(), SignatureEncoding.toRaw(der)));
+		
+		// a provider engine in the DER encoding creates the same raw encoding as one in the P1363 format
+		Signature sig = Signature.getInstance(PKIAlgorithm.DEFAULT_RAW.getSignatureAlgorithm());
+		sig.initSign(keyPair.getPrivate());
+		assertFalse(SignatureEncoding.isRaw(sig));
+		pr.sign(sig);
+		assertEquals(SignatureEncoding.RAW_LENGTH, pr.getSignature().length);
+		assertTrue(pr.verify(keyPair.getPublic()));
+		
+		NoncePool noncePool = new NoncePool(keyPair.getPrivate(), 1);
+		pr.sign(noncePool);
+		assertEquals(SignatureEncoding.RAW_LENGTH, pr.getSignature().length);
+		assertTrue(pr.verify(keyPair.getPublic()));
+		
+		boolean exceptionThrown = false;
+		try {
+			new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis()).encodedLength();
+		} catch (NotSignedException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testGetPayloadDigest() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(keyPair.getPrivate());
+		
+		byte[] digest = pr.getPayloadDigest();
+		assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(pr.getPayload()), digest));
+		digest[0] ^= 0x01;
+		assertFalse(Arrays.equals(digest, pr.getPayloadDigest()));
+		
+		assertTrue(SignedSerializableObject.verifyDigest(PKIAlgorithm.DEFAULT, keyPair.getPublic(), pr.getPayloadDigest(), pr.getSignature()));
+		assertFalse(SignedSerializableObject.verifyDigest(PKIAlgorithm.DEFAULT, keyPair.getPublic(), digest, pr.getSignature()));
+		
+		boolean exceptionThrown = false;
+		try {
+			SignedSerializableObject.verifyDigest(PKIAlgorithm.ED25519, keyPair.getPublic(), pr.getPayloadDigest(), pr.getSignature());
+		} catch (NoSuchAlgorithmException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testVerify_byteBuffer() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, Currency.CHF, 5, System.currentTimeMillis());
+		pr.sign(keyPair.getPrivate());
+		byte[] encoded = pr.encode();
+		
+		// the frame is embedded in a larger buffer
+		byte[] bytes = new byte[encoded.length + 10];
+		System.arraycopy(encoded, 0, bytes, 4, encoded.length);
+		ByteBuffer frame = ByteBuffer.wrap(bytes, 4, encoded.length);
+		assertTrue(PaymentRequest.verify(keyPair.getPublic(), frame));
+		assertEquals(4, frame.position());
+		assertEquals(4 + encoded.length, frame.limit());
+		
+		assertFalse(PaymentRequest.verify(TestUtils.generateKeyPair().getPublic(), frame));
+		
+		bytes[4 + encoded.length - pr.getSignature().length - 1] ^= 0x01;
+		assertFalse(PaymentRequest.verify(keyPair.getPublic(), frame));
+		
+		PaymentRequest ed25519 = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		KeyPair ed25519KeyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		ed25519.sign(ed25519KeyPair.getPrivate());
+		assertTrue(PaymentRequest.verify(ed25519KeyPair.getPublic(), ByteBuffer.wrap(ed25519.encode())));
+		
+		boolean exceptionThrown = false;
+		try {
+			PaymentRequest.verify(keyPair.getPublic(), ByteBuffer.wrap(encoded, 0, 20));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			PaymentRequest.verify(keyPair.getPublic(), ByteBuffer.wrap(pr.getPayload()));
+		} catch (NotSignedException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testGetPKIAlgorithm() throws UnknownPKIAlgorithmException {
+		assertEquals(PKIAlgorithm.DEFAULT, PKIAlgorithm.getPKIAlgorithm((byte) 0x01));
+		assertEquals(PKIAlgorithm.ED25519, PKIAlgorithm.getPKIAlgorithm((byte) 0x02));
+		assertEquals(PKIAlgorithm.DEFAULT_RAW, PKIAlgorithm.getPKIAlgorithm((byte) 0x04));
+		
+		boolean exceptionThrown = false;
+		try {
+			PKIAlgorithm.getPKIAlgorithm((byte) 0x7F);
+		} catch (UnknownPKIAlgorithmException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testVerify_brainpoolP256r1() throws Exception {
+		// signed with OpenSSL, since recent JDKs cannot sign with brainpool keys
+		PublicKey publicKey = TestUtils.getBrainpoolP256r1PublicKey("96b16a06c34af6459ef618b6e7443f9d90798b56c5d6af5ad7752116b72d2d12", "126fbede497632c4c576fd99e39c268c277368beba239a3b65c865ba02188a26");
+		byte[] signature = TestUtils.fromHex("304402200e70187447dd0b0ec6c861ab6d8868d0396049467e1297eedb7c243d0daa6b6902204e1e4ece85707de8095d3dff988eef5d4ee9460de028e88bc8fd5e7595a77a00");
+		
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, 1400000000000L);
+		byte[] payload = pr.getPayload();
+		byte[] encoded = new byte[payload.length + signature.length];
+		System.arraycopy(payload, 0, encoded, 0, payload.length);
+		System.arraycopy(signature, 0, encoded, payload.length, signature.length);
+		
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, encoded);
+		assertTrue(decoded.verify(publicKey));
+		
+		PaymentRequest other = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 13, 1400000000000L);
+		byte[] otherPayload = other.getPayload();
+		System.arraycopy(otherPayload, 0, encoded, 0, otherPayload.length);
+		PaymentRequest tampered = DecoderFactory.decode(PaymentRequest.class, encoded);
+		assertFalse(tampered.verify(publicKey));
+	}
+	
+	@Test
+	public void testEncodeDecode_compact() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		PaymentRequest pr = new PaymentRequest(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 100000, timestamp);
+		PaymentRequest v1 = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 100000, timestamp);
+		// nofCurrencies and currency are packed into the header, amount 3 instead of 8 bytes, timestamp 6 instead of 8 bytes
+		assertEquals(v1.getPayload().length - 2 - 5 - 2, pr.getPayload().length);
+		
+		pr.sign(keyPair.getPrivate());
+		byte[] encoded = pr.encode();
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, encoded);
+		assertTrue(pr.equals(decoded));
+		assertEquals(SerializableObject.COMPACT_VERSION, decoded.getVersion());
+		assertEquals(timestamp, decoded.getTimestamp());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		assertTrue(PaymentRequest.verify(keyPair.getPublic(), ByteBuffer.wrap(encoded)));
+		
+		pr = new PaymentRequest(SerializableObject.COMPACT_VERSION, PKIAlgorithm.ED25519, 7, "buyer", "seller", Currency.BTC, 12, Currency.CHF, 55, timestamp);
+		KeyPair ed25519KeyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		pr.sign(ed25519KeyPair.getPrivate());
+		encoded = pr.encode();
+		decoded = DecoderFactory.decode(PaymentRequest.class, encoded);
+		assertEquals(PKIAlgorithm.ED25519, decoded.getPKIAlgorithm());
+		assertEquals(7, decoded.getKeyNumber());
+		assertEquals(Currency.CHF, decoded.getInputCurrency());
+		assertEquals(55, decoded.getInputAmount());
+		assertTrue(decoded.verify(ed25519KeyPair.getPublic()));
+		assertTrue(PaymentRequest.verify(ed25519KeyPair.getPublic(), ByteBuffer.wrap(encoded)));
+		
+		boolean exceptionThrown = false;
+		try {
+			new PaymentRequest(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, SerializableObject.COMPACT_TIMESTAMP_EPOCH - 1);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testEncodeDecode_fixedOffset() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		PaymentRequest pr = new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 100000, timestamp);
+		assertEquals(PaymentRequestFlyweight.USERNAMES_OFFSET + 5 + 6, pr.getPayload().length);
+		
+		pr.sign(keyPair.getPrivate());
+		byte[] encoded = pr.encode();
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, encoded);
+		assertTrue(pr.equals(decoded));
+		assertEquals(SerializableObject.FIXED_OFFSET_VERSION, decoded.getVersion());
+		assertNull(decoded.getInputCurrency());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		assertTrue(PaymentRequest.verify(keyPair.getPublic(), ByteBuffer.wrap(encoded)));
+		
+		pr = new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, PKIAlgorithm.ED25519, 7, "buyer", "seller", Currency.BTC, 12, Currency.CHF, 55, timestamp);
+		KeyPair ed25519KeyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		pr.sign(ed25519KeyPair.getPrivate());
+		encoded = pr.encode();
+		decoded = DecoderFactory.decode(PaymentRequest.class, encoded);
+		assertTrue(pr.equals(decoded));
+		assertEquals(Currency.CHF, decoded.getInputCurrency());
+		assertEquals(55, decoded.getInputAmount());
+		assertTrue(decoded.verify(ed25519KeyPair.getPublic()));
+		assertTrue(PaymentRequest.verify(ed25519KeyPair.getPublic(), ByteBuffer.wrap(encoded)));
+		
+		boolean exceptionThrown = false;
+		try {
+			DecoderFactory.decode(PaymentRequest.class, Arrays.copyOf(encoded, PaymentRequestFlyweight.USERNAMES_OFFSET + 5));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testEncodeDecode_extensions() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		long timestamp = System.currentTimeMillis();
+		
+		Map<Integer, byte[]> values = new HashMap<Integer, byte[]>();
+		values.put(Extensions.CORRELATION_ID, "order-4711".getBytes(Charset.forName("UTF-8")));
+		values.put(0x7F, new byte[] { 1, 2, 3 });
+		Extensions extensions = new Extensions(values);
+		
+		for (int version : new int[] { SerializableObject.COMPACT_VERSION, SerializableObject.FIXED_OFFSET_VERSION }) {
+			PaymentRequest plain = new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 100000, Currency.CHF, 55, timestamp);
+			PaymentRequest pr = plain.withExtensions(extensions);
+			assertEquals(plain.getPayload().length + extensions.getEncodedLength(), pr.getPayload().length);
+			assertFalse(pr.equals(plain));
+			
+			pr.sign(keyPair.getPrivate());
+			byte[] encoded = pr.encode();
+			PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, encoded);
+			assertTrue(pr.equals(decoded));
+			assertEquals("order-4711", decoded.getExtensions().getString(Extensions.CORRELATION_ID));
+			assertEquals(Currency.CHF, decoded.getInputCurrency());
+			assertTrue(decoded.verify(keyPair.getPublic()));
+			assertTrue(PaymentRequest.verify(keyPair.getPublic(), ByteBuffer.wrap(encoded)));
+			
+			PaymentRequest removed = pr.withExtensions(null);
+			assertNull(removed.getExtensions());
+			assertTrue(Arrays.equals(plain.getPayload(), removed.getPayload()));
+		}
+		
+		PaymentRequest pr = new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 100000, timestamp).withExtensions(extensions);
+		pr.sign(keyPair.getPrivate());
+		byte[] encoded = pr.encode();
+		PaymentRequestFlyweight flyweight = new PaymentRequestFlyweight().wrap(ByteBuffer.wrap(encoded), 0);
+		assertTrue(flyweight.hasExtensions());
+		assertTrue(extensions.equals(flyweight.getExtensions()));
+		assertEquals(encoded.length - PKIAlgorithm.ED25519.getSignatureLength(), flyweight.getPayloadLength());
+		
+		boolean exceptionThrown = false;
+		try {
+			new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 100000, timestamp).withExtensions(extensions);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testPayload_version1WireFormat() throws Exception {
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 100000, 1500000000000L);
+		assertTrue(Arrays.equals(TestUtils.fromHex("0101010562757965720673656c6c6572010100000000000186a00000015d3ef79800"), pr.getPayload()));
+		
+		pr = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 100000, Currency.CHF, 55, 1500000000000L);
+		assertTrue(Arrays.equals(TestUtils.fromHex("0101010562757965720673656c6c6572020100000000000186a00200000000000000370000015d3ef79800"), pr.getPayload()));
+	}
+	
+	@Test
+	public void testConstructor_unsupportedVersion() throws Exception {
+		for (int version : new int[] { SerializableObject.DICTIONARY_VERSION, SerializableObject.PAYEE_REFERENCE_VERSION, SerializableObject.REQUEST_DIGEST_VERSION, 7, 255 }) {
+			boolean exceptionThrown = false;
+			try {
+				new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+			} catch (IllegalArgumentException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+			
+			exceptionThrown = false;
+			try {
+				new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, Currency.CHF, 10, System.currentTimeMillis());
+			} catch (IllegalArgumentException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+		}
+	}
 
 }
@@ -7,6 +7,8 @@ import com.coinblesk.customserialization.PaymentResponse;
 import com.coinblesk.customserialization.PKIAlgorithm;
 import com.coinblesk.customserialization.PrimitiveTypeSerializer;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.nio.charset.Charset;
@@ -15,7 +17,9 @@ import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
 import java.security.SignatureException;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Before;
@@ -26,6 +30,7 @@ import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
 import com.coinblesk.customserialization.exceptions.NotSignedException;
 import com.coinblesk.customserialization.exceptions.SerializationException;
 import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException;
+import com.coinblesk.customserialization.exceptions.UnknownReasonCodeException;
 import com.coinblesk.customserialization.testutils.TestUtils;
 
 public class PaymentResponseTest {
@@ -254,5 +259,185 @@ public class PaymentResponseTest {
 		assertTrue(verify);
 		assertTrue(pr.equals(decoded));
 	}
+	
+	@Test
+	public void testEncodeDecode_ed25519() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		
+		PaymentResponse pr = new PaymentResponse(PKIAlgorithm.ED25519, 1, ServerResponseStatus.FAILURE, "some error message", "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(keyPair.getPrivate());
+		
+		PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertEquals(64, decoded.getSignature().length);
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		assertTrue(pr.equals(decoded));
+	}
+	
+	@Test
+	public void testEncodeDecode_compact() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		PaymentResponse pr = new PaymentResponse(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.FAILURE, "ins. funds", "buyer", "seller", Currency.BTC, 12, timestamp);
+		pr.sign(keyPair.getPrivate());
+		PaymentResponse v1 = new PaymentResponse(PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.FAILURE, "ins. funds", "buyer", "seller", Currency.BTC, 12, timestamp);
+		assertTrue(pr.getPayload().length < v1.getPayload().length);
+		
+		PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertTrue(pr.equals(decoded));
+		assertEquals(ServerResponseStatus.FAILURE, decoded.getStatus());
+		assertEquals("ins. funds", decoded.getReason());
+		assertEquals(timestamp, decoded.getTimestamp());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		
+		pr = new PaymentResponse(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.DUPLICATE_REQUEST, null, "buyer", "seller", Currency.CHF, 1L << 40, timestamp);
+		pr.sign(keyPair.getPrivate());
+		decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertEquals(ServerResponseStatus.DUPLICATE_REQUEST, decoded.getStatus());
+		assertEquals(Currency.CHF, decoded.getCurrency());
+		assertEquals(1L << 40, decoded.getAmount());
+	}
+	
+	@Test
+	public void testEncodeDecode_requestDigest() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		PaymentRequest request = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		PaymentResponse pr = new PaymentResponse(PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.FAILURE, "ins. funds", request);
+		pr.sign(keyPair.getPrivate());
+		assertEquals(SerializableObject.REQUEST_DIGEST_VERSION, pr.getVersion());
+		assertEquals("buyer", pr.getUsernamePayer());
+		PaymentResponse v1 = new PaymentResponse(PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.FAILURE, "ins. funds", "buyer", "seller", Currency.BTC, 12, timestamp);
+		// the reason is not the description of a reason code and is preceded by ReasonCode.OTHER
+		assertEquals(v1.getPayload().length - (1 + 5 + 1 + 6 + 1 + 8 + 8) + 1 + PaymentResponse.REQUEST_DIGEST_LENGTH, pr.getPayload().length);
+		
+		PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertTrue(pr.equals(decoded));
+		assertEquals(ServerResponseStatus.FAILURE, decoded.getStatus());
+		assertEquals("ins. funds", decoded.getReason());
+		assertNull(decoded.getUsernamePayer());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		assertTrue(decoded.references(request));
+		assertFalse(decoded.references(new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 13, timestamp)));
+		assertTrue(v1.references(request));
+		
+		pr = new PaymentResponse(PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.SUCCESS, null, request);
+		pr.sign(keyPair.getPrivate());
+		decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertEquals(ServerResponseStatus.SUCCESS, decoded.getStatus());
+		assertTrue(decoded.references(request));
+		
+		// the digest is covered by the signature
+		byte[] encoded = pr.encode();
+		encoded[4] ^= 0x01;
+		assertFalse(DecoderFactory.<PaymentResponse>decode(PaymentResponse.class, encoded).verify(keyPair.getPublic()));
+		
+		boolean exceptionThrown = false;
+		try {
+			new PaymentResponse(SerializableObject.REQUEST_DIGEST_VERSION, PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, 12, timestamp);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testEncodeDecode_reasonCode() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		long timestamp = System.currentTimeMillis();
+		
+		PaymentResponse pr = new PaymentResponse(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, ReasonCode.INSUFFICIENT_FUNDS, "buyer", "seller", Currency.BTC, 12, timestamp);
+		pr.sign(keyPair.getPrivate());
+		assertEquals(ServerResponseStatus.FAILURE, pr.getStatus());
+		assertEquals(ReasonCode.INSUFFICIENT_FUNDS, pr.getReasonCode());
+		PaymentResponse success = new PaymentResponse(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, 12, timestamp);
+		assertEquals(success.getPayload().length + 1, pr.getPayload().length);
+		
+		PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertTrue(pr.equals(decoded));
+		assertEquals(ReasonCode.INSUFFICIENT_FUNDS, decoded.getReasonCode());
+		assertEquals(ReasonCode.INSUFFICIENT_FUNDS.getDescription(), decoded.getReason());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		
+		// version 1 transfers the description, which is mapped back to the reason code
+		pr = new PaymentResponse(1, PKIAlgorithm.DEFAULT, 1, ReasonCode.UNKNOWN_USER, "buyer", "seller", Currency.BTC, 12, timestamp);
+		pr.sign(keyPair.getPrivate());
+		decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertEquals(ReasonCode.UNKNOWN_USER, decoded.getReasonCode());
+		
+		PaymentRequest request = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		pr = new PaymentResponse(PKIAlgorithm.DEFAULT, 1, ReasonCode.SERVER_UNAVAILABLE, request);
+		pr.sign(keyPair.getPrivate());
+		decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertEquals(ReasonCode.SERVER_UNAVAILABLE, decoded.getReasonCode());
+		assertEquals(ReasonCode.SERVER_UNAVAILABLE.getDescription(), decoded.getReason());
+		
+		boolean exceptionThrown = false;
+		try {
+			new PaymentResponse(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, ReasonCode.OTHER, "buyer", "seller", Currency.BTC, 12, timestamp);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			byte[] encoded = decoded.encode();
+			// the reason code at index 4 is unknown
+			encoded[4] = 0x7F;
+			DecoderFactory.decode(PaymentResponse.class, encoded);
+		} catch (UnknownReasonCodeException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testPayload_version1WireFormat() throws Exception {
+		PaymentResponse pr = new PaymentResponse(PKIAlgorithm.DEFAULT, 2, ServerResponseStatus.FAILURE, "no funds", "buyer", "seller", Currency.BTC, 100000, 1500000000000L);
+		assertTrue(Arrays.equals(TestUtils.fromHex("01010202086e6f2066756e64730562757965720673656c6c65720100000000000186a00000015d3ef79800"), pr.getPayload()));
+		
+		pr = new PaymentResponse(PKIAlgorithm.DEFAULT, 2, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, 100000, 1500000000000L);
+		assertTrue(Arrays.equals(TestUtils.fromHex("010102010562757965720673656c6c65720100000000000186a00000015d3ef79800"), pr.getPayload()));
+	}
+	
+	@Test
+	public void testEncodeDecode_nonAsciiReason() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		
+		// the length prefix counts the UTF-8 bytes, not the characters
+		PaymentResponse pr = new PaymentResponse(PKIAlgorithm.ED25519, 1, ServerResponseStatus.FAILURE, "Zahlung f\u00fcr B\u00e4ckerei abgelehnt", "buyer", "seller", Currency.CHF, 12, System.currentTimeMillis());
+		pr.sign(keyPair.getPrivate());
+		PaymentResponse decoded = DecoderFactory.decode(PaymentResponse.class, pr.encode());
+		assertEquals(pr.getReason(), decoded.getReason());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+		
+		// 200 characters, but 400 bytes in UTF-8
+		StringBuilder reason = new StringBuilder();
+		for (int i=0; i<200; i++) {
+			reason.append('\u00e4');
+		}
+		boolean exceptionThrown = false;
+		try {
+			new PaymentResponse(PKIAlgorithm.ED25519, 1, ServerResponseStatus.FAILURE, reason.toString(), "buyer", "seller", Currency.CHF, 12, System.currentTimeMillis());
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testConstructor_unsupportedVersion() throws Exception {
+		for (int version : new int[] { SerializableObject.FIXED_OFFSET_VERSION, SerializableObject.DICTIONARY_VERSION, SerializableObject.PAYEE_REFERENCE_VERSION, SerializableObject.REQUEST_DIGEST_VERSION, 7, 255 }) {
+			boolean exceptionThrown = false;
+			try {
+				new PaymentResponse(version, PKIAlgorithm.ED25519, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+			} catch (IllegalArgumentException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+		}
+	}
 
 }
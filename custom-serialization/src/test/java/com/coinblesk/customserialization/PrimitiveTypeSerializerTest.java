@@ -2,12 +2,15 @@ package com.coinblesk.customserialization;
 
 import com.coinblesk.customserialization.PrimitiveTypeSerializer;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
 public class PrimitiveTypeSerializerTest {
 
 	@BeforeClass
@@ -51,5 +54,45 @@ public class PrimitiveTypeSerializerTest {
 		short convertedShort2 = PrimitiveTypeSerializer.getBytesAsShort(shortAsBytes2);
 		assertEquals(s2, convertedShort2);
 	}
+	
+	@Test
+	public void testVarints() throws IllegalArgumentException {
+		long[] values = { 0, 1, 127, 128, 300, 16383, 16384, 1L << 35, Long.MAX_VALUE };
+		int[] lengths = { 1, 1, 1, 2, 2, 2, 3, 6, 9 };
+		for (int i=0; i<values.length; i++) {
+			byte[] varint = PrimitiveTypeSerializer.getLongAsVarint(values[i]);
+			assertEquals(lengths[i], varint.length);
+			assertEquals(lengths[i], PrimitiveTypeSerializer.getVarintLength(values[i]));
+			
+			byte[] embedded = new byte[varint.length + 2];
+			System.arraycopy(varint, 0, embedded, 1, varint.length);
+			assertEquals(values[i], PrimitiveTypeSerializer.getVarintAsLong(embedded, 1));
+		}
+		
+		boolean exceptionThrown = false;
+		try {
+			// 0 encoded with 2 bytes
+			PrimitiveTypeSerializer.getVarintAsLong(new byte[] { (byte) 0x80, 0x00 }, 0);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			// -1 encoded with 10 bytes
+			byte[] varint = { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01 };
+			PrimitiveTypeSerializer.getVarintAsLong(varint, 0);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testShorts_greaterThan255() {
+		short s = 300;
+		assertEquals(s, PrimitiveTypeSerializer.getBytesAsShort(PrimitiveTypeSerializer.getShortAsBytes(s)));
+	}
 
 }
@@ -0,0 +1,112 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+public class ServerPaymentRequestBatchTest {
+	
+	@Test
+	public void testEncodeDecode() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		final KeyPair keyPairPayer = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		final KeyPair keyPairPayee = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return keyNumber == 1 ? keyPairPayer.getPublic() : keyPairPayee.getPublic();
+			}
+		};
+		
+		List<ServerPaymentRequest> entries = new ArrayList<ServerPaymentRequest>();
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, timestamp + 5000);
+		prPayer.sign(keyPairPayer.getPrivate());
+		entries.add(new ServerPaymentRequest(prPayer));
+		
+		prPayer = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 20, timestamp);
+		prPayer.sign(keyPairPayer.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.ED25519, 2, "buyer", "seller", Currency.BTC, 20, timestamp);
+		prPayee.sign(keyPairPayee.getPrivate());
+		entries.add(new ServerPaymentRequest(prPayer, prPayee));
+		
+		// signed with the payee's key instead of the payer's key
+		PaymentRequest forged = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 30, timestamp + 10);
+		forged.sign(keyPairPayee.getPrivate());
+		entries.add(new ServerPaymentRequest(forged));
+		
+		ServerPaymentRequestBatch batch = new ServerPaymentRequestBatch(entries);
+		byte[] encoded = batch.encode();
+		ServerPaymentRequestBatch decoded = DecoderFactory.decode(ServerPaymentRequestBatch.class, encoded);
+		assertTrue(batch.equals(decoded));
+		assertEquals(batch.hashCode(), decoded.hashCode());
+		assertEquals(3, decoded.getServerPaymentRequests().size());
+		
+		ByteBuffer frame = ByteBuffer.wrap(encoded);
+		assertEquals(3, ServerPaymentRequestBatch.getNofEntries(frame));
+		assertTrue(Arrays.equals(new long[] { timestamp + 5000, timestamp, timestamp + 10 }, ServerPaymentRequestBatch.getTimestamps(frame)));
+		
+		ByteBuffer entry = ServerPaymentRequestBatch.getEntry(frame, 1);
+		assertEquals(SerializableObject.PAYEE_REFERENCE_VERSION, entry.get(entry.position()));
+		assertTrue(ServerPaymentRequest.verify(resolver, entry));
+		
+		boolean[] valid = ServerPaymentRequestBatch.verifyAll(resolver, frame, System.currentTimeMillis() + 10000);
+		assertTrue(Arrays.equals(new boolean[] { true, true, false }, valid));
+		assertEquals(0, frame.position());
+		
+		// the unsigned timestamp of the second entry in the header is shifted
+		int deltaIndex = 1+1+3*ServerPaymentRequestBatch.NOF_BYTES_FOR_OFFSET+8+PrimitiveTypeSerializer.getVarintLength(5000);
+		assertEquals(0, encoded[deltaIndex]);
+		encoded[deltaIndex] = 1;
+		assertEquals(timestamp + 1, ServerPaymentRequestBatch.getTimestamps(frame)[1]);
+		valid = ServerPaymentRequestBatch.verifyAll(resolver, frame, System.currentTimeMillis() + 10000);
+		assertTrue(Arrays.equals(new boolean[] { true, false, false }, valid));
+	}
+	
+	@Test
+	public void testDecode_corrupt() throws Exception {
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.ED25519, 1, "buyer", "seller", Currency.BTC, 12, System.currentTimeMillis());
+		pr.sign(PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom()).getPrivate());
+		List<ServerPaymentRequest> entries = new ArrayList<ServerPaymentRequest>();
+		entries.add(new ServerPaymentRequest(pr));
+		entries.add(new ServerPaymentRequest(pr));
+		byte[] encoded = new ServerPaymentRequestBatch(entries).encode();
+		
+		boolean exceptionThrown = false;
+		try {
+			ServerPaymentRequestBatch.getEntry(ByteBuffer.wrap(encoded), 2);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		// the second entry starts beyond the end of the frame
+		encoded[2+4] = 0x7F;
+		exceptionThrown = false;
+		try {
+			DecoderFactory.decode(ServerPaymentRequestBatch.class, encoded);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			new ServerPaymentRequestBatch(new ArrayList<ServerPaymentRequest>());
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
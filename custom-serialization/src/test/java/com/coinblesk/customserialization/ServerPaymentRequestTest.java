@@ -5,14 +5,24 @@ import com.coinblesk.customserialization.PaymentRequest;
 import com.coinblesk.customserialization.DecoderFactory;
 import com.coinblesk.customserialization.ServerPaymentRequest;
 import com.coinblesk.customserialization.PKIAlgorithm;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.After;
 import org.junit.Before;
@@ -25,7 +35,8 @@ import com.coinblesk.customserialization.exceptions.UnknownPKIAlgorithmException
 import com.coinblesk.customserialization.testutils.TestUtils;
 
 public class ServerPaymentRequestTest {
-
+	private static final int NOF_BYTES_FOR_PAYLOAD_LENGTH = 2;
+	
 	@BeforeClass
 	public static void setUpBeforeClass() throws Exception {
 	}
@@ -143,5 +154,345 @@ public class ServerPaymentRequestTest {
 		assertTrue(decodedSpr.getPaymentRequestPayer().verify(keyPairPayer.getPublic()));
 		assertTrue(decodedSpr.getPaymentRequestPayee().verify(keyPairPayee.getPublic()));
 	}
+	
+	@Test
+	public void testEncodeDecode_mixedPKIAlgorithms() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		
+		KeyPair keyPairPayer = TestUtils.generateKeyPair();
+		KeyPair keyPairPayee = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPairPayer.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.ED25519, 2, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayee.sign(keyPairPayee.getPrivate());
+		ServerPaymentRequest spr = new ServerPaymentRequest(prPayer, prPayee);
+		
+		ServerPaymentRequest decodedSpr = DecoderFactory.decode(ServerPaymentRequest.class, spr.encode());
+		
+		assertTrue(spr.equals(decodedSpr));
+		assertTrue(decodedSpr.getPaymentRequestPayer().verify(keyPairPayer.getPublic()));
+		assertTrue(decodedSpr.getPaymentRequestPayee().verify(keyPairPayee.getPublic()));
+	}
+	
+	@Test
+	public void testVerify_byteBuffer() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		
+		final KeyPair keyPairPayer = TestUtils.generateKeyPair();
+		final KeyPair keyPairPayee = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				if (username.equals("buyer") && pkiAlgorithm == PKIAlgorithm.DEFAULT && keyNumber == 1)
+					return keyPairPayer.getPublic();
+				if (username.equals("seller") && pkiAlgorithm == PKIAlgorithm.ED25519 && keyNumber == 2)
+					return keyPairPayee.getPublic();
+				return null;
+			}
+		};
+		
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPairPayer.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.ED25519, 2, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayee.sign(keyPairPayee.getPrivate());
+		
+		assertTrue(ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(new ServerPaymentRequest(prPayer).encode())));
+		ByteBuffer frame = ByteBuffer.wrap(new ServerPaymentRequest(prPayer, prPayee).encode());
+		assertTrue(ServerPaymentRequest.verify(resolver, frame));
+		assertEquals(0, frame.position());
+		
+		// the payee request is signed with the key of the payer
+		PaymentRequest forged = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		forged.sign(keyPairPayer.getPrivate());
+		assertFalse(ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(new ServerPaymentRequest(prPayer, forged).encode())));
+		
+		PaymentRequest unknownKey = new PaymentRequest(PKIAlgorithm.DEFAULT, 3, "buyer", "seller", Currency.BTC, 12, timestamp);
+		unknownKey.sign(keyPairPayer.getPrivate());
+		assertFalse(ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(new ServerPaymentRequest(unknownKey).encode())));
+		
+		boolean exceptionThrown = false;
+		try {
+			ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(new byte[] { 1, 3, 0, 0 }));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testVerify_byteBufferNotIdentic() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		
+		final KeyPair keyPairAlice = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		final KeyPair keyPairBob = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				if (username.equals("alice"))
+					return keyPairAlice.getPublic();
+				if (username.equals("bob"))
+					return keyPairBob.getPublic();
+				return null;
+			}
+		};
+		
+		for (int version : new int[] { 1, SerializableObject.COMPACT_VERSION, SerializableObject.FIXED_OFFSET_VERSION }) {
+			// each request is signed correctly, but the payee signed another payment
+			PaymentRequest prPayer = new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "alice", "bob", Currency.BTC, 10, timestamp);
+			prPayer.sign(keyPairAlice.getPrivate());
+			PaymentRequest prPayee = new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "carol", "bob", Currency.BTC, 1000, timestamp);
+			prPayee.sign(keyPairBob.getPrivate());
+			
+			byte[] payer = prPayer.encode();
+			byte[] payee = prPayee.encode();
+			ByteBuffer frame = ByteBuffer.allocate(2 + 2 + payer.length + 2 + payee.length);
+			frame.put((byte) 1);
+			frame.put((byte) 2);
+			frame.putShort((short) payer.length);
+			frame.put(payer);
+			frame.putShort((short) payee.length);
+			frame.put(payee);
+			
+			boolean exceptionThrown = false;
+			try {
+				DecoderFactory.decode(ServerPaymentRequest.class, frame.array());
+			} catch (IllegalArgumentException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+			
+			exceptionThrown = false;
+			try {
+				ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(frame.array()));
+			} catch (IllegalArgumentException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+			
+			// only the timestamp differs
+			prPayee = new PaymentRequest(version, PKIAlgorithm.ED25519, 1, "alice", "bob", Currency.BTC, 10, timestamp + 1);
+			prPayee.sign(keyPairBob.getPrivate());
+			payee = prPayee.encode();
+			frame.position(4 + payer.length + 2);
+			frame.put(payee);
+			exceptionThrown = false;
+			try {
+				ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(frame.array()));
+			} catch (IllegalArgumentException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+		}
+	}
+	
+	@Test
+	public void testVerifyAll() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		
+		final KeyPair keyPairPayer = TestUtils.generateKeyPair();
+		final KeyPair keyPairPayee = TestUtils.generateKeyPair();
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return username.equals("buyer") ? keyPairPayer.getPublic() : keyPairPayee.getPublic();
+			}
+		};
+		
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPairPayer.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayee.sign(keyPairPayee.getPrivate());
+		PaymentRequest forged = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		forged.sign(keyPairPayer.getPrivate());
+		
+		long deadline = System.currentTimeMillis() + 10000;
+		assertTrue(new ServerPaymentRequest(prPayer).verifyAll(resolver, deadline));
+		assertTrue(new ServerPaymentRequest(prPayer, prPayee).verifyAll(resolver, deadline));
+		assertFalse(new ServerPaymentRequest(prPayer, forged).verifyAll(resolver, deadline));
+		assertFalse(new ServerPaymentRequest(forged, prPayee).verifyAll(new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return null;
+			}
+		}, deadline));
+	}
+	
+	@Test
+	public void testVerifyAll_deadline() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		
+		final KeyPair keyPair = TestUtils.generateKeyPair();
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				return keyPair.getPublic();
+			}
+		};
+		
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPair.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayee.sign(keyPair.getPrivate());
+		ServerPaymentRequest spr = new ServerPaymentRequest(prPayer, prPayee);
+		
+		// the only thread of the executor is busy, so the verifications cannot complete in time
+		final CountDownLatch latch = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			
+			boolean exceptionThrown = false;
+			try {
+				spr.verifyAll(resolver, System.currentTimeMillis() + 50, executor);
+			} catch (TimeoutException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(exceptionThrown);
+			
+			latch.countDown();
+			assertTrue(spr.verifyAll(resolver, System.currentTimeMillis() + 10000, executor));
+		} finally {
+			latch.countDown();
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testEncodeDecode_dictionary() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		
+		KeyPair keyPairPayer = TestUtils.generateKeyPair();
+		KeyPair keyPairPayee = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPairPayer.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(SerializableObject.FIXED_OFFSET_VERSION, PKIAlgorithm.ED25519, 2, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayee.sign(keyPairPayee.getPrivate());
+		ServerPaymentRequest spr = new ServerPaymentRequest(prPayer, prPayee);
+		
+		UsernameDictionary sender = new UsernameDictionary();
+		sender.add("buyer");
+		sender.add("seller");
+		UsernameDictionary receiver = new UsernameDictionary();
+		receiver.apply(sender.getUpdate(0));
+		
+		byte[] encoded = spr.encode(sender);
+		assertEquals(SerializableObject.DICTIONARY_VERSION, encoded[0]);
+		/*
+		 * the usernames of both requests (with the inline lengths in version 1)
+		 * are replaced by 4 IDs of 1 byte, the 2 byte lengths by varints of 1
+		 * byte, and the dictionary version and 2 usernames offsets are added
+		 */
+		assertEquals(spr.encode().length - (1 + 5 + 1 + 6) - (5 + 6) - 2 + 4 + 1 + 2, encoded.length);
+		
+		ServerPaymentRequest decodedSpr = new ServerPaymentRequest().decode(encoded, receiver);
+		assertTrue(spr.equals(decodedSpr));
+		assertTrue(decodedSpr.getPaymentRequestPayer().verify(keyPairPayer.getPublic()));
+		assertTrue(decodedSpr.getPaymentRequestPayee().verify(keyPairPayee.getPublic()));
+		
+		// frames of version 1 are decoded as well
+		assertTrue(spr.equals(new ServerPaymentRequest().decode(spr.encode(), receiver)));
+		
+		// unknown usernames are written inline
+		encoded = spr.encode(new UsernameDictionary());
+		assertTrue(spr.equals(new ServerPaymentRequest().decode(encoded, new UsernameDictionary())));
+		
+		boolean exceptionThrown = false;
+		try {
+			new ServerPaymentRequest().decode(spr.encode(sender), new UsernameDictionary());
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			DecoderFactory.decode(ServerPaymentRequest.class, spr.encode(sender));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testEncodeDecode_payeeReference() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		
+		final KeyPair keyPairPayer = TestUtils.generateKeyPair();
+		final KeyPair keyPairPayee = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		PublicKeyResolver resolver = new PublicKeyResolver() {
+			@Override
+			public PublicKey getPublicKey(String username, PKIAlgorithm pkiAlgorithm, int keyNumber) {
+				if (username.equals("buyer") && pkiAlgorithm == PKIAlgorithm.DEFAULT && keyNumber == 1)
+					return keyPairPayer.getPublic();
+				if (username.equals("seller") && pkiAlgorithm == PKIAlgorithm.ED25519 && keyNumber == 2)
+					return keyPairPayee.getPublic();
+				return null;
+			}
+		};
+		
+		for (int version : new int[] { 1, SerializableObject.COMPACT_VERSION, SerializableObject.FIXED_OFFSET_VERSION }) {
+			PaymentRequest prPayer = new PaymentRequest(version, PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, Currency.CHF, 5, timestamp);
+			prPayer.sign(keyPairPayer.getPrivate());
+			PaymentRequest prPayee = new PaymentRequest(version, PKIAlgorithm.ED25519, 2, "buyer", "seller", Currency.BTC, 12, Currency.CHF, 5, timestamp);
+			prPayee.sign(keyPairPayee.getPrivate());
+			ServerPaymentRequest spr = new ServerPaymentRequest(prPayer, prPayee);
+			
+			byte[] encoded = spr.encodeWithPayeeReference();
+			assertEquals(SerializableObject.PAYEE_REFERENCE_VERSION, encoded[0]);
+			assertEquals(spr.encode().length - NOF_BYTES_FOR_PAYLOAD_LENGTH - prPayee.getPayload().length + 2, encoded.length);
+			
+			ServerPaymentRequest decodedSpr = DecoderFactory.decode(ServerPaymentRequest.class, encoded);
+			assertTrue(spr.equals(decodedSpr));
+			assertTrue(decodedSpr.getPaymentRequestPayee().verify(keyPairPayee.getPublic()));
+			assertTrue(ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(encoded)));
+			
+			// the payee's signature does not match the derived payload
+			encoded[encoded.length - 1] ^= 0x01;
+			assertFalse(ServerPaymentRequest.verify(resolver, ByteBuffer.wrap(encoded)));
+		}
+		
+		// the input amounts differ, so the payee's request cannot be derived
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPairPayer.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.ED25519, 2, "buyer", "seller", Currency.BTC, 12, Currency.CHF, 5, timestamp);
+		prPayee.sign(keyPairPayee.getPrivate());
+		ServerPaymentRequest spr = new ServerPaymentRequest(prPayer, prPayee);
+		assertTrue(Arrays.equals(spr.encode(), spr.encodeWithPayeeReference()));
+	}
+	
+	@Test
+	public void testEncodeDecode_longerThan255Bytes() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		KeyPair keyPairPayer = TestUtils.generateKeyPair();
+		KeyPair keyPairPayee = TestUtils.generateKeyPair();
+		
+		char[] usernamePayer = new char[200];
+		Arrays.fill(usernamePayer, 'b');
+		char[] usernamePayee = new char[200];
+		Arrays.fill(usernamePayee, 's');
+		
+		PaymentRequest prPayer = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, new String(usernamePayer), new String(usernamePayee), Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPairPayer.getPrivate());
+		PaymentRequest prPayee = new PaymentRequest(PKIAlgorithm.DEFAULT, 1, new String(usernamePayer), new String(usernamePayee), Currency.BTC, 12, timestamp);
+		prPayee.sign(keyPairPayee.getPrivate());
+		assertTrue(prPayer.encode().length > 255);
+		
+		ServerPaymentRequest spr = new ServerPaymentRequest(prPayer, prPayee);
+		byte[] encoded = spr.encode();
+		ServerPaymentRequest decoded = DecoderFactory.decode(ServerPaymentRequest.class, encoded);
+		assertTrue(spr.equals(decoded));
+		assertTrue(decoded.getPaymentRequestPayee().verify(keyPairPayee.getPublic()));
+	}
 
 }
@@ -0,0 +1,45 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ServerPaymentResponseBatchTest {
+	
+	@Test
+	public void testEncodeDecode() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		
+		List<ServerPaymentResponse> entries = new ArrayList<ServerPaymentResponse>();
+		PaymentResponse success = new PaymentResponse(PKIAlgorithm.ED25519, 1, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, 12, timestamp);
+		success.sign(keyPair.getPrivate());
+		entries.add(new ServerPaymentResponse(success));
+		
+		PaymentResponse failure = new PaymentResponse(SerializableObject.COMPACT_VERSION, PKIAlgorithm.ED25519, 1, ReasonCode.INSUFFICIENT_FUNDS, "buyer", "seller", Currency.BTC, 30, timestamp);
+		failure.sign(keyPair.getPrivate());
+		entries.add(new ServerPaymentResponse(failure, failure));
+		
+		ServerPaymentResponseBatch batch = new ServerPaymentResponseBatch(entries);
+		byte[] encoded = batch.encode();
+		ServerPaymentResponseBatch decoded = DecoderFactory.decode(ServerPaymentResponseBatch.class, encoded);
+		assertTrue(batch.equals(decoded));
+		assertEquals(batch.hashCode(), decoded.hashCode());
+		assertEquals(ReasonCode.INSUFFICIENT_FUNDS, decoded.getServerPaymentResponses().get(1).getPaymentResponsePayer().getReasonCode());
+		
+		ByteBuffer frame = ByteBuffer.wrap(encoded);
+		assertEquals(2, ServerPaymentResponseBatch.getNofEntries(frame));
+		ByteBuffer entry = ServerPaymentResponseBatch.getEntry(frame, 0);
+		byte[] entryBytes = new byte[entry.remaining()];
+		entry.get(entryBytes);
+		assertTrue(entries.get(0).equals(DecoderFactory.decode(ServerPaymentResponse.class, entryBytes)));
+	}
+
+}
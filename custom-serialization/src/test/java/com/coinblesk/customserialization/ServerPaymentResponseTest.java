@@ -7,6 +7,7 @@ import com.coinblesk.customserialization.ServerPaymentRequest;
 import com.coinblesk.customserialization.PaymentResponse;
 import com.coinblesk.customserialization.PKIAlgorithm;
 import com.coinblesk.customserialization.ServerPaymentResponse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.security.InvalidAlgorithmParameterException;
@@ -103,5 +104,29 @@ public class ServerPaymentResponseTest {
 		
 		assertTrue(sr.equals(decode));
 	}
+	
+	@Test
+	public void testEncodeDecode_dictionary() throws Exception {
+		long timestamp = System.currentTimeMillis();
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		
+		PaymentResponse prPayer = new PaymentResponse(PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.FAILURE, "insufficient funds", "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayer.sign(keyPair.getPrivate());
+		PaymentResponse prPayee = new PaymentResponse(SerializableObject.COMPACT_VERSION, PKIAlgorithm.DEFAULT, 1, ServerResponseStatus.FAILURE, "insufficient funds", "buyer", "seller", Currency.BTC, 12, timestamp);
+		prPayee.sign(keyPair.getPrivate());
+		ServerPaymentResponse spr = new ServerPaymentResponse(prPayer, prPayee);
+		
+		UsernameDictionary dictionary = new UsernameDictionary();
+		dictionary.add("seller");
+		
+		byte[] encoded = spr.encode(dictionary);
+		assertTrue(encoded.length < spr.encode().length);
+		
+		ServerPaymentResponse decodedSpr = new ServerPaymentResponse().decode(encoded, dictionary);
+		assertTrue(spr.equals(decodedSpr));
+		assertTrue(decodedSpr.getPaymentResponsePayer().verify(keyPair.getPublic()));
+		assertTrue(decodedSpr.getPaymentResponsePayee().verify(keyPair.getPublic()));
+		assertEquals("insufficient funds", decodedSpr.getPaymentResponsePayee().getReason());
+	}
 
 }
@@ -0,0 +1,147 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+import com.coinblesk.customserialization.testutils.TestUtils;
+
+public class SessionHandshakeTest {
+	
+	@Test
+	public void testEncodeDecode() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		SessionKeyExchange exchange = new SessionKeyExchange(new SecureRandom());
+		SessionHandshake sh = exchange.createHandshake(PKIAlgorithm.DEFAULT, 1, "terminal", 7, System.currentTimeMillis(), keyPair.getPrivate());
+		
+		SessionHandshake decoded = DecoderFactory.decode(SessionHandshake.class, sh.encode());
+		assertTrue(sh.equals(decoded));
+		assertEquals(sh.hashCode(), decoded.hashCode());
+		assertEquals(7, decoded.getSessionNumber());
+		assertArrayEquals(exchange.getEphemeralPublicKey(), decoded.getEphemeralPublicKey());
+		assertTrue(decoded.verify(keyPair.getPublic()));
+	}
+	
+	@Test
+	public void testCreate_IllegalArgumentException() throws Exception {
+		boolean exceptionThrown = false;
+		try {
+			new SessionHandshake(PKIAlgorithm.HMAC_SHA256, 1, "terminal", 1, new byte[SessionHandshake.EPHEMERAL_KEY_LENGTH], 1);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			new SessionHandshake(PKIAlgorithm.DEFAULT, 1, "terminal", 1, new byte[31], 1);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testSessionKey() throws Exception {
+		SecureRandom random = new SecureRandom();
+		KeyPair terminalKeyPair = TestUtils.generateKeyPair();
+		KeyPair serverKeyPair = PKIAlgorithm.ED25519.generateKeyPair(random);
+		long timestamp = System.currentTimeMillis();
+		
+		SessionKeyExchange terminal = new SessionKeyExchange(random);
+		SessionKeyExchange server = new SessionKeyExchange(random);
+		SessionHandshake terminalHandshake = terminal.createHandshake(PKIAlgorithm.DEFAULT, 1, "terminal", 3, timestamp, terminalKeyPair.getPrivate());
+		SessionHandshake serverHandshake = server.createHandshake(PKIAlgorithm.ED25519, 1, "server", 3, timestamp, serverKeyPair.getPrivate());
+		
+		SessionHandshake receivedByServer = DecoderFactory.decode(SessionHandshake.class, terminalHandshake.encode());
+		SessionHandshake receivedByTerminal = DecoderFactory.decode(SessionHandshake.class, serverHandshake.encode());
+		SessionKeys terminalKeys = terminal.deriveSessionKeys(receivedByTerminal, serverKeyPair.getPublic());
+		SessionKeys serverKeys = server.deriveSessionKeys(receivedByServer, terminalKeyPair.getPublic());
+		assertArrayEquals(terminalKeys.getSendingKey().getEncoded(), serverKeys.getReceivingKey().getEncoded());
+		assertArrayEquals(serverKeys.getSendingKey().getEncoded(), terminalKeys.getReceivingKey().getEncoded());
+		assertFalse(Arrays.equals(terminalKeys.getSendingKey().getEncoded(), terminalKeys.getReceivingKey().getEncoded()));
+		
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.HMAC_SHA256, 3, "buyer", "seller", Currency.BTC, 12, timestamp);
+		pr.sign(terminalKeys.getSendingKey());
+		assertEquals(PKIAlgorithm.HMAC_SHA256.getSignatureLength(), pr.getSignature().length);
+		PaymentRequest decoded = DecoderFactory.decode(PaymentRequest.class, pr.encode());
+		assertTrue(decoded.verify(serverKeys.getReceivingKey()));
+		// a request reflected back to the terminal
+		assertFalse(decoded.verify(terminalKeys.getReceivingKey()));
+		
+		SessionKeyExchange other = new SessionKeyExchange(random);
+		other.createHandshake(PKIAlgorithm.ED25519, 1, "server", 3, timestamp, serverKeyPair.getPrivate());
+		assertFalse(decoded.verify(other.deriveSessionKeys(receivedByServer, terminalKeyPair.getPublic()).getReceivingKey()));
+		
+		PaymentResponse response = new PaymentResponse(PKIAlgorithm.HMAC_SHA256, 3, ServerResponseStatus.SUCCESS, null, "buyer", "seller", Currency.BTC, 12, timestamp);
+		response.sign(serverKeys.getSendingKey());
+		assertTrue(DecoderFactory.<PaymentResponse>decode(PaymentResponse.class, response.encode()).verify(terminalKeys.getReceivingKey()));
+	}
+	
+	@Test
+	public void testSessionKey_IllegalArgumentException() throws Exception {
+		SecureRandom random = new SecureRandom();
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(random);
+		SessionKeyExchange terminal = new SessionKeyExchange(random);
+		SessionHandshake handshake = new SessionKeyExchange(random).createHandshake(PKIAlgorithm.ED25519, 1, "server", 4, 1, keyPair.getPrivate());
+		
+		// the own handshake has not been created
+		boolean exceptionThrown = false;
+		try {
+			terminal.deriveSessionKeys(handshake, keyPair.getPublic());
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		// the session numbers differ
+		terminal.createHandshake(PKIAlgorithm.ED25519, 1, "terminal", 3, 1, keyPair.getPrivate());
+		exceptionThrown = false;
+		try {
+			terminal.deriveSessionKeys(handshake, keyPair.getPublic());
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testSessionKey_invalidSignature() throws Exception {
+		SecureRandom random = new SecureRandom();
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		SessionKeyExchange terminal = new SessionKeyExchange(random);
+		terminal.createHandshake(PKIAlgorithm.DEFAULT, 1, "terminal", 1, 1, keyPair.getPrivate());
+		SessionHandshake handshake = new SessionKeyExchange(random).createHandshake(PKIAlgorithm.DEFAULT, 1, "server", 1, 1, keyPair.getPrivate());
+		
+		boolean exceptionThrown = false;
+		try {
+			terminal.deriveSessionKeys(handshake, TestUtils.generateKeyPair().getPublic());
+		} catch (SignatureException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testSign_wrongKeyType() throws Exception {
+		PaymentRequest pr = new PaymentRequest(PKIAlgorithm.HMAC_SHA256, 1, "buyer", "seller", Currency.BTC, 12, 1);
+		boolean exceptionThrown = false;
+		try {
+			pr.sign(TestUtils.generateKeyPair().getPrivate());
+		} catch (InvalidKeyException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
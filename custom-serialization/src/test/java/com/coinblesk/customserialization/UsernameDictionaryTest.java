@@ -0,0 +1,83 @@
+package com.coinblesk.customserialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.exceptions.IllegalArgumentException;
+
+public class UsernameDictionaryTest {
+	
+	@Test
+	public void testAdd() throws Exception {
+		UsernameDictionary dictionary = new UsernameDictionary();
+		assertEquals(0, dictionary.getVersion());
+		assertEquals(0, dictionary.add("buyer"));
+		assertEquals(1, dictionary.add("seller"));
+		assertEquals(0, dictionary.add("buyer"));
+		assertEquals(2, dictionary.getVersion());
+		assertEquals(1, dictionary.getId("seller"));
+		assertEquals(-1, dictionary.getId("unknown"));
+		assertEquals("seller", dictionary.getUsername(1));
+		
+		boolean exceptionThrown = false;
+		try {
+			dictionary.getUsername(2);
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testApply() throws Exception {
+		UsernameDictionary sender = new UsernameDictionary();
+		sender.add("buyer");
+		sender.add("seller");
+		
+		UsernameDictionary receiver = new UsernameDictionary();
+		receiver.apply(sender.getUpdate(0));
+		sender.add("anotherSeller");
+		
+		UsernameDictionaryUpdate update = sender.getUpdate(receiver.getVersion());
+		assertEquals(2, update.getFromVersion());
+		assertEquals(Arrays.asList("anotherSeller"), update.getUsernames());
+		
+		UsernameDictionaryUpdate decoded = DecoderFactory.decode(UsernameDictionaryUpdate.class, update.encode());
+		assertTrue(update.equals(decoded));
+		assertEquals(update.hashCode(), decoded.hashCode());
+		receiver.apply(decoded);
+		assertEquals(3, receiver.getVersion());
+		assertEquals(2, receiver.getId("anotherSeller"));
+		
+		// applying an update twice has no effect
+		receiver.apply(sender.getUpdate(0));
+		assertEquals(3, receiver.getVersion());
+	}
+	
+	@Test
+	public void testApply_IllegalArgumentException() throws Exception {
+		UsernameDictionary dictionary = new UsernameDictionary();
+		dictionary.add("buyer");
+		
+		boolean exceptionThrown = false;
+		try {
+			dictionary.apply(new UsernameDictionaryUpdate(2, Arrays.asList("seller")));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+		
+		exceptionThrown = false;
+		try {
+			dictionary.apply(new UsernameDictionaryUpdate(0, Arrays.asList("seller")));
+		} catch (IllegalArgumentException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+
+}
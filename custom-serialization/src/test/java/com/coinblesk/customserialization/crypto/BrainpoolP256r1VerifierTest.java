@@ -0,0 +1,129 @@
+package com.coinblesk.customserialization.crypto;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.testutils.TestUtils;
+
+public class BrainpoolP256r1VerifierTest {
+	
+	// test vectors created with OpenSSL
+	private static final String PUBLIC_KEY_X = "96b16a06c34af6459ef618b6e7443f9d90798b56c5d6af5ad7752116b72d2d12";
+	private static final String PUBLIC_KEY_Y = "126fbede497632c4c576fd99e39c268c277368beba239a3b65c865ba02188a26";
+	
+	private static final String[] MESSAGES = { "", "abc", "custom serialization" };
+	private static final String[] SIGNATURES = {
+		"304402204daabda526a183e25542b306a9d2cddfed0dd385ffe6b3b898b107268013c2140220332e4d0224407f79350c6dc4becdee8df258aba4580873bc435eca125eddd400",
+		"304402200a3c61917f1875ee7007c8766441b9138f64f3a8b60795be54ce69b67bb7c48502206331247f838dff61cfd3c7dc3b6181d1144a82dea15298144a85730f1b729d91",
+		"304402207b8bdaaf800170fdcbe093d606fb2c7bff75adf191d2d18509d576f952cfc1cf0220794401572e38dea32fd17238107681a1978040a2d5fbd1065db7bb3003bac382"
+	};
+	
+	@Test
+	public void testVerify() throws Exception {
+		PublicKey publicKey = TestUtils.getBrainpoolP256r1PublicKey(PUBLIC_KEY_X, PUBLIC_KEY_Y);
+		assertTrue(BrainpoolP256r1Verifier.isSupported(publicKey));
+		
+		for (int i=0; i<MESSAGES.length; i++) {
+			byte[] message = MESSAGES[i].getBytes(Charset.forName("UTF-8"));
+			byte[] signature = TestUtils.fromHex(SIGNATURES[i]);
+			assertTrue(BrainpoolP256r1Verifier.verify(publicKey, message, signature));
+			
+			// the same message must not verify with another signature
+			byte[] otherSignature = TestUtils.fromHex(SIGNATURES[(i+1) % SIGNATURES.length]);
+			assertFalse(BrainpoolP256r1Verifier.verify(publicKey, message, otherSignature));
+		}
+	}
+	
+	@Test
+	public void testVerify_tamperedMessage() throws Exception {
+		PublicKey publicKey = TestUtils.getBrainpoolP256r1PublicKey(PUBLIC_KEY_X, PUBLIC_KEY_Y);
+		byte[] message = "custom serialisation".getBytes(Charset.forName("UTF-8"));
+		assertFalse(BrainpoolP256r1Verifier.verify(publicKey, message, TestUtils.fromHex(SIGNATURES[2])));
+	}
+	
+	@Test
+	public void testVerify_invalidEncoding() throws Exception {
+		PublicKey publicKey = TestUtils.getBrainpoolP256r1PublicKey(PUBLIC_KEY_X, PUBLIC_KEY_Y);
+		byte[] signature = TestUtils.fromHex(SIGNATURES[0]);
+		byte[] truncated = new byte[signature.length-1];
+		System.arraycopy(signature, 0, truncated, 0, truncated.length);
+		
+		boolean exceptionThrown = false;
+		try {
+			BrainpoolP256r1Verifier.verify(publicKey, new byte[0], truncated);
+		} catch (SignatureException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testVerify_nonDistinguishedEncoding() throws Exception {
+		PublicKey publicKey = TestUtils.getBrainpoolP256r1PublicKey(PUBLIC_KEY_X, PUBLIC_KEY_Y);
+		String r = SIGNATURES[0].substring(8, 8+64);
+		String s = SIGNATURES[0].substring(8+64+4);
+		assertTrue(BrainpoolP256r1Verifier.verify(publicKey, new byte[0], TestUtils.fromHex("3044" + "0220"+r + "0220"+s)));
+		
+		String[] invalid = {
+			// the sequence length in the long form
+			"308144" + "0220"+r + "0220"+s,
+			// a superfluous leading zero byte in r
+			"3045" + "022100"+r + "0220"+s,
+			// a superfluous leading zero byte in s
+			"3045" + "0220"+r + "022100"+s,
+			// a negative r
+			"3044" + "0220"+"cd"+r.substring(2) + "0220"+s,
+			// an integer length in the long form
+			"3045" + "028120"+r + "0220"+s,
+			// a trailing byte within the sequence
+			"3045" + "0220"+r + "0220"+s + "00",
+			// a trailing byte after the sequence
+			"3044" + "0220"+r + "0220"+s + "00"
+		};
+		for (String signature : invalid) {
+			boolean exceptionThrown = false;
+			try {
+				BrainpoolP256r1Verifier.verify(publicKey, new byte[0], TestUtils.fromHex(signature));
+			} catch (SignatureException e) {
+				exceptionThrown = true;
+			}
+			assertTrue(signature, exceptionThrown);
+		}
+	}
+	
+	@Test
+	public void testVerify_unsupportedKey() throws Exception {
+		PublicKey publicKey = TestUtils.generateKeyPair().getPublic();
+		assertFalse(BrainpoolP256r1Verifier.isSupported(publicKey));
+		
+		boolean exceptionThrown = false;
+		try {
+			BrainpoolP256r1Verifier.verify(publicKey, new byte[0], TestUtils.fromHex(SIGNATURES[0]));
+		} catch (InvalidKeyException e) {
+			exceptionThrown = true;
+		}
+		assertTrue(exceptionThrown);
+	}
+	
+	@Test
+	public void testWnaf() {
+		BigInteger k = new BigInteger("A9FB57DBA1EEA9BC3E660A909D838D718C397AA3B561A6F7901E0E82974856A6", 16);
+		for (int w=2; w<=8; w++) {
+			int[] naf = Wnaf.compute(k, w);
+			BigInteger sum = BigInteger.ZERO;
+			for (int i=naf.length-1; i>=0; i--) {
+				sum = sum.shiftLeft(1).add(BigInteger.valueOf(naf[i]));
+			}
+			assertTrue(k.equals(sum));
+		}
+	}
+
+}
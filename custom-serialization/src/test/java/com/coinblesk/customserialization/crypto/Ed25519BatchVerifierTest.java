@@ -0,0 +1,135 @@
+package com.coinblesk.customserialization.crypto;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPublicKeySpec;
+import java.security.spec.NamedParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class Ed25519BatchVerifierTest {
+	
+	private static final SecureRandom RANDOM = new SecureRandom();
+	
+	private List<PublicKey> publicKeys = new ArrayList<PublicKey>();
+	private List<byte[]> messages = new ArrayList<byte[]>();
+	private List<byte[]> signatures = new ArrayList<byte[]>();
+	
+	private void createBatch(int size) throws Exception {
+		KeyPairGenerator kpg = KeyPairGenerator.getInstance("Ed25519");
+		KeyPair[] keyPairs = { kpg.generateKeyPair(), kpg.generateKeyPair(), kpg.generateKeyPair() };
+		for (int i=0; i<size; i++) {
+			KeyPair keyPair = keyPairs[i % keyPairs.length];
+			byte[] message = new byte[i];
+			RANDOM.nextBytes(message);
+			
+			Signature sig = Signature.getInstance("Ed25519");
+			sig.initSign(keyPair.getPrivate());
+			sig.update(message);
+			
+			publicKeys.add(keyPair.getPublic());
+			messages.add(message);
+			signatures.add(sig.sign());
+		}
+	}
+	
+	@Test
+	public void testVerify() throws Exception {
+		createBatch(20);
+		assertTrue(Ed25519BatchVerifier.verify(publicKeys, messages, signatures, RANDOM));
+		assertTrue(Ed25519BatchVerifier.verify(publicKeys.subList(0, 1), messages.subList(0, 1), signatures.subList(0, 1), RANDOM));
+	}
+	
+	@Test
+	public void testVerify_tamperedMessage() throws Exception {
+		createBatch(20);
+		messages.get(13)[0] ^= 0x01;
+		assertFalse(Ed25519BatchVerifier.verify(publicKeys, messages, signatures, RANDOM));
+	}
+	
+	@Test
+	public void testVerify_wrongPublicKey() throws Exception {
+		createBatch(20);
+		publicKeys.set(4, publicKeys.get(5));
+		assertFalse(Ed25519BatchVerifier.verify(publicKeys, messages, signatures, RANDOM));
+	}
+	
+	@Test
+	public void testVerify_nonCanonicalS() throws Exception {
+		createBatch(5);
+		// S + L is a valid solution of the equation, but must be rejected
+		byte[] signature = signatures.get(2);
+		BigInteger s = fromLittleEndian(signature, 32).add(Ed25519Curve.ORDER);
+		byte[] bigEndian = s.toByteArray();
+		for (int i=0; i<32; i++) {
+			signature[32 + i] = i < bigEndian.length ? bigEndian[bigEndian.length - 1 - i] : 0;
+		}
+		assertFalse(Ed25519BatchVerifier.verify(publicKeys, messages, signatures, RANDOM));
+	}
+	
+	@Test
+	public void testVerify_smallOrderR() throws Exception {
+		createBatch(5);
+		// R + T for the point T of order 2 (y = -1) and S = 0 with A = 0
+		byte[] signature = new byte[64];
+		signature[0] = (byte) 0xEC;
+		for (int i=1; i<31; i++) {
+			signature[i] = (byte) 0xFF;
+		}
+		signature[31] = 0x7F;
+		PublicKey identity = KeyFactory.getInstance("Ed25519").generatePublic(new EdECPublicKeySpec(NamedParameterSpec.ED25519, new EdECPoint(false, BigInteger.ONE)));
+		publicKeys.set(2, identity);
+		signatures.set(2, signature);
+		
+		// the cofactored batch equation holds, but the JDK rejects the signature
+		Signature sig = Signature.getInstance("Ed25519");
+		sig.initVerify(identity);
+		sig.update(messages.get(2));
+		assertFalse(sig.verify(signature));
+		assertFalse(Ed25519BatchVerifier.verify(publicKeys, messages, signatures, RANDOM));
+		assertFalse(Ed25519BatchVerifier.verify(publicKeys.subList(2, 3), messages.subList(2, 3), signatures.subList(2, 3), RANDOM));
+		assertTrue(Ed25519BatchVerifier.verify(publicKeys.subList(3, 5), messages.subList(3, 5), signatures.subList(3, 5), RANDOM));
+	}
+	
+	@Test
+	public void testDecode() {
+		// the base point is encoded as 0x58 followed by 0x66 bytes
+		byte[] encoded = new byte[32];
+		encoded[0] = 0x58;
+		for (int i=1; i<32; i++) {
+			encoded[i] = 0x66;
+		}
+		Ed25519Curve.ExtendedPoint b = Ed25519Curve.decode(encoded, 0);
+		assertTrue(b != null);
+		assertTrue(Ed25519Curve.FIELD.equal(b.x, Ed25519Curve.base().x));
+		
+		// y = p is not canonical
+		byte[] p = new byte[32];
+		p[0] = (byte) 0xED;
+		for (int i=1; i<31; i++) {
+			p[i] = (byte) 0xFF;
+		}
+		p[31] = 0x7F;
+		assertTrue(Ed25519Curve.decode(p, 0) == null);
+	}
+	
+	private static BigInteger fromLittleEndian(byte[] bytes, int offset) {
+		byte[] bigEndian = new byte[32];
+		for (int i=0; i<32; i++) {
+			bigEndian[i] = bytes[offset + 31 - i];
+		}
+		return new BigInteger(1, bigEndian);
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.coinblesk.customserialization.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.coinblesk.customserialization.PKIAlgorithm;
+import com.coinblesk.customserialization.testutils.TestUtils;
+
+public class NoncePoolTest {
+	
+	private static final String BRAINPOOL_PRIVATE_KEY = "a6e525313800f376feb614f661de09bd042d7675cddae8178b3885031f8ebc32";
+	private static final String BRAINPOOL_PUBLIC_KEY_X = "4764c1a62e2f41dc4c0ed260b27cb7a694e2cd5156e31ef18e8390346a7f1483";
+	private static final String BRAINPOOL_PUBLIC_KEY_Y = "019b078d736e70bcf3c9687732e0e7ace47123c481d54f182e040dd641efb88b";
+	
+	@Test
+	public void testSign_brainpoolP256r1() throws Exception {
+		PrivateKey privateKey = TestUtils.getBrainpoolP256r1PrivateKey(BRAINPOOL_PRIVATE_KEY);
+		PublicKey publicKey = TestUtils.getBrainpoolP256r1PublicKey(BRAINPOOL_PUBLIC_KEY_X, BRAINPOOL_PUBLIC_KEY_Y);
+		
+		NoncePool noncePool = new NoncePool(privateKey, 10);
+		assertEquals(0, noncePool.size());
+		assertEquals(10, noncePool.fill());
+		assertEquals(10, noncePool.size());
+		assertEquals(0, noncePool.fill());
+		
+		byte[] data = "payment".getBytes("UTF-8");
+		Set<BigInteger> rs = new HashSet<BigInteger>();
+		for (int i=0; i<12; i++) {
+			byte[] signature = noncePool.sign(data);
+			assertTrue(BrainpoolP256r1Verifier.verify(publicKey, data, signature));
+			assertFalse(BrainpoolP256r1Verifier.verify(publicKey, "other".getBytes("UTF-8"), signature));
+			// every nonce is used only once
+			assertTrue(rs.add(SignatureEncoding.decodeDER(signature)[0]));
+		}
+		assertEquals(0, noncePool.size());
+	}
+	
+	@Test
+	public void testSign_secp256r1() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		NoncePool noncePool = new NoncePool(keyPair.getPrivate(), 4);
+		noncePool.fill();
+		
+		byte[] data = new byte[100];
+		new SecureRandom().nextBytes(data);
+		for (int i=0; i<6; i++) {
+			Signature sig = Signature.getInstance(PKIAlgorithm.DEFAULT.getSignatureAlgorithm());
+			sig.initVerify(keyPair.getPublic());
+			sig.update(data);
+			assertTrue(sig.verify(noncePool.sign(data)));
+		}
+	}
+	
+	@Test
+	public void testBackgroundRefill() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			NoncePool noncePool = new NoncePool(keyPair.getPrivate(), 8, new SecureRandom(), executor);
+			noncePool.fill();
+			for (int i=0; i<5; i++) {
+				noncePool.sign(new byte[] { (byte) i });
+			}
+		} finally {
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	@Test
+	public void testClear() throws Exception {
+		KeyPair keyPair = TestUtils.generateKeyPair();
+		NoncePool noncePool = new NoncePool(keyPair.getPrivate(), 3);
+		noncePool.fill();
+		noncePool.clear();
+		assertEquals(0, noncePool.size());
+	}
+	
+	@Test(expected = InvalidKeyException.class)
+	public void testUnsupportedKey() throws Exception {
+		KeyPair keyPair = PKIAlgorithm.ED25519.generateKeyPair(new SecureRandom());
+		new NoncePool(keyPair.getPrivate(), 3);
+	}
+	
+	@Test
+	public void testMultiplyGenerator() {
+		WeierstrassCurve curve = WeierstrassCurve.BRAINPOOL_P256R1;
+		SecureRandom random = new SecureRandom();
+		for (int i=0; i<10; i++) {
+			BigInteger k = new BigInteger(256, random).setBit(0);
+			WeierstrassCurve.AffineTable g = curve.precompute(curve.getGenerator(), 4);
+			WeierstrassCurve.AffineTable zero = curve.precompute(curve.getGenerator(), 2);
+			assertEquals(curve.toAffine(curve.multiplyAdd(k, g, BigInteger.ZERO, zero)), curve.toAffine(curve.multiplyGenerator(k)));
+			
+			// randomizing the Z coordinate does not change the point
+			WeierstrassCurve.JacobianPoint point = curve.multiplyGenerator(k);
+			curve.randomize(point, random);
+			assertEquals(curve.toAffine(curve.multiplyGenerator(k)), curve.toAffine(point));
+		}
+	}
+	
+	@Test
+	public void testInvConstantTime() {
+		BigInteger n = WeierstrassCurve.SECP256R1.getOrder();
+		MontgomeryField field = new MontgomeryField(n);
+		SecureRandom random = new SecureRandom();
+		for (int i=0; i<10; i++) {
+			BigInteger x = new BigInteger(255, random).add(BigInteger.ONE);
+			int[] a = MontgomeryField.toLimbs(x);
+			field.toMontgomery(a, a);
+			field.invConstantTime(a, a);
+			assertEquals(x.modInverse(n), field.toBigInteger(a));
+		}
+	}
+
+}
@@ -1,9 +1,20 @@
 package com.coinblesk.customserialization.testutils;
 
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
 
 public class TestUtils {
 	
@@ -12,5 +23,28 @@ public class TestUtils {
 		keyGen.initialize(256, new SecureRandom());
 		return keyGen.generateKeyPair();
 	}
+	
+	public static ECParameterSpec getBrainpoolP256r1Parameters() throws GeneralSecurityException {
+		AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+		parameters.init(new ECGenParameterSpec("brainpoolP256r1"));
+		return parameters.getParameterSpec(ECParameterSpec.class);
+	}
+	
+	public static PublicKey getBrainpoolP256r1PublicKey(String x, String y) throws GeneralSecurityException {
+		ECPoint w = new ECPoint(new BigInteger(x, 16), new BigInteger(y, 16));
+		return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(w, getBrainpoolP256r1Parameters()));
+	}
+	
+	public static PrivateKey getBrainpoolP256r1PrivateKey(String s) throws GeneralSecurityException {
+		return KeyFactory.getInstance("EC").generatePrivate(new ECPrivateKeySpec(new BigInteger(s, 16), getBrainpoolP256r1Parameters()));
+	}
+	
+	public static byte[] fromHex(String hex) {
+		byte[] result = new byte[hex.length() / 2];
+		for (int i=0; i<result.length; i++) {
+			result[i] = (byte) Integer.parseInt(hex.substring(2*i, 2*i+2), 16);
+		}
+		return result;
+	}
 
 }